@@ -11,7 +11,13 @@ import com.google.common.collect.Iterators;
 import java.io.IOException;
 import java.util.Iterator;
 
-public class CursorQueryResult implements QueryResult {
+/**
+ * A QueryResult over the rows of a Cursor, as ContentValues.
+ * <p>
+ * The size is the count of the Cursor, and rows may be read by index, both without iterating the Cursor.
+ * Reading by index moves the Cursor, so should not be interleaved with iteration.
+ */
+public class CursorQueryResult implements RandomAccessQueryResult {
 
   private final Cursor mCursor;
 
@@ -29,6 +35,21 @@ public class CursorQueryResult implements QueryResult {
     mCursor.close();
   }
 
+  @Override
+  public int size() {
+    return mCursor.getCount();
+  }
+
+  @Override
+  public ContentValues get(final int index) {
+    if (!mCursor.moveToPosition(index)) {
+      throw new IndexOutOfBoundsException("index " + index + " out of range for size " + mCursor.getCount());
+    }
+    final ContentValues values = new ContentValues();
+    DatabaseUtils.cursorRowToContentValues(mCursor, values);
+    return values;
+  }
+
   @Override
   public Iterator<ContentValues> iterator() {
     Function<Entity, ContentValues> function = new Function<Entity, ContentValues>() {
@@ -0,0 +1,1142 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import ninja.ugly.prevail.event.factory.DeleteEventFactory;
+import ninja.ugly.prevail.event.factory.QueryEventFactory;
+import ninja.ugly.prevail.exception.DeleteException;
+import ninja.ugly.prevail.exception.InsertException;
+import ninja.ugly.prevail.exception.QueryException;
+import ninja.ugly.prevail.exception.UpdateException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * An extension of DefaultChunk that stores data durably and in order of key, in a B+tree in a single file,
+ * such that it may hold far more data than fits in memory.
+ * <p>
+ * The file is a sequence of fixed-size pages.  The first page is a header, and every other page is a node
+ * of the tree.  Values are held in the leaves, which are linked in order of key.  Pages are read and written
+ * with positional I/O, through a bounded cache of decoded pages that evicts by the clock algorithm.  Changed
+ * pages are written back when evicted, and on {@link #sync()} and {@link #close()}.
+ * <p>
+ * As for SortedVolatileChunk, a KeyRange is accepted as a query or delete key.  The QueryResult of a range
+ * query is lazy, reading one leaf at a time.  Whilst iterating, it pins the current leaf in the cache, and
+ * so must be closed to release it.  If the tree is changed whilst a QueryResult is open, iteration continues
+ * after the last key returned.  Any other query key is looked up as a single key, except for a Query, which
+ * is answered by scanning all values.
+ * <p>
+ * Pages are split as they fill, but are not merged as they empty, so space freed by deletes is only reused
+ * by inserts of nearby keys.  No entry may be larger than a quarter of a page.
+ * <p>
+ * Changes are durable once sync() or close() returns.  Before a page of the last synced tree is first
+ * overwritten, its synced content is copied to a journal file beside the tree file.  A file left part way
+ * through a change, for example by a crash, is rolled back from the journal to its last synced state when
+ * next opened.  The file is locked whilst open, so that only one BTreeChunk uses it at a time.  Operations
+ * are synchronized, and so this Chunk is thread-safe, although operations do not run in parallel.
+ */
+public class BTreeChunk<K, V> extends DefaultChunk<K, V> {
+  /** The default size, in bytes, of each page. */
+  public static final int DEFAULT_PAGE_SIZE = 4096;
+  /** The default number of pages held in the cache. */
+  public static final int DEFAULT_CACHE_PAGES = 4096;
+
+  private static final int MAGIC = 0x50425452;
+  // The header page is [int magic][int pageSize][int root][int pageCount][long size][byte clean].
+  private static final int HEADER_SIZE = 25;
+  private static final byte LEAF = 1;
+  private static final byte INTERNAL = 2;
+  // A leaf is [byte type][int count][int prev][int next] followed by [int keyLength][key][int valueLength][value] for each entry.
+  private static final int LEAF_HEADER_SIZE = 13;
+  // An internal node is [byte type][int count][int child] followed by [int keyLength][key][int child] for each key.
+  private static final int INTERNAL_HEADER_SIZE = 9;
+  // The header page is never a node, so serves as the absent page for leaf links.
+  private static final int NO_PAGE = 0;
+  private static final String JOURNAL_SUFFIX = "-journal";
+  // A journal record is [int crc][int page] followed by the synced content of the page.
+  private static final int JOURNAL_RECORD_HEADER_SIZE = 8;
+
+  private final Object mLock = new Object();
+  private final File mFile;
+  private final RandomAccessFile mRandomAccessFile;
+  private final FileChannel mChannel;
+  private final File mJournalFile;
+  private final RandomAccessFile mJournalRandomAccessFile;
+  private final FileChannel mJournal;
+  private final VolatileChunk.KeyFactory<K, V> mKeyFactory;
+  private final Comparator<? super K> mComparator;
+  private final Codec<K> mKeyCodec;
+  private final Codec<V> mValueCodec;
+  private final int mPageSize;
+  private final int mMaxEntrySize;
+  private final int mCachePages;
+  private final ByteBuffer mPageBuffer;
+  private final ByteBuffer mJournalBuffer;
+
+  private final List<Frame<K>> mFrames = new ArrayList<>();
+  private final Map<Integer, Frame<K>> mPageTable = Maps.newHashMap();
+  private int mHand = 0;
+
+  private int mRoot;
+  private int mPageCount;
+  private long mSize;
+  private boolean mClean;
+  private boolean mClosed = false;
+  // The pages of the last synced tree.  Pages from here on were allocated since, so need not be journaled.
+  private int mSyncedPageCount;
+  // The pages of the last synced tree already copied to the journal, and so free to be overwritten.
+  private final Set<Integer> mJournaled = Sets.newHashSet();
+  private long mJournalLength;
+  // Incremented on every change to the tree, so that open cursors know to find their place again.
+  private int mModCount = 0;
+  // The cursors of QueryResults that are neither finished nor closed.
+  private int mOpenCursorCount = 0;
+
+  /**
+   * Constructs a BTreeChunk in the given file, ordering keys naturally, with pages and a cache of the
+   * default sizes.  Any data already in the file is kept.
+   *
+   * @param file The file holding the tree.  Created if it does not exist.
+   * @param keyFactory A KeyFactory used to create keys to insert objects under.
+   * @param keyCodec The Codec used to convert keys to and from bytes.
+   * @param valueCodec The Codec used to convert values to and from bytes.
+   * @throws IOException if the file cannot be opened, is already open, or cannot be rolled back to its last sync.
+   */
+  @SuppressWarnings("unchecked")
+  public BTreeChunk(final File file, final VolatileChunk.KeyFactory<K, V> keyFactory, final Codec<K> keyCodec, final Codec<V> valueCodec) throws IOException {
+    this(file, keyFactory, (Comparator<? super K>) Ordering.natural(), keyCodec, valueCodec, DEFAULT_PAGE_SIZE, DEFAULT_CACHE_PAGES);
+  }
+
+  /**
+   * Constructs a BTreeChunk in the given file.  Any data already in the file is kept.
+   *
+   * @param file The file holding the tree.  Created if it does not exist.
+   * @param keyFactory A KeyFactory used to create keys to insert objects under.
+   * @param comparator The Comparator by which to order keys.  Must be the same each time the file is opened.
+   * @param keyCodec The Codec used to convert keys to and from bytes.
+   * @param valueCodec The Codec used to convert values to and from bytes.
+   * @param pageSize The size, in bytes, of each page.  Must be the same each time the file is opened.
+   * @param cachePages The number of pages to hold in the cache.  More are held only whilst all are pinned.
+   * @throws IOException if the file cannot be opened, is already open, or cannot be rolled back to its last sync.
+   */
+  public BTreeChunk(final File file, final VolatileChunk.KeyFactory<K, V> keyFactory, final Comparator<? super K> comparator,
+                    final Codec<K> keyCodec, final Codec<V> valueCodec, final int pageSize, final int cachePages) throws IOException {
+    checkArgument(pageSize >= 128, "pageSize too small");
+    checkArgument(cachePages >= 4, "cachePages too small");
+    mFile = checkNotNull(file);
+    mKeyFactory = checkNotNull(keyFactory);
+    mComparator = checkNotNull(comparator);
+    mKeyCodec = checkNotNull(keyCodec);
+    mValueCodec = checkNotNull(valueCodec);
+    mPageSize = pageSize;
+    mMaxEntrySize = (pageSize - LEAF_HEADER_SIZE) / 4;
+    mCachePages = cachePages;
+    mPageBuffer = ByteBuffer.allocate(pageSize);
+    mJournalBuffer = ByteBuffer.allocate(JOURNAL_RECORD_HEADER_SIZE + pageSize);
+
+    mRandomAccessFile = new RandomAccessFile(file, "rw");
+    mChannel = mRandomAccessFile.getChannel();
+    mJournalFile = new File(file.getPath() + JOURNAL_SUFFIX);
+    RandomAccessFile journal = null;
+    try {
+      lock();
+      final boolean journalExists = mJournalFile.exists();
+      journal = new RandomAccessFile(mJournalFile, "rw");
+      mJournalRandomAccessFile = journal;
+      mJournal = journal.getChannel();
+      mJournalLength = mJournal.size();
+      if (mChannel.size() == 0) {
+        create();
+      } else {
+        readHeader(journalExists);
+      }
+    } catch (IOException e) {
+      if (journal != null) {
+        journal.close();
+      }
+      mRandomAccessFile.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Queries the values with keys in the given KeyRange, in order of key.
+   * <p>
+   * Events are dispatched as for query, with the KeyRange as the key.
+   */
+  @SuppressWarnings("unchecked")
+  public QueryResult<V> queryRange(final KeyRange<K> range, final QueryEventFactory<K, V>... customEventFactories) throws QueryException {
+    // The KeyRange is passed through as a key, as a DataModel would pass it, and recognised by doQuery.
+    return query((K) range, customEventFactories);
+  }
+
+  /**
+   * Deletes the values with keys in the given KeyRange, returning the number deleted.
+   * <p>
+   * Events are dispatched as for delete, with the KeyRange as the key.
+   */
+  @SuppressWarnings("unchecked")
+  public int deleteRange(final KeyRange<K> range, final DeleteEventFactory<K>... customEventFactories) throws DeleteException {
+    return delete((K) range, customEventFactories);
+  }
+
+  @Override
+  protected K doInsert(final V value, final OnProgressUpdateListener onProgressUpdateListener) throws InsertException {
+    final K key = mKeyFactory.createKey(value);
+    try {
+      synchronized (mLock) {
+        put(key, value, false);
+      }
+    } catch (IOException e) {
+      throw new InsertException("Cannot write to B+tree", e);
+    }
+    return key;
+  }
+
+  /**
+   * Query the given key, or the given range of keys if the key is a KeyRange.
+   * @return The results, lazily read in order of key for a KeyRange.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  protected QueryResult<V> doQuery(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    if (key instanceof KeyRange) {
+      return new RangeQueryResult((KeyRange<K>) key);
+    }
+    try {
+      synchronized (mLock) {
+        final List<Frame<K>> path = descend(key);
+        try {
+          final Node<K> leaf = path.get(path.size() - 1).mNode;
+          final int index = Collections.binarySearch(leaf.mKeys, key, mComparator);
+          if (index < 0) {
+            return new QueryResult.EmptyQueryResult<>();
+          }
+          return new QueryResult.SingletonQueryResult<>(decodeValue(leaf.mValues.get(index)));
+        } finally {
+          unpin(path);
+        }
+      }
+    } catch (IOException e) {
+      throw new QueryException("Cannot read B+tree", e);
+    }
+  }
+
+  /**
+   * Query the values meeting the given Query by scanning all values, lazily.  No Criteria are pushed down,
+   * so DefaultChunk filters the values as they are read.
+   */
+  @Override
+  protected QueryResult<V> doQueryWhere(final Query<V> query, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    return new RangeQueryResult(KeyRange.<K>all());
+  }
+
+  @Override
+  protected int doUpdate(final K key, final V value, final OnProgressUpdateListener progressUpdateListener) throws UpdateException {
+    try {
+      synchronized (mLock) {
+        return put(key, value, true) ? 1 : 0;
+      }
+    } catch (IOException e) {
+      throw new UpdateException("Cannot write to B+tree", e);
+    }
+  }
+
+  /**
+   * Delete the given key, or the given range of keys if the key is a KeyRange.
+   * @return The number of values deleted.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  protected int doDelete(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws DeleteException {
+    try {
+      synchronized (mLock) {
+        if (key instanceof KeyRange) {
+          final KeyRange<K> range = (KeyRange<K>) key;
+          final List<K> keys = Lists.newArrayList();
+          final Cursor cursor = new Cursor(range);
+          try {
+            while (keys.size() < range.getLimit() && cursor.advance()) {
+              keys.add(cursor.mKey);
+            }
+          } finally {
+            cursor.release();
+          }
+          for (K k : keys) {
+            remove(k);
+          }
+          return keys.size();
+        }
+        return remove(key) ? 1 : 0;
+      }
+    } catch (IOException e) {
+      throw new DeleteException("Cannot write to B+tree", e);
+    }
+  }
+
+  /**
+   * Returns the number of values in this Chunk.
+   */
+  public long size() {
+    synchronized (mLock) {
+      return mSize;
+    }
+  }
+
+  /**
+   * Returns the number of pages currently pinned in the cache, by operations or open QueryResults.
+   */
+  @VisibleForTesting
+  int getPinnedPageCount() {
+    synchronized (mLock) {
+      int pinned = 0;
+      for (Frame<K> frame : mFrames) {
+        if (frame.mPins > 0) {
+          pinned++;
+        }
+      }
+      return pinned;
+    }
+  }
+
+  /**
+   * Returns the number of cursors held by QueryResults, for iterations neither finished nor closed.
+   */
+  @VisibleForTesting
+  int getOpenCursorCount() {
+    synchronized (mLock) {
+      return mOpenCursorCount;
+    }
+  }
+
+  /**
+   * Writes all changed pages, and forces them to the storage device.
+   */
+  public void sync() throws IOException {
+    synchronized (mLock) {
+      checkState(!mClosed, "Chunk is closed");
+      if (mClean) {
+        return;
+      }
+      // Every synced page about to be overwritten is journaled first, and the journal forced just once.
+      boolean journaled = false;
+      for (Frame<K> frame : mFrames) {
+        if (frame.mDirty && frame.mPage < mSyncedPageCount && mJournaled.add(frame.mPage)) {
+          journal(frame.mPage);
+          journaled = true;
+        }
+      }
+      if (journaled) {
+        mJournal.force(false);
+      }
+      for (Frame<K> frame : mFrames) {
+        if (frame.mDirty) {
+          writeNode(frame);
+        }
+      }
+      mChannel.force(false);
+      // The header is only marked clean once every page it refers to is durable.
+      mClean = true;
+      writeHeader();
+      mChannel.force(true);
+      resetJournal();
+    }
+  }
+
+  /**
+   * Syncs and closes the file.  Open QueryResults can no longer be iterated.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (mLock) {
+      if (mClosed) {
+        return;
+      }
+      try {
+        sync();
+      } finally {
+        mClosed = true;
+        mFrames.clear();
+        mPageTable.clear();
+        try {
+          mJournalRandomAccessFile.close();
+          // Deleted whilst the file is still locked.  Kept if the sync failed, so that the file can be rolled back.
+          if (mClean) {
+            mJournalFile.delete();
+          }
+        } finally {
+          mRandomAccessFile.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Closes the file without syncing, leaving the file and journal as a crash would.
+   */
+  @VisibleForTesting
+  void closeWithoutSync() throws IOException {
+    synchronized (mLock) {
+      mClosed = true;
+      mFrames.clear();
+      mPageTable.clear();
+      mJournalRandomAccessFile.close();
+      mRandomAccessFile.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BTreeChunk{file=" + mFile + "}";
+  }
+
+  private void create() throws IOException {
+    mRoot = 1;
+    mPageCount = 2;
+    mSize = 0;
+    final Node<K> root = new Node<>(true);
+    root.mBytes = LEAF_HEADER_SIZE;
+    final Frame<K> frame = newFrame();
+    frame.mPage = mRoot;
+    frame.mNode = root;
+    writeNode(frame);
+    mPageTable.put(mRoot, frame);
+    mClean = true;
+    writeHeader();
+    mChannel.force(true);
+    resetJournal();
+  }
+
+  private void lock() throws IOException {
+    final FileLock lock;
+    try {
+      lock = mChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      throw new IOException("File is already open: " + mFile, e);
+    }
+    if (lock == null) {
+      throw new IOException("File is open in another process: " + mFile);
+    }
+  }
+
+  private void readHeader(final boolean journalExists) throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    readFully(mChannel, header, 0);
+    header.flip();
+    if (header.getInt() != MAGIC) {
+      throw new IOException("Not a B+tree file: " + mFile);
+    }
+    if (header.getInt() != mPageSize) {
+      throw new IOException("Page size of " + mFile + " is not " + mPageSize);
+    }
+    mRoot = header.getInt();
+    mPageCount = header.getInt();
+    mSize = header.getLong();
+    mClean = header.get() == 1;
+    if (!mClean) {
+      if (!journalExists) {
+        throw new IOException("File was not closed cleanly, and has no journal to roll back from: " + mFile);
+      }
+      rollBack();
+    }
+    // Any journal left beside a clean file is from after its last sync, and so is stale.
+    resetJournal();
+  }
+
+  /**
+   * Restores the synced content of each page in the journal, and discards the pages allocated since, such
+   * that the file is as it was at the last sync.  The header itself is only marked unclean by a change, so
+   * still describes the last synced tree.
+   */
+  private void rollBack() throws IOException {
+    final int recordSize = JOURNAL_RECORD_HEADER_SIZE + mPageSize;
+    for (long position = 0; position + recordSize <= mJournalLength; position += recordSize) {
+      mJournalBuffer.clear();
+      readFully(mJournal, mJournalBuffer, position);
+      if (mJournalBuffer.getInt(0) != checksum(mJournalBuffer)) {
+        // Torn by the crash.  The journal is forced before any page is overwritten, so its page was not.
+        break;
+      }
+      mJournalBuffer.position(JOURNAL_RECORD_HEADER_SIZE);
+      writeFully(mChannel, mJournalBuffer, (long) mJournalBuffer.getInt(4) * mPageSize);
+    }
+    mChannel.truncate((long) mPageCount * mPageSize);
+    mChannel.force(false);
+    mClean = true;
+    writeHeader();
+    mChannel.force(true);
+  }
+
+  /**
+   * Copies the synced content of the given page to the end of the journal.  The journal must be forced
+   * before the page is overwritten.
+   */
+  private void journal(final int page) throws IOException {
+    mJournalBuffer.clear();
+    mJournalBuffer.position(JOURNAL_RECORD_HEADER_SIZE);
+    readFully(mChannel, mJournalBuffer, (long) page * mPageSize);
+    mJournalBuffer.putInt(4, page);
+    mJournalBuffer.putInt(0, checksum(mJournalBuffer));
+    mJournalBuffer.flip();
+    writeFully(mJournal, mJournalBuffer, mJournalLength);
+    mJournalLength += mJournalBuffer.limit();
+  }
+
+  /**
+   * Empties the journal once the file is clean, such that the current tree is the one synced.  The journal
+   * is forced empty, so that its records are never applied to the tree of a later sync.
+   */
+  private void resetJournal() throws IOException {
+    mSyncedPageCount = mPageCount;
+    mJournaled.clear();
+    if (mJournalLength > 0) {
+      mJournal.truncate(0);
+      mJournal.force(true);
+      mJournalLength = 0;
+    }
+  }
+
+  /**
+   * Returns the checksum of the page number and content of the journal record in the given buffer.
+   */
+  private static int checksum(final ByteBuffer record) {
+    final CRC32 crc = new CRC32();
+    crc.update(record.array(), 4, record.capacity() - 4);
+    return (int) crc.getValue();
+  }
+
+  private void writeHeader() throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(mPageSize).putInt(mRoot).putInt(mPageCount).putLong(mSize).put((byte) (mClean ? 1 : 0));
+    header.flip();
+    writeFully(mChannel, header, 0);
+  }
+
+  /**
+   * Marks the file as not cleanly synced, durably, before the first change since the last sync.
+   */
+  private void beginChange() throws IOException {
+    checkState(!mClosed, "Chunk is closed");
+    mModCount++;
+    if (mClean) {
+      mClean = false;
+      writeHeader();
+      mChannel.force(false);
+    }
+  }
+
+  /**
+   * Puts the given value at the given key, splitting nodes as needed.
+   *
+   * @param onlyIfPresent true to only replace an existing value.
+   * @return true if there was an existing value at the key.
+   */
+  private boolean put(final K key, final V value, final boolean onlyIfPresent) throws IOException {
+    checkState(!mClosed, "Chunk is closed");
+    final byte[] keyBytes = mKeyCodec.encode(key);
+    final byte[] valueBytes = mValueCodec.encode(checkNotNull(value));
+    if (8 + keyBytes.length + valueBytes.length > mMaxEntrySize) {
+      throw new IOException("Entry of " + (8 + keyBytes.length + valueBytes.length) + " bytes is larger than the maximum of " + mMaxEntrySize);
+    }
+
+    final List<Frame<K>> path = descend(key);
+    try {
+      final Frame<K> frame = path.get(path.size() - 1);
+      final Node<K> leaf = frame.mNode;
+      final int index = Collections.binarySearch(leaf.mKeys, key, mComparator);
+      if (index < 0 && onlyIfPresent) {
+        return false;
+      }
+      beginChange();
+      frame.mDirty = true;
+      if (index >= 0) {
+        leaf.mBytes += valueBytes.length - leaf.mValues.get(index).length;
+        leaf.mValues.set(index, valueBytes);
+      } else {
+        final int insertion = -(index + 1);
+        leaf.mKeys.add(insertion, key);
+        leaf.mKeyBytes.add(insertion, keyBytes);
+        leaf.mValues.add(insertion, valueBytes);
+        leaf.mBytes += 8 + keyBytes.length + valueBytes.length;
+        mSize++;
+      }
+      if (leaf.mBytes > mPageSize) {
+        split(path);
+      }
+      return index >= 0;
+    } finally {
+      unpin(path);
+    }
+  }
+
+  private boolean remove(final K key) throws IOException {
+    checkState(!mClosed, "Chunk is closed");
+    final List<Frame<K>> path = descend(key);
+    try {
+      final Frame<K> frame = path.get(path.size() - 1);
+      final Node<K> leaf = frame.mNode;
+      final int index = Collections.binarySearch(leaf.mKeys, key, mComparator);
+      if (index < 0) {
+        return false;
+      }
+      beginChange();
+      frame.mDirty = true;
+      leaf.mBytes -= 8 + leaf.mKeyBytes.get(index).length + leaf.mValues.get(index).length;
+      leaf.mKeys.remove(index);
+      leaf.mKeyBytes.remove(index);
+      leaf.mValues.remove(index);
+      mSize--;
+      return true;
+    } finally {
+      unpin(path);
+    }
+  }
+
+  /**
+   * Splits the last node of the given path, and then each ancestor that overflows in turn as separator keys
+   * are added to it, adding a new root if the root splits.  All nodes of the path are pinned.
+   */
+  private void split(final List<Frame<K>> path) throws IOException {
+    for (int level = path.size() - 1; level >= 0 && path.get(level).mNode.mBytes > mPageSize; level--) {
+      final Frame<K> frame = path.get(level);
+      final Node<K> node = frame.mNode;
+      final Node<K> right = new Node<>(node.mLeaf);
+      final K separator;
+      final byte[] separatorBytes;
+      final int mid = splitIndex(node);
+      final Frame<K> rightFrame;
+      if (node.mLeaf) {
+        move(node.mKeys, right.mKeys, mid);
+        move(node.mKeyBytes, right.mKeyBytes, mid);
+        move(node.mValues, right.mValues, mid);
+        separator = right.mKeys.get(0);
+        separatorBytes = right.mKeyBytes.get(0);
+        rightFrame = allocate(right);
+        right.mPrev = frame.mPage;
+        right.mNext = node.mNext;
+        if (node.mNext != NO_PAGE) {
+          final Frame<K> next = pin(node.mNext);
+          next.mNode.mPrev = rightFrame.mPage;
+          next.mDirty = true;
+          unpin(next);
+        }
+        node.mNext = rightFrame.mPage;
+      } else {
+        separator = node.mKeys.get(mid);
+        separatorBytes = node.mKeyBytes.get(mid);
+        move(node.mKeys, right.mKeys, mid + 1);
+        move(node.mKeyBytes, right.mKeyBytes, mid + 1);
+        move(node.mChildren, right.mChildren, mid + 1);
+        node.mKeys.remove(mid);
+        node.mKeyBytes.remove(mid);
+        rightFrame = allocate(right);
+      }
+      node.mBytes = computeBytes(node);
+      right.mBytes = computeBytes(right);
+      frame.mDirty = true;
+
+      try {
+        if (level == 0) {
+          final Node<K> root = new Node<>(false);
+          root.mChildren.add(frame.mPage);
+          root.mChildren.add(rightFrame.mPage);
+          root.mKeys.add(separator);
+          root.mKeyBytes.add(separatorBytes);
+          root.mBytes = computeBytes(root);
+          final Frame<K> rootFrame = allocate(root);
+          mRoot = rootFrame.mPage;
+          unpin(rootFrame);
+        } else {
+          final Frame<K> parentFrame = path.get(level - 1);
+          final Node<K> parent = parentFrame.mNode;
+          final int position = parent.mChildren.indexOf(frame.mPage);
+          parent.mKeys.add(position, separator);
+          parent.mKeyBytes.add(position, separatorBytes);
+          parent.mChildren.add(position + 1, rightFrame.mPage);
+          parent.mBytes += 8 + separatorBytes.length;
+          parentFrame.mDirty = true;
+        }
+      } finally {
+        unpin(rightFrame);
+      }
+    }
+  }
+
+  /**
+   * Returns the index at which to split the given node, such that each half holds about half of its bytes.
+   * For an internal node, the key at the index moves up to the parent.
+   */
+  private static <K> int splitIndex(final Node<K> node) {
+    final int count = node.mKeys.size();
+    final int half = (node.mBytes - (node.mLeaf ? LEAF_HEADER_SIZE : INTERNAL_HEADER_SIZE)) / 2;
+    int bytes = 0;
+    int index = 0;
+    while (index < count && bytes < half) {
+      bytes += 8 + node.mKeyBytes.get(index).length + (node.mLeaf ? node.mValues.get(index).length : 0);
+      index++;
+    }
+    return node.mLeaf ? Math.max(1, Math.min(index, count - 1)) : Math.max(1, Math.min(index, count - 2));
+  }
+
+  private static <T> void move(final List<T> from, final List<T> to, final int fromIndex) {
+    final List<T> tail = from.subList(fromIndex, from.size());
+    to.addAll(tail);
+    tail.clear();
+  }
+
+  private static <K> int computeBytes(final Node<K> node) {
+    int bytes = node.mLeaf ? LEAF_HEADER_SIZE : INTERNAL_HEADER_SIZE;
+    for (int i = 0; i < node.mKeys.size(); i++) {
+      bytes += 8 + node.mKeyBytes.get(i).length + (node.mLeaf ? node.mValues.get(i).length : 0);
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the pinned nodes from the root to the leaf that would hold the given key.  If the key is null,
+   * the path leads to the first leaf if first is true, or else the last leaf.
+   */
+  private List<Frame<K>> descend(final K key, final boolean first) throws IOException {
+    final List<Frame<K>> path = new ArrayList<>();
+    try {
+      int page = mRoot;
+      for (;;) {
+        final Frame<K> frame = pin(page);
+        path.add(frame);
+        final Node<K> node = frame.mNode;
+        if (node.mLeaf) {
+          return path;
+        }
+        final int child;
+        if (key == null) {
+          child = first ? 0 : node.mChildren.size() - 1;
+        } else {
+          final int index = Collections.binarySearch(node.mKeys, key, mComparator);
+          // Keys equal to a separator are in the child to its right.
+          child = index >= 0 ? index + 1 : -(index + 1);
+        }
+        page = node.mChildren.get(child);
+      }
+    } catch (IOException e) {
+      unpin(path);
+      throw e;
+    }
+  }
+
+  private List<Frame<K>> descend(final K key) throws IOException {
+    checkState(!mClosed, "Chunk is closed");
+    return descend(checkNotNull(key), true);
+  }
+
+  private V decodeValue(final byte[] bytes) {
+    return mValueCodec.decode(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Returns the frame holding the given page, reading the page if it is not cached, with its pin count
+   * incremented.  The frame must be unpinned once no longer used.
+   */
+  private Frame<K> pin(final int page) throws IOException {
+    Frame<K> frame = mPageTable.get(page);
+    if (frame == null) {
+      frame = newFrame();
+      frame.mNode = readNode(page);
+      frame.mPage = page;
+      mPageTable.put(page, frame);
+    }
+    frame.mPins++;
+    frame.mReferenced = true;
+    return frame;
+  }
+
+  private void unpin(final Frame<K> frame) {
+    frame.mPins--;
+  }
+
+  private void unpin(final List<Frame<K>> frames) {
+    for (Frame<K> frame : frames) {
+      unpin(frame);
+    }
+  }
+
+  /**
+   * Returns a pinned frame holding the given node in a new page at the end of the file.
+   */
+  private Frame<K> allocate(final Node<K> node) throws IOException {
+    final Frame<K> frame = newFrame();
+    frame.mNode = node;
+    frame.mPage = mPageCount++;
+    frame.mDirty = true;
+    frame.mPins = 1;
+    frame.mReferenced = true;
+    mPageTable.put(frame.mPage, frame);
+    return frame;
+  }
+
+  /**
+   * Returns an empty frame, either new whilst the cache is not full, or else by evicting the page of the
+   * first frame that the clock hand finds unpinned and not recently referenced.  If every frame is pinned,
+   * the cache grows beyond its bound.
+   */
+  private Frame<K> newFrame() throws IOException {
+    if (mFrames.size() < mCachePages) {
+      final Frame<K> frame = new Frame<>();
+      mFrames.add(frame);
+      return frame;
+    }
+    for (int i = 0; i < 2 * mFrames.size(); i++) {
+      final Frame<K> frame = mFrames.get(mHand);
+      mHand = (mHand + 1) % mFrames.size();
+      if (frame.mPins > 0) {
+        continue;
+      }
+      if (frame.mNode != null && frame.mReferenced) {
+        frame.mReferenced = false;
+        continue;
+      }
+      if (frame.mNode != null) {
+        if (frame.mDirty) {
+          writeNode(frame);
+        }
+        mPageTable.remove(frame.mPage);
+        frame.mNode = null;
+        frame.mPage = NO_PAGE;
+      }
+      return frame;
+    }
+    final Frame<K> frame = new Frame<>();
+    mFrames.add(frame);
+    return frame;
+  }
+
+  private Node<K> readNode(final int page) throws IOException {
+    mPageBuffer.clear();
+    readFully(mChannel, mPageBuffer, (long) page * mPageSize);
+    mPageBuffer.flip();
+    final byte type = mPageBuffer.get();
+    if (type != LEAF && type != INTERNAL) {
+      throw new IOException("Page " + page + " of " + mFile + " is not a node");
+    }
+    final Node<K> node = new Node<>(type == LEAF);
+    final int count = mPageBuffer.getInt();
+    if (node.mLeaf) {
+      node.mPrev = mPageBuffer.getInt();
+      node.mNext = mPageBuffer.getInt();
+    } else {
+      node.mChildren.add(mPageBuffer.getInt());
+    }
+    for (int i = 0; i < count; i++) {
+      final byte[] keyBytes = new byte[mPageBuffer.getInt()];
+      mPageBuffer.get(keyBytes);
+      node.mKeyBytes.add(keyBytes);
+      node.mKeys.add(mKeyCodec.decode(ByteBuffer.wrap(keyBytes)));
+      if (node.mLeaf) {
+        final byte[] valueBytes = new byte[mPageBuffer.getInt()];
+        mPageBuffer.get(valueBytes);
+        node.mValues.add(valueBytes);
+      } else {
+        node.mChildren.add(mPageBuffer.getInt());
+      }
+    }
+    node.mBytes = mPageBuffer.position();
+    return node;
+  }
+
+  private void writeNode(final Frame<K> frame) throws IOException {
+    if (frame.mPage < mSyncedPageCount && mJournaled.add(frame.mPage)) {
+      // Evicted before the next sync, so the synced content of the page is journaled here instead.
+      journal(frame.mPage);
+      mJournal.force(false);
+    }
+    final Node<K> node = frame.mNode;
+    mPageBuffer.clear();
+    mPageBuffer.put(node.mLeaf ? LEAF : INTERNAL);
+    mPageBuffer.putInt(node.mKeys.size());
+    if (node.mLeaf) {
+      mPageBuffer.putInt(node.mPrev);
+      mPageBuffer.putInt(node.mNext);
+    } else {
+      mPageBuffer.putInt(node.mChildren.get(0));
+    }
+    for (int i = 0; i < node.mKeys.size(); i++) {
+      final byte[] keyBytes = node.mKeyBytes.get(i);
+      mPageBuffer.putInt(keyBytes.length);
+      mPageBuffer.put(keyBytes);
+      if (node.mLeaf) {
+        final byte[] valueBytes = node.mValues.get(i);
+        mPageBuffer.putInt(valueBytes.length);
+        mPageBuffer.put(valueBytes);
+      } else {
+        mPageBuffer.putInt(node.mChildren.get(i + 1));
+      }
+    }
+    // Pages are written whole, so that the file grows a page at a time.
+    mPageBuffer.position(mPageSize);
+    mPageBuffer.flip();
+    writeFully(mChannel, mPageBuffer, (long) frame.mPage * mPageSize);
+    frame.mDirty = false;
+  }
+
+  private void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+    long offset = position;
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, offset);
+      if (read < 0) {
+        throw new EOFException("Unexpected end of " + mFile + " at " + offset);
+      }
+      offset += read;
+    }
+  }
+
+  private void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+    long offset = position;
+    while (buffer.hasRemaining()) {
+      offset += channel.write(buffer, offset);
+    }
+  }
+
+  /**
+   * A position in the leaves of the tree, moving through the keys of a KeyRange one at a time.  The current
+   * leaf is kept pinned until the cursor moves off it, or is released.  Used whilst holding mLock.
+   */
+  private class Cursor {
+    private final KeyRange<K> mRange;
+    private Frame<K> mFrame;
+    private int mIndex;
+    private int mExpectedModCount;
+    private boolean mStarted = false;
+    private boolean mFinished = false;
+    private K mKey;
+    private byte[] mValue;
+
+    Cursor(final KeyRange<K> range) {
+      mRange = range;
+    }
+
+    /**
+     * Moves to the next key of the range, returning false if there are none left.
+     */
+    boolean advance() throws IOException {
+      if (mFinished) {
+        return false;
+      }
+      checkState(!mClosed, "Chunk is closed");
+      if (!mStarted) {
+        mStarted = true;
+        if (mRange.isDescending()) {
+          seek(mRange.getUpper(), mRange.isUpperInclusive());
+        } else {
+          seek(mRange.getLower(), mRange.isLowerInclusive());
+        }
+      } else if (mExpectedModCount != mModCount) {
+        // The leaf may have been split or changed, so find the place after the last key again.
+        release();
+        seek(mKey, false);
+      }
+
+      for (;;) {
+        final Node<K> node = mFrame.mNode;
+        if (mIndex < 0 || mIndex >= node.mKeys.size()) {
+          final int page = mRange.isDescending() ? node.mPrev : node.mNext;
+          release();
+          if (page == NO_PAGE) {
+            mFinished = true;
+            return false;
+          }
+          mFrame = pin(page);
+          mIndex = mRange.isDescending() ? mFrame.mNode.mKeys.size() - 1 : 0;
+          continue;
+        }
+        final K key = node.mKeys.get(mIndex);
+        if (isPastEnd(key)) {
+          release();
+          mFinished = true;
+          return false;
+        }
+        mKey = key;
+        mValue = node.mValues.get(mIndex);
+        mIndex += mRange.isDescending() ? -1 : 1;
+        return true;
+      }
+    }
+
+    /**
+     * Positions this cursor at the first key of the range beyond the given bound, in the direction of the
+     * range.  A null bound is the start of the range.
+     */
+    private void seek(final K bound, final boolean inclusive) throws IOException {
+      final boolean descending = mRange.isDescending();
+      final List<Frame<K>> path = descend(bound, !descending);
+      mFrame = path.remove(path.size() - 1);
+      unpin(path);
+      mExpectedModCount = mModCount;
+      final List<K> keys = mFrame.mNode.mKeys;
+      if (bound == null) {
+        mIndex = descending ? keys.size() - 1 : 0;
+        return;
+      }
+      final int index = Collections.binarySearch(keys, bound, mComparator);
+      if (index >= 0) {
+        mIndex = inclusive ? index : (descending ? index - 1 : index + 1);
+      } else {
+        mIndex = descending ? -(index + 1) - 1 : -(index + 1);
+      }
+    }
+
+    private boolean isPastEnd(final K key) {
+      if (mRange.isDescending()) {
+        if (mRange.getLower() == null) {
+          return false;
+        }
+        final int comparison = mComparator.compare(key, mRange.getLower());
+        return comparison < 0 || (comparison == 0 && !mRange.isLowerInclusive());
+      }
+      if (mRange.getUpper() == null) {
+        return false;
+      }
+      final int comparison = mComparator.compare(key, mRange.getUpper());
+      return comparison > 0 || (comparison == 0 && !mRange.isUpperInclusive());
+    }
+
+    /**
+     * Unpins the current leaf, if any.
+     */
+    void release() {
+      if (mFrame != null) {
+        if (!mClosed) {
+          unpin(mFrame);
+        }
+        mFrame = null;
+      }
+    }
+  }
+
+  /**
+   * A lazy QueryResult of the values of a KeyRange, reading one leaf at a time.  Each iterator holds a
+   * Cursor, whose leaf is released once the iterator is exhausted or this QueryResult is closed.
+   */
+  private class RangeQueryResult implements QueryResult<V> {
+    private final KeyRange<K> mRange;
+    private final List<Cursor> mCursors = new ArrayList<>();
+    private boolean mResultClosed = false;
+
+    RangeQueryResult(final KeyRange<K> range) {
+      mRange = range;
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+      final Cursor cursor = new Cursor(mRange);
+      synchronized (mLock) {
+        checkState(!mResultClosed, "QueryResult is closed");
+        mCursors.add(cursor);
+        mOpenCursorCount++;
+      }
+      return new AbstractIterator<V>() {
+        private int mCount = 0;
+
+        @Override
+        protected V computeNext() {
+          final byte[] value;
+          synchronized (mLock) {
+            checkState(!mResultClosed, "QueryResult is closed");
+            try {
+              if (mCount >= mRange.getLimit() || !cursor.advance()) {
+                finish(cursor);
+                return endOfData();
+              }
+            } catch (IOException e) {
+              finish(cursor);
+              throw new IllegalStateException("Cannot read B+tree", e);
+            }
+            mCount++;
+            value = cursor.mValue;
+          }
+          // Decoded outside of the lock, so that other operations may proceed meanwhile.
+          return decodeValue(value);
+        }
+      };
+    }
+
+    @Override
+    public void close() throws IOException {
+      synchronized (mLock) {
+        mResultClosed = true;
+        for (Cursor cursor : mCursors) {
+          cursor.release();
+        }
+        mOpenCursorCount -= mCursors.size();
+        mCursors.clear();
+      }
+    }
+
+    /**
+     * Releases a cursor whose iteration has ended, and forgets it.  Called whilst holding mLock.
+     */
+    private void finish(final Cursor cursor) {
+      cursor.release();
+      if (mCursors.remove(cursor)) {
+        mOpenCursorCount--;
+      }
+    }
+
+    @Override
+    public boolean isClosed() {
+      synchronized (mLock) {
+        return mResultClosed;
+      }
+    }
+  }
+
+  private static class Node<K> {
+    private final boolean mLeaf;
+    private final List<K> mKeys = new ArrayList<>();
+    private final List<byte[]> mKeyBytes = new ArrayList<>();
+    // The values of a leaf, still encoded, such that only the values returned are decoded.
+    private final List<byte[]> mValues;
+    // The children of an internal node, one more than its keys.
+    private final List<Integer> mChildren;
+    private int mPrev = NO_PAGE;
+    private int mNext = NO_PAGE;
+    // The encoded size of this node.
+    private int mBytes;
+
+    private Node(final boolean leaf) {
+      mLeaf = leaf;
+      mValues = leaf ? new ArrayList<byte[]>() : null;
+      mChildren = leaf ? null : new ArrayList<Integer>();
+    }
+  }
+
+  private static class Frame<K> {
+    private int mPage = NO_PAGE;
+    private Node<K> mNode;
+    private boolean mDirty = false;
+    private boolean mReferenced = false;
+    private int mPins = 0;
+  }
+}
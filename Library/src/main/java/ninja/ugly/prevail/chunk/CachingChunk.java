@@ -0,0 +1,376 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.base.Predicate;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import ninja.ugly.prevail.exception.DeleteException;
+import ninja.ugly.prevail.exception.InsertException;
+import ninja.ugly.prevail.exception.QueryException;
+import ninja.ugly.prevail.exception.UpdateException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A Chunk that caches the query results of another, slower, Chunk.
+ * <p>
+ * A query of a key that is not cached is passed to the wrapped Chunk.  The values of its QueryResult are
+ * recorded as they are iterated, and are cached once the QueryResult has been iterated to the end.  Closing
+ * the QueryResult closes the QueryResult of the wrapped Chunk, as before.  A query of a cached key is
+ * answered from memory, without the wrapped Chunk.
+ * <p>
+ * The cache holds at most a given number of keys, evicting those used least recently.  A key is
+ * invalidated when it is inserted, updated or deleted through this Chunk.  Keys that address many values,
+ * such as a key for 'all values', cannot be invalidated in this way, and so must be excluded from caching
+ * with the Predicate given on construction, or the whole cache invalidated with {@link #invalidateAll()}.
+ * <p>
+ * Optionally, updates may be written behind.  An update of a key that is present is then held in memory,
+ * and later written to the wrapped Chunk on a given Executor.  Repeated updates of a key before then are
+ * coalesced into one.  Written-behind updates are assumed to succeed, and so each returns 1 immediately.
+ * An update of a key that is not present, in the cache or the wrapped Chunk, returns 0 and is discarded.
+ * An update that fails is retried on the next flush.  Pending updates are flushed on {@link #flush()} and
+ * {@link #close()}.
+ * <p>
+ * Operations on the wrapped Chunk are serialized by this Chunk, so the wrapped Chunk need not be thread-safe.
+ */
+public class CachingChunk<K, V> extends DefaultChunk<K, V> {
+
+  private final Chunk<K, V> mDelegate;
+  private final Cache<K, ImmutableList<V>> mCache;
+  private final Predicate<? super K> mCacheableKeys;
+  private final Executor mWriteBehindExecutor;
+
+  private final Object mDelegateLock = new Object();
+  private final Object mPendingLock = new Object();
+  // Guarded by mPendingLock.
+  private final Map<K, V> mPendingUpdates = Maps.newLinkedHashMap();
+  private boolean mFlushScheduled = false;
+  // Incremented on every invalidation, such that a slow query does not cache a value superseded meanwhile.
+  // Guarded by mCache, along with puts to the cache.
+  private long mInvalidations = 0;
+
+  private final Runnable mFlush = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        flush();
+      } catch (UpdateException e) {
+        // The failed updates remain pending, and are retried on the next flush.
+      }
+    }
+  };
+
+  /**
+   * Constructs a CachingChunk caching the query results of at most maximumSize keys of the given Chunk.
+   * Updates are written through.
+   *
+   * @param delegate The Chunk to cache.
+   * @param maximumSize The maximum number of keys to cache.
+   * @param cacheableKeys A Predicate deciding which keys may be cached.  Must exclude any key addressing
+   *                      more than one value.
+   */
+  public CachingChunk(final Chunk<K, V> delegate, final long maximumSize, final Predicate<? super K> cacheableKeys) {
+    this(delegate, maximumSize, cacheableKeys, null);
+  }
+
+  /**
+   * Constructs a CachingChunk caching the query results of at most maximumSize keys of the given Chunk.
+   *
+   * @param delegate The Chunk to cache.
+   * @param maximumSize The maximum number of keys to cache.
+   * @param cacheableKeys A Predicate deciding which keys may be cached.  Must exclude any key addressing
+   *                      more than one value.
+   * @param writeBehindExecutor The Executor on which to write updates behind, or null to write updates through.
+   */
+  public CachingChunk(final Chunk<K, V> delegate, final long maximumSize, final Predicate<? super K> cacheableKeys, final Executor writeBehindExecutor) {
+    checkArgument(maximumSize >= 0, "maximumSize must not be negative");
+    mDelegate = checkNotNull(delegate);
+    mCacheableKeys = checkNotNull(cacheableKeys);
+    mWriteBehindExecutor = writeBehindExecutor;
+    mCache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected K doInsert(final V value, final OnProgressUpdateListener onProgressUpdateListener) throws InsertException {
+    final K key;
+    synchronized (mDelegateLock) {
+      key = mDelegate.insert(value);
+    }
+    invalidate(key);
+    return key;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected QueryResult<V> doQuery(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    synchronized (mPendingLock) {
+      if (mPendingUpdates.containsKey(key)) {
+        return new QueryResult.SingletonQueryResult<>(mPendingUpdates.get(key));
+      }
+    }
+
+    final boolean cacheable = mCacheableKeys.apply(key);
+    if (cacheable) {
+      final ImmutableList<V> values = mCache.getIfPresent(key);
+      if (values != null) {
+        return new SplittableQueryResult.ListQueryResult<>(values);
+      }
+    }
+
+    final long invalidations;
+    synchronized (mCache) {
+      invalidations = mInvalidations;
+    }
+    final QueryResult<V> result;
+    synchronized (mDelegateLock) {
+      result = mDelegate.query(key);
+    }
+    if (!cacheable || result == null) {
+      return result;
+    }
+    return new RecordingQueryResult(key, result, invalidations);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected int doUpdate(final K key, final V value, final OnProgressUpdateListener progressUpdateListener) throws UpdateException {
+    if (mWriteBehindExecutor == null) {
+      final int numUpdated;
+      synchronized (mDelegateLock) {
+        numUpdated = mDelegate.update(key, value);
+      }
+      invalidate(key);
+      return numUpdated;
+    }
+
+    final boolean schedule;
+    // Holding mDelegateLock, such that the key cannot be deleted between checking and holding the update.
+    synchronized (mDelegateLock) {
+      final boolean pending;
+      synchronized (mPendingLock) {
+        pending = mPendingUpdates.containsKey(key);
+      }
+      if (!pending && !isPresent(key)) {
+        return 0;
+      }
+      synchronized (mPendingLock) {
+        mPendingUpdates.put(key, value);
+        schedule = !mFlushScheduled;
+        mFlushScheduled = true;
+      }
+    }
+    invalidate(key);
+    if (schedule) {
+      mWriteBehindExecutor.execute(mFlush);
+    }
+    return 1;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected int doDelete(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws DeleteException {
+    final boolean pending;
+    final int numDeleted;
+    synchronized (mDelegateLock) {
+      synchronized (mPendingLock) {
+        pending = mPendingUpdates.containsKey(key);
+        mPendingUpdates.remove(key);
+      }
+      numDeleted = mDelegate.delete(key);
+    }
+    invalidate(key);
+    return pending ? Math.max(numDeleted, 1) : numDeleted;
+  }
+
+  /**
+   * Returns if the given key has a value, in the cache or else in the wrapped Chunk.  Called holding mDelegateLock.
+   */
+  @SuppressWarnings("unchecked")
+  private boolean isPresent(final K key) throws UpdateException {
+    // Read through the map view, so as not to count towards the hit and miss counts.
+    final ImmutableList<V> values = mCacheableKeys.apply(key) ? mCache.asMap().get(key) : null;
+    if (values != null) {
+      return !values.isEmpty();
+    }
+    try (QueryResult<V> result = mDelegate.query(key)) {
+      return result != null && result.iterator().hasNext();
+    } catch (QueryException | IOException e) {
+      throw new UpdateException("Cannot query key " + key, e);
+    }
+  }
+
+  /**
+   * Writes all pending updates to the wrapped Chunk.  Does nothing if updates are written through.
+   * <p>
+   * Each update remains pending, and so is returned by queries, until it has been written.
+   *
+   * @throws UpdateException if an update fails.  The failed update, and any after it, remain pending.
+   */
+  @SuppressWarnings("unchecked")
+  public void flush() throws UpdateException {
+    final List<K> keys;
+    synchronized (mPendingLock) {
+      keys = new ArrayList<>(mPendingUpdates.keySet());
+      mFlushScheduled = false;
+    }
+
+    for (K key : keys) {
+      synchronized (mDelegateLock) {
+        final V value;
+        synchronized (mPendingLock) {
+          if (!mPendingUpdates.containsKey(key)) {
+            // Deleted whilst flushing.
+            continue;
+          }
+          value = mPendingUpdates.get(key);
+        }
+        mDelegate.update(key, value);
+        synchronized (mPendingLock) {
+          // Keep any newer update of the same key, made whilst writing.
+          if (mPendingUpdates.get(key) == value) {
+            mPendingUpdates.remove(key);
+          }
+        }
+      }
+      // A query that read the wrapped Chunk before the write must not cache what it read.
+      invalidate(key);
+    }
+  }
+
+  /**
+   * Removes the given key from the cache.
+   */
+  public void invalidate(final K key) {
+    synchronized (mCache) {
+      mInvalidations++;
+      mCache.invalidate(key);
+    }
+  }
+
+  /**
+   * Removes all keys from the cache.
+   */
+  public void invalidateAll() {
+    synchronized (mCache) {
+      mInvalidations++;
+      mCache.invalidateAll();
+    }
+  }
+
+  /**
+   * Returns the hit, miss and eviction counts of the cache.
+   */
+  public CacheStats getStats() {
+    return mCache.stats();
+  }
+
+  /**
+   * Flushes pending updates, then closes the wrapped Chunk.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } catch (UpdateException e) {
+      throw new IOException("Cannot write pending updates", e);
+    } finally {
+      invalidateAll();
+      synchronized (mDelegateLock) {
+        mDelegate.close();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "CachingChunk{" + mDelegate + "}";
+  }
+
+  /**
+   * A QueryResult that records the values of another QueryResult as they are iterated, caching them once
+   * the end is reached.
+   */
+  private class RecordingQueryResult implements QueryResult<V> {
+    private final K mKey;
+    private final QueryResult<V> mResult;
+    private final long mInvalidations;
+    private boolean mIterated = false;
+
+    private RecordingQueryResult(final K key, final QueryResult<V> result, final long invalidations) {
+      mKey = key;
+      mResult = result;
+      mInvalidations = invalidations;
+    }
+
+    @Override
+    public void close() throws IOException {
+      mResult.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+      return mResult.isClosed();
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+      final Iterator<V> iterator = mResult.iterator();
+      if (mIterated) {
+        // Only the first iteration is recorded.
+        return iterator;
+      }
+      mIterated = true;
+      return new Iterator<V>() {
+        private final List<V> mValues = new ArrayList<>();
+        private boolean mCacheable = true;
+
+        @Override
+        public boolean hasNext() {
+          final boolean hasNext = iterator.hasNext();
+          if (!hasNext && mCacheable) {
+            mCacheable = false;
+            cache(mValues);
+          }
+          return hasNext;
+        }
+
+        @Override
+        public V next() {
+          final V value = iterator.next();
+          if (value == null) {
+            mCacheable = false;
+          } else if (mCacheable) {
+            mValues.add(value);
+          }
+          return value;
+        }
+
+        @Override
+        public void remove() {
+          iterator.remove();
+          mCacheable = false;
+        }
+      };
+    }
+
+    private void cache(final List<V> values) {
+      synchronized (mCache) {
+        if (mInvalidations == CachingChunk.this.mInvalidations) {
+          mCache.put(mKey, ImmutableList.copyOf(values));
+        }
+      }
+    }
+  }
+}
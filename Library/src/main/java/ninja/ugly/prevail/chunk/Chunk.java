@@ -13,6 +13,9 @@ import ninja.ugly.prevail.exception.UpdateException;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 public interface Chunk<K, V> extends Closeable {
   /**
@@ -64,6 +67,81 @@ public interface Chunk<K, V> extends Closeable {
    */
   int delete(K key, DeleteEventFactory<K>... customEventFactory) throws DeleteException;
 
+  /**
+   * Insert a batch of values into this Chunk, returning the keys at which the values can be retrieved later,
+   * in the same order as the values.
+   *
+   * The batch is a single operation.  If an EventDispatcher is set on this Chunk, then events generated by the
+   * given list of InsertEventFactories, typed over the whole batch, will be dispatched thereon.  InsertEventFactories
+   * previously added to the Chunk are typed over single values, and so generate start, end and exception events for
+   * each value in turn, as though it were inserted alone.  Progress is reported only for the whole batch.
+   *
+   * The batch need not be atomic.  If an InsertException is thrown, some of the values may have been inserted.
+   *
+   * @param values the values to insert
+   * @param customEventFactory optional InsertEventFactories used to generate events for this operation.
+   */
+  List<K> insertAll(List<V> values, InsertEventFactory<List<K>, List<V>>... customEventFactory) throws InsertException;
+
+  /**
+   * Query a batch of keys at this Chunk, returning a single QueryResult containing the values of all the keys.
+   *
+   * The batch is a single operation.  If an EventDispatcher is set on this Chunk, then events generated by the
+   * given list of QueryEventFactories, typed over the whole batch, will be dispatched thereon.  QueryEventFactories
+   * previously added to the Chunk are typed over single keys, and so generate start, end and exception events for
+   * each key in turn, as though it were queried alone.  Progress is reported only for the whole batch.
+   *
+   * @param keys the keys to query
+   * @param customEventFactory optional QueryEventFactories used to generate events for this operation.
+   */
+  QueryResult<V> queryAll(List<K> keys, QueryEventFactory<List<K>, V>... customEventFactory) throws QueryException;
+
+  /**
+   * Query a key at this Chunk, returning a QueryResult that fetches the queried values a page at a time.
+   *
+   * Only the first page is fetched before this method returns.  Each later page is prefetched on the given
+   * Executor whilst the page before it is iterated.  Chunks that cannot fetch values by page return the
+   * same QueryResult as query(K, QueryEventFactory...).  Events are dispatched as for a query.
+   *
+   * @param key the key to query
+   * @param pageSize the number of values to fetch in each page
+   * @param prefetchExecutor the Executor on which to prefetch pages
+   * @param customEventFactory optional QueryEventFactories used to generate events for this operation.
+   */
+  QueryResult<V> queryPaged(K key, int pageSize, Executor prefetchExecutor, QueryEventFactory<K, V>... customEventFactory) throws QueryException;
+
+  /**
+   * Update a batch of keys, each with the value at the same position in the given list of values, returning the
+   * total number of values updated.
+   *
+   * The batch is a single operation.  If an EventDispatcher is set on this Chunk, then events generated by the
+   * given list of UpdateEventFactories, typed over the whole batch, will be dispatched thereon.  UpdateEventFactories
+   * previously added to the Chunk are typed over single values, and so generate start, end and exception events for
+   * each key in turn, as though it were updated alone.  Progress is reported only for the whole batch.
+   *
+   * The batch need not be atomic.  If an UpdateException is thrown, some of the values may have been updated.
+   *
+   * @param keys the keys to update
+   * @param values the values to update, of the same size as the keys.
+   * @param customEventFactory optional UpdateEventFactories used to generate events for this operation.
+   */
+  int updateAll(List<K> keys, List<V> values, UpdateEventFactory<List<K>, List<V>>... customEventFactory) throws UpdateException;
+
+  /**
+   * Delete a batch of keys from this Chunk, returning the total number of values deleted.
+   *
+   * The batch is a single operation.  If an EventDispatcher is set on this Chunk, then events generated by the
+   * given list of DeleteEventFactories, typed over the whole batch, will be dispatched thereon.  DeleteEventFactories
+   * previously added to the Chunk are typed over single keys, and so generate start, end and exception events for
+   * each key in turn, as though it were deleted alone.  Progress is reported only for the whole batch.
+   *
+   * The batch need not be atomic.  If a DeleteException is thrown, some of the values may have been deleted.
+   *
+   * @param keys the keys to delete
+   * @param customEventFactory optional DeleteEventFactories used to generate events for this operation.
+   */
+  int deleteAll(List<K> keys, DeleteEventFactory<List<K>>... customEventFactory) throws DeleteException;
+
   /**
    * Set the EventDispatcher on this Chunk.
    * <p>
@@ -120,6 +198,31 @@ public interface Chunk<K, V> extends Closeable {
       return 0;
     }
 
+    @Override
+    public List<K> insertAll(final List<V> values, final InsertEventFactory<List<K>, List<V>>... customEventFactory) throws InsertException {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public QueryResult<V> queryAll(final List<K> keys, final QueryEventFactory<List<K>, V>... customEventFactory) throws QueryException {
+      return null;
+    }
+
+    @Override
+    public QueryResult<V> queryPaged(final K key, final int pageSize, final Executor prefetchExecutor, final QueryEventFactory<K, V>... customEventFactory) throws QueryException {
+      return null;
+    }
+
+    @Override
+    public int updateAll(final List<K> keys, final List<V> values, final UpdateEventFactory<List<K>, List<V>>... customEventFactory) throws UpdateException {
+      return 0;
+    }
+
+    @Override
+    public int deleteAll(final List<K> keys, final DeleteEventFactory<List<K>>... customEventFactory) throws DeleteException {
+      return 0;
+    }
+
     @Override
     public void setEventDispatcher(final EventDispatcher eventDispatcher) {
       // Empty implementation
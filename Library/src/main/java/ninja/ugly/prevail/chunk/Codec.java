@@ -0,0 +1,87 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * A Codec converts values to and from bytes, for Chunks that store their values outside of the Java heap.
+ * <p>
+ * Implementations must be thread-safe, since values may be decoded lazily on the thread iterating a
+ * QueryResult.
+ */
+public interface Codec<V> {
+
+  /**
+   * Encodes the given value to bytes.
+   *
+   * @param value The value to encode.  Not null.
+   * @return The encoded bytes of the value.
+   * @throws IllegalArgumentException if the value cannot be encoded.
+   */
+  byte[] encode(V value);
+
+  /**
+   * Decodes a value from the given buffer, which holds exactly the bytes previously returned by encode.
+   * <p>
+   * The buffer is positioned at the first byte, and its limit is after the last byte.  The buffer must
+   * not be retained after this method returns.
+   *
+   * @param buffer The encoded bytes of the value.
+   * @return The decoded value.
+   * @throws IllegalStateException if the value cannot be decoded.
+   */
+  V decode(ByteBuffer buffer);
+
+  /**
+   * A Codec for Strings, encoded as UTF-8.
+   */
+  public static class StringCodec implements Codec<String> {
+    @Override
+    public byte[] encode(final String value) {
+      return value.getBytes(Charsets.UTF_8);
+    }
+
+    @Override
+    public String decode(final ByteBuffer buffer) {
+      return Charsets.UTF_8.decode(buffer).toString();
+    }
+  }
+
+  /**
+   * A Codec for any Serializable value, using Java serialization.
+   * <p>
+   * This is convenient, rather than compact or fast.  A Codec written for the value class will usually
+   * produce far fewer bytes.
+   */
+  public static class SerializableCodec<V extends Serializable> implements Codec<V> {
+    @Override
+    public byte[] encode(final V value) {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeObject(value);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Cannot serialize value", e);
+      }
+      return bytes.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V decode(final ByteBuffer buffer) {
+      final byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+        return (V) in.readObject();
+      } catch (IOException | ClassNotFoundException e) {
+        throw new IllegalStateException("Cannot deserialize value", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package ninja.ugly.prevail.chunk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import ninja.ugly.prevail.exception.DeleteException;
+import ninja.ugly.prevail.exception.InsertException;
+import ninja.ugly.prevail.exception.QueryException;
+import ninja.ugly.prevail.exception.UpdateException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A VolatileChunk that is safe to operate on from many threads at the same time.
+ * <p>
+ * Values are stored in a ConcurrentMap, and each operation is a single atomic operation on that map.
+ * This Chunk can therefore be added to a DataModel with a multi-threaded ExecutorService, or with an
+ * ExecutionStrategy allowing more than one concurrent operation per Chunk.
+ * <p>
+ * The KeyFactory given to this Chunk must also be thread-safe.  The auto-incrementing KeyFactories of
+ * VolatileChunk are thread-safe.  As with any ConcurrentMap, null keys and values are not supported.
+ */
+public class ConcurrentVolatileChunk<K, V> extends VolatileChunk<K, V> {
+
+  /**
+   * Constructs a new ConcurrentVolatileChunk that uses the given KeyFactory to generate keys
+   * during insertion.
+   *
+   * @param keyFactory A thread-safe KeyFactory used to create keys to insert objects under.
+   */
+  public ConcurrentVolatileChunk(final KeyFactory<K, V> keyFactory) {
+    this(new ConcurrentHashMap<K, V>(), keyFactory);
+  }
+
+  /**
+   * Constructs a new ConcurrentVolatileChunk that uses the given backing ConcurrentMap and the given
+   * KeyFactory to generate keys during insertion.
+   * <p>
+   * This implementation uses the given ConcurrentMap directly for storage.  Changes to this Chunk
+   * will be reflected in the given ConcurrentMap, and vice-versa.
+   *
+   * @param map The ConcurrentMap to use as backing storage.
+   * @param keyFactory A thread-safe KeyFactory used to create keys to insert objects under.
+   */
+  public ConcurrentVolatileChunk(final ConcurrentMap<K, V> map, final KeyFactory<K, V> keyFactory) {
+    super(map, keyFactory);
+  }
+
+  /**
+   * Insert the given value into the backing storage.
+   * @return The key at which the given value can be obtained.
+   */
+  @Override
+  protected K doInsert(final V value, final OnProgressUpdateListener onProgressUpdateListener) throws InsertException {
+    final K key = getKeyFactory().createKey(value);
+    getMap().put(key, checkNotNull(value));
+    return key;
+  }
+
+  /**
+   * Query the given key from the backing storage.
+   * @return The results
+   */
+  @Override
+  protected QueryResult<V> doQuery(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    final V value = getMap().get(key);
+    return value == null ? new QueryResult.EmptyQueryResult<V>() : new QueryResult.SingletonQueryResult<>(value);
+  }
+
+  /**
+   * Query the given keys from the backing storage, gathering all values into a single result.
+   * Keys that are Queries are answered as by query.
+   * @return The results, in the order of the given keys.  Keys not in the backing storage are skipped.
+   */
+  @Override
+  protected QueryResult<V> doQueryAll(final List<K> keys, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    if (containsQuery(keys)) {
+      return super.doQueryAll(keys, onProgressUpdateListener);
+    }
+    final ConcurrentMap<K, V> map = getMap();
+    final List<V> values = new ArrayList<>(keys.size());
+    for (K key : keys) {
+      final V value = map.get(key);
+      if (value != null) {
+        values.add(value);
+      }
+    }
+    return new SplittableQueryResult.ListQueryResult<>(values);
+  }
+
+  /**
+   * Update the given key in backing storage with the given value, only if the key is already present.
+   * @return The number of elements updated.  Either 0 or 1.
+   */
+  @Override
+  protected int doUpdate(final K key, final V value, final OnProgressUpdateListener progressUpdateListener) throws UpdateException {
+    return getMap().replace(key, checkNotNull(value)) == null ? 0 : 1;
+  }
+
+  /**
+   * Delete the given key from the backing storage.
+   * @return The number of values deleted.  Either 0 or 1.
+   */
+  @Override
+  protected int doDelete(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws DeleteException {
+    return getMap().remove(key) == null ? 0 : 1;
+  }
+
+  /**
+   * Returns the backing map, which is the ConcurrentMap given on construction.
+   */
+  @Override
+  protected ConcurrentMap<K, V> getMap() {
+    return (ConcurrentMap<K, V>) super.getMap();
+  }
+}
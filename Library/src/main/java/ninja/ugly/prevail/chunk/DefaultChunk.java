@@ -1,23 +1,33 @@
 package ninja.ugly.prevail.chunk;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
-
+import com.google.common.base.Predicate;
+import com.google.common.base.Ticker;
+import com.google.common.collect.FluentIterable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import ninja.ugly.prevail.event.Event;
 import ninja.ugly.prevail.event.dispatcher.EventDispatcher;
+import ninja.ugly.prevail.event.dispatcher.SubscriberAwareEventDispatcher;
 import ninja.ugly.prevail.event.factory.DeleteEventFactory;
 import ninja.ugly.prevail.event.factory.InsertEventFactory;
 import ninja.ugly.prevail.event.factory.QueryEventFactory;
+import ninja.ugly.prevail.event.factory.TypedEventFactory;
 import ninja.ugly.prevail.event.factory.UpdateEventFactory;
 import ninja.ugly.prevail.exception.DeleteException;
 import ninja.ugly.prevail.exception.InsertException;
 import ninja.ugly.prevail.exception.QueryException;
 import ninja.ugly.prevail.exception.UpdateException;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -27,12 +37,29 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public abstract class DefaultChunk<K, V> implements Chunk<K, V> {
 
-  private List<InsertEventFactory> mInsertEventFactories = new CopyOnWriteArrayList<InsertEventFactory>();
-  private List<QueryEventFactory> mQueryEventFactories = new CopyOnWriteArrayList<QueryEventFactory>();
-  private List<UpdateEventFactory> mUpdateEventFactories = new CopyOnWriteArrayList<UpdateEventFactory>();
-  private List<DeleteEventFactory> mDeleteEventFactories = new CopyOnWriteArrayList<DeleteEventFactory>();
-
-  private EventDispatcher mEventDispatcher = new EventDispatcher.EmptyEventDispatcher();
+  private static final InsertEventFactory[] NO_INSERT_EVENT_FACTORIES = new InsertEventFactory[0];
+  private static final QueryEventFactory[] NO_QUERY_EVENT_FACTORIES = new QueryEventFactory[0];
+  private static final UpdateEventFactory[] NO_UPDATE_EVENT_FACTORIES = new UpdateEventFactory[0];
+  private static final DeleteEventFactory[] NO_DELETE_EVENT_FACTORIES = new DeleteEventFactory[0];
+  // Given to operations with no event factory that could send a progress event.  Any other operation allocates
+  // its own ProgressListener, holding the context of the operation and the state of progress event coalescing.
+  private static final OnProgressUpdateListener EMPTY_PROGRESS_LISTENER = new OnProgressUpdateListener.EmptyOnProgressUpdateListener();
+
+  // Copy-on-write arrays, replaced whole on each addition, so that dispatch is an index loop over a snapshot
+  // that allocates nothing.  Factories are added rarely, but used on every operation.
+  private volatile InsertEventFactory[] mInsertEventFactories = NO_INSERT_EVENT_FACTORIES;
+  private volatile QueryEventFactory[] mQueryEventFactories = NO_QUERY_EVENT_FACTORIES;
+  private volatile UpdateEventFactory[] mUpdateEventFactories = NO_UPDATE_EVENT_FACTORIES;
+  private volatile DeleteEventFactory[] mDeleteEventFactories = NO_DELETE_EVENT_FACTORIES;
+
+  // Volatile, since it may be set on a different thread from that of operations.  Whether it is also a
+  // SubscriberAwareEventDispatcher is checked on each use, rather than held in a second field that could be
+  // seen out of step with this one.
+  private volatile EventDispatcher mEventDispatcher = new EventDispatcher.EmptyEventDispatcher();
+
+  // The minimum time between progress events of a single operation, or zero to send every progress update.
+  private volatile long mProgressEventIntervalNanos = 0;
+  private Ticker mTicker = Ticker.systemTicker();
 
   public DefaultChunk() {
   }
@@ -42,24 +69,28 @@ public abstract class DefaultChunk<K, V> implements Chunk<K, V> {
    */
   @Override
   public K insert(final V value, final InsertEventFactory<K, V>... customEventFactories) throws InsertException {
-    final InsertEventFactory[] fs = Optional.fromNullable(customEventFactories).or(new InsertEventFactory[0]);
-    final Iterable<InsertEventFactory> factories = Iterables.concat(mInsertEventFactories, Lists.newArrayList(fs));
+    final InsertEventFactory[] registered = mInsertEventFactories;
+    final InsertEventFactory[] custom = customEventFactories == null ? NO_INSERT_EVENT_FACTORIES : customEventFactories;
+
+    final ProgressListener progressListener = !sendsProgressEvents(registered, custom) ? null : new ProgressListener(mTicker, mProgressEventIntervalNanos) {
+      @Override
+      protected void send(final double progress) {
+        sendInsertProgressEvent(registered, custom, value, progress);
+      }
+    };
 
     try {
-      sendInsertStartEvent(factories, value);
+      sendInsertStartEvent(registered, custom, value);
 
-      final K key = doInsert(value, new OnProgressUpdateListener() {
-        @Override
-        public void onProgressUpdate(double progress) {
-          sendInsertProgressEvent(factories, value, progress);
-        }
-      });
+      final K key = doInsert(value, progressListener == null ? EMPTY_PROGRESS_LISTENER : progressListener);
 
-      sendInsertEndEvent(factories, key, value);
+      flush(progressListener);
+      sendInsertEndEvent(registered, custom, key, value);
 
       return key;
     } catch (InsertException e) {
-      sendInsertExceptionEvent(factories, value, e);
+      flush(progressListener);
+      sendInsertExceptionEvent(registered, custom, value, e);
       throw e;
     }
   }
@@ -86,28 +117,43 @@ public abstract class DefaultChunk<K, V> implements Chunk<K, V> {
    */
   @Override
   public QueryResult<V> query(final K key, final QueryEventFactory<K, V>... customEventFactories) throws QueryException {
-    final QueryEventFactory[] fs = Optional.fromNullable(customEventFactories).or(new QueryEventFactory[0]);
-    final Iterable<QueryEventFactory> factories = Iterables.concat(mQueryEventFactories, Lists.newArrayList(fs));
+    final QueryEventFactory[] registered = mQueryEventFactories;
+    final QueryEventFactory[] custom = customEventFactories == null ? NO_QUERY_EVENT_FACTORIES : customEventFactories;
+
+    final ProgressListener progressListener = !sendsProgressEvents(registered, custom) ? null : new ProgressListener(mTicker, mProgressEventIntervalNanos) {
+      @Override
+      protected void send(final double progress) {
+        sendQueryProgressEvent(registered, custom, key, progress);
+      }
+    };
 
     try {
-      sendQueryStartEvent(factories, key);
+      sendQueryStartEvent(registered, custom, key);
 
-      final QueryResult values = doQuery(key, new OnProgressUpdateListener() {
-        @Override
-        public void onProgressUpdate(double progress) {
-          sendQueryProgressEvent(factories, key, progress);
-        }
-      });
+      final QueryResult values = doQueryKey(key, progressListener == null ? EMPTY_PROGRESS_LISTENER : progressListener);
 
-      sendQueryEndEvent(factories, key, values);
+      flush(progressListener);
+      sendQueryEndEvent(registered, custom, key, values);
 
       return values;
     } catch (QueryException e) {
-      sendQueryExceptionEvent(factories, key, e);
+      flush(progressListener);
+      sendQueryExceptionEvent(registered, custom, key, e);
       throw e;
     }
   }
 
+  /**
+   * Queries the values meeting the given Query.
+   * <p>
+   * Events are dispatched as for query, with the Query as the key.
+   */
+  @SuppressWarnings("unchecked")
+  public QueryResult<V> queryWhere(final Query<V> query, final QueryEventFactory<K, V>... customEventFactories) throws QueryException {
+    // The Query is passed through as a key, as a DataModel would pass it, and recognised by query.
+    return query((K) query, customEventFactories);
+  }
+
   /**
    * Query values from the Chunk.
    * <p>
@@ -120,29 +166,188 @@ public abstract class DefaultChunk<K, V> implements Chunk<K, V> {
    */
   protected abstract QueryResult doQuery(final K key, OnProgressUpdateListener onProgressUpdateListener) throws QueryException;
 
+  /**
+   * Returns true if this Chunk can evaluate the given Criterion of a Query in doQueryWhere.
+   * <p>
+   * Criteria that are not pushed down are applied by this DefaultChunk to the values returned from
+   * doQueryWhere.  This default implementation returns false, such that doQueryWhere is given no Criteria.
+   *
+   * @param criterion A Criterion of a Query being made on this Chunk.
+   * @return true if doQueryWhere will only return values meeting the Criterion.
+   */
+  protected boolean canPushDown(final Query.Criterion<V> criterion) {
+    return false;
+  }
+
+  /**
+   * Returns true if this Chunk can apply the offset and limit of a Query in doQueryWhere.
+   * <p>
+   * The offset and limit are only pushed down if every Criterion of the Query is pushed down, since they
+   * apply to the values meeting all Criteria.  This default implementation returns false.
+   */
+  protected boolean canPushDownPaging() {
+    return false;
+  }
+
+  /**
+   * Query the values meeting a structured Query from the Chunk.
+   * <p>
+   * The given Query holds only the Criteria for which canPushDown returned true, and is only paged if
+   * canPushDownPaging returned true.  The values returned must meet all of its Criteria, but need not meet
+   * those of the original Query, which are applied afterwards.  There is no requirement to send any events
+   * from this method.
+   * <p>
+   * This default implementation throws a QueryException, as a DefaultChunk cannot enumerate its values.
+   *
+   * @param query The Query with the Criteria pushed down to this Chunk.
+   * @param onProgressUpdateListener
+   * @return a QueryResult containing the values meeting the Query.
+   * @throws QueryException
+   */
+  protected QueryResult<V> doQueryWhere(final Query<V> query, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    throw new QueryException(getClass().getSimpleName() + " does not support structured queries");
+  }
+
+  /**
+   * Returns true if the given object can be a key of this Chunk.
+   * <p>
+   * Keys reach a Chunk untyped from a DataModel, so may be of a type this Chunk cannot use.  Query, update and
+   * delete operations on such a key throw a QueryException, UpdateException or DeleteException, rather than
+   * passing the key on to doQuery, doUpdate or doDelete.  This default implementation returns true.
+   *
+   * @param key A key given to an operation on this Chunk.
+   * @return true if the key may be passed on to this Chunk.
+   */
+  protected boolean isKey(final Object key) {
+    return true;
+  }
+
+  /**
+   * Calls doQuery with the given key, or doQueryWhere if the key is a Query.
+   */
+  @SuppressWarnings("unchecked")
+  private QueryResult<V> doQueryKey(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    if (key instanceof Query) {
+      return pushDown((Query<V>) key, onProgressUpdateListener);
+    }
+    if (!isKey(key)) {
+      throw new QueryException("Not a key of " + getClass().getSimpleName() + ": " + key);
+    }
+    return doQuery(key, onProgressUpdateListener);
+  }
+
+  /**
+   * Splits the Criteria of the given Query into those pushed down to doQueryWhere and those applied to its
+   * values afterwards.
+   */
+  private QueryResult<V> pushDown(final Query<V> query, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    final List<Query.Criterion<V>> pushed = new ArrayList<>();
+    final List<Query.Criterion<V>> residual = new ArrayList<>();
+    for (Query.Criterion<V> criterion : query.getCriteria()) {
+      (canPushDown(criterion) ? pushed : residual).add(criterion);
+    }
+    final boolean pushPaging = residual.isEmpty() && canPushDownPaging();
+
+    final Query<V> pushedQuery = pushPaging ? query.withCriteria(pushed) : query.withCriteria(pushed).withoutPaging();
+    final QueryResult<V> values = doQueryWhere(pushedQuery, onProgressUpdateListener);
+    if (pushPaging || (residual.isEmpty() && !query.isPaged())) {
+      return values;
+    }
+    return new FilteredQueryResult<>(values, query.withCriteria(residual));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public QueryResult<V> queryPaged(final K key, final int pageSize, final Executor prefetchExecutor, final QueryEventFactory<K, V>... customEventFactories) throws QueryException {
+    checkArgument(pageSize > 0, "pageSize must be positive");
+    checkNotNull(prefetchExecutor);
+    final QueryEventFactory[] registered = mQueryEventFactories;
+    final QueryEventFactory[] custom = customEventFactories == null ? NO_QUERY_EVENT_FACTORIES : customEventFactories;
+
+    final ProgressListener progressListener = !sendsProgressEvents(registered, custom) ? null : new ProgressListener(mTicker, mProgressEventIntervalNanos) {
+      @Override
+      protected void send(final double progress) {
+        sendQueryProgressEvent(registered, custom, key, progress);
+      }
+    };
+
+    try {
+      sendQueryStartEvent(registered, custom, key);
+
+      // A Query is paged by its own offset and limit, rather than by doQueryPage.
+      final List<V> firstPage = key instanceof Query ? null : doQueryPage(key, 0, pageSize);
+      final QueryResult<V> values;
+      if (firstPage == null) {
+        values = doQueryKey(key, progressListener == null ? EMPTY_PROGRESS_LISTENER : progressListener);
+      } else {
+        values = new PagedQueryResult<V>(firstPage, pageSize, new PagedQueryResult.PageSource<V>() {
+          @Override
+          public List<V> getPage(final int offset, final int limit) throws QueryException {
+            return doQueryPage(key, offset, limit);
+          }
+        }, prefetchExecutor);
+      }
+
+      flush(progressListener);
+      sendQueryEndEvent(registered, custom, key, values);
+
+      return values;
+    } catch (QueryException e) {
+      flush(progressListener);
+      sendQueryExceptionEvent(registered, custom, key, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Query a page of the values at the given key from the Chunk.
+   * <p>
+   * Subclasses may override this method to support paged queries, for example with the LIMIT and OFFSET
+   * of a database query.  The values of successive pages must follow a stable order.  Any resources used
+   * to fetch the page should be released before this method returns.  This method may be called from the
+   * Executor given to queryPaged, concurrently with other operations on this Chunk.
+   * <p>
+   * This default implementation returns null, such that paged queries fall back to doQuery.
+   *
+   * @param key The key to obtain the required values
+   * @param offset The number of values to skip.
+   * @param limit The maximum number of values to return.  Fewer values are returned only at the end of the values.
+   * @return the page of values, or null if this Chunk does not support paged queries.
+   * @throws QueryException
+   */
+  protected List<V> doQueryPage(final K key, final int offset, final int limit) throws QueryException {
+    return null;
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public int update(final K key, final V value, final UpdateEventFactory<K, V>... customEventFactories) throws UpdateException {
-    final UpdateEventFactory[] fs = Optional.fromNullable(customEventFactories).or(new UpdateEventFactory[0]);
-    final Iterable<UpdateEventFactory> factories = Iterables.concat(mUpdateEventFactories, Lists.newArrayList(fs));
+    final UpdateEventFactory[] registered = mUpdateEventFactories;
+    final UpdateEventFactory[] custom = customEventFactories == null ? NO_UPDATE_EVENT_FACTORIES : customEventFactories;
+
+    final ProgressListener progressListener = !sendsProgressEvents(registered, custom) ? null : new ProgressListener(mTicker, mProgressEventIntervalNanos) {
+      @Override
+      protected void send(final double progress) {
+        sendUpdateProgressEvent(registered, custom, key, value, progress);
+      }
+    };
 
     try {
-      sendUpdateStartEvent(factories, key, value);
+      sendUpdateStartEvent(registered, custom, key, value);
 
-      final int i = doUpdate(key, value, new OnProgressUpdateListener() {
-        @Override
-        public void onProgressUpdate(double progress) {
-          sendUpdateProgressEvent(factories, key, value, progress);
-        }
-      });
+      final int i = doUpdateKey(key, value, progressListener == null ? EMPTY_PROGRESS_LISTENER : progressListener);
 
-      sendUpdateEndEvent(factories, key, value, i);
+      flush(progressListener);
+      sendUpdateEndEvent(registered, custom, key, value, i);
 
       return i;
     } catch (UpdateException e) {
-      sendUpdateExceptionEvent(factories, key, value, e);
+      flush(progressListener);
+      sendUpdateExceptionEvent(registered, custom, key, value, e);
       throw e;
     }
   }
@@ -165,29 +370,40 @@ public abstract class DefaultChunk<K, V> implements Chunk<K, V> {
    */
   protected abstract int doUpdate(final K key, final V value, OnProgressUpdateListener progressUpdateListener) throws UpdateException;
 
+  private int doUpdateKey(final K key, final V value, final OnProgressUpdateListener onProgressUpdateListener) throws UpdateException {
+    if (!isKey(key)) {
+      throw new UpdateException("Not a key of " + getClass().getSimpleName() + ": " + key);
+    }
+    return doUpdate(key, value, onProgressUpdateListener);
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public int delete(final K key, final DeleteEventFactory<K>... customEventFactories) throws DeleteException {
-    final DeleteEventFactory[] fs = Optional.fromNullable(customEventFactories).or(new DeleteEventFactory[0]);
-    final Iterable<DeleteEventFactory> factories = Iterables.concat(mDeleteEventFactories, Lists.newArrayList(fs));
+    final DeleteEventFactory[] registered = mDeleteEventFactories;
+    final DeleteEventFactory[] custom = customEventFactories == null ? NO_DELETE_EVENT_FACTORIES : customEventFactories;
+
+    final ProgressListener progressListener = !sendsProgressEvents(registered, custom) ? null : new ProgressListener(mTicker, mProgressEventIntervalNanos) {
+      @Override
+      protected void send(final double progress) {
+        sendDeleteProgressEvent(registered, custom, key, progress);
+      }
+    };
 
     try {
-      sendDeleteStartEvent(factories, key);
+      sendDeleteStartEvent(registered, custom, key);
 
-      final int i = doDelete(key, new OnProgressUpdateListener() {
-        @Override
-        public void onProgressUpdate(double progress) {
-          sendDeleteProgressEvent(factories, key, progress);
-        }
-      });
+      final int i = doDeleteKey(key, progressListener == null ? EMPTY_PROGRESS_LISTENER : progressListener);
 
-      sendDeleteEndEvent(factories, key, i);
+      flush(progressListener);
+      sendDeleteEndEvent(registered, custom, key, i);
 
       return i;
     } catch (DeleteException e) {
-      sendDeleteExceptionEvent(factories, key, e);
+      flush(progressListener);
+      sendDeleteExceptionEvent(registered, custom, key, e);
       throw e;
     }
   }
@@ -209,6 +425,312 @@ public abstract class DefaultChunk<K, V> implements Chunk<K, V> {
    */
   protected abstract int doDelete(final K key, OnProgressUpdateListener onProgressUpdateListener) throws DeleteException;
 
+  private int doDeleteKey(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws DeleteException {
+    if (!isKey(key)) {
+      throw new DeleteException("Not a key of " + getClass().getSimpleName() + ": " + key);
+    }
+    return doDelete(key, onProgressUpdateListener);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public List<K> insertAll(final List<V> values, final InsertEventFactory<List<K>, List<V>>... customEventFactories) throws InsertException {
+    // Registered factories are typed over single values, so are used for each value of the batch in turn.
+    final InsertEventFactory[] registered = mInsertEventFactories;
+    final InsertEventFactory[] custom = customEventFactories == null ? NO_INSERT_EVENT_FACTORIES : customEventFactories;
+
+    final ProgressListener progressListener = !sendsProgressEvents(custom) ? null : new ProgressListener(mTicker, mProgressEventIntervalNanos) {
+      @Override
+      protected void send(final double progress) {
+        sendInsertProgressEvent(NO_INSERT_EVENT_FACTORIES, custom, values, progress);
+      }
+    };
+
+    try {
+      for (V value : values) {
+        sendInsertStartEvent(registered, NO_INSERT_EVENT_FACTORIES, value);
+      }
+      sendInsertStartEvent(NO_INSERT_EVENT_FACTORIES, custom, values);
+
+      final List<K> keys = doInsertAll(values, progressListener == null ? EMPTY_PROGRESS_LISTENER : progressListener);
+
+      flush(progressListener);
+      for (int i = 0; i < values.size(); i++) {
+        sendInsertEndEvent(registered, NO_INSERT_EVENT_FACTORIES, keys.get(i), values.get(i));
+      }
+      sendInsertEndEvent(NO_INSERT_EVENT_FACTORIES, custom, keys, values);
+
+      return keys;
+    } catch (InsertException e) {
+      flush(progressListener);
+      // The batch need not be atomic, so which values were inserted is unknown.
+      for (V value : values) {
+        sendInsertExceptionEvent(registered, NO_INSERT_EVENT_FACTORIES, value, e);
+      }
+      sendInsertExceptionEvent(NO_INSERT_EVENT_FACTORIES, custom, values, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Insert a batch of values to the Chunk.
+   * <p>
+   * This default implementation calls doInsert for each value in turn, reporting the progress of each as
+   * progress of the batch.  Subclasses may override this method to amortize work across the batch, for
+   * example by inserting all values in a single database transaction.  There is no requirement to send any
+   * events from this method.
+   *
+   * @param values The values to be stored.
+   * @param onProgressUpdateListener
+   * @return the keys into the chunk for later retrieval of the given values, in the same order as the values.
+   * @throws InsertException
+   */
+  protected List<K> doInsertAll(final List<V> values, final OnProgressUpdateListener onProgressUpdateListener) throws InsertException {
+    final List<K> keys = new ArrayList<>(values.size());
+    final ItemProgressListener itemProgressListener = new ItemProgressListener(onProgressUpdateListener, values.size());
+    for (V value : values) {
+      keys.add(doInsert(value, itemProgressListener));
+      itemProgressListener.next();
+    }
+    return keys;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public QueryResult<V> queryAll(final List<K> keys, final QueryEventFactory<List<K>, V>... customEventFactories) throws QueryException {
+    final QueryEventFactory[] registered = mQueryEventFactories;
+    final QueryEventFactory[] custom = customEventFactories == null ? NO_QUERY_EVENT_FACTORIES : customEventFactories;
+
+    final ProgressListener progressListener = !sendsProgressEvents(custom) ? null : new ProgressListener(mTicker, mProgressEventIntervalNanos) {
+      @Override
+      protected void send(final double progress) {
+        sendQueryProgressEvent(NO_QUERY_EVENT_FACTORIES, custom, keys, progress);
+      }
+    };
+
+    try {
+      sendQueryStartEvent(NO_QUERY_EVENT_FACTORIES, custom, keys);
+
+      // Registered factories are typed over single keys, and their end events hold the values of a single key,
+      // so each key is then queried in turn rather than by doQueryAll.
+      final OnProgressUpdateListener onProgressUpdateListener = progressListener == null ? EMPTY_PROGRESS_LISTENER : progressListener;
+      final QueryResult<V> values = registered.length == 0 ? doQueryAll(keys, onProgressUpdateListener) : queryEach(registered, keys, onProgressUpdateListener);
+
+      flush(progressListener);
+      sendQueryEndEvent(NO_QUERY_EVENT_FACTORIES, custom, keys, values);
+
+      return values;
+    } catch (QueryException e) {
+      flush(progressListener);
+      sendQueryExceptionEvent(NO_QUERY_EVENT_FACTORIES, custom, keys, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Queries each of the given keys in turn, dispatching the events of the given registered factories for each
+   * key as though it were queried alone.
+   */
+  private QueryResult<V> queryEach(final QueryEventFactory[] registered, final List<K> keys, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    final List<QueryResult<V>> results = new ArrayList<>(keys.size());
+    final ItemProgressListener itemProgressListener = new ItemProgressListener(onProgressUpdateListener, keys.size());
+    for (K key : keys) {
+      sendQueryStartEvent(registered, NO_QUERY_EVENT_FACTORIES, key);
+      final QueryResult<V> values;
+      try {
+        values = doQueryKey(key, itemProgressListener);
+      } catch (QueryException e) {
+        sendQueryExceptionEvent(registered, NO_QUERY_EVENT_FACTORIES, key, e);
+        closeQuietly(results);
+        throw e;
+      }
+      sendQueryEndEvent(registered, NO_QUERY_EVENT_FACTORIES, key, values);
+      results.add(values);
+      itemProgressListener.next();
+    }
+    return new QueryResult.CompositeQueryResult<>(results);
+  }
+
+  /**
+   * Query values for a batch of keys from the Chunk.
+   * <p>
+   * This default implementation calls doQuery for each key in turn, or doQueryWhere for each key that is a
+   * Query, reporting the progress of each as progress of the batch, and concatenates the results.  It is not
+   * called whilst any QueryEventFactory is added to this Chunk, as each key is then queried alone.  Subclasses may override this method to amortize work across the
+   * batch, for example by querying all keys in a single database query.  An override that looks keys up
+   * directly should first check containsQuery, and call this implementation if any key is a Query.  There
+   * is no requirement to send any events from this method.
+   *
+   * @param keys The keys to obtain the required values.
+   * @param onProgressUpdateListener
+   * @return a QueryResult containing the values of all the keys.
+   * @throws QueryException
+   */
+  protected QueryResult<V> doQueryAll(final List<K> keys, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    final List<QueryResult<V>> results = new ArrayList<>(keys.size());
+    final ItemProgressListener itemProgressListener = new ItemProgressListener(onProgressUpdateListener, keys.size());
+    try {
+      for (K key : keys) {
+        results.add(doQueryKey(key, itemProgressListener));
+        itemProgressListener.next();
+      }
+    } catch (QueryException e) {
+      closeQuietly(results);
+      throw e;
+    }
+    return new QueryResult.CompositeQueryResult<>(results);
+  }
+
+  /**
+   * Returns true if any of the given keys is a Query, rather than a key to be looked up directly.
+   */
+  protected static boolean containsQuery(final List<?> keys) {
+    for (Object key : keys) {
+      if (key instanceof Query) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int updateAll(final List<K> keys, final List<V> values, final UpdateEventFactory<List<K>, List<V>>... customEventFactories) throws UpdateException {
+    checkArgument(keys.size() == values.size(), "keys and values must be the same size");
+    // Registered factories are typed over single values, so are used for each key of the batch in turn.
+    final UpdateEventFactory[] registered = mUpdateEventFactories;
+    final UpdateEventFactory[] custom = customEventFactories == null ? NO_UPDATE_EVENT_FACTORIES : customEventFactories;
+
+    final ProgressListener progressListener = !sendsProgressEvents(custom) ? null : new ProgressListener(mTicker, mProgressEventIntervalNanos) {
+      @Override
+      protected void send(final double progress) {
+        sendUpdateProgressEvent(NO_UPDATE_EVENT_FACTORIES, custom, keys, values, progress);
+      }
+    };
+
+    try {
+      for (int i = 0; i < keys.size(); i++) {
+        sendUpdateStartEvent(registered, NO_UPDATE_EVENT_FACTORIES, keys.get(i), values.get(i));
+      }
+      sendUpdateStartEvent(NO_UPDATE_EVENT_FACTORIES, custom, keys, values);
+
+      final int[] numsUpdated = doUpdateAll(keys, values, progressListener == null ? EMPTY_PROGRESS_LISTENER : progressListener);
+
+      flush(progressListener);
+      int numUpdated = 0;
+      for (int i = 0; i < keys.size(); i++) {
+        sendUpdateEndEvent(registered, NO_UPDATE_EVENT_FACTORIES, keys.get(i), values.get(i), numsUpdated[i]);
+        numUpdated += numsUpdated[i];
+      }
+      sendUpdateEndEvent(NO_UPDATE_EVENT_FACTORIES, custom, keys, values, numUpdated);
+
+      return numUpdated;
+    } catch (UpdateException e) {
+      flush(progressListener);
+      // The batch need not be atomic, so which values were updated is unknown.
+      for (int i = 0; i < keys.size(); i++) {
+        sendUpdateExceptionEvent(registered, NO_UPDATE_EVENT_FACTORIES, keys.get(i), values.get(i), e);
+      }
+      sendUpdateExceptionEvent(NO_UPDATE_EVENT_FACTORIES, custom, keys, values, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Update the values at a batch of keys in the Chunk.
+   * <p>
+   * This default implementation calls doUpdate for each key and value in turn, reporting the progress of each
+   * as progress of the batch.  Subclasses may override this method to amortize work across the batch.  There
+   * is no requirement to send any events from this method.
+   *
+   * @param keys The keys of the values to be updated.
+   * @param values The values to be stored, of the same size as the keys.
+   * @param onProgressUpdateListener
+   * @return the number of values updated at each key, in the same order as the keys.
+   * @throws UpdateException
+   */
+  protected int[] doUpdateAll(final List<K> keys, final List<V> values, final OnProgressUpdateListener onProgressUpdateListener) throws UpdateException {
+    final int[] numsUpdated = new int[keys.size()];
+    final ItemProgressListener itemProgressListener = new ItemProgressListener(onProgressUpdateListener, keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      numsUpdated[i] = doUpdateKey(keys.get(i), values.get(i), itemProgressListener);
+      itemProgressListener.next();
+    }
+    return numsUpdated;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int deleteAll(final List<K> keys, final DeleteEventFactory<List<K>>... customEventFactories) throws DeleteException {
+    // Registered factories are typed over single keys, so are used for each key of the batch in turn.
+    final DeleteEventFactory[] registered = mDeleteEventFactories;
+    final DeleteEventFactory[] custom = customEventFactories == null ? NO_DELETE_EVENT_FACTORIES : customEventFactories;
+
+    final ProgressListener progressListener = !sendsProgressEvents(custom) ? null : new ProgressListener(mTicker, mProgressEventIntervalNanos) {
+      @Override
+      protected void send(final double progress) {
+        sendDeleteProgressEvent(NO_DELETE_EVENT_FACTORIES, custom, keys, progress);
+      }
+    };
+
+    try {
+      for (K key : keys) {
+        sendDeleteStartEvent(registered, NO_DELETE_EVENT_FACTORIES, key);
+      }
+      sendDeleteStartEvent(NO_DELETE_EVENT_FACTORIES, custom, keys);
+
+      final int[] numsDeleted = doDeleteAll(keys, progressListener == null ? EMPTY_PROGRESS_LISTENER : progressListener);
+
+      flush(progressListener);
+      int numDeleted = 0;
+      for (int i = 0; i < keys.size(); i++) {
+        sendDeleteEndEvent(registered, NO_DELETE_EVENT_FACTORIES, keys.get(i), numsDeleted[i]);
+        numDeleted += numsDeleted[i];
+      }
+      sendDeleteEndEvent(NO_DELETE_EVENT_FACTORIES, custom, keys, numDeleted);
+
+      return numDeleted;
+    } catch (DeleteException e) {
+      flush(progressListener);
+      // The batch need not be atomic, so which values were deleted is unknown.
+      for (K key : keys) {
+        sendDeleteExceptionEvent(registered, NO_DELETE_EVENT_FACTORIES, key, e);
+      }
+      sendDeleteExceptionEvent(NO_DELETE_EVENT_FACTORIES, custom, keys, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Delete the values at a batch of keys from the Chunk.
+   * <p>
+   * This default implementation calls doDelete for each key in turn, reporting the progress of each as
+   * progress of the batch.  Subclasses may override this method to amortize work across the batch.  There
+   * is no requirement to send any events from this method.
+   *
+   * @param keys The keys of the values to be deleted.
+   * @param onProgressUpdateListener
+   * @return the number of values deleted at each key, in the same order as the keys.
+   * @throws DeleteException
+   */
+  protected int[] doDeleteAll(final List<K> keys, final OnProgressUpdateListener onProgressUpdateListener) throws DeleteException {
+    final int[] numsDeleted = new int[keys.size()];
+    final ItemProgressListener itemProgressListener = new ItemProgressListener(onProgressUpdateListener, keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      numsDeleted[i] = doDeleteKey(keys.get(i), itemProgressListener);
+      itemProgressListener.next();
+    }
+    return numsDeleted;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -217,12 +739,37 @@ public abstract class DefaultChunk<K, V> implements Chunk<K, V> {
     mEventDispatcher = Optional.fromNullable(eventDispatcher).or(new EventDispatcher.EmptyEventDispatcher());
   }
 
+  /**
+   * Sets the minimum time between progress events of a single operation.
+   * <p>
+   * A Chunk that reports progress often, for example on every row of a query, would otherwise send far more
+   * progress events than any subscriber could use.  Progress updates arriving sooner than the given interval
+   * after the last progress event sent are coalesced, such that only the latest is kept.  The latest is
+   * always sent before the end or exception event of the operation, so subscribers still see final progress.
+   * <p>
+   * By default, the interval is zero, and every progress update is sent.
+   *
+   * @param interval The minimum time between progress events.  Zero to send every progress update.
+   * @param unit The unit of the interval.
+   */
+  public void setProgressEventInterval(final long interval, final TimeUnit unit) {
+    checkArgument(interval >= 0, "interval must not be negative");
+    mProgressEventIntervalNanos = unit.toNanos(interval);
+  }
+
+  @VisibleForTesting
+  void setTicker(final Ticker ticker) {
+    mTicker = checkNotNull(ticker);
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public void addEventFactory(final InsertEventFactory insertEventFactory) {
-    mInsertEventFactories.add(checkNotNull(insertEventFactory));
+    synchronized (this) {
+      mInsertEventFactories = append(mInsertEventFactories, checkNotNull(insertEventFactory));
+    }
   }
 
   /**
@@ -230,7 +777,9 @@ public abstract class DefaultChunk<K, V> implements Chunk<K, V> {
    */
   @Override
   public void addEventFactory(final QueryEventFactory queryEventFactory) {
-    mQueryEventFactories.add(checkNotNull(queryEventFactory));
+    synchronized (this) {
+      mQueryEventFactories = append(mQueryEventFactories, checkNotNull(queryEventFactory));
+    }
   }
 
   /**
@@ -238,7 +787,9 @@ public abstract class DefaultChunk<K, V> implements Chunk<K, V> {
    */
   @Override
   public void addEventFactory(final UpdateEventFactory updateEventFactory) {
-    mUpdateEventFactories.add(checkNotNull(updateEventFactory));
+    synchronized (this) {
+      mUpdateEventFactories = append(mUpdateEventFactories, checkNotNull(updateEventFactory));
+    }
   }
 
   /**
@@ -246,238 +797,380 @@ public abstract class DefaultChunk<K, V> implements Chunk<K, V> {
    */
   @Override
   public void addEventFactory(final DeleteEventFactory deleteEventFactory) {
-    mDeleteEventFactories.add(checkNotNull(deleteEventFactory));
+    synchronized (this) {
+      mDeleteEventFactories = append(mDeleteEventFactories, checkNotNull(deleteEventFactory));
+    }
   }
 
-  private void sendInsertEndEvent(final InsertEventFactory eventFactory, final K key, final V value) {
+  private void sendInsertEndEvent(final InsertEventFactory eventFactory, final Object key, final Object value) {
+    if (skipEndEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> endEvent = eventFactory.endEvent(key, value);
     if (endEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(endEvent.get());
     }
   }
 
-  private void sendInsertEndEvent(final Iterable<InsertEventFactory> eventFactories, final K key, final V value) {
-    for (InsertEventFactory eventFactory : eventFactories) {
-      sendInsertEndEvent(eventFactory, key, value);
+  private void sendInsertEndEvent(final InsertEventFactory[] registered, final InsertEventFactory[] custom, final Object key, final Object value) {
+    for (int i = 0; i < registered.length; i++) {
+      sendInsertEndEvent(registered[i], key, value);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendInsertEndEvent(custom[i], key, value);
     }
   }
 
-  private void sendQueryEndEvent(final QueryEventFactory eventFactory, final K key, final QueryResult<V> values) {
+  private void sendQueryEndEvent(final QueryEventFactory eventFactory, final Object key, final QueryResult<?> values) {
+    if (skipEndEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> endEvent = eventFactory.endEvent(key, values);
     if (endEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(endEvent.get());
     }
   }
 
-  private void sendQueryEndEvent(final QueryEventFactory[] eventFactories, final K key, final QueryResult<V> value) {
-    sendQueryEndEvent(Lists.newArrayList(eventFactories), key, value);
-  }
-
-  private void sendQueryEndEvent(final Iterable<QueryEventFactory> eventFactories, final K key, final QueryResult<V> value) {
-    for (QueryEventFactory eventFactory : eventFactories) {
-      sendQueryEndEvent(eventFactory, key, value);
+  private void sendQueryEndEvent(final QueryEventFactory[] registered, final QueryEventFactory[] custom, final Object key, final QueryResult<?> value) {
+    for (int i = 0; i < registered.length; i++) {
+      sendQueryEndEvent(registered[i], key, value);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendQueryEndEvent(custom[i], key, value);
     }
   }
 
-  private void sendUpdateEndEvent(final UpdateEventFactory eventFactory, final K key, final V value, final int numValuesUpdated) {
+  private void sendUpdateEndEvent(final UpdateEventFactory eventFactory, final Object key, final Object value, final int numValuesUpdated) {
+    if (skipEndEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> endEvent = eventFactory.endEvent(key, value, numValuesUpdated);
     if (endEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(endEvent.get());
     }
   }
 
-  private void sendUpdateEndEvent(final UpdateEventFactory[] eventFactories, final K key, final V value, final int numValuesUpdated) {
-    sendUpdateEndEvent(Lists.newArrayList(eventFactories), key, value, numValuesUpdated);
-  }
-
-  private void sendUpdateEndEvent(final Iterable<UpdateEventFactory> eventFactories, final K key, final V value, final int numValuesUpdated) {
-    for (UpdateEventFactory eventFactory : eventFactories) {
-      sendUpdateEndEvent(eventFactory, key, value, numValuesUpdated);
+  private void sendUpdateEndEvent(final UpdateEventFactory[] registered, final UpdateEventFactory[] custom, final Object key, final Object value, final int numValuesUpdated) {
+    for (int i = 0; i < registered.length; i++) {
+      sendUpdateEndEvent(registered[i], key, value, numValuesUpdated);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendUpdateEndEvent(custom[i], key, value, numValuesUpdated);
     }
   }
 
-  private void sendDeleteEndEvent(final DeleteEventFactory eventFactory, final K key, final int numValuesDeleted) {
+  private void sendDeleteEndEvent(final DeleteEventFactory eventFactory, final Object key, final int numValuesDeleted) {
+    if (skipEndEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> endEvent = eventFactory.endEvent(key, numValuesDeleted);
     if (endEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(endEvent.get());
     }
   }
 
-  private void sendDeleteEndEvent(final Iterable<DeleteEventFactory> eventFactories, final K key, final int numValuesDeleted) {
-    for (DeleteEventFactory eventFactory : eventFactories) {
-      sendDeleteEndEvent(eventFactory, key, numValuesDeleted);
+  private void sendDeleteEndEvent(final DeleteEventFactory[] registered, final DeleteEventFactory[] custom, final Object key, final int numValuesDeleted) {
+    for (int i = 0; i < registered.length; i++) {
+      sendDeleteEndEvent(registered[i], key, numValuesDeleted);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendDeleteEndEvent(custom[i], key, numValuesDeleted);
     }
   }
 
-  private void sendDeleteProgressEvent(final DeleteEventFactory eventFactory, final K key, final double progress) {
+  private void sendDeleteProgressEvent(final DeleteEventFactory eventFactory, final Object key, final double progress) {
+    if (skipProgressEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> progressEvent = eventFactory.progressEvent(key, progress);
     if (progressEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(progressEvent.get());
     }
   }
 
-  private void sendDeleteProgressEvent(final Iterable<DeleteEventFactory> eventFactories, final K key, final double progress) {
-    for (DeleteEventFactory eventFactory : eventFactories) {
-      sendDeleteProgressEvent(eventFactory, key, progress);
+  private void sendDeleteProgressEvent(final DeleteEventFactory[] registered, final DeleteEventFactory[] custom, final Object key, final double progress) {
+    for (int i = 0; i < registered.length; i++) {
+      sendDeleteProgressEvent(registered[i], key, progress);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendDeleteProgressEvent(custom[i], key, progress);
     }
   }
 
-  private void sendInsertProgressEvent(final InsertEventFactory eventFactory, final V value, final double progress) {
+  private void sendInsertProgressEvent(final InsertEventFactory eventFactory, final Object value, final double progress) {
+    if (skipProgressEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> progressEvent = eventFactory.progressEvent(value, progress);
     if (progressEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(progressEvent.get());
     }
   }
 
-  private void sendInsertProgressEvent(final Iterable<InsertEventFactory> eventFactories, final V value, final double progress) {
-    for (InsertEventFactory eventFactory : eventFactories) {
-      sendInsertProgressEvent(eventFactory, value, progress);
+  private void sendInsertProgressEvent(final InsertEventFactory[] registered, final InsertEventFactory[] custom, final Object value, final double progress) {
+    for (int i = 0; i < registered.length; i++) {
+      sendInsertProgressEvent(registered[i], value, progress);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendInsertProgressEvent(custom[i], value, progress);
     }
   }
 
-  private void sendQueryProgressEvent(final QueryEventFactory eventFactory, final K key, final double progress) {
+  private void sendQueryProgressEvent(final QueryEventFactory eventFactory, final Object key, final double progress) {
+    if (skipProgressEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> progressEvent = eventFactory.progressEvent(key, progress);
     if (progressEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(progressEvent.get());
     }
   }
 
-  private void sendQueryProgressEvent(final Iterable<QueryEventFactory> eventFactories, final K key, final double progress) {
-    for (QueryEventFactory eventFactory : eventFactories) {
-      sendQueryProgressEvent(eventFactory, key, progress);
+  private void sendQueryProgressEvent(final QueryEventFactory[] registered, final QueryEventFactory[] custom, final Object key, final double progress) {
+    for (int i = 0; i < registered.length; i++) {
+      sendQueryProgressEvent(registered[i], key, progress);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendQueryProgressEvent(custom[i], key, progress);
     }
   }
 
-  private void sendUpdateProgressEvent(final UpdateEventFactory eventFactory, final K key, final V value, final double progress) {
+  private void sendUpdateProgressEvent(final UpdateEventFactory eventFactory, final Object key, final Object value, final double progress) {
+    if (skipProgressEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> progressEvent = eventFactory.progressEvent(key, value, progress);
     if (progressEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(progressEvent.get());
     }
   }
 
-  private void sendUpdateProgressEvent(final Iterable<UpdateEventFactory> eventFactories, final K key, final V value, final double progress) {
-    for (UpdateEventFactory eventFactory : eventFactories) {
-      sendUpdateProgressEvent(eventFactory, key, value, progress);
+  private void sendUpdateProgressEvent(final UpdateEventFactory[] registered, final UpdateEventFactory[] custom, final Object key, final Object value, final double progress) {
+    for (int i = 0; i < registered.length; i++) {
+      sendUpdateProgressEvent(registered[i], key, value, progress);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendUpdateProgressEvent(custom[i], key, value, progress);
     }
   }
 
-  private void sendInsertExceptionEvent(final InsertEventFactory eventFactory, final V value, final InsertException exception) {
+  private void sendInsertExceptionEvent(final InsertEventFactory eventFactory, final Object value, final InsertException exception) {
+    if (skipExceptionEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> exceptionEvent = eventFactory.exceptionEvent(value, exception);
     if (exceptionEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(exceptionEvent.get());
     }
   }
 
-  private void sendInsertExceptionEvent(final Iterable<InsertEventFactory> eventFactories, final V value, final InsertException exception) {
-    for (InsertEventFactory eventFactory : eventFactories) {
-      sendInsertExceptionEvent(eventFactory, value, exception);
+  private void sendInsertExceptionEvent(final InsertEventFactory[] registered, final InsertEventFactory[] custom, final Object value, final InsertException exception) {
+    for (int i = 0; i < registered.length; i++) {
+      sendInsertExceptionEvent(registered[i], value, exception);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendInsertExceptionEvent(custom[i], value, exception);
     }
   }
 
-  private void sendQueryExceptionEvent(final QueryEventFactory eventFactory, final K key, final QueryException exception) {
+  private void sendQueryExceptionEvent(final QueryEventFactory eventFactory, final Object key, final QueryException exception) {
+    if (skipExceptionEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> exceptionEvent = eventFactory.exceptionEvent(key, exception);
     if (exceptionEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(exceptionEvent.get());
     }
   }
 
-  private void sendQueryExceptionEvent(final QueryEventFactory[] eventFactories, final K key, final QueryException exception) {
-    sendQueryExceptionEvent(Lists.newArrayList(eventFactories), key, exception);
-  }
-
-  private void sendQueryExceptionEvent(final Iterable<QueryEventFactory> eventFactories, final K key, final QueryException exception) {
-    for (QueryEventFactory eventFactory : eventFactories) {
-      sendQueryExceptionEvent(eventFactory, key, exception);
+  private void sendQueryExceptionEvent(final QueryEventFactory[] registered, final QueryEventFactory[] custom, final Object key, final QueryException exception) {
+    for (int i = 0; i < registered.length; i++) {
+      sendQueryExceptionEvent(registered[i], key, exception);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendQueryExceptionEvent(custom[i], key, exception);
     }
   }
 
-  private void sendUpdateExceptionEvent(final UpdateEventFactory eventFactory, final K key, final V value, final UpdateException exception) {
+  private void sendUpdateExceptionEvent(final UpdateEventFactory eventFactory, final Object key, final Object value, final UpdateException exception) {
+    if (skipExceptionEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> exceptionEvent = eventFactory.exceptionEvent(key, value, exception);
     if (exceptionEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(exceptionEvent.get());
     }
   }
 
-  private void sendUpdateExceptionEvent(final UpdateEventFactory[] eventFactories, final K key, final V value, final UpdateException exception) {
-    sendUpdateExceptionEvent(Lists.newArrayList(eventFactories), key, value, exception);
-  }
-
-  private void sendUpdateExceptionEvent(final Iterable<UpdateEventFactory> eventFactories, final K key, final V value, final UpdateException exception) {
-    for (UpdateEventFactory eventFactory : eventFactories) {
-      sendUpdateExceptionEvent(eventFactory, key, value, exception);
+  private void sendUpdateExceptionEvent(final UpdateEventFactory[] registered, final UpdateEventFactory[] custom, final Object key, final Object value, final UpdateException exception) {
+    for (int i = 0; i < registered.length; i++) {
+      sendUpdateExceptionEvent(registered[i], key, value, exception);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendUpdateExceptionEvent(custom[i], key, value, exception);
     }
   }
 
-  private void sendDeleteExceptionEvent(final DeleteEventFactory eventFactory, final K key, final DeleteException exception) {
+  private void sendDeleteExceptionEvent(final DeleteEventFactory eventFactory, final Object key, final DeleteException exception) {
+    if (skipExceptionEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> exceptionEvent = eventFactory.exceptionEvent(key, exception);
     if (exceptionEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(exceptionEvent.get());
     }
   }
 
-  private void sendDeleteExceptionEvent(final Iterable<DeleteEventFactory> eventFactories, final K key, final DeleteException exception) {
-    for (DeleteEventFactory eventFactory : eventFactories) {
-      sendDeleteExceptionEvent(eventFactory, key, exception);
+  private void sendDeleteExceptionEvent(final DeleteEventFactory[] registered, final DeleteEventFactory[] custom, final Object key, final DeleteException exception) {
+    for (int i = 0; i < registered.length; i++) {
+      sendDeleteExceptionEvent(registered[i], key, exception);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendDeleteExceptionEvent(custom[i], key, exception);
     }
   }
 
-  private void sendInsertStartEvent(final InsertEventFactory eventFactory, final V value) {
+  private void sendInsertStartEvent(final InsertEventFactory eventFactory, final Object value) {
+    if (skipStartEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> startEvent = eventFactory.startEvent(value);
     if (startEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(startEvent.get());
     }
   }
 
-  private void sendInsertStartEvent(final Iterable<InsertEventFactory> eventFactories, final V value) {
-    for (InsertEventFactory eventFactory : eventFactories) {
-      sendInsertStartEvent(eventFactory, value);
+  private void sendInsertStartEvent(final InsertEventFactory[] registered, final InsertEventFactory[] custom, final Object value) {
+    for (int i = 0; i < registered.length; i++) {
+      sendInsertStartEvent(registered[i], value);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendInsertStartEvent(custom[i], value);
     }
   }
 
-  private void sendQueryStartEvent(final QueryEventFactory eventFactory, final K key) {
+  private void sendQueryStartEvent(final QueryEventFactory eventFactory, final Object key) {
+    if (skipStartEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> startEvent = eventFactory.startEvent(key);
     if (startEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(startEvent.get());
     }
   }
 
-  private void sendQueryStartEvent(final QueryEventFactory[] eventFactories, final K key) {
-    sendQueryStartEvent(Lists.newArrayList(eventFactories), key);
-  }
-
-  private void sendQueryStartEvent(final Iterable<QueryEventFactory> eventFactories, final K key) {
-    for (QueryEventFactory eventFactory : eventFactories) {
-      sendQueryStartEvent(eventFactory, key);
+  private void sendQueryStartEvent(final QueryEventFactory[] registered, final QueryEventFactory[] custom, final Object key) {
+    for (int i = 0; i < registered.length; i++) {
+      sendQueryStartEvent(registered[i], key);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendQueryStartEvent(custom[i], key);
     }
   }
 
-  private void sendUpdateStartEvent(final UpdateEventFactory eventFactory, final K key, final V value) {
+  private void sendUpdateStartEvent(final UpdateEventFactory eventFactory, final Object key, final Object value) {
+    if (skipStartEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> startEvent = eventFactory.startEvent(key, value);
     if (startEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(startEvent.get());
     }
   }
 
-  private void sendUpdateStartEvent(final UpdateEventFactory[] eventFactories, final K key, final V value) {
-    sendUpdateStartEvent(Lists.newArrayList(eventFactories), key, value);
-  }
-
-  private void sendUpdateStartEvent(final Iterable<UpdateEventFactory> eventFactories, final K key, final V value) {
-    for (UpdateEventFactory eventFactory : eventFactories) {
-      sendUpdateStartEvent(eventFactory, key, value);
+  private void sendUpdateStartEvent(final UpdateEventFactory[] registered, final UpdateEventFactory[] custom, final Object key, final Object value) {
+    for (int i = 0; i < registered.length; i++) {
+      sendUpdateStartEvent(registered[i], key, value);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendUpdateStartEvent(custom[i], key, value);
     }
   }
 
-  private void sendDeleteStartEvent(final DeleteEventFactory eventFactory, final K key) {
+  private void sendDeleteStartEvent(final DeleteEventFactory eventFactory, final Object key) {
+    if (skipStartEvent(eventFactory)) {
+      return;
+    }
     final Optional<Event> startEvent = eventFactory.startEvent(key);
     if (startEvent.isPresent()) {
       mEventDispatcher.dispatchEvent(startEvent.get());
     }
   }
 
-  private void sendDeleteStartEvent(final Iterable<DeleteEventFactory> eventFactories, final K key) {
-    for (DeleteEventFactory eventFactory : eventFactories) {
-      sendDeleteStartEvent(eventFactory, key);
+  private void sendDeleteStartEvent(final DeleteEventFactory[] registered, final DeleteEventFactory[] custom, final Object key) {
+    for (int i = 0; i < registered.length; i++) {
+      sendDeleteStartEvent(registered[i], key);
+    }
+    for (int i = 0; i < custom.length; i++) {
+      sendDeleteStartEvent(custom[i], key);
+    }
+  }
+
+  private boolean skipStartEvent(final Object eventFactory) {
+    return eventFactory instanceof TypedEventFactory && isUnsubscribed(((TypedEventFactory) eventFactory).getStartEventClass());
+  }
+
+  private boolean skipProgressEvent(final Object eventFactory) {
+    return eventFactory instanceof TypedEventFactory && isUnsubscribed(((TypedEventFactory) eventFactory).getProgressEventClass());
+  }
+
+  /**
+   * Returns true if any of the given event factories could send a progress event, such that an operation
+   * needs a ProgressListener.
+   */
+  private boolean sendsProgressEvents(final Object[] registered, final Object[] custom) {
+    return sendsProgressEvents(registered) || sendsProgressEvents(custom);
+  }
+
+  private boolean sendsProgressEvents(final Object[] eventFactories) {
+    for (int i = 0; i < eventFactories.length; i++) {
+      if (!skipProgressEvent(eventFactories[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean skipEndEvent(final Object eventFactory) {
+    return eventFactory instanceof TypedEventFactory && isUnsubscribed(((TypedEventFactory) eventFactory).getEndEventClass());
+  }
+
+  private boolean skipExceptionEvent(final Object eventFactory) {
+    return eventFactory instanceof TypedEventFactory && isUnsubscribed(((TypedEventFactory) eventFactory).getExceptionEventClass());
+  }
+
+  /**
+   * Returns true if events of the given class are known to have no subscriber, in which case there is no
+   * need to construct them.  The Void class declares that no events are generated at all.
+   */
+  private boolean isUnsubscribed(final Class<?> eventClass) {
+    if (eventClass == Void.class) {
+      return true;
+    }
+    final EventDispatcher eventDispatcher = mEventDispatcher;
+    return eventClass != null && eventDispatcher instanceof SubscriberAwareEventDispatcher
+        && !((SubscriberAwareEventDispatcher) eventDispatcher).hasSubscriberFor(eventClass);
+  }
+
+  private static <T> T[] append(final T[] array, final T element) {
+    final T[] result = Arrays.copyOf(array, array.length + 1);
+    result[array.length] = element;
+    return result;
+  }
+
+  private static void flush(final ProgressListener progressListener) {
+    if (progressListener != null) {
+      progressListener.flush();
+    }
+  }
+
+  private static void closeQuietly(final List<? extends QueryResult<?>> results) {
+    for (QueryResult<?> result : results) {
+      try {
+        result.close();
+      } catch (IOException e) {
+        // Ignore.  The original exception is more useful to the caller.
+      }
     }
   }
 
@@ -491,4 +1184,114 @@ public abstract class DefaultChunk<K, V> implements Chunk<K, V> {
       }
     }
   }
+
+  /**
+   * The OnProgressUpdateListener given to a single operation, coalescing progress updates that arrive
+   * within the progress event interval of the last progress event sent.
+   */
+  private abstract static class ProgressListener implements OnProgressUpdateListener {
+    private final Ticker mTicker;
+    private final long mIntervalNanos;
+    private long mLastSentNanos;
+    private boolean mSentAny = false;
+    private boolean mPending = false;
+    private double mPendingProgress;
+
+    ProgressListener(final Ticker ticker, final long intervalNanos) {
+      mTicker = ticker;
+      mIntervalNanos = intervalNanos;
+    }
+
+    protected abstract void send(double progress);
+
+    @Override
+    public synchronized void onProgressUpdate(final double progress) {
+      if (mIntervalNanos == 0) {
+        send(progress);
+        return;
+      }
+      final long now = mTicker.read();
+      if (!mSentAny || now - mLastSentNanos >= mIntervalNanos) {
+        mSentAny = true;
+        mLastSentNanos = now;
+        mPending = false;
+        send(progress);
+      } else {
+        mPending = true;
+        mPendingProgress = progress;
+      }
+    }
+
+    /**
+     * Sends the latest coalesced progress update, if any.
+     */
+    synchronized void flush() {
+      if (mPending) {
+        mPending = false;
+        send(mPendingProgress);
+      }
+    }
+  }
+
+  /**
+   * The OnProgressUpdateListener given to each item of a batch in turn, reporting the progress of the item as
+   * progress of the whole batch.
+   */
+  private static class ItemProgressListener implements OnProgressUpdateListener {
+    private final OnProgressUpdateListener mBatchListener;
+    private final int mSize;
+    private int mIndex = 0;
+
+    ItemProgressListener(final OnProgressUpdateListener batchListener, final int size) {
+      mBatchListener = batchListener;
+      mSize = size;
+    }
+
+    @Override
+    public void onProgressUpdate(final double progress) {
+      mBatchListener.onProgressUpdate((mIndex + progress) / mSize);
+    }
+
+    /**
+     * Moves on to the next item, reporting the current item as complete.
+     */
+    void next() {
+      mIndex++;
+      mBatchListener.onProgressUpdate((double) mIndex / mSize);
+    }
+  }
+
+  /**
+   * A QueryResult of the values of another QueryResult meeting the residual Criteria of a Query, skipped and
+   * limited by the offset and limit of that Query.  Values are filtered lazily, during iteration.
+   */
+  private static class FilteredQueryResult<V> implements QueryResult<V> {
+    private final QueryResult<V> mValues;
+    private final Query<V> mQuery;
+
+    FilteredQueryResult(final QueryResult<V> values, final Query<V> query) {
+      mValues = values;
+      mQuery = query;
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+      return FluentIterable.from(mValues).filter(new Predicate<V>() {
+        @Override
+        public boolean apply(final V value) {
+          return mQuery.matches(value);
+        }
+      }).skip(mQuery.getOffset()).limit(mQuery.getLimit()).iterator();
+    }
+
+    @Override
+    public void close() throws IOException {
+      mValues.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+      return mValues.isClosed();
+    }
+  }
 }
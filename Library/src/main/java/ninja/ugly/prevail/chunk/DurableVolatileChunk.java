@@ -0,0 +1,764 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import ninja.ugly.prevail.exception.DeleteException;
+import ninja.ugly.prevail.exception.InsertException;
+import ninja.ugly.prevail.exception.QueryException;
+import ninja.ugly.prevail.exception.UpdateException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A VolatileChunk that survives restarts, by logging every change to a write-ahead log and periodically
+ * writing a snapshot of all values.
+ * <p>
+ * Every insert, update and delete appends a checksummed record to the log before it is applied in memory.
+ * When and how records are forced to the storage device is decided by a {@link SyncPolicy}.  With
+ * {@link SyncPolicy#EVERY_WRITE}, each write waits until its record is durable, but the records of writes
+ * made on other threads in the meantime are forced along with it, so that concurrent writers share the cost
+ * of each force.  Changes are then applied in memory only once forced, so no query sees a change that
+ * could still be lost.  With other SyncPolicies, changes are applied in memory as soon as they are logged.
+ * <p>
+ * Once a number of records have been logged, a snapshot is taken on a background thread.  The values are
+ * copied, and a new log file started, whilst writes are held off.  The copy is then written to a snapshot
+ * file, and the log files it supersedes are deleted.  Copying is proportional to the number of values.
+ * <p>
+ * On construction, the latest snapshot in the directory is loaded and the log files written since are
+ * replayed.  A torn record at the end of a log file, as left by a crash part way through a write, fails its
+ * checksum and is discarded, along with anything after it.
+ * <p>
+ * As for LogStructuredChunk, the KeyFactory must produce keys that are unique across restarts.  Operations
+ * are synchronized, and so this Chunk is thread-safe, although operations other than waiting for the log to
+ * be forced do not run in parallel.
+ */
+public class DurableVolatileChunk<K, V> extends VolatileChunk<K, V> {
+  /** The default number of records logged between snapshots. */
+  public static final int DEFAULT_SNAPSHOT_THRESHOLD = 1 << 20;
+
+  private static final Executor DEFAULT_SNAPSHOT_EXECUTOR = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("prevail-snapshot-%d").build());
+
+  private static final String LOG_PREFIX = "wal-";
+  private static final String LOG_SUFFIX = ".log";
+  private static final String SNAPSHOT_PREFIX = "snapshot-";
+  private static final String SNAPSHOT_SUFFIX = ".snap";
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+  private static final int SNAPSHOT_MAGIC = 0x50525653;
+
+  // A record is [int bodyLength][int crc] followed by a body of [byte operation][int keyLength][key][value].
+  private static final int RECORD_HEADER_SIZE = 8;
+  private static final int BODY_HEADER_SIZE = 5;
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+  // Pending records are written to the log file once there are this many bytes of them, even if not forced.
+  private static final int WRITE_THRESHOLD = 64 << 10;
+
+  private final File mDirectory;
+  private final Codec<K> mKeyCodec;
+  private final Codec<V> mValueCodec;
+  private final SyncPolicy mSyncPolicy;
+  private final int mSnapshotThreshold;
+  private final Executor mSnapshotExecutor;
+  private final ScheduledExecutorService mSyncScheduler;
+
+  // Guards the values, the pending records and the log file.  Held only briefly by each operation.
+  private final Object mLock = new Object();
+  // Held whilst writing pending records to the log file, so that each write and force is done by one thread,
+  // whilst other threads continue to append.  Always acquired before mLock.
+  private final Object mWriteLock = new Object();
+  // Held whilst taking a snapshot, so that only one snapshot is taken at a time.  Acquired before mWriteLock.
+  private final Object mSnapshotLock = new Object();
+
+  private byte[] mPending = new byte[1024];
+  private int mPendingLength = 0;
+  private long mAppendedSequence = 0;
+  private volatile long mDurableSequence = 0;
+  private int mRecordsSinceSnapshot = 0;
+  private boolean mSnapshotScheduled = false;
+  private boolean mClosed = false;
+  // Set once pending records could not be written, after which the log is missing changes and no more are accepted.
+  private IOException mFailure = null;
+  // Under SyncPolicy.EVERY_WRITE, the changes logged but not yet forced, in order, and the latest of them for
+  // each key.  Applied to the values once forced.
+  private final Deque<Change<K, V>> mUnapplied = new ArrayDeque<>();
+  private final Map<K, Change<K, V>> mLatestUnapplied = Maps.newHashMap();
+
+  private int mGeneration;
+  private RandomAccessFile mLogFile;
+
+  private final Runnable mSnapshot = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        snapshot();
+      } catch (IOException | IllegalStateException e) {
+        // The log still holds every change, so nothing is lost.  The next snapshot will be tried again later.
+        synchronized (mLock) {
+          mSnapshotScheduled = false;
+        }
+      }
+    }
+  };
+
+  /**
+   * Constructs a DurableVolatileChunk in the given directory, recovering any data already there.  Every
+   * write is forced before it returns, and snapshots are taken on a shared background thread.
+   *
+   * @param directory The directory holding the log and snapshot files.  Created if it does not exist.
+   * @param keyFactory A KeyFactory used to create keys to insert objects under.
+   * @param keyCodec The Codec used to convert keys to and from bytes.
+   * @param valueCodec The Codec used to convert values to and from bytes.
+   * @throws IOException if the directory cannot be created, or its files cannot be read.
+   */
+  public DurableVolatileChunk(final File directory, final KeyFactory<K, V> keyFactory, final Codec<K> keyCodec, final Codec<V> valueCodec) throws IOException {
+    this(directory, keyFactory, keyCodec, valueCodec, SyncPolicy.EVERY_WRITE, DEFAULT_SNAPSHOT_THRESHOLD, DEFAULT_SNAPSHOT_EXECUTOR);
+  }
+
+  /**
+   * Constructs a DurableVolatileChunk in the given directory, recovering any data already there.
+   *
+   * @param directory The directory holding the log and snapshot files.  Created if it does not exist.
+   * @param keyFactory A KeyFactory used to create keys to insert objects under.
+   * @param keyCodec The Codec used to convert keys to and from bytes.
+   * @param valueCodec The Codec used to convert values to and from bytes.
+   * @param syncPolicy When to force logged records to the storage device.
+   * @param snapshotThreshold The number of records to log between snapshots.
+   * @param snapshotExecutor The Executor on which to take snapshots.
+   * @throws IOException if the directory cannot be created, or its files cannot be read.
+   */
+  public DurableVolatileChunk(final File directory, final KeyFactory<K, V> keyFactory, final Codec<K> keyCodec, final Codec<V> valueCodec,
+                              final SyncPolicy syncPolicy, final int snapshotThreshold, final Executor snapshotExecutor) throws IOException {
+    super(keyFactory);
+    checkArgument(snapshotThreshold > 0, "snapshotThreshold must be positive");
+    mDirectory = checkNotNull(directory);
+    mKeyCodec = checkNotNull(keyCodec);
+    mValueCodec = checkNotNull(valueCodec);
+    mSyncPolicy = checkNotNull(syncPolicy);
+    mSnapshotThreshold = snapshotThreshold;
+    mSnapshotExecutor = checkNotNull(snapshotExecutor);
+
+    if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+      throw new IOException("Cannot create directory " + mDirectory);
+    }
+    recover();
+
+    if (mSyncPolicy.mIntervalNanos > 0) {
+      mSyncScheduler = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("prevail-sync-%d").build());
+      mSyncScheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            write(true);
+          } catch (IOException | IllegalStateException e) {
+            // Retried on the next interval.  A failing log also fails the next write that must be forced.
+          }
+        }
+      }, mSyncPolicy.mIntervalNanos, mSyncPolicy.mIntervalNanos, TimeUnit.NANOSECONDS);
+    } else {
+      mSyncScheduler = null;
+    }
+  }
+
+  @Override
+  protected K doInsert(final V value, final OnProgressUpdateListener onProgressUpdateListener) throws InsertException {
+    final K key = getKeyFactory().createKey(value);
+    try {
+      final long sequence;
+      synchronized (mLock) {
+        sequence = append(PUT, key, value);
+        apply(sequence, key, value);
+      }
+      commit(sequence);
+    } catch (IOException e) {
+      throw new InsertException("Cannot append to write-ahead log", e);
+    }
+    return key;
+  }
+
+  @Override
+  protected QueryResult<V> doQuery(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    synchronized (mLock) {
+      return super.doQuery(key, onProgressUpdateListener);
+    }
+  }
+
+  @Override
+  protected QueryResult<V> doQueryAll(final List<K> keys, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    synchronized (mLock) {
+      return super.doQueryAll(keys, onProgressUpdateListener);
+    }
+  }
+
+  @Override
+  protected QueryResult<V> doQueryWhere(final Query<V> query, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    synchronized (mLock) {
+      return super.doQueryWhere(query, onProgressUpdateListener);
+    }
+  }
+
+  @Override
+  protected int doUpdate(final K key, final V value, final OnProgressUpdateListener progressUpdateListener) throws UpdateException {
+    try {
+      final long sequence;
+      synchronized (mLock) {
+        if (!isPresent(key)) {
+          return 0;
+        }
+        sequence = append(PUT, key, value);
+        apply(sequence, key, value);
+      }
+      commit(sequence);
+      return 1;
+    } catch (IOException e) {
+      throw new UpdateException("Cannot append to write-ahead log", e);
+    }
+  }
+
+  @Override
+  protected int doDelete(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws DeleteException {
+    try {
+      final long sequence;
+      synchronized (mLock) {
+        if (!isPresent(key)) {
+          return 0;
+        }
+        sequence = append(DELETE, key, null);
+        apply(sequence, key, null);
+      }
+      commit(sequence);
+      return 1;
+    } catch (IOException e) {
+      throw new DeleteException("Cannot append to write-ahead log", e);
+    }
+  }
+
+  /**
+   * Returns the number of values in this Chunk.
+   */
+  public int size() {
+    synchronized (mLock) {
+      return getMap().size();
+    }
+  }
+
+  /**
+   * Forces all writes so far to the storage device.
+   */
+  public void sync() throws IOException {
+    write(true);
+  }
+
+  /**
+   * Takes a snapshot of the values now, and deletes the log files it supersedes.  Writes are held off whilst
+   * the values are copied, but not whilst the copy is written.
+   *
+   * @throws IOException if the snapshot cannot be written.  The log still holds every change.
+   */
+  public void snapshot() throws IOException {
+    synchronized (mSnapshotLock) {
+      final Map<K, V> values;
+      final int generation;
+      synchronized (mWriteLock) {
+        synchronized (mLock) {
+          checkState(!mClosed, "Chunk is closed");
+          // Forced first, such that every change logged so far is applied, and so in the copy.
+          writePending(true);
+          values = Maps.newHashMap(getMap());
+          mLogFile.close();
+          generation = ++mGeneration;
+          mLogFile = openLog(generation);
+          mRecordsSinceSnapshot = 0;
+          mSnapshotScheduled = false;
+        }
+      }
+
+      writeSnapshot(generation, values);
+
+      // Everything before the new snapshot is superseded by it.
+      for (Map.Entry<Integer, File> entry : listFiles(LOG_PREFIX, LOG_SUFFIX).headMap(generation).entrySet()) {
+        delete(entry.getValue());
+      }
+      for (Map.Entry<Integer, File> entry : listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).headMap(generation).entrySet()) {
+        delete(entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Forces all writes to the storage device, closes the log, and clears the values from memory.  Snapshots
+   * in progress are still completed.
+   */
+  @Override
+  public void close() throws IOException {
+    if (mSyncScheduler != null) {
+      mSyncScheduler.shutdown();
+    }
+    synchronized (mWriteLock) {
+      synchronized (mLock) {
+        if (mClosed) {
+          return;
+        }
+        try {
+          writePending(true);
+        } finally {
+          mClosed = true;
+          mLogFile.close();
+          super.close();
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "DurableVolatileChunk{directory=" + mDirectory + "}";
+  }
+
+  /**
+   * Replaces the log file, returning the one replaced, such that tests can make writes fail.
+   */
+  @VisibleForTesting
+  RandomAccessFile replaceLogFile(final RandomAccessFile logFile) {
+    synchronized (mWriteLock) {
+      synchronized (mLock) {
+        final RandomAccessFile replaced = mLogFile;
+        mLogFile = logFile;
+        return replaced;
+      }
+    }
+  }
+
+  /**
+   * Returns if the given key has a value, counting changes logged but not yet applied.  Called whilst holding
+   * mLock.
+   */
+  private boolean isPresent(final K key) {
+    final Change<K, V> change = mLatestUnapplied.get(key);
+    return change == null ? getMap().containsKey(key) : change.mValue != null;
+  }
+
+  /**
+   * Applies the change logged with the given sequence number to the values, or holds it until it is forced if
+   * the SyncPolicy is EVERY_WRITE.  Called whilst holding mLock.
+   *
+   * @param value The value, or null to apply a delete.
+   */
+  private void apply(final long sequence, final K key, final V value) {
+    if (mSyncPolicy != SyncPolicy.EVERY_WRITE) {
+      putOrRemove(key, value);
+      return;
+    }
+    final Change<K, V> change = new Change<>(sequence, key, value);
+    mUnapplied.add(change);
+    mLatestUnapplied.put(key, change);
+  }
+
+  /**
+   * Applies the held changes up to the given sequence number, which have been forced.  Called whilst holding
+   * mLock.
+   */
+  private void applyForced(final long sequence) {
+    while (!mUnapplied.isEmpty() && mUnapplied.peek().mSequence <= sequence) {
+      final Change<K, V> change = mUnapplied.remove();
+      if (mLatestUnapplied.get(change.mKey) == change) {
+        mLatestUnapplied.remove(change.mKey);
+      }
+      putOrRemove(change.mKey, change.mValue);
+    }
+  }
+
+  private void putOrRemove(final K key, final V value) {
+    if (value == null) {
+      getMap().remove(key);
+    } else {
+      getMap().put(key, value);
+    }
+  }
+
+  /**
+   * Appends a record to the pending records, returning its sequence number.  Called whilst holding mLock.
+   *
+   * @param value The value, or null to append a delete.
+   * @throws IOException if pending records could not be written before.
+   */
+  private long append(final byte operation, final K key, final V value) throws IOException {
+    checkState(!mClosed, "Chunk is closed");
+    if (mFailure != null) {
+      throw new IOException("Write-ahead log has failed", mFailure);
+    }
+    final byte[] keyBytes = mKeyCodec.encode(key);
+    final byte[] valueBytes = value == null ? new byte[0] : mValueCodec.encode(value);
+    final int bodyLength = BODY_HEADER_SIZE + keyBytes.length + valueBytes.length;
+    final int recordLength = RECORD_HEADER_SIZE + bodyLength;
+    if (mPending.length - mPendingLength < recordLength) {
+      mPending = Arrays.copyOf(mPending, Math.max(mPending.length * 2, mPendingLength + recordLength));
+    }
+
+    final ByteBuffer record = ByteBuffer.wrap(mPending, mPendingLength, recordLength);
+    record.putInt(bodyLength);
+    record.putInt(0);
+    record.put(operation);
+    record.putInt(keyBytes.length);
+    record.put(keyBytes);
+    record.put(valueBytes);
+    record.putInt(mPendingLength + 4, checksum(mPending, mPendingLength + RECORD_HEADER_SIZE, bodyLength));
+    mPendingLength += recordLength;
+    mRecordsSinceSnapshot++;
+    return ++mAppendedSequence;
+  }
+
+  /**
+   * Waits until the record of the given sequence number is as durable as the SyncPolicy requires, then
+   * schedules a snapshot if one is due.  Called without holding mLock, such that other threads may append
+   * whilst this thread writes.
+   */
+  private void commit(final long sequence) throws IOException {
+    final boolean snapshotDue;
+    final boolean full;
+    synchronized (mLock) {
+      snapshotDue = mRecordsSinceSnapshot >= mSnapshotThreshold && !mSnapshotScheduled && !mClosed;
+      if (snapshotDue) {
+        mSnapshotScheduled = true;
+      }
+      full = mPendingLength >= WRITE_THRESHOLD;
+    }
+
+    if (mSyncPolicy == SyncPolicy.EVERY_WRITE) {
+      if (mDurableSequence < sequence) {
+        write(true);
+      }
+    } else if (full) {
+      write(false);
+    }
+
+    if (snapshotDue) {
+      mSnapshotExecutor.execute(mSnapshot);
+    }
+  }
+
+  /**
+   * Writes the pending records to the log file, and forces them to the storage device if asked to.  If
+   * another thread forced the records whilst this thread waited for mWriteLock, there is nothing left to do.
+   */
+  private void write(final boolean force) throws IOException {
+    synchronized (mWriteLock) {
+      final byte[] pending;
+      final int pendingLength;
+      final long sequence;
+      final FileChannel channel;
+      synchronized (mLock) {
+        checkState(!mClosed, "Chunk is closed");
+        // A failed write may have taken records of other threads with it, so nothing written since is durable.
+        if (mFailure != null) {
+          throw new IOException("Write-ahead log has failed", mFailure);
+        }
+        if (force && mDurableSequence == mAppendedSequence) {
+          return;
+        }
+        pending = mPending;
+        pendingLength = mPendingLength;
+        sequence = mAppendedSequence;
+        channel = mLogFile.getChannel();
+        mPending = new byte[Math.max(1024, Math.min(pending.length, WRITE_THRESHOLD * 2))];
+        mPendingLength = 0;
+      }
+      // The log file is only replaced whilst holding mWriteLock, so it is safe to write outside of mLock.
+      try {
+        writeFully(channel, pending, pendingLength);
+        if (force) {
+          channel.force(false);
+          synchronized (mLock) {
+            // Applied before being published as durable, such that each writer sees its own change on return.
+            applyForced(sequence);
+            mDurableSequence = sequence;
+          }
+        }
+      } catch (IOException e) {
+        synchronized (mLock) {
+          mFailure = e;
+          // Never to be forced, so never applied.
+          mUnapplied.clear();
+          mLatestUnapplied.clear();
+        }
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Writes the pending records to the log file whilst holding both mWriteLock and mLock.
+   */
+  private void writePending(final boolean force) throws IOException {
+    if (mFailure != null) {
+      throw new IOException("Write-ahead log has failed", mFailure);
+    }
+    final FileChannel channel = mLogFile.getChannel();
+    writeFully(channel, mPending, mPendingLength);
+    mPendingLength = 0;
+    if (force) {
+      channel.force(false);
+      applyForced(mAppendedSequence);
+      mDurableSequence = mAppendedSequence;
+    }
+  }
+
+  private void recover() throws IOException {
+    for (File file : checkNotNull(mDirectory.listFiles())) {
+      if (file.getName().endsWith(TEMPORARY_SUFFIX)) {
+        // A snapshot that was not completed.
+        delete(file);
+      }
+    }
+
+    final TreeMap<Integer, File> snapshots = listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+    final TreeMap<Integer, File> logs = listFiles(LOG_PREFIX, LOG_SUFFIX);
+    int generation = 0;
+    if (!snapshots.isEmpty()) {
+      generation = snapshots.lastKey();
+      readSnapshot(snapshots.lastEntry().getValue());
+    }
+    for (Map.Entry<Integer, File> entry : logs.tailMap(generation).entrySet()) {
+      replay(entry.getValue());
+    }
+
+    mGeneration = Math.max(generation, logs.isEmpty() ? 0 : logs.lastKey()) + 1;
+    mLogFile = openLog(mGeneration);
+  }
+
+  /**
+   * Applies each valid record of the given log file to the values, stopping at the first invalid record.
+   * The file is truncated after the last valid record, so that a torn record cannot be mistaken for a
+   * record on the next recovery.
+   */
+  private void replay(final File file) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(randomAccessFile.getFD()), 1 << 16));
+      final long length = randomAccessFile.length();
+      long offset = 0;
+      byte[] body = new byte[0];
+      while (offset + RECORD_HEADER_SIZE + BODY_HEADER_SIZE <= length) {
+        final int bodyLength = in.readInt();
+        final int crc = in.readInt();
+        if (bodyLength < BODY_HEADER_SIZE || bodyLength > length - offset - RECORD_HEADER_SIZE) {
+          break;
+        }
+        if (body.length < bodyLength) {
+          body = new byte[Math.max(bodyLength, body.length * 2)];
+        }
+        in.readFully(body, 0, bodyLength);
+        if (checksum(body, 0, bodyLength) != crc) {
+          break;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(body, 0, bodyLength);
+        final byte operation = buffer.get();
+        final int keyLength = buffer.getInt();
+        if (keyLength < 0 || keyLength > buffer.remaining() || (operation != PUT && operation != DELETE)) {
+          break;
+        }
+        final K key = mKeyCodec.decode(ByteBuffer.wrap(body, BODY_HEADER_SIZE, keyLength).slice());
+        if (operation == PUT) {
+          getMap().put(key, mValueCodec.decode(ByteBuffer.wrap(body, BODY_HEADER_SIZE + keyLength, bodyLength - BODY_HEADER_SIZE - keyLength).slice()));
+        } else {
+          getMap().remove(key);
+        }
+        offset += RECORD_HEADER_SIZE + bodyLength;
+      }
+      if (offset < length) {
+        randomAccessFile.setLength(offset);
+      }
+    }
+  }
+
+  /**
+   * Writes the given values to a snapshot file of the given generation, as
+   * [int magic][int count] followed by [int keyLength][key][int valueLength][value] for each value, then
+   * the long checksum of all preceding bytes.  The file is only given its final name once it is durable.
+   */
+  private void writeSnapshot(final int generation, final Map<K, V> values) throws IOException {
+    final File file = snapshotFile(generation);
+    final File temporaryFile = new File(mDirectory, file.getName() + TEMPORARY_SUFFIX);
+    try (FileOutputStream fileOut = new FileOutputStream(temporaryFile)) {
+      final CheckedOutputStream checkedOut = new CheckedOutputStream(new BufferedOutputStream(fileOut, 1 << 16), new CRC32());
+      final DataOutputStream out = new DataOutputStream(checkedOut);
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeInt(values.size());
+      for (Map.Entry<K, V> entry : values.entrySet()) {
+        final byte[] key = mKeyCodec.encode(entry.getKey());
+        final byte[] value = mValueCodec.encode(entry.getValue());
+        out.writeInt(key.length);
+        out.write(key);
+        out.writeInt(value.length);
+        out.write(value);
+      }
+      out.writeLong(checkedOut.getChecksum().getValue());
+      out.flush();
+      fileOut.getChannel().force(true);
+    }
+    if (!temporaryFile.renameTo(file)) {
+      throw new IOException("Cannot rename " + temporaryFile + " to " + file);
+    }
+  }
+
+  private void readSnapshot(final File file) throws IOException {
+    try (FileInputStream fileIn = new FileInputStream(file)) {
+      final CheckedInputStream checkedIn = new CheckedInputStream(new BufferedInputStream(fileIn, 1 << 16), new CRC32());
+      final DataInputStream in = new DataInputStream(checkedIn);
+      if (in.readInt() != SNAPSHOT_MAGIC) {
+        throw new IOException("Not a snapshot: " + file);
+      }
+      final int count = in.readInt();
+      byte[] bytes = new byte[256];
+      for (int i = 0; i < count; i++) {
+        final int keyLength = in.readInt();
+        bytes = readFully(in, bytes, keyLength);
+        final K key = mKeyCodec.decode(ByteBuffer.wrap(bytes, 0, keyLength).slice());
+        final int valueLength = in.readInt();
+        bytes = readFully(in, bytes, valueLength);
+        getMap().put(key, mValueCodec.decode(ByteBuffer.wrap(bytes, 0, valueLength).slice()));
+      }
+      final long checksum = checkedIn.getChecksum().getValue();
+      if (in.readLong() != checksum) {
+        throw new IOException("Corrupt snapshot: " + file);
+      }
+    } catch (EOFException e) {
+      throw new IOException("Truncated snapshot: " + file, e);
+    }
+  }
+
+  private static byte[] readFully(final DataInputStream in, final byte[] bytes, final int length) throws IOException {
+    if (length < 0) {
+      throw new IOException("Negative length in snapshot");
+    }
+    final byte[] buffer = bytes.length < length ? new byte[Math.max(length, bytes.length * 2)] : bytes;
+    in.readFully(buffer, 0, length);
+    return buffer;
+  }
+
+  private TreeMap<Integer, File> listFiles(final String prefix, final String suffix) {
+    final TreeMap<Integer, File> files = new TreeMap<>();
+    final File[] all = mDirectory.listFiles();
+    if (all != null) {
+      for (File file : all) {
+        final String name = file.getName();
+        if (name.startsWith(prefix) && name.endsWith(suffix)) {
+          files.put(Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length())), file);
+        }
+      }
+    }
+    return files;
+  }
+
+  private RandomAccessFile openLog(final int generation) throws IOException {
+    final RandomAccessFile file = new RandomAccessFile(new File(mDirectory, String.format("%s%08d%s", LOG_PREFIX, generation, LOG_SUFFIX)), "rw");
+    file.seek(file.length());
+    return file;
+  }
+
+  private File snapshotFile(final int generation) {
+    return new File(mDirectory, String.format("%s%08d%s", SNAPSHOT_PREFIX, generation, SNAPSHOT_SUFFIX));
+  }
+
+  private static void delete(final File file) throws IOException {
+    if (!file.delete() && file.exists()) {
+      throw new IOException("Cannot delete " + file);
+    }
+  }
+
+  private static void writeFully(final FileChannel channel, final byte[] bytes, final int length) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static int checksum(final byte[] bytes, final int offset, final int length) {
+    final CRC32 crc = new CRC32();
+    crc.update(bytes, offset, length);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * A change logged under SyncPolicy.EVERY_WRITE, held until its record is forced.
+   */
+  private static final class Change<K, V> {
+    private final long mSequence;
+    private final K mKey;
+    // Null for a delete.
+    private final V mValue;
+
+    private Change(final long sequence, final K key, final V value) {
+      mSequence = sequence;
+      mKey = key;
+      mValue = value;
+    }
+  }
+
+  /**
+   * Decides when the records of the write-ahead log are forced to the storage device.
+   */
+  public static final class SyncPolicy {
+    /**
+     * Each write returns only once its record is forced to the storage device.  No acknowledged write is
+     * lost, even if the machine fails.  Concurrent writes share each force.
+     */
+    public static final SyncPolicy EVERY_WRITE = new SyncPolicy(0);
+
+    /**
+     * Records are only forced on {@link #sync()}, on a snapshot, and on close.  Records are written to the
+     * operating system in batches, so a failure of the process or the machine may lose recent writes.
+     */
+    public static final SyncPolicy NEVER = new SyncPolicy(-1);
+
+    private final long mIntervalNanos;
+
+    private SyncPolicy(final long intervalNanos) {
+      mIntervalNanos = intervalNanos;
+    }
+
+    /**
+     * Returns a SyncPolicy forcing records to the storage device on a background thread, at the given
+     * interval.  A failure may lose the writes of about the last interval.
+     */
+    public static SyncPolicy every(final long interval, final TimeUnit unit) {
+      checkArgument(interval > 0, "interval must be positive");
+      return new SyncPolicy(unit.toNanos(interval));
+    }
+
+    @Override
+    public String toString() {
+      return mIntervalNanos == 0 ? "EVERY_WRITE" : mIntervalNanos < 0 ? "NEVER" : "every " + mIntervalNanos + "ns";
+    }
+  }
+}
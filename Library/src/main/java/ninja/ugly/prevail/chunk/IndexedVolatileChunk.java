@@ -0,0 +1,278 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ninja.ugly.prevail.event.factory.QueryEventFactory;
+import ninja.ugly.prevail.exception.DeleteException;
+import ninja.ugly.prevail.exception.InsertException;
+import ninja.ugly.prevail.exception.QueryException;
+import ninja.ugly.prevail.exception.UpdateException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A VolatileChunk with secondary indexes, such that values can be queried by properties other than their key.
+ * <p>
+ * Each index is declared with a name and a Function extracting the indexed property from a value.  Indexes
+ * are kept up to date on every insert, update and delete.  A query with an IndexKey returns the values
+ * whose indexed property equals the value of the IndexKey, without scanning all values.  Other query keys
+ * are looked up by key, as by VolatileChunk.
+ * <p>
+ * Each index records the property it extracted from the value of each key, so a value may be changed in
+ * place and then updated under its key, and is reindexed correctly.
+ * <p>
+ * Each index costs a multimap entry and a map entry per value.  As with VolatileChunk, this Chunk is not
+ * thread-safe.
+ */
+public class IndexedVolatileChunk<K, V> extends VolatileChunk<K, V> {
+
+  private final Map<String, Index<K, V>> mIndexes = Maps.newHashMap();
+
+  /**
+   * Constructs a new IndexedVolatileChunk that uses the given KeyFactory to generate keys during insertion.
+   *
+   * @param keyFactory A KeyFactory used to create keys to insert objects under.
+   */
+  public IndexedVolatileChunk(final KeyFactory<K, V> keyFactory) {
+    this(Maps.<K, V>newHashMap(), keyFactory);
+  }
+
+  /**
+   * Constructs a new IndexedVolatileChunk that uses the given backing Map and the given KeyFactory
+   * to generate keys during insertion.
+   * <p>
+   * The given Map must not be changed other than through this Chunk, else the indexes become stale.
+   *
+   * @param map The Map to use as backing storage.
+   * @param keyFactory A KeyFactory used to create keys to insert objects under.
+   */
+  public IndexedVolatileChunk(final Map<K, V> map, final KeyFactory<K, V> keyFactory) {
+    super(map, keyFactory);
+  }
+
+  /**
+   * Adds an index of the given name, indexing each value by the property returned from the given Function.
+   * Values already in this Chunk are indexed immediately.
+   *
+   * @param name The name of the index, as given to IndexKeys.
+   * @param extractor A Function returning the indexed property of a value.  It may return null.
+   */
+  public void addIndex(final String name, final Function<? super V, ?> extractor) {
+    checkArgument(!mIndexes.containsKey(checkNotNull(name)), "Index %s already exists", name);
+    final Index<K, V> index = new Index<K, V>(checkNotNull(extractor));
+    for (Map.Entry<K, V> entry : getMap().entrySet()) {
+      index.put(entry.getKey(), entry.getValue());
+    }
+    mIndexes.put(name, index);
+  }
+
+  /**
+   * Removes the index of the given name.
+   *
+   * @return true if there was such an index.
+   */
+  public boolean removeIndex(final String name) {
+    return mIndexes.remove(name) != null;
+  }
+
+  /**
+   * Queries the values whose property, in the named index, equals the given value.
+   * <p>
+   * Events are dispatched as for query, with an IndexKey as the key.
+   */
+  @SuppressWarnings("unchecked")
+  public QueryResult<V> queryIndex(final String indexName, final Object value, final QueryEventFactory<K, V>... customEventFactories) throws QueryException {
+    // The IndexKey is passed through as a key, as a DataModel would pass it, and recognised by doQuery.
+    return query((K) IndexKey.of(indexName, value), customEventFactories);
+  }
+
+  @Override
+  protected K doInsert(final V value, final OnProgressUpdateListener onProgressUpdateListener) throws InsertException {
+    final K key = getKeyFactory().createKey(value);
+    getMap().put(key, value);
+    reindex(key, value);
+    return key;
+  }
+
+  /**
+   * Query the given key from the backing storage, or the values with the given indexed property if the key
+   * is an IndexKey.
+   * @return The results
+   * @throws QueryException if the key is an IndexKey naming no index.
+   */
+  @Override
+  protected QueryResult<V> doQuery(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    if (key instanceof IndexKey) {
+      final IndexKey indexKey = (IndexKey) key;
+      final Index<K, V> index = mIndexes.get(indexKey.getIndexName());
+      if (index == null) {
+        throw new QueryException("No index named " + indexKey.getIndexName());
+      }
+      return new SplittableQueryResult.ListQueryResult<>(lookup(index, indexKey.getValue()));
+    }
+    return super.doQuery(key, onProgressUpdateListener);
+  }
+
+  /**
+   * Query the values meeting the given Query.  If the Query has an EqualTo Criterion on an Attribute with the
+   * name of an index, only the values in that index are scanned.  Otherwise, all values are scanned.
+   * <p>
+   * An Attribute is matched to an index by name alone, so should extract the same property as the index.
+   */
+  @Override
+  protected QueryResult<V> doQueryWhere(final Query<V> query, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    for (Query.Criterion<V> criterion : query.getCriteria()) {
+      if (criterion instanceof Query.EqualTo) {
+        final Query.EqualTo<V, ?> equalTo = (Query.EqualTo<V, ?>) criterion;
+        final Index<K, V> index = mIndexes.get(equalTo.getAttribute().getName());
+        if (index != null) {
+          return new SplittableQueryResult.ListQueryResult<>(select(lookup(index, equalTo.getValue()), query));
+        }
+      }
+    }
+    return super.doQueryWhere(query, onProgressUpdateListener);
+  }
+
+  @Override
+  protected int doUpdate(final K key, final V value, final OnProgressUpdateListener progressUpdateListener) throws UpdateException {
+    final int numUpdates = super.doUpdate(key, value, progressUpdateListener);
+    if (numUpdates > 0) {
+      reindex(key, value);
+    }
+    return numUpdates;
+  }
+
+  @Override
+  protected int doDelete(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws DeleteException {
+    final int numDeleted = super.doDelete(key, onProgressUpdateListener);
+    if (numDeleted > 0) {
+      reindex(key, null);
+    }
+    return numDeleted;
+  }
+
+  @Override
+  public void close() throws IOException {
+    super.close();
+    for (Index<K, V> index : mIndexes.values()) {
+      index.mKeys.clear();
+      index.mProperties.clear();
+    }
+  }
+
+  private List<V> lookup(final Index<K, V> index, final Object indexedValue) {
+    final Map<K, V> map = getMap();
+    final Set<K> keys = index.mKeys.get(indexedValue);
+    final List<V> values = new ArrayList<>(keys.size());
+    for (K key : keys) {
+      values.add(map.get(key));
+    }
+    return values;
+  }
+
+  /**
+   * Indexes the given key under the properties of the given value, or unindexes it if the value is null.
+   */
+  private void reindex(final K key, final V value) {
+    for (Index<K, V> index : mIndexes.values()) {
+      if (value == null) {
+        index.remove(key);
+      } else {
+        index.put(key, value);
+      }
+    }
+  }
+
+  private static class Index<K, V> {
+    private final Function<? super V, ?> mExtractor;
+    private final SetMultimap<Object, K> mKeys = HashMultimap.create();
+    // The property indexed for each key, such that the key is unindexed by the property it was indexed by,
+    // even if its value has since been changed in place.
+    private final Map<K, Object> mProperties = Maps.newHashMap();
+
+    Index(final Function<? super V, ?> extractor) {
+      mExtractor = extractor;
+    }
+
+    void put(final K key, final V value) {
+      final Object property = mExtractor.apply(value);
+      final boolean indexed = mProperties.containsKey(key);
+      final Object previous = mProperties.put(key, property);
+      if (indexed) {
+        if (Objects.equal(previous, property)) {
+          return;
+        }
+        mKeys.remove(previous, key);
+      }
+      mKeys.put(property, key);
+    }
+
+    void remove(final K key) {
+      if (mProperties.containsKey(key)) {
+        mKeys.remove(mProperties.remove(key), key);
+      }
+    }
+  }
+
+  /**
+   * A query key addressing the values of an IndexedVolatileChunk whose indexed property, in the named index,
+   * equals a given value.
+   */
+  public static final class IndexKey {
+    private final String mIndexName;
+    private final Object mValue;
+
+    private IndexKey(final String indexName, final Object value) {
+      mIndexName = checkNotNull(indexName);
+      mValue = value;
+    }
+
+    /**
+     * Returns an IndexKey addressing the values with the given property in the named index.
+     *
+     * @param indexName The name of an index added to the Chunk.
+     * @param value The value of the indexed property.  May be null.
+     */
+    public static IndexKey of(final String indexName, final Object value) {
+      return new IndexKey(indexName, value);
+    }
+
+    public String getIndexName() {
+      return mIndexName;
+    }
+
+    public Object getValue() {
+      return mValue;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof IndexKey)) {
+        return false;
+      }
+      final IndexKey other = (IndexKey) o;
+      return mIndexName.equals(other.mIndexName) && Objects.equal(mValue, other.mValue);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(mIndexName, mValue);
+    }
+
+    @Override
+    public String toString() {
+      return mIndexName + "=" + mValue;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package ninja.ugly.prevail.chunk;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A query key addressing a range of keys on a SortedVolatileChunk, in the order of that Chunk's keys.
+ * <p>
+ * Either bound may be absent, in which case the range is unbounded in that direction.  A range with its
+ * lower bound above its upper bound addresses no keys.  The values may be returned in descending order, and
+ * limited in number.  KeyRanges are immutable.
+ *
+ * @param <K> The type of keys on the Chunk.
+ */
+public final class KeyRange<K> {
+  private static final int NO_LIMIT = Integer.MAX_VALUE;
+
+  private final K mLower;
+  private final boolean mLowerInclusive;
+  private final K mUpper;
+  private final boolean mUpperInclusive;
+  private final boolean mDescending;
+  private final int mLimit;
+
+  private KeyRange(final K lower, final boolean lowerInclusive, final K upper, final boolean upperInclusive, final boolean descending, final int limit) {
+    mLower = lower;
+    mLowerInclusive = lowerInclusive;
+    mUpper = upper;
+    mUpperInclusive = upperInclusive;
+    mDescending = descending;
+    mLimit = limit;
+  }
+
+  /** Returns a KeyRange addressing all keys. */
+  public static <K> KeyRange<K> all() {
+    return new KeyRange<K>(null, false, null, false, false, NO_LIMIT);
+  }
+
+  /** Returns a KeyRange addressing keys from lower to upper, both inclusive. */
+  public static <K> KeyRange<K> closed(final K lower, final K upper) {
+    return new KeyRange<K>(checkNotNull(lower), true, checkNotNull(upper), true, false, NO_LIMIT);
+  }
+
+  /** Returns a KeyRange addressing keys from lower, inclusive, to upper, exclusive. */
+  public static <K> KeyRange<K> closedOpen(final K lower, final K upper) {
+    return new KeyRange<K>(checkNotNull(lower), true, checkNotNull(upper), false, false, NO_LIMIT);
+  }
+
+  /** Returns a KeyRange addressing keys greater than or equal to lower. */
+  public static <K> KeyRange<K> atLeast(final K lower) {
+    return new KeyRange<K>(checkNotNull(lower), true, null, false, false, NO_LIMIT);
+  }
+
+  /** Returns a KeyRange addressing keys strictly greater than lower. */
+  public static <K> KeyRange<K> greaterThan(final K lower) {
+    return new KeyRange<K>(checkNotNull(lower), false, null, false, false, NO_LIMIT);
+  }
+
+  /** Returns a KeyRange addressing keys less than or equal to upper. */
+  public static <K> KeyRange<K> atMost(final K upper) {
+    return new KeyRange<K>(null, false, checkNotNull(upper), true, false, NO_LIMIT);
+  }
+
+  /** Returns a KeyRange addressing keys strictly less than upper. */
+  public static <K> KeyRange<K> lessThan(final K upper) {
+    return new KeyRange<K>(null, false, checkNotNull(upper), false, false, NO_LIMIT);
+  }
+
+  /**
+   * Returns a KeyRange addressing the String keys starting with the given prefix, on a Chunk ordering its
+   * keys naturally.
+   */
+  public static KeyRange<String> prefix(final String prefix) {
+    checkNotNull(prefix);
+    // The least String greater than every String starting with the prefix, found by incrementing the last
+    // character that can be incremented.
+    int end = prefix.length();
+    while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+      end--;
+    }
+    if (end == 0) {
+      return atLeast(prefix);
+    }
+    final String upper = prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    return closedOpen(prefix, upper);
+  }
+
+  /**
+   * Returns a copy of this KeyRange returning at most the given number of values.
+   */
+  public KeyRange<K> limit(final int limit) {
+    checkArgument(limit >= 0, "limit must not be negative");
+    return new KeyRange<K>(mLower, mLowerInclusive, mUpper, mUpperInclusive, mDescending, limit);
+  }
+
+  /**
+   * Returns a copy of this KeyRange returning values in descending order of key.  Any limit then applies
+   * from the upper end of the range.
+   */
+  public KeyRange<K> descending() {
+    return new KeyRange<K>(mLower, mLowerInclusive, mUpper, mUpperInclusive, true, mLimit);
+  }
+
+  /** Returns the lower bound, or null if unbounded below. */
+  public K getLower() {
+    return mLower;
+  }
+
+  public boolean isLowerInclusive() {
+    return mLowerInclusive;
+  }
+
+  /** Returns the upper bound, or null if unbounded above. */
+  public K getUpper() {
+    return mUpper;
+  }
+
+  public boolean isUpperInclusive() {
+    return mUpperInclusive;
+  }
+
+  public boolean isDescending() {
+    return mDescending;
+  }
+
+  /** Returns the maximum number of values to return, or Integer.MAX_VALUE if unlimited. */
+  public int getLimit() {
+    return mLimit;
+  }
+
+  @Override
+  public String toString() {
+    return (mLower == null ? "(-inf" : (mLowerInclusive ? "[" : "(") + mLower) + ".."
+        + (mUpper == null ? "+inf)" : mUpper + (mUpperInclusive ? "]" : ")"))
+        + (mDescending ? " descending" : "")
+        + (mLimit == NO_LIMIT ? "" : " limit " + mLimit);
+  }
+}
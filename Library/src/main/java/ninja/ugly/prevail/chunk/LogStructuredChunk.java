@@ -0,0 +1,567 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+import ninja.ugly.prevail.exception.DeleteException;
+import ninja.ugly.prevail.exception.InsertException;
+import ninja.ugly.prevail.exception.QueryException;
+import ninja.ugly.prevail.exception.UpdateException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * An extension of DefaultChunk that stores data durably, in an append-only log of memory-mapped files.
+ * <p>
+ * The log is a sequence of fixed-size segment files in a directory.  Every insert, update and delete
+ * appends a checksummed record to the newest segment, and an in-memory index maps each key to its latest
+ * record.  Queries read the record from the mapped segment, and decode it with the value Codec.
+ * <p>
+ * Once a large enough fraction of an older segment is superseded, the segment is compacted on the
+ * compaction Executor: its live records are copied to the newest segment, and its file is deleted.
+ * <p>
+ * On construction, the segments already in the directory are scanned in order to rebuild the index.  A
+ * torn record at the end of the newest segment, as left by a crash part way through a write, fails its
+ * checksum and is discarded, along with anything after it.
+ * <p>
+ * Writes reach the operating system immediately, but are only forced to the storage device by
+ * {@link #sync()} and {@link #close()}.  The KeyFactory should produce keys that are unique across restarts,
+ * for example by deriving the key from the value, since an auto-incrementing KeyFactory starts again from
+ * zero each time the Chunk is constructed.  An insert under a key that is already present throws an
+ * InsertException, rather than overwrite the value.
+ * <p>
+ * Operations are synchronized with compaction, and so this Chunk is thread-safe, although operations do
+ * not run in parallel.
+ */
+public class LogStructuredChunk<K, V> extends DefaultChunk<K, V> {
+  /** The default size, in bytes, of each segment file. */
+  public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+  /** The default fraction of superseded bytes in a segment at which the segment is compacted. */
+  public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+  private static final Executor DEFAULT_COMPACTION_EXECUTOR = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("prevail-compaction-%d").build());
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  // A record is [int bodyLength][int crc] followed by a body of [int keyLength][int valueLength][key][value].
+  private static final int RECORD_HEADER_SIZE = 8;
+  private static final int BODY_HEADER_SIZE = 8;
+  private static final int TOMBSTONE = -1;
+
+  private final Object mLock = new Object();
+  private final Map<K, Location> mIndex = Maps.newHashMap();
+  private final TreeMap<Integer, Segment> mSegments = new TreeMap<>();
+  private final File mDirectory;
+  private final VolatileChunk.KeyFactory<K, V> mKeyFactory;
+  private final Codec<K> mKeyCodec;
+  private final Codec<V> mValueCodec;
+  private final int mSegmentSize;
+  private final double mCompactionThreshold;
+  private final Executor mCompactionExecutor;
+
+  private Segment mActiveSegment;
+  private boolean mCompactionScheduled = false;
+  private boolean mClosed = false;
+
+  private final Runnable mCompaction = new Runnable() {
+    @Override
+    public void run() {
+      compact();
+    }
+  };
+
+  /**
+   * Constructs a LogStructuredChunk in the given directory, recovering any data already there.  Segments
+   * are of the default size, and compacted on a shared background thread.
+   *
+   * @param directory The directory holding the segment files.  Created if it does not exist.
+   * @param keyFactory A KeyFactory used to create keys to insert objects under.
+   * @param keyCodec The Codec used to convert keys to and from bytes.
+   * @param valueCodec The Codec used to convert values to and from bytes.
+   * @throws IOException if the directory cannot be created, or its segments cannot be read.
+   */
+  public LogStructuredChunk(final File directory, final VolatileChunk.KeyFactory<K, V> keyFactory, final Codec<K> keyCodec, final Codec<V> valueCodec) throws IOException {
+    this(directory, keyFactory, keyCodec, valueCodec, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_THRESHOLD, DEFAULT_COMPACTION_EXECUTOR);
+  }
+
+  /**
+   * Constructs a LogStructuredChunk in the given directory, recovering any data already there.
+   *
+   * @param directory The directory holding the segment files.  Created if it does not exist.
+   * @param keyFactory A KeyFactory used to create keys to insert objects under.
+   * @param keyCodec The Codec used to convert keys to and from bytes.
+   * @param valueCodec The Codec used to convert values to and from bytes.
+   * @param segmentSize The size, in bytes, of each new segment file.  No record may be larger than this.
+   * @param compactionThreshold The fraction of superseded bytes in a segment at which the segment is compacted.
+   * @param compactionExecutor The Executor on which to compact segments.
+   * @throws IOException if the directory cannot be created, or its segments cannot be read.
+   */
+  public LogStructuredChunk(final File directory, final VolatileChunk.KeyFactory<K, V> keyFactory, final Codec<K> keyCodec, final Codec<V> valueCodec,
+                            final int segmentSize, final double compactionThreshold, final Executor compactionExecutor) throws IOException {
+    checkArgument(segmentSize > RECORD_HEADER_SIZE + BODY_HEADER_SIZE, "segmentSize too small");
+    checkArgument(compactionThreshold > 0 && compactionThreshold <= 1, "compactionThreshold must be in (0, 1]");
+    mDirectory = checkNotNull(directory);
+    mKeyFactory = checkNotNull(keyFactory);
+    mKeyCodec = checkNotNull(keyCodec);
+    mValueCodec = checkNotNull(valueCodec);
+    mSegmentSize = segmentSize;
+    mCompactionThreshold = compactionThreshold;
+    mCompactionExecutor = checkNotNull(compactionExecutor);
+
+    if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+      throw new IOException("Cannot create directory " + mDirectory);
+    }
+    recover();
+  }
+
+  @Override
+  protected K doInsert(final V value, final OnProgressUpdateListener onProgressUpdateListener) throws InsertException {
+    final K key = mKeyFactory.createKey(value);
+    try {
+      synchronized (mLock) {
+        if (mIndex.containsKey(key)) {
+          throw new InsertException("Key already present: " + key);
+        }
+        put(key, value);
+      }
+    } catch (IOException e) {
+      throw new InsertException("Cannot append to log", e);
+    }
+    return key;
+  }
+
+  @Override
+  protected QueryResult<V> doQuery(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    synchronized (mLock) {
+      checkState(!mClosed, "Chunk is closed");
+      final Location location = mIndex.get(key);
+      if (location == null) {
+        return new QueryResult.EmptyQueryResult<>();
+      }
+      return new QueryResult.SingletonQueryResult<>(readValue(location));
+    }
+  }
+
+  @Override
+  protected int doUpdate(final K key, final V value, final OnProgressUpdateListener progressUpdateListener) throws UpdateException {
+    try {
+      synchronized (mLock) {
+        if (!mIndex.containsKey(key)) {
+          return 0;
+        }
+        put(key, value);
+        return 1;
+      }
+    } catch (IOException e) {
+      throw new UpdateException("Cannot append to log", e);
+    }
+  }
+
+  @Override
+  protected int doDelete(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws DeleteException {
+    try {
+      synchronized (mLock) {
+        if (!mIndex.containsKey(key)) {
+          return 0;
+        }
+        append(mKeyCodec.encode(key), null);
+        release(mIndex.remove(key));
+        return 1;
+      }
+    } catch (IOException e) {
+      throw new DeleteException("Cannot append to log", e);
+    }
+  }
+
+  /**
+   * Returns the number of values in this Chunk.
+   */
+  public int size() {
+    synchronized (mLock) {
+      return mIndex.size();
+    }
+  }
+
+  /**
+   * Returns the number of segment files currently in the log.
+   */
+  public int getSegmentCount() {
+    synchronized (mLock) {
+      return mSegments.size();
+    }
+  }
+
+  /**
+   * Forces all writes so far to the storage device.
+   */
+  public void sync() {
+    synchronized (mLock) {
+      checkState(!mClosed, "Chunk is closed");
+      for (Segment segment : mSegments.values()) {
+        segment.mBuffer.force();
+      }
+    }
+  }
+
+  /**
+   * Forces all writes to the storage device, and unmaps and closes all segment files.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (mLock) {
+      if (mClosed) {
+        return;
+      }
+      mClosed = true;
+      IOException exception = null;
+      for (Segment segment : mSegments.values()) {
+        try {
+          segment.close();
+        } catch (IOException e) {
+          exception = exception == null ? e : exception;
+        }
+      }
+      mSegments.clear();
+      mIndex.clear();
+      mActiveSegment = null;
+      if (exception != null) {
+        throw exception;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LogStructuredChunk{directory=" + mDirectory + "}";
+  }
+
+  private void put(final K key, final V value) throws IOException {
+    final Location location = append(mKeyCodec.encode(key), mValueCodec.encode(checkNotNull(value)));
+    location.mSegment.mLiveBytes += location.mSize;
+    final Location previous = mIndex.put(key, location);
+    if (previous != null) {
+      release(previous);
+    }
+  }
+
+  private V readValue(final Location location) {
+    final ByteBuffer buffer = location.mSegment.mBuffer.duplicate();
+    final int bodyOffset = location.mOffset + RECORD_HEADER_SIZE;
+    final int keyLength = buffer.getInt(bodyOffset);
+    final int valueLength = buffer.getInt(bodyOffset + 4);
+    final int valueOffset = bodyOffset + BODY_HEADER_SIZE + keyLength;
+    buffer.limit(valueOffset + valueLength);
+    buffer.position(valueOffset);
+    return mValueCodec.decode(buffer.slice());
+  }
+
+  /**
+   * Appends a record to the active segment, rolling to a new segment if it does not fit.
+   *
+   * @param value The encoded value, or null to append a tombstone.
+   */
+  private Location append(final byte[] key, final byte[] value) throws IOException {
+    checkState(!mClosed, "Chunk is closed");
+    final int bodyLength = BODY_HEADER_SIZE + key.length + (value == null ? 0 : value.length);
+    final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bodyLength);
+    record.putInt(bodyLength);
+    record.putInt(0);
+    record.putInt(key.length);
+    record.putInt(value == null ? TOMBSTONE : value.length);
+    record.put(key);
+    if (value != null) {
+      record.put(value);
+    }
+    record.putInt(4, checksum(record.array(), RECORD_HEADER_SIZE, bodyLength));
+    return appendRecord(record.array());
+  }
+
+  private Location appendRecord(final byte[] record) throws IOException {
+    if (record.length > mSegmentSize) {
+      throw new IOException("Record of " + record.length + " bytes is larger than the segment size");
+    }
+    if (mActiveSegment.mBuffer.capacity() - mActiveSegment.mPosition < record.length) {
+      mActiveSegment = openSegment(mSegments.lastKey() + 1, mSegmentSize);
+      mSegments.put(mActiveSegment.mId, mActiveSegment);
+    }
+    final Segment segment = mActiveSegment;
+    final ByteBuffer buffer = segment.mBuffer.duplicate();
+    buffer.position(segment.mPosition);
+    buffer.put(record);
+    final Location location = new Location(segment, segment.mPosition, record.length);
+    segment.mPosition += record.length;
+    return location;
+  }
+
+  private void release(final Location location) {
+    location.mSegment.mLiveBytes -= location.mSize;
+    scheduleCompactionIfNeeded(location.mSegment);
+  }
+
+  private void scheduleCompactionIfNeeded(final Segment segment) {
+    if (!mCompactionScheduled && segment != mActiveSegment && needsCompaction(segment)) {
+      mCompactionScheduled = true;
+      mCompactionExecutor.execute(mCompaction);
+    }
+  }
+
+  private boolean needsCompaction(final Segment segment) {
+    return segment.mPosition - segment.mLiveBytes >= mCompactionThreshold * segment.mPosition;
+  }
+
+  /**
+   * Compacts each segment needing compaction, one at a time, so that operations may run in between.
+   */
+  private void compact() {
+    for (;;) {
+      synchronized (mLock) {
+        mCompactionScheduled = false;
+        if (mClosed) {
+          return;
+        }
+        Segment candidate = null;
+        for (Segment segment : mSegments.values()) {
+          if (segment != mActiveSegment && needsCompaction(segment)) {
+            candidate = segment;
+            break;
+          }
+        }
+        if (candidate == null) {
+          return;
+        }
+        try {
+          compact(candidate);
+        } catch (IOException e) {
+          // Leave the segment in place.  Its records are still valid, and compaction may be retried later.
+          return;
+        }
+      }
+    }
+  }
+
+  private void compact(final Segment segment) throws IOException {
+    final boolean hasOlderSegments = mSegments.firstKey() < segment.mId;
+    int offset = 0;
+    while (offset < segment.mPosition) {
+      final ByteBuffer buffer = segment.mBuffer;
+      final int recordSize = RECORD_HEADER_SIZE + buffer.getInt(offset);
+      final int keyLength = buffer.getInt(offset + RECORD_HEADER_SIZE);
+      final int valueLength = buffer.getInt(offset + RECORD_HEADER_SIZE + 4);
+      final K key = decodeKey(segment, offset, keyLength);
+      if (valueLength == TOMBSTONE) {
+        // A tombstone is only needed whilst an older segment might still hold a value for its key.
+        if (hasOlderSegments && !mIndex.containsKey(key)) {
+          appendRecord(copy(buffer, offset, recordSize));
+        }
+      } else {
+        final Location location = mIndex.get(key);
+        if (location != null && location.mSegment == segment && location.mOffset == offset) {
+          final Location newLocation = appendRecord(copy(buffer, offset, recordSize));
+          newLocation.mSegment.mLiveBytes += newLocation.mSize;
+          mIndex.put(key, newLocation);
+        }
+      }
+      offset += recordSize;
+    }
+
+    // The copies must be durable before the originals are deleted.
+    for (Segment other : mSegments.values()) {
+      if (other.mId > segment.mId) {
+        other.mBuffer.force();
+      }
+    }
+    mSegments.remove(segment.mId);
+    segment.close();
+    if (!segment.mFile.delete()) {
+      throw new IOException("Cannot delete " + segment.mFile);
+    }
+  }
+
+  private void recover() throws IOException {
+    final File[] files = mDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        final String name = file.getName();
+        if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+          final int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+          mSegments.put(id, openSegment(id, (int) Math.max(file.length(), mSegmentSize)));
+        }
+      }
+    }
+
+    for (Segment segment : mSegments.values()) {
+      scan(segment);
+    }
+
+    if (mSegments.isEmpty()) {
+      mSegments.put(0, openSegment(0, mSegmentSize));
+    }
+    mActiveSegment = mSegments.lastEntry().getValue();
+    // Clear any torn record, so that it cannot be mistaken for a record on the next recovery.
+    final ByteBuffer buffer = mActiveSegment.mBuffer.duplicate();
+    buffer.position(mActiveSegment.mPosition);
+    while (buffer.hasRemaining()) {
+      buffer.put((byte) 0);
+    }
+
+    for (Segment segment : mSegments.values()) {
+      scheduleCompactionIfNeeded(segment);
+    }
+  }
+
+  /**
+   * Applies each valid record of the given segment to the index, stopping at the first invalid record.
+   */
+  private void scan(final Segment segment) {
+    final ByteBuffer buffer = segment.mBuffer;
+    byte[] body = new byte[0];
+    int offset = 0;
+    while (offset + RECORD_HEADER_SIZE + BODY_HEADER_SIZE <= buffer.capacity()) {
+      final int bodyLength = buffer.getInt(offset);
+      if (bodyLength < BODY_HEADER_SIZE || bodyLength > buffer.capacity() - offset - RECORD_HEADER_SIZE) {
+        break;
+      }
+      if (body.length < bodyLength) {
+        body = new byte[Math.max(bodyLength, body.length * 2)];
+      }
+      final ByteBuffer source = buffer.duplicate();
+      source.position(offset + RECORD_HEADER_SIZE);
+      source.get(body, 0, bodyLength);
+      if (checksum(body, 0, bodyLength) != buffer.getInt(offset + 4)) {
+        break;
+      }
+      final int keyLength = buffer.getInt(offset + RECORD_HEADER_SIZE);
+      final int valueLength = buffer.getInt(offset + RECORD_HEADER_SIZE + 4);
+      if (keyLength < 0 || BODY_HEADER_SIZE + keyLength + Math.max(valueLength, 0) != bodyLength) {
+        break;
+      }
+
+      final K key = decodeKey(segment, offset, keyLength);
+      final int recordSize = RECORD_HEADER_SIZE + bodyLength;
+      final Location previous;
+      if (valueLength == TOMBSTONE) {
+        previous = mIndex.remove(key);
+      } else {
+        segment.mLiveBytes += recordSize;
+        previous = mIndex.put(key, new Location(segment, offset, recordSize));
+      }
+      if (previous != null) {
+        previous.mSegment.mLiveBytes -= previous.mSize;
+      }
+      offset += recordSize;
+    }
+    segment.mPosition = offset;
+  }
+
+  private K decodeKey(final Segment segment, final int offset, final int keyLength) {
+    final ByteBuffer buffer = segment.mBuffer.duplicate();
+    final int keyOffset = offset + RECORD_HEADER_SIZE + BODY_HEADER_SIZE;
+    buffer.limit(keyOffset + keyLength);
+    buffer.position(keyOffset);
+    return mKeyCodec.decode(buffer.slice());
+  }
+
+  private Segment openSegment(final int id, final int size) throws IOException {
+    final File file = new File(mDirectory, String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      final FileChannel channel = randomAccessFile.getChannel();
+      return new Segment(id, file, randomAccessFile, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    } catch (IOException e) {
+      randomAccessFile.close();
+      throw e;
+    }
+  }
+
+  private static byte[] copy(final ByteBuffer buffer, final int offset, final int length) {
+    final ByteBuffer source = buffer.duplicate();
+    source.position(offset);
+    final byte[] bytes = new byte[length];
+    source.get(bytes);
+    return bytes;
+  }
+
+  private static int checksum(final byte[] bytes, final int offset, final int length) {
+    final CRC32 crc = new CRC32();
+    crc.update(bytes, offset, length);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Releases the mapping of the given buffer now, rather than when it is garbage collected, so that its file
+   * may be deleted straight away on all platforms.  There is no public API for this, so it is best effort.
+   */
+  private static void unmap(final MappedByteBuffer buffer) {
+    try {
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), buffer);
+      return;
+    } catch (Exception e) {
+      // Not a JVM with Unsafe.invokeCleaner.  Try the older cleaner method below.
+    }
+    try {
+      final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      final Object cleaner = cleanerMethod.invoke(buffer);
+      if (cleaner != null) {
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+    } catch (Exception e) {
+      // The buffer is unmapped when it is garbage collected instead.
+    }
+  }
+
+  private static class Segment {
+    private final int mId;
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final MappedByteBuffer mBuffer;
+    private int mPosition = 0;
+    private int mLiveBytes = 0;
+
+    private Segment(final int id, final File file, final RandomAccessFile randomAccessFile, final MappedByteBuffer buffer) {
+      mId = id;
+      mFile = file;
+      mRandomAccessFile = randomAccessFile;
+      mBuffer = buffer;
+    }
+
+    private void close() throws IOException {
+      mBuffer.force();
+      unmap(mBuffer);
+      mRandomAccessFile.close();
+    }
+  }
+
+  private static class Location {
+    private final Segment mSegment;
+    private final int mOffset;
+    private final int mSize;
+
+    private Location(final Segment segment, final int offset, final int size) {
+      mSegment = segment;
+      mOffset = offset;
+      mSize = size;
+    }
+  }
+}
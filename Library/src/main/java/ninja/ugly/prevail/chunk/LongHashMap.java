@@ -0,0 +1,266 @@
+package ninja.ugly.prevail.chunk;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A hash map from primitive long keys to non-null values.
+ * <p>
+ * Keys are stored unboxed in an open-addressing table with linear probing, so that get, put, replace and
+ * remove allocate nothing once the table has grown to size.  Removal shifts later entries of the probe
+ * sequence back, rather than leaving tombstones, so lookups stay short under heavy churn.
+ * <p>
+ * A slot is empty when its value is null, which is why null values are not supported.  This class is not
+ * thread-safe.
+ */
+class LongHashMap<V> {
+  private static final int DEFAULT_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.6f;
+
+  private long[] mKeys;
+  private Object[] mValues;
+  private int mMask;
+  private int mSize;
+  private int mThreshold;
+  private int mModCount;
+
+  LongHashMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  LongHashMap(final int expectedSize) {
+    checkArgument(expectedSize >= 0, "expectedSize must not be negative");
+    allocate(capacityFor(expectedSize));
+  }
+
+  int size() {
+    return mSize;
+  }
+
+  boolean isEmpty() {
+    return mSize == 0;
+  }
+
+  boolean containsKey(final long key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Returns the value for the given key, or null if the key is not in this map.
+   */
+  @SuppressWarnings("unchecked")
+  V get(final long key) {
+    int i = index(key);
+    Object value;
+    while ((value = mValues[i]) != null) {
+      if (mKeys[i] == key) {
+        return (V) value;
+      }
+      i = (i + 1) & mMask;
+    }
+    return null;
+  }
+
+  /**
+   * Puts the given value at the given key.
+   * @return The previous value at the key, or null if there was none.
+   */
+  @SuppressWarnings("unchecked")
+  V put(final long key, final V value) {
+    checkNotNull(value);
+    int i = index(key);
+    Object existing;
+    while ((existing = mValues[i]) != null) {
+      if (mKeys[i] == key) {
+        mValues[i] = value;
+        return (V) existing;
+      }
+      i = (i + 1) & mMask;
+    }
+    mKeys[i] = key;
+    mValues[i] = value;
+    mModCount++;
+    if (++mSize > mThreshold) {
+      resize(mValues.length << 1);
+    }
+    return null;
+  }
+
+  /**
+   * Puts the given value at the given key, only if the key is already in this map.
+   * @return The previous value at the key, or null if the key was not in this map.
+   */
+  @SuppressWarnings("unchecked")
+  V replace(final long key, final V value) {
+    checkNotNull(value);
+    int i = index(key);
+    Object existing;
+    while ((existing = mValues[i]) != null) {
+      if (mKeys[i] == key) {
+        mValues[i] = value;
+        return (V) existing;
+      }
+      i = (i + 1) & mMask;
+    }
+    return null;
+  }
+
+  /**
+   * Removes the given key from this map.
+   * @return The value that was at the key, or null if the key was not in this map.
+   */
+  @SuppressWarnings("unchecked")
+  V remove(final long key) {
+    int i = index(key);
+    Object existing;
+    while ((existing = mValues[i]) != null) {
+      if (mKeys[i] == key) {
+        shiftBack(i);
+        mSize--;
+        mModCount++;
+        return (V) existing;
+      }
+      i = (i + 1) & mMask;
+    }
+    return null;
+  }
+
+  void clear() {
+    Arrays.fill(mValues, null);
+    mSize = 0;
+    mModCount++;
+  }
+
+  /**
+   * Returns a live, unmodifiable view of the values in this map, in no particular order.
+   */
+  Collection<V> values() {
+    return new AbstractCollection<V>() {
+      @Override
+      public Iterator<V> iterator() {
+        return new ValueIterator();
+      }
+
+      @Override
+      public int size() {
+        return mSize;
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder("{");
+    for (int i = 0; i < mValues.length; i++) {
+      if (mValues[i] != null) {
+        if (builder.length() > 1) {
+          builder.append(", ");
+        }
+        builder.append(mKeys[i]).append('=').append(mValues[i]);
+      }
+    }
+    return builder.append('}').toString();
+  }
+
+  private int index(final long key) {
+    // The 64-bit golden ratio mixes the key, such that sequential ids spread over the table.
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mMask;
+  }
+
+  /**
+   * Empties slot i, moving back any later entries of the same probe sequence that could no longer be
+   * reached past the empty slot.
+   */
+  private void shiftBack(int i) {
+    int j = i;
+    for (;;) {
+      j = (j + 1) & mMask;
+      if (mValues[j] == null) {
+        break;
+      }
+      final int home = index(mKeys[j]);
+      // Move the entry at j back to i, unless its home slot lies cyclically in (i, j].
+      if (((j - home) & mMask) >= ((j - i) & mMask)) {
+        mKeys[i] = mKeys[j];
+        mValues[i] = mValues[j];
+        i = j;
+      }
+    }
+    mValues[i] = null;
+  }
+
+  private void resize(final int capacity) {
+    final long[] keys = mKeys;
+    final Object[] values = mValues;
+    allocate(capacity);
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != null) {
+        int j = index(keys[i]);
+        while (mValues[j] != null) {
+          j = (j + 1) & mMask;
+        }
+        mKeys[j] = keys[i];
+        mValues[j] = values[i];
+      }
+    }
+  }
+
+  private void allocate(final int capacity) {
+    mKeys = new long[capacity];
+    mValues = new Object[capacity];
+    mMask = capacity - 1;
+    mThreshold = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private static int capacityFor(final int expectedSize) {
+    int capacity = DEFAULT_CAPACITY;
+    while (capacity * LOAD_FACTOR < expectedSize) {
+      checkArgument(capacity < (1 << 30), "expectedSize too large");
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private class ValueIterator implements Iterator<V> {
+    private final int mExpectedModCount = mModCount;
+    private int mNext = advance(0);
+
+    @Override
+    public boolean hasNext() {
+      return mNext < mValues.length;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V next() {
+      if (mModCount != mExpectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final V value = (V) mValues[mNext];
+      mNext = advance(mNext + 1);
+      return value;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private int advance(int i) {
+      while (i < mValues.length && mValues[i] == null) {
+        i++;
+      }
+      return i;
+    }
+  }
+}
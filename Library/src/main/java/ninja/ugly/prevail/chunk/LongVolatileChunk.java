@@ -0,0 +1,228 @@
+package ninja.ugly.prevail.chunk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ninja.ugly.prevail.exception.DeleteException;
+import ninja.ugly.prevail.exception.InsertException;
+import ninja.ugly.prevail.exception.QueryException;
+import ninja.ugly.prevail.exception.UpdateException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An extension of DefaultChunk that stores data in memory, keyed by long.
+ * <p>
+ * This is a sibling of VolatileChunk for the common case of numeric ids.  Keys are stored unboxed in an
+ * open-addressing hash table, and generated by a LongKeyFactory, so the table itself allocates nothing per
+ * entry.  Keys are only boxed as they cross the Chunk interface.  The primitive accessors get, put and remove
+ * do not box keys at all, but neither do they dispatch events, so suit hot paths that need no subscribers.
+ * <p>
+ * Keys that are not Longs, as may be passed untyped by a DataModel, are refused with the exception of the
+ * operation.
+ * <p>
+ * As with VolatileChunk, this Chunk is not thread-safe, and relies on its operations being serialized.
+ * Null values are not supported.
+ */
+public class LongVolatileChunk<V> extends DefaultChunk<Long, V> {
+
+  private final LongHashMap<V> mMap;
+  private final LongKeyFactory<V> mKeyFactory;
+
+  /**
+   * Constructs a new LongVolatileChunk that uses an AutoIncrementingLongKeyFactory to generate keys
+   * during insertion.
+   */
+  public LongVolatileChunk() {
+    this(new LongKeyFactory.AutoIncrementingLongKeyFactory<V>());
+  }
+
+  /**
+   * Constructs a new LongVolatileChunk that uses the given LongKeyFactory to generate keys
+   * during insertion.
+   *
+   * @param keyFactory A LongKeyFactory used to create keys to insert objects under.
+   */
+  public LongVolatileChunk(final LongKeyFactory<V> keyFactory) {
+    this(keyFactory, 0);
+  }
+
+  /**
+   * Constructs a new LongVolatileChunk that uses the given LongKeyFactory to generate keys
+   * during insertion, sized to hold the given number of values without growing.
+   *
+   * @param keyFactory A LongKeyFactory used to create keys to insert objects under.
+   * @param expectedSize The number of values expected to be stored.
+   */
+  public LongVolatileChunk(final LongKeyFactory<V> keyFactory, final int expectedSize) {
+    mKeyFactory = checkNotNull(keyFactory);
+    mMap = new LongHashMap<>(expectedSize);
+  }
+
+  /**
+   * Insert the given value into the backing storage.
+   * @return The key at which the given value can be obtained.
+   */
+  @Override
+  protected Long doInsert(final V value, final OnProgressUpdateListener onProgressUpdateListener) throws InsertException {
+    if (value == null) {
+      throw new InsertException("Null values are not supported");
+    }
+    final long key = mKeyFactory.createKey(value);
+    mMap.put(key, value);
+    return key;
+  }
+
+  /**
+   * Query the given key from the backing storage.
+   * @return The results
+   */
+  @Override
+  protected QueryResult<V> doQuery(final Long key, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    final V value = mMap.get(key);
+    return value == null ? new QueryResult.EmptyQueryResult<V>() : new QueryResult.SingletonQueryResult<>(value);
+  }
+
+  /**
+   * Query the given keys from the backing storage, gathering all values into a single result.
+   * Keys that are not Longs, passed untyped by a DataModel, are answered or refused as by query.
+   * @return The results, in the order of the given keys.  Keys not in the backing storage are skipped.
+   */
+  @Override
+  protected QueryResult<V> doQueryAll(final List<Long> keys, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    if (!allKeys(keys)) {
+      return super.doQueryAll(keys, onProgressUpdateListener);
+    }
+    final List<V> values = new ArrayList<>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      final V value = mMap.get(keys.get(i));
+      if (value != null) {
+        values.add(value);
+      }
+    }
+    return new SplittableQueryResult.ListQueryResult<>(values);
+  }
+
+  /**
+   * Update the given key in backing storage with the given value.
+   * @return The number of elements updated.  Either 0 or 1.
+   */
+  @Override
+  protected int doUpdate(final Long key, final V value, final OnProgressUpdateListener progressUpdateListener) throws UpdateException {
+    if (value == null) {
+      throw new UpdateException("Null values are not supported");
+    }
+    return mMap.replace(key, value) == null ? 0 : 1;
+  }
+
+  /**
+   * Delete the given key from the backing storage.
+   * @return The number of values deleted.  Either 0 or 1.
+   */
+  @Override
+  protected int doDelete(final Long key, final OnProgressUpdateListener onProgressUpdateListener) throws DeleteException {
+    return mMap.remove(key) == null ? 0 : 1;
+  }
+
+  /**
+   * Returns true if the given key is a Long.
+   */
+  @Override
+  protected boolean isKey(final Object key) {
+    return key instanceof Long;
+  }
+
+  /**
+   * Returns the value at the given key, without boxing the key or dispatching events.
+   * @return The value, or null if there is none.
+   */
+  public V get(final long key) {
+    return mMap.get(key);
+  }
+
+  /**
+   * Puts the given value at the given key, without boxing the key or dispatching events.
+   * @return The previous value at the key, or null if there was none.
+   */
+  public V put(final long key, final V value) {
+    return mMap.put(key, checkNotNull(value));
+  }
+
+  /**
+   * Removes the value at the given key, without boxing the key or dispatching events.
+   * @return The value that was at the key, or null if there was none.
+   */
+  public V remove(final long key) {
+    return mMap.remove(key);
+  }
+
+  /**
+   * Returns the number of values in the backing storage.
+   */
+  public int size() {
+    return mMap.size();
+  }
+
+  @Override
+  public String toString() {
+    return mMap.toString();
+  }
+
+  /**
+   * Returns an unmodifiable collection of values from the backing storage.
+   * @return All the values in the backing storage.
+   */
+  protected Collection<V> getValues() {
+    return Collections.unmodifiableCollection(mMap.values());
+  }
+
+  @Override
+  public void close() throws IOException {
+    mMap.clear();
+  }
+
+  private static boolean allKeys(final List<?> keys) {
+    for (int i = 0; i < keys.size(); i++) {
+      if (!(keys.get(i) instanceof Long)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * A factory class for producing primitive long keys from values.
+   */
+  public static interface LongKeyFactory<V> {
+    long createKey(V value);
+
+    /**
+     * An implementation of LongKeyFactory that returns an auto-incrementing long as a key, starting at zero.
+     * <p>
+     * This factory is thread-safe.
+     */
+    public static class AutoIncrementingLongKeyFactory<V> implements LongKeyFactory<V> {
+      private final AtomicLong mCounter;
+
+      public AutoIncrementingLongKeyFactory() {
+        this(0L);
+      }
+
+      /**
+       * @param initialKey The first key to be returned.
+       */
+      public AutoIncrementingLongKeyFactory(final long initialKey) {
+        mCounter = new AtomicLong(initialKey);
+      }
+
+      @Override
+      public long createKey(final V value) {
+        return mCounter.getAndIncrement();
+      }
+    }
+  }
+}
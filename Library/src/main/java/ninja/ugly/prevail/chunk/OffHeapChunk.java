@@ -0,0 +1,343 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.UnmodifiableIterator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import ninja.ugly.prevail.exception.DeleteException;
+import ninja.ugly.prevail.exception.InsertException;
+import ninja.ugly.prevail.exception.QueryException;
+import ninja.ugly.prevail.exception.UpdateException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An extension of DefaultChunk that stores values in memory, outside of the Java heap.
+ * <p>
+ * Values are encoded by a Codec and appended to fixed-size direct ByteBuffer arenas.  Only the keys, and
+ * the location of each value, are held on the heap, so a large OffHeapChunk adds little work for the
+ * garbage collector.  A query copies the bytes of its value out of the arena, and the value is decoded
+ * lazily, as the QueryResult is iterated.  A QueryResult is therefore unaffected by later changes.
+ * <p>
+ * Updates append a new copy of the value, and deletes only mark the old copy as dead.  Once every value in
+ * an arena is dead, the arena is recycled for later inserts.  Once fewer than half the bytes of the arenas
+ * are live, the live values are compacted into as few arenas as will hold them, and the rest released.
+ * <p>
+ * As with VolatileChunk, this Chunk is not thread-safe, and relies on its operations being serialized.
+ */
+public class OffHeapChunk<K, V> extends DefaultChunk<K, V> {
+  /** The default size, in bytes, of each arena. */
+  public static final int DEFAULT_ARENA_SIZE = 1 << 20;
+
+  private static final int HEADER_SIZE = 4;
+  // Fewer arenas are never worth compacting, as compaction would free at most one of them.
+  private static final int MIN_ARENAS_TO_COMPACT = 3;
+
+  private final Map<K, Location> mIndex = Maps.newHashMap();
+  private final Deque<Arena> mFreeArenas = new ArrayDeque<>();
+  private final VolatileChunk.KeyFactory<K, V> mKeyFactory;
+  private final Codec<V> mCodec;
+  private final int mArenaSize;
+
+  private Arena mCurrentArena;
+  private long mAllocatedBytes = 0;
+  // The number of arenas of the arena size, and the live bytes within them, such that compaction is
+  // triggered by the proportion of dead bytes.  Oversized arenas are released as soon as they are dead.
+  private int mArenaCount = 0;
+  private long mLiveBytes = 0;
+
+  /**
+   * Constructs a new OffHeapChunk with arenas of the default size.
+   *
+   * @param keyFactory A KeyFactory used to create keys to insert objects under.
+   * @param codec The Codec used to convert values to and from bytes.
+   */
+  public OffHeapChunk(final VolatileChunk.KeyFactory<K, V> keyFactory, final Codec<V> codec) {
+    this(keyFactory, codec, DEFAULT_ARENA_SIZE);
+  }
+
+  /**
+   * Constructs a new OffHeapChunk with arenas of the given size.
+   * <p>
+   * Values that do not fit in an arena of this size are stored in an arena of their own.
+   *
+   * @param keyFactory A KeyFactory used to create keys to insert objects under.
+   * @param codec The Codec used to convert values to and from bytes.
+   * @param arenaSize The size, in bytes, of each arena.
+   */
+  public OffHeapChunk(final VolatileChunk.KeyFactory<K, V> keyFactory, final Codec<V> codec, final int arenaSize) {
+    checkArgument(arenaSize > HEADER_SIZE, "arenaSize too small");
+    mKeyFactory = checkNotNull(keyFactory);
+    mCodec = checkNotNull(codec);
+    mArenaSize = arenaSize;
+  }
+
+  /**
+   * Insert the given value into off-heap storage.
+   * @return The key at which the given value can be obtained.
+   */
+  @Override
+  protected K doInsert(final V value, final OnProgressUpdateListener onProgressUpdateListener) throws InsertException {
+    final K key = mKeyFactory.createKey(value);
+    final Location previous = mIndex.put(key, write(checkNotNull(value)));
+    if (previous != null) {
+      free(previous);
+    }
+    return key;
+  }
+
+  /**
+   * Query the given key from off-heap storage.
+   * @return The results, copied from off-heap storage, and decoded as they are iterated.
+   */
+  @Override
+  protected QueryResult<V> doQuery(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    final Location location = mIndex.get(key);
+    if (location == null) {
+      return new QueryResult.EmptyQueryResult<V>();
+    }
+    final ByteBuffer buffer = location.mArena.mBuffer.duplicate();
+    final byte[] bytes = new byte[buffer.getInt(location.mOffset)];
+    buffer.position(location.mOffset + HEADER_SIZE);
+    buffer.get(bytes);
+    return new LazyQueryResult<>(bytes, mCodec);
+  }
+
+  /**
+   * Update the given key in off-heap storage with the given value.
+   * @return The number of elements updated.  Either 0 or 1.
+   */
+  @Override
+  protected int doUpdate(final K key, final V value, final OnProgressUpdateListener progressUpdateListener) throws UpdateException {
+    final Location previous = mIndex.get(key);
+    if (previous == null) {
+      return 0;
+    }
+    mIndex.put(key, write(checkNotNull(value)));
+    free(previous);
+    return 1;
+  }
+
+  /**
+   * Delete the given key from off-heap storage.
+   * @return The number of values deleted.  Either 0 or 1.
+   */
+  @Override
+  protected int doDelete(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws DeleteException {
+    final Location previous = mIndex.remove(key);
+    if (previous == null) {
+      return 0;
+    }
+    free(previous);
+    return 1;
+  }
+
+  /**
+   * Returns the number of values in this Chunk.
+   */
+  public int size() {
+    return mIndex.size();
+  }
+
+  /**
+   * Returns the total size, in bytes, of the off-heap arenas allocated by this Chunk.
+   */
+  public long getAllocatedBytes() {
+    return mAllocatedBytes;
+  }
+
+  @Override
+  public void close() throws IOException {
+    // Direct buffers are released once unreachable.
+    mIndex.clear();
+    mFreeArenas.clear();
+    mCurrentArena = null;
+    mAllocatedBytes = 0;
+    mArenaCount = 0;
+    mLiveBytes = 0;
+  }
+
+  @Override
+  public String toString() {
+    return "OffHeapChunk{size=" + mIndex.size() + ", allocatedBytes=" + mAllocatedBytes + "}";
+  }
+
+  private Location write(final V value) {
+    final byte[] bytes = mCodec.encode(value);
+    final int recordSize = HEADER_SIZE + bytes.length;
+    final Arena arena = arenaFor(recordSize);
+    final int offset = arena.mBuffer.position();
+    arena.mBuffer.putInt(bytes.length);
+    arena.mBuffer.put(bytes);
+    addLiveBytes(arena, recordSize);
+    return new Location(arena, offset);
+  }
+
+  /**
+   * Copies the record at the given Location to the current arena, without decoding it.
+   */
+  private Location move(final Location location) {
+    final ByteBuffer record = location.mArena.mBuffer.duplicate();
+    final int recordSize = HEADER_SIZE + record.getInt(location.mOffset);
+    record.limit(location.mOffset + recordSize);
+    record.position(location.mOffset);
+    final Arena arena = arenaFor(recordSize);
+    final int offset = arena.mBuffer.position();
+    arena.mBuffer.put(record);
+    addLiveBytes(arena, recordSize);
+    return new Location(arena, offset);
+  }
+
+  private void addLiveBytes(final Arena arena, final int recordSize) {
+    arena.mLiveBytes += recordSize;
+    if (arena.mBuffer.capacity() == mArenaSize) {
+      mLiveBytes += recordSize;
+    }
+  }
+
+  private Arena arenaFor(final int recordSize) {
+    if (recordSize > mArenaSize) {
+      // An oversized value gets an arena of its own, which is released rather than recycled once dead.
+      final Arena arena = new Arena(recordSize);
+      mAllocatedBytes += recordSize;
+      return arena;
+    }
+    if (mCurrentArena == null || mCurrentArena.mBuffer.remaining() < recordSize) {
+      final Arena previous = mCurrentArena;
+      mCurrentArena = mFreeArenas.isEmpty() ? newArena() : mFreeArenas.pop();
+      if (previous != null && previous.mLiveBytes == 0) {
+        recycle(previous);
+      }
+    }
+    return mCurrentArena;
+  }
+
+  private Arena newArena() {
+    mAllocatedBytes += mArenaSize;
+    mArenaCount++;
+    return new Arena(mArenaSize);
+  }
+
+  private void free(final Location location) {
+    final Arena arena = location.mArena;
+    final int recordSize = HEADER_SIZE + arena.mBuffer.getInt(location.mOffset);
+    arena.mLiveBytes -= recordSize;
+    if (arena.mBuffer.capacity() != mArenaSize) {
+      // An oversized arena holds only this value.
+      mAllocatedBytes -= arena.mBuffer.capacity();
+      return;
+    }
+    mLiveBytes -= recordSize;
+    if (arena.mLiveBytes == 0) {
+      if (arena == mCurrentArena) {
+        // Nothing live, so start writing again from the beginning.
+        arena.mBuffer.clear();
+      } else {
+        recycle(arena);
+      }
+    }
+    if (mArenaCount >= MIN_ARENAS_TO_COMPACT && mLiveBytes * 2 < (long) mArenaCount * mArenaSize) {
+      compact();
+    }
+  }
+
+  private void recycle(final Arena arena) {
+    arena.mBuffer.clear();
+    mFreeArenas.push(arena);
+  }
+
+  /**
+   * Moves every live value of the arenas into fresh arenas, filling each in turn, and releases the old arenas.
+   * Triggered only once dead bytes outnumber live bytes, so the cost of copying is amortized over the updates
+   * and deletes that freed them.
+   */
+  private void compact() {
+    mCurrentArena = null;
+    mFreeArenas.clear();
+    mAllocatedBytes -= (long) mArenaCount * mArenaSize;
+    mArenaCount = 0;
+    mLiveBytes = 0;
+    for (Map.Entry<K, Location> entry : mIndex.entrySet()) {
+      if (entry.getValue().mArena.mBuffer.capacity() == mArenaSize) {
+        entry.setValue(move(entry.getValue()));
+      }
+    }
+  }
+
+  /**
+   * A direct ByteBuffer holding a sequence of records, each an int length followed by that many bytes.
+   */
+  private static class Arena {
+    private final ByteBuffer mBuffer;
+    private int mLiveBytes = 0;
+
+    private Arena(final int size) {
+      mBuffer = ByteBuffer.allocateDirect(size);
+    }
+  }
+
+  private static class Location {
+    private final Arena mArena;
+    private final int mOffset;
+
+    private Location(final Arena arena, final int offset) {
+      mArena = arena;
+      mOffset = offset;
+    }
+  }
+
+  /**
+   * A QueryResult of a single value, copied out of its arena, and decoded each time it is iterated.
+   * <p>
+   * This implementation cannot be closed, ie calls to close() do nothing and
+   * calls to isClosed() always return false.
+   */
+  private static class LazyQueryResult<V> implements QueryResult<V> {
+    private final byte[] mBytes;
+    private final Codec<V> mCodec;
+
+    private LazyQueryResult(final byte[] bytes, final Codec<V> codec) {
+      mBytes = bytes;
+      mCodec = codec;
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+      return new UnmodifiableIterator<V>() {
+        private boolean mHasNext = true;
+
+        @Override
+        public boolean hasNext() {
+          return mHasNext;
+        }
+
+        @Override
+        public V next() {
+          if (!mHasNext) {
+            throw new NoSuchElementException();
+          }
+          mHasNext = false;
+          return mCodec.decode(ByteBuffer.wrap(mBytes));
+        }
+      };
+    }
+
+    @Override
+    public void close() throws IOException {
+      // Do nothing.
+    }
+
+    @Override
+    public boolean isClosed() {
+      return false;
+    }
+  }
+}
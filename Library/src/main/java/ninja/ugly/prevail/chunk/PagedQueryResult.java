@@ -0,0 +1,180 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import ninja.ugly.prevail.exception.QueryException;
+import ninja.ugly.prevail.executor.TaskTrackingExecutorService;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A QueryResult that fetches its values a page at a time from a PageSource.
+ * <p>
+ * Only one page is held at a time, besides the next page, which is prefetched on an Executor whilst the
+ * current page is iterated.  A page smaller than the page size is taken to be the last.  Any resources
+ * used to fetch a page, such as a database cursor, should be released by the PageSource before returning
+ * that page, such that no resources are held open between pages.
+ * <p>
+ * Pages are only ever fetched on the Executor, such that they are serialized with any other operations
+ * run there.  The iterator waits for a page that the Executor has not yet fetched.  The exception is a
+ * TaskTrackingExecutorService on which the iterating thread is itself running a task, which may be
+ * holding up the prefetch, in which case the page is fetched by the iterating thread.
+ * <p>
+ * A PagedQueryResult may be iterated only once.  If fetching a page fails, or the Executor rejects the
+ * prefetch, the iterator throws an UncheckedExecutionException, caused by the QueryException of the
+ * PageSource or the RejectedExecutionException of the Executor.
+ *
+ * @param <V> The type of the values.
+ */
+public class PagedQueryResult<V> implements QueryResult<V> {
+  private final PageSource<V> mPageSource;
+  private final int mPageSize;
+  private final Executor mPrefetchExecutor;
+
+  private List<V> mFirstPage;
+  private FutureTask<List<V>> mPrefetch;
+  private RejectedExecutionException mPrefetchRejected;
+  private boolean mIterated = false;
+  private volatile boolean mClosed = false;
+
+  /**
+   * A source of pages of values.
+   */
+  public interface PageSource<V> {
+    /**
+     * Returns at most limit values, starting from the value at the given offset.  Returns fewer than limit
+     * values only if there are no more values.
+     */
+    List<V> getPage(int offset, int limit) throws QueryException;
+  }
+
+  /**
+   * Constructs a PagedQueryResult from the given first page, fetching later pages from the given PageSource.
+   *
+   * @param firstPage The values at offset zero.  If smaller than pageSize, there are no further pages.
+   * @param pageSize The number of values in each page.
+   * @param pageSource The PageSource from which to fetch later pages.
+   * @param prefetchExecutor The Executor on which to prefetch the next page.
+   */
+  public PagedQueryResult(final List<V> firstPage, final int pageSize, final PageSource<V> pageSource, final Executor prefetchExecutor) {
+    checkArgument(pageSize > 0, "pageSize must be positive");
+    mFirstPage = checkNotNull(firstPage);
+    mPageSize = pageSize;
+    mPageSource = checkNotNull(pageSource);
+    mPrefetchExecutor = checkNotNull(prefetchExecutor);
+    prefetch(firstPage, 0);
+  }
+
+  @Override
+  public synchronized Iterator<V> iterator() {
+    checkState(!mIterated, "PagedQueryResult may be iterated only once");
+    mIterated = true;
+    final List<V> firstPage = mFirstPage;
+    mFirstPage = null;
+
+    return new AbstractIterator<V>() {
+      private List<V> mPage = firstPage;
+      private int mOffset = 0;
+      private int mIndex = 0;
+
+      @Override
+      protected V computeNext() {
+        while (mIndex == mPage.size()) {
+          if (mClosed || mPage.size() < mPageSize) {
+            return endOfData();
+          }
+          mOffset += mPage.size();
+          // The current page is dropped here, before the next is taken, so that only one is held.
+          mPage = takePrefetched();
+          mIndex = 0;
+          prefetch(mPage, mOffset);
+        }
+        return mPage.get(mIndex++);
+      }
+    };
+  }
+
+  /**
+   * Cancels any prefetch in progress.  No further pages are fetched.
+   */
+  @Override
+  public synchronized void close() {
+    mClosed = true;
+    mFirstPage = null;
+    if (mPrefetch != null) {
+      mPrefetch.cancel(false);
+      mPrefetch = null;
+    }
+  }
+
+  @Override
+  public boolean isClosed() {
+    return mClosed;
+  }
+
+  private synchronized void prefetch(final List<V> page, final int offset) {
+    if (mClosed || page.size() < mPageSize) {
+      mPrefetch = null;
+      return;
+    }
+    final int nextOffset = offset + page.size();
+    mPrefetch = new FutureTask<List<V>>(new Callable<List<V>>() {
+      @Override
+      public List<V> call() throws QueryException {
+        return mPageSource.getPage(nextOffset, mPageSize);
+      }
+    });
+    try {
+      mPrefetchExecutor.execute(mPrefetch);
+    } catch (RejectedExecutionException e) {
+      // Thrown from the iterator when the page is needed, rather than fetched outside the Executor.
+      mPrefetchRejected = e;
+    }
+  }
+
+  private List<V> takePrefetched() {
+    final FutureTask<List<V>> prefetch;
+    final RejectedExecutionException rejected;
+    synchronized (this) {
+      prefetch = mPrefetch;
+      rejected = mPrefetchRejected;
+      mPrefetchRejected = null;
+    }
+    if (prefetch == null) {
+      // Closed since the last page was taken.
+      return Collections.emptyList();
+    }
+    if (rejected != null) {
+      throw new UncheckedExecutionException(rejected);
+    }
+    if (mPrefetchExecutor instanceof TaskTrackingExecutorService
+        && ((TaskTrackingExecutorService) mPrefetchExecutor).isRunningTask()) {
+      // This thread is running an operation on the Executor, which may be keeping the prefetch from starting,
+      // so fetches the page itself if the prefetch has not yet started.  Otherwise, does nothing.
+      prefetch.run();
+    }
+    try {
+      return prefetch.get();
+    } catch (CancellationException e) {
+      return Collections.emptyList();
+    } catch (ExecutionException e) {
+      throw new UncheckedExecutionException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UncheckedExecutionException(e);
+    }
+  }
+}
@@ -0,0 +1,448 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Range;
+
+import java.util.Collection;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A structured query key, addressing the values of a Chunk that meet all of a list of Criteria.
+ * <p>
+ * Unlike a key of the Chunk's own key type, a Query can be inspected by a Chunk and pushed down to its
+ * storage.  For example, a Chunk backed by a database may translate an EqualTo Criterion on a column into
+ * a WHERE clause.  A DefaultChunk asks its subclass which Criteria it can push down, and filters the values
+ * it returns by any remaining Criteria.  See {@link DefaultChunk#canPushDown(Criterion)}.
+ * <p>
+ * Criteria refer to properties of values through Attributes, each of which has a name for Chunks that push
+ * down Criteria, and a Function for Chunks that do not.
+ * <p>
+ * A Query may also skip a number of values, limit the number of values returned, and name the Attributes
+ * that the caller needs, such that a Chunk may load only those.  Queries are immutable.
+ *
+ * @param <V> The type of values on the Chunk.
+ */
+public final class Query<V> {
+  private static final int NO_LIMIT = Integer.MAX_VALUE;
+
+  private final ImmutableList<Criterion<V>> mCriteria;
+  private final int mOffset;
+  private final int mLimit;
+  private final ImmutableList<Attribute<V, ?>> mProjection;
+
+  private Query(final ImmutableList<Criterion<V>> criteria, final int offset, final int limit, final ImmutableList<Attribute<V, ?>> projection) {
+    mCriteria = criteria;
+    mOffset = offset;
+    mLimit = limit;
+    mProjection = projection;
+  }
+
+  /** Returns a Query addressing all values. */
+  public static <V> Query<V> all() {
+    return new Query<V>(ImmutableList.<Criterion<V>>of(), 0, NO_LIMIT, ImmutableList.<Attribute<V, ?>>of());
+  }
+
+  /** Returns a Query addressing the values meeting the given Criterion. */
+  public static <V> Query<V> where(final Criterion<V> criterion) {
+    return Query.<V>all().and(criterion);
+  }
+
+  /**
+   * Returns a copy of this Query addressing only the values that also meet the given Criterion.
+   */
+  public Query<V> and(final Criterion<V> criterion) {
+    checkNotNull(criterion);
+    return new Query<V>(ImmutableList.<Criterion<V>>builder().addAll(mCriteria).add(criterion).build(), mOffset, mLimit, mProjection);
+  }
+
+  /**
+   * Returns a copy of this Query skipping the given number of values.
+   */
+  public Query<V> offset(final int offset) {
+    checkArgument(offset >= 0, "offset must not be negative");
+    return new Query<V>(mCriteria, offset, mLimit, mProjection);
+  }
+
+  /**
+   * Returns a copy of this Query returning at most the given number of values.
+   */
+  public Query<V> limit(final int limit) {
+    checkArgument(limit >= 0, "limit must not be negative");
+    return new Query<V>(mCriteria, mOffset, limit, mProjection);
+  }
+
+  /**
+   * Returns a copy of this Query needing only the given Attributes of each value.
+   * <p>
+   * The projection is a hint.  A Chunk may return values with only these Attributes populated, or may
+   * return whole values.
+   */
+  @SafeVarargs
+  public final Query<V> select(final Attribute<V, ?>... attributes) {
+    // Copied element by element, as passing the array on would not be known to javac as safe.
+    final ImmutableList.Builder<Attribute<V, ?>> projection = ImmutableList.builder();
+    for (Attribute<V, ?> attribute : attributes) {
+      projection.add(attribute);
+    }
+    return new Query<V>(mCriteria, mOffset, mLimit, projection.build());
+  }
+
+  /** Returns the Criteria that every value must meet, in the order they were added. */
+  public List<Criterion<V>> getCriteria() {
+    return mCriteria;
+  }
+
+  /** Returns the number of values to skip. */
+  public int getOffset() {
+    return mOffset;
+  }
+
+  /** Returns the maximum number of values to return, or Integer.MAX_VALUE if unlimited. */
+  public int getLimit() {
+    return mLimit;
+  }
+
+  /** Returns true if this Query skips or limits values. */
+  public boolean isPaged() {
+    return mOffset != 0 || mLimit != NO_LIMIT;
+  }
+
+  /** Returns the Attributes needed by the caller, or an empty List if the whole of each value is needed. */
+  public List<Attribute<V, ?>> getProjection() {
+    return mProjection;
+  }
+
+  /**
+   * Returns true if the given value meets all Criteria of this Query.
+   */
+  public boolean matches(final V value) {
+    for (Criterion<V> criterion : mCriteria) {
+      if (!criterion.matches(value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a copy of this Query with the given Criteria in place of its own.
+   */
+  Query<V> withCriteria(final List<Criterion<V>> criteria) {
+    return new Query<V>(ImmutableList.copyOf(criteria), mOffset, mLimit, mProjection);
+  }
+
+  /**
+   * Returns a copy of this Query that neither skips nor limits values.
+   */
+  Query<V> withoutPaging() {
+    return new Query<V>(mCriteria, 0, NO_LIMIT, mProjection);
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (!(o instanceof Query)) {
+      return false;
+    }
+    final Query<?> other = (Query<?>) o;
+    return mCriteria.equals(other.mCriteria) && mOffset == other.mOffset && mLimit == other.mLimit && mProjection.equals(other.mProjection);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(mCriteria, mOffset, mLimit, mProjection);
+  }
+
+  @Override
+  public String toString() {
+    return "where " + (mCriteria.isEmpty() ? "true" : Joiner.on(" and ").join(mCriteria))
+        + (mOffset == 0 ? "" : " offset " + mOffset)
+        + (mLimit == NO_LIMIT ? "" : " limit " + mLimit)
+        + (mProjection.isEmpty() ? "" : " select " + Joiner.on(", ").join(mProjection));
+  }
+
+  /**
+   * A named property of a value.
+   * <p>
+   * Two Attributes are equal if their names are equal.  A Chunk pushing down Criteria recognises Attributes
+   * by name, for example as the name of a database column.
+   *
+   * @param <V> The type of value.
+   * @param <T> The type of the property.
+   */
+  public static final class Attribute<V, T> {
+    private final String mName;
+    private final Function<? super V, ? extends T> mFunction;
+
+    private Attribute(final String name, final Function<? super V, ? extends T> function) {
+      mName = checkNotNull(name);
+      mFunction = checkNotNull(function);
+    }
+
+    /**
+     * Returns an Attribute of the given name, whose value is obtained from a value by the given Function.
+     */
+    public static <V, T> Attribute<V, T> of(final String name, final Function<? super V, ? extends T> function) {
+      return new Attribute<V, T>(name, function);
+    }
+
+    public String getName() {
+      return mName;
+    }
+
+    /** Returns this Attribute of the given value. */
+    public T get(final V value) {
+      return mFunction.apply(value);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      return o instanceof Attribute && mName.equals(((Attribute<?, ?>) o).mName);
+    }
+
+    @Override
+    public int hashCode() {
+      return mName.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return mName;
+    }
+  }
+
+  /**
+   * A condition on values, that a Chunk may push down to its storage or evaluate with matches(V).
+   * <p>
+   * The static factory methods return the four kinds of Criterion: EqualTo, In, InRange and Matching.
+   * Chunks inspect Criteria by their class.
+   *
+   * @param <V> The type of value.
+   */
+  public abstract static class Criterion<V> {
+
+    Criterion() {
+      // Only the Criteria in this file are known to Chunks.
+    }
+
+    /**
+     * Returns true if the given value meets this Criterion.
+     */
+    public abstract boolean matches(V value);
+
+    /** Returns a Criterion met by values whose Attribute equals the given value, which may be null. */
+    public static <V, T> EqualTo<V, T> equalTo(final Attribute<V, T> attribute, final T value) {
+      return new EqualTo<V, T>(attribute, value);
+    }
+
+    /** Returns a Criterion met by values whose Attribute is one of the given values, none of which may be null. */
+    @SafeVarargs
+    public static <V, T> In<V, T> in(final Attribute<V, T> attribute, final T... values) {
+      // Copied element by element, as in select.
+      final ImmutableSet.Builder<T> set = ImmutableSet.builder();
+      for (T value : values) {
+        set.add(value);
+      }
+      return new In<V, T>(attribute, set.build());
+    }
+
+    /** Returns a Criterion met by values whose Attribute is one of the given values, none of which may be null. */
+    public static <V, T> In<V, T> in(final Attribute<V, T> attribute, final Collection<? extends T> values) {
+      return new In<V, T>(attribute, ImmutableSet.copyOf(values));
+    }
+
+    /** Returns a Criterion met by values whose Attribute is within the given Range. */
+    public static <V, C extends Comparable<?>> InRange<V, C> inRange(final Attribute<V, C> attribute, final Range<C> range) {
+      return new InRange<V, C>(attribute, range);
+    }
+
+    /**
+     * Returns a Criterion met by values satisfying the given Predicate.  Such a Criterion is opaque to
+     * Chunks, so is rarely pushed down.
+     */
+    public static <V> Matching<V> matching(final Predicate<? super V> predicate) {
+      return new Matching<V>(predicate);
+    }
+  }
+
+  /**
+   * A Criterion met by values whose Attribute equals a given value.
+   */
+  public static final class EqualTo<V, T> extends Criterion<V> {
+    private final Attribute<V, T> mAttribute;
+    private final T mValue;
+
+    private EqualTo(final Attribute<V, T> attribute, final T value) {
+      mAttribute = checkNotNull(attribute);
+      mValue = value;
+    }
+
+    public Attribute<V, T> getAttribute() {
+      return mAttribute;
+    }
+
+    /** Returns the value to compare with, which may be null. */
+    public T getValue() {
+      return mValue;
+    }
+
+    @Override
+    public boolean matches(final V value) {
+      return Objects.equal(mAttribute.get(value), mValue);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof EqualTo)) {
+        return false;
+      }
+      final EqualTo<?, ?> other = (EqualTo<?, ?>) o;
+      return mAttribute.equals(other.mAttribute) && Objects.equal(mValue, other.mValue);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(mAttribute, mValue);
+    }
+
+    @Override
+    public String toString() {
+      return mAttribute + " = " + mValue;
+    }
+  }
+
+  /**
+   * A Criterion met by values whose Attribute is one of a set of values.
+   */
+  public static final class In<V, T> extends Criterion<V> {
+    private final Attribute<V, T> mAttribute;
+    private final ImmutableSet<T> mValues;
+
+    private In(final Attribute<V, T> attribute, final ImmutableSet<T> values) {
+      mAttribute = checkNotNull(attribute);
+      mValues = values;
+    }
+
+    public Attribute<V, T> getAttribute() {
+      return mAttribute;
+    }
+
+    /** Returns the values to compare with, in the order given. */
+    public ImmutableSet<T> getValues() {
+      return mValues;
+    }
+
+    @Override
+    public boolean matches(final V value) {
+      return mValues.contains(mAttribute.get(value));
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof In)) {
+        return false;
+      }
+      final In<?, ?> other = (In<?, ?>) o;
+      return mAttribute.equals(other.mAttribute) && mValues.equals(other.mValues);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(mAttribute, mValues);
+    }
+
+    @Override
+    public String toString() {
+      return mAttribute + " in (" + Joiner.on(", ").join(mValues) + ")";
+    }
+  }
+
+  /**
+   * A Criterion met by values whose Attribute is within a Range.  Values whose Attribute is null do not
+   * meet this Criterion.
+   */
+  public static final class InRange<V, C extends Comparable<?>> extends Criterion<V> {
+    private final Attribute<V, C> mAttribute;
+    private final Range<C> mRange;
+
+    private InRange(final Attribute<V, C> attribute, final Range<C> range) {
+      mAttribute = checkNotNull(attribute);
+      mRange = checkNotNull(range);
+    }
+
+    public Attribute<V, C> getAttribute() {
+      return mAttribute;
+    }
+
+    public Range<C> getRange() {
+      return mRange;
+    }
+
+    @Override
+    public boolean matches(final V value) {
+      final C attribute = mAttribute.get(value);
+      return attribute != null && mRange.contains(attribute);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof InRange)) {
+        return false;
+      }
+      final InRange<?, ?> other = (InRange<?, ?>) o;
+      return mAttribute.equals(other.mAttribute) && mRange.equals(other.mRange);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(mAttribute, mRange);
+    }
+
+    @Override
+    public String toString() {
+      return mAttribute + " in " + mRange;
+    }
+  }
+
+  /**
+   * A Criterion met by values satisfying a Predicate.
+   */
+  public static final class Matching<V> extends Criterion<V> {
+    private final Predicate<? super V> mPredicate;
+
+    private Matching(final Predicate<? super V> predicate) {
+      mPredicate = checkNotNull(predicate);
+    }
+
+    public Predicate<? super V> getPredicate() {
+      return mPredicate;
+    }
+
+    @Override
+    public boolean matches(final V value) {
+      return mPredicate.apply(value);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      return o instanceof Matching && mPredicate.equals(((Matching<?>) o).mPredicate);
+    }
+
+    @Override
+    public int hashCode() {
+      return mPredicate.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return "matches " + mPredicate;
+    }
+  }
+}
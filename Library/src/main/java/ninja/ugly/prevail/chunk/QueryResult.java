@@ -1,10 +1,16 @@
 package ninja.ugly.prevail.chunk;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
 
 /**
  * A container for the results of a query on a Chunk.
@@ -62,7 +68,7 @@ public interface QueryResult<V> extends Iterable<V>, Closeable {
    * calls to isClosed() always return false.
    * @param <V>
    */
-  public static class SingletonQueryResult<V> extends EmptyQueryResult<V> {
+  public static class SingletonQueryResult<V> extends EmptyQueryResult<V> implements SplittableQueryResult<V>, RandomAccessQueryResult<V> {
     private V mT;
 
     public SingletonQueryResult(final V t) {
@@ -80,6 +86,30 @@ public interface QueryResult<V> extends Iterable<V>, Closeable {
     public Iterator<V> iterator() {
       return Iterators.singletonIterator(mT);
     }
+
+    /**
+     * Returns null, as a single value is not worth splitting.
+     */
+    @Override
+    public SplittableQueryResult<V> trySplit() {
+      return null;
+    }
+
+    @Override
+    public long estimateSize() {
+      return 1;
+    }
+
+    @Override
+    public int size() {
+      return 1;
+    }
+
+    @Override
+    public V get(final int index) {
+      checkElementIndex(index, 1);
+      return mT;
+    }
   }
 
 
@@ -88,18 +118,112 @@ public interface QueryResult<V> extends Iterable<V>, Closeable {
    * <p>
    * This implementation cannot be closed, ie calls to close() do nothing and
    * calls to isClosed() always return false.
+   * <p>
+   * The values of an arbitrary Iterable can only be split by copying leading batches of them into Lists.
+   * Once split, each call to iterator() starts a new iteration of the Iterable, skipping the values split off.
+   * For values in a List, prefer a SplittableQueryResult.ListQueryResult, which splits without copying.
    * @param <V>
    */
-  public class IterableQueryResult<V> extends EmptyQueryResult<V>{
-    private Iterable<V> mValues;
+  public class IterableQueryResult<V> extends EmptyQueryResult<V> implements SplittableQueryResult<V> {
+    private static final int SPLIT_BATCH_INCREMENT = 1024;
+    private static final int MAX_SPLIT_BATCH = 1 << 25;
+
+    private final Iterable<V> mValues;
+    // The iteration from which batches are split, once this QueryResult has been split, and the number of
+    // values split off.  Never shared with callers of iterator().
+    private Iterator<V> mSplitIterator;
+    private int mSplit = 0;
+    private long mRemaining;
+    private int mBatch = 0;
 
     public IterableQueryResult(Iterable<V> values) {
       mValues = values;
+      mRemaining = values instanceof Collection ? ((Collection<?>) values).size() : Long.MAX_VALUE;
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+      final Iterator<V> iterator = mValues.iterator();
+      Iterators.advance(iterator, mSplit);
+      return iterator;
+    }
+
+    /**
+     * Copies a leading batch of the remaining values into a new QueryResult.  Batches grow arithmetically,
+     * such that small results are not split needlessly, whilst large results still split into many parts.
+     */
+    @Override
+    public SplittableQueryResult<V> trySplit() {
+      if (mSplitIterator == null) {
+        mSplitIterator = mValues.iterator();
+      }
+      if (!mSplitIterator.hasNext() || mRemaining <= 1 || mSplit == Integer.MAX_VALUE) {
+        return null;
+      }
+      final long limit = Math.min(Math.min(mBatch + SPLIT_BATCH_INCREMENT, MAX_SPLIT_BATCH), mRemaining);
+      final int batch = (int) Math.min(limit, Integer.MAX_VALUE - mSplit);
+      final List<V> values = new ArrayList<>(batch);
+      while (values.size() < batch && mSplitIterator.hasNext()) {
+        values.add(mSplitIterator.next());
+      }
+      mBatch = values.size();
+      mSplit += values.size();
+      if (mRemaining != Long.MAX_VALUE) {
+        mRemaining -= values.size();
+      }
+      return new SplittableQueryResult.ListQueryResult<V>(values);
+    }
+
+    @Override
+    public long estimateSize() {
+      return mRemaining;
+    }
+  }
+
+  /**
+   * An implementation of QueryResult interface that concatenates a list of QueryResults.
+   * <p>
+   * Closing this QueryResult closes each of the concatenated QueryResults.
+   * @param <V>
+   */
+  public static class CompositeQueryResult<V> implements QueryResult<V> {
+    private final List<QueryResult<V>> mResults;
+    private boolean mClosed = false;
+
+    public CompositeQueryResult(final List<QueryResult<V>> results) {
+      mResults = results;
+    }
+
+    /**
+     * Closes each of the concatenated QueryResults.  If any of them fails to close, the others
+     * are still closed and the first IOException is thrown.
+     */
+    @Override
+    public void close() throws IOException {
+      IOException exception = null;
+      for (QueryResult<V> result : mResults) {
+        try {
+          result.close();
+        } catch (IOException e) {
+          if (exception == null) {
+            exception = e;
+          }
+        }
+      }
+      mClosed = true;
+      if (exception != null) {
+        throw exception;
+      }
+    }
+
+    @Override
+    public boolean isClosed() {
+      return mClosed;
     }
 
     @Override
     public Iterator<V> iterator() {
-      return mValues.iterator();
+      return Iterables.concat(mResults).iterator();
     }
   }
 }
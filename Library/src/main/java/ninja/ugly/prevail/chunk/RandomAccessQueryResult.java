@@ -0,0 +1,17 @@
+package ninja.ugly.prevail.chunk;
+
+/**
+ * A SizedQueryResult that can return any of its values by index, without iterating those before it.
+ *
+ * @param <V>
+ */
+public interface RandomAccessQueryResult<V> extends SizedQueryResult<V> {
+
+  /**
+   * Returns the value at the given index.
+   *
+   * @param index The index of the value, from zero to one less than size().
+   * @throws IndexOutOfBoundsException if the index is out of range.
+   */
+  V get(int index);
+}
@@ -0,0 +1,18 @@
+package ninja.ugly.prevail.chunk;
+
+/**
+ * A QueryResult that knows how many values it holds, without iterating them.
+ * <p>
+ * Chunks return a SizedQueryResult where the size is cheap to obtain, for example from an in-memory
+ * collection or a database cursor, such that client code can presize buffers rather than copying the
+ * values just to count them.
+ *
+ * @param <V>
+ */
+public interface SizedQueryResult<V> extends QueryResult<V> {
+
+  /**
+   * Returns the number of values in this QueryResult.
+   */
+  int size();
+}
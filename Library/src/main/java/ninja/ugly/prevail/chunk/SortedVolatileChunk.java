@@ -0,0 +1,144 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.Iterables;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import ninja.ugly.prevail.event.factory.DeleteEventFactory;
+import ninja.ugly.prevail.event.factory.QueryEventFactory;
+import ninja.ugly.prevail.exception.DeleteException;
+import ninja.ugly.prevail.exception.QueryException;
+
+/**
+ * A ConcurrentVolatileChunk that keeps its values in order of key, and so can answer queries for ranges
+ * of keys.
+ * <p>
+ * As well as keys of type K, this Chunk accepts a KeyRange as a query or delete key.  A DataModel passes
+ * keys to its Chunks untyped, so a KeyRange may be given directly to DataModel.query.  Otherwise, the
+ * queryRange and deleteRange methods of this Chunk take a KeyRange explicitly.
+ * <p>
+ * The QueryResult of a range query is a lazy view over just the matching keys, found in logarithmic time.
+ * It reflects concurrent changes to this Chunk as they are made, without ever failing, in the manner of
+ * the views of a ConcurrentSkipListMap.
+ */
+public class SortedVolatileChunk<K, V> extends ConcurrentVolatileChunk<K, V> {
+
+  /**
+   * Constructs a new SortedVolatileChunk, ordering keys naturally, that uses the given KeyFactory to
+   * generate keys during insertion.
+   *
+   * @param keyFactory A thread-safe KeyFactory used to create keys to insert objects under.
+   */
+  public SortedVolatileChunk(final KeyFactory<K, V> keyFactory) {
+    this(new ConcurrentSkipListMap<K, V>(), keyFactory);
+  }
+
+  /**
+   * Constructs a new SortedVolatileChunk, ordering keys by the given Comparator, that uses the given
+   * KeyFactory to generate keys during insertion.
+   *
+   * @param comparator The Comparator by which to order keys.
+   * @param keyFactory A thread-safe KeyFactory used to create keys to insert objects under.
+   */
+  public SortedVolatileChunk(final Comparator<? super K> comparator, final KeyFactory<K, V> keyFactory) {
+    this(new ConcurrentSkipListMap<K, V>(comparator), keyFactory);
+  }
+
+  private SortedVolatileChunk(final ConcurrentNavigableMap<K, V> map, final KeyFactory<K, V> keyFactory) {
+    super(map, keyFactory);
+  }
+
+  /**
+   * Queries the values with keys in the given KeyRange, in order of key.
+   * <p>
+   * Events are dispatched as for query, with the KeyRange as the key.
+   */
+  @SuppressWarnings("unchecked")
+  public QueryResult<V> queryRange(final KeyRange<K> range, final QueryEventFactory<K, V>... customEventFactories) throws QueryException {
+    // The KeyRange is passed through as a key, as a DataModel would pass it, and recognised by doQuery.
+    return query((K) range, customEventFactories);
+  }
+
+  /**
+   * Deletes the values with keys in the given KeyRange, returning the number deleted.
+   * <p>
+   * Events are dispatched as for delete, with the KeyRange as the key.
+   */
+  @SuppressWarnings("unchecked")
+  public int deleteRange(final KeyRange<K> range, final DeleteEventFactory<K>... customEventFactories) throws DeleteException {
+    return delete((K) range, customEventFactories);
+  }
+
+  /**
+   * Query the given key from the backing storage, or the given range of keys if the key is a KeyRange.
+   * @return The results, in order of key for a KeyRange.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  protected QueryResult<V> doQuery(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    if (key instanceof KeyRange) {
+      final KeyRange<K> range = (KeyRange<K>) key;
+      final Iterable<V> values = slice(range).values();
+      // Wrapped as a plain Iterable, since the size of a skip list view is only found by iterating it.
+      return new QueryResult.IterableQueryResult<V>(range.getLimit() == Integer.MAX_VALUE
+          ? FluentIterable.from(values)
+          : Iterables.limit(values, range.getLimit()));
+    }
+    return super.doQuery(key, onProgressUpdateListener);
+  }
+
+  /**
+   * Delete the given key from the backing storage, or the given range of keys if the key is a KeyRange.
+   * @return The number of values deleted.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  protected int doDelete(final K key, final OnProgressUpdateListener onProgressUpdateListener) throws DeleteException {
+    if (key instanceof KeyRange) {
+      final KeyRange<K> range = (KeyRange<K>) key;
+      int numDeleted = 0;
+      final Iterator<K> keys = slice(range).keySet().iterator();
+      while (numDeleted < range.getLimit() && keys.hasNext()) {
+        // Removed one by one, counting only the keys this operation removed.
+        if (getMap().remove(keys.next()) != null) {
+          numDeleted++;
+        }
+      }
+      return numDeleted;
+    }
+    return super.doDelete(key, onProgressUpdateListener);
+  }
+
+  @SuppressWarnings("unchecked")
+  private ConcurrentNavigableMap<K, V> slice(final KeyRange<K> range) {
+    ConcurrentNavigableMap<K, V> slice = getMap();
+    if (range.getLower() != null && range.getUpper() != null) {
+      final Comparator<? super K> comparator = slice.comparator();
+      final int comparison = comparator == null
+          ? ((Comparable<? super K>) range.getLower()).compareTo(range.getUpper())
+          : comparator.compare(range.getLower(), range.getUpper());
+      if (comparison > 0) {
+        // An inverted range addresses no keys, but subMap refuses it, so take an empty view instead.
+        return slice.subMap(range.getLower(), true, range.getLower(), false);
+      }
+      slice = slice.subMap(range.getLower(), range.isLowerInclusive(), range.getUpper(), range.isUpperInclusive());
+    } else if (range.getLower() != null) {
+      slice = slice.tailMap(range.getLower(), range.isLowerInclusive());
+    } else if (range.getUpper() != null) {
+      slice = slice.headMap(range.getUpper(), range.isUpperInclusive());
+    }
+    return range.isDescending() ? slice.descendingMap() : slice;
+  }
+
+  /**
+   * Returns the backing map, which is the ConcurrentNavigableMap created on construction.
+   */
+  @Override
+  protected ConcurrentNavigableMap<K, V> getMap() {
+    return (ConcurrentNavigableMap<K, V>) super.getMap();
+  }
+}
@@ -0,0 +1,100 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.collect.Iterators;
+
+import java.util.Iterator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * A QueryResult that can be split into parts, such that its values can be processed in parallel, for
+ * example by recursive tasks on a ForkJoinPool.
+ * <p>
+ * Each call to trySplit moves a leading part of the remaining values of this QueryResult into a new
+ * QueryResult, which may itself be split.  The parts share any resources of this QueryResult, so only this
+ * QueryResult need be closed, once all parts have been processed.
+ * <p>
+ * Once a SplittableQueryResult has been split, it covers only its remaining values.
+ *
+ * @param <V>
+ */
+public interface SplittableQueryResult<V> extends QueryResult<V> {
+
+  /**
+   * Moves a leading part of the remaining values of this QueryResult into a new SplittableQueryResult.
+   *
+   * @return The leading part, or null if this QueryResult cannot or should not be split further.
+   */
+  SplittableQueryResult<V> trySplit();
+
+  /**
+   * Returns the number of values remaining in this QueryResult, or an estimate of that number.
+   *
+   * @return The exact number of values, if known, else an estimate, or Long.MAX_VALUE if unknown.
+   */
+  long estimateSize();
+
+  /**
+   * A SplittableQueryResult over a range of a List, which is split into halves without copying.  It is also
+   * a RandomAccessQueryResult, indexed from the start of its range.
+   * <p>
+   * This implementation cannot be closed, ie calls to close() do nothing and
+   * calls to isClosed() always return false.
+   * @param <V>
+   */
+  public static class ListQueryResult<V> extends QueryResult.EmptyQueryResult<V> implements SplittableQueryResult<V>, RandomAccessQueryResult<V> {
+    private final List<V> mValues;
+    private int mFrom;
+    private final int mTo;
+
+    public ListQueryResult(final List<V> values) {
+      this(values, 0, values.size());
+    }
+
+    /**
+     * Constructs a ListQueryResult over the values of the given List from index from, inclusive, to index
+     * to, exclusive.  The List is used directly, so should not be modified whilst this QueryResult is used.
+     */
+    public ListQueryResult(final List<V> values, final int from, final int to) {
+      mValues = checkNotNull(values);
+      checkPositionIndexes(from, to, values.size());
+      mFrom = from;
+      mTo = to;
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+      return mFrom == mTo ? Iterators.<V>emptyIterator() : mValues.subList(mFrom, mTo).iterator();
+    }
+
+    @Override
+    public SplittableQueryResult<V> trySplit() {
+      final int middle = (mFrom + mTo) >>> 1;
+      if (middle == mFrom) {
+        return null;
+      }
+      final ListQueryResult<V> prefix = new ListQueryResult<V>(mValues, mFrom, middle);
+      mFrom = middle;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      return mTo - mFrom;
+    }
+
+    @Override
+    public int size() {
+      return mTo - mFrom;
+    }
+
+    @Override
+    public V get(final int index) {
+      checkElementIndex(index, mTo - mFrom);
+      return mValues.get(mFrom + index);
+    }
+  }
+}
@@ -5,9 +5,12 @@ import com.google.common.base.Functions;
 import com.google.common.collect.Maps;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ninja.ugly.prevail.exception.DeleteException;
 import ninja.ugly.prevail.exception.InsertException;
@@ -75,6 +78,72 @@ public class VolatileChunk<K, V> extends DefaultChunk<K, V> {
     return result;
   }
 
+  /**
+   * Returns true, as every Criterion is evaluated in memory by doQueryWhere.
+   */
+  @Override
+  protected boolean canPushDown(final Query.Criterion<V> criterion) {
+    return true;
+  }
+
+  /**
+   * Returns true, as the offset and limit are applied in memory by doQueryWhere.
+   */
+  @Override
+  protected boolean canPushDownPaging() {
+    return true;
+  }
+
+  /**
+   * Query the values meeting the given Query, by scanning all values in the backing storage.
+   * @return The results, in the iteration order of the backing map.
+   */
+  @Override
+  protected QueryResult<V> doQueryWhere(final Query<V> query, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    return new SplittableQueryResult.ListQueryResult<>(select(getValues(), query));
+  }
+
+  /**
+   * Returns the given values meeting the given Query, skipped and limited by the offset and limit of the Query.
+   */
+  static <V> List<V> select(final Iterable<V> values, final Query<V> query) {
+    final List<V> selected = new ArrayList<>();
+    int skip = query.getOffset();
+    for (V value : values) {
+      if (selected.size() >= query.getLimit()) {
+        break;
+      }
+      if (query.matches(value)) {
+        if (skip > 0) {
+          skip--;
+        } else {
+          selected.add(value);
+        }
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * Query the given keys from the backing storage, gathering all values into a single result.
+   * Keys that are Queries are answered as by query.
+   * @return The results, in the order of the given keys.  Keys not in the backing storage are skipped.
+   *     Unless any key is a Query, the results are a SplittableQueryResult, splitting without copying.
+   */
+  @Override
+  protected QueryResult<V> doQueryAll(final List<K> keys, final OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    if (containsQuery(keys)) {
+      return super.doQueryAll(keys, onProgressUpdateListener);
+    }
+    final List<V> values = new ArrayList<>(keys.size());
+    for (K key : keys) {
+      if (mMap.containsKey(key)) {
+        values.add(mMap.get(key));
+      }
+    }
+    return new SplittableQueryResult.ListQueryResult<>(values);
+  }
+
   /**
    * Update the given key in backing storage with the given value.
    * <p>
@@ -114,6 +183,22 @@ public class VolatileChunk<K, V> extends DefaultChunk<K, V> {
     return mMap.toString();
   }
 
+  /**
+   * Returns the backing map, for subclasses that store values in it directly.
+   * @return The Map given on construction.
+   */
+  protected Map<K, V> getMap() {
+    return mMap;
+  }
+
+  /**
+   * Returns the KeyFactory used to create keys during insertion.
+   * @return The KeyFactory given on construction.
+   */
+  protected KeyFactory<K, V> getKeyFactory() {
+    return mKeyFactory;
+  }
+
   /**
    * Returns an unmodifiable collection of values from the backing map.
    * @return All the values in the backing map.
@@ -165,11 +250,12 @@ public class VolatileChunk<K, V> extends DefaultChunk<K, V> {
     }
 
     static class AutoIncrementFunction<V> implements Function<V, Integer> {
-      private int mCounter = 0;
+      // Atomic, so that keys remain unique when a Chunk is operated on from several threads.
+      private final AtomicInteger mCounter = new AtomicInteger();
 
       @Override
       public Integer apply(final V input) {
-        return mCounter++;
+        return mCounter.getAndIncrement();
       }
     }
   }
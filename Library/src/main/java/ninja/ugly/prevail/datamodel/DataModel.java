@@ -1,22 +1,21 @@
 package ninja.ugly.prevail.datamodel;
 
-import com.google.common.base.Function;
-import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 import ninja.ugly.prevail.chunk.Chunk;
 import ninja.ugly.prevail.chunk.QueryResult;
@@ -24,7 +23,9 @@ import ninja.ugly.prevail.event.factory.DeleteEventFactory;
 import ninja.ugly.prevail.event.factory.InsertEventFactory;
 import ninja.ugly.prevail.event.factory.QueryEventFactory;
 import ninja.ugly.prevail.event.factory.UpdateEventFactory;
+import ninja.ugly.prevail.executor.TaskTrackingExecutorService;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -39,8 +40,32 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class DataModel implements Closeable {
   private static final String NO_SEGMENT = "NO SEGMENT";
-  private static final ExecutorService DEFAULT_CHUNK_EXECUTOR = Executors.newSingleThreadExecutor();
-  private final Map<String, List<ChunkAndExecutor>> mChunks = new HashMap<>();
+  // Shared by all DataModels constructed without an ExecutionStrategy, so that operations on a Chunk added to
+  // more than one of them are still serialized.
+  private static final ExecutionStrategy DEFAULT_EXECUTION_STRATEGY = new ExecutionStrategy.WorkStealingExecutionStrategy();
+  // Each segment maps to an immutable snapshot of its Chunks.  Registration swaps in a new snapshot, so
+  // operations read the registry without taking a lock, and never see a list being modified.
+  private final ConcurrentMap<String, ImmutableList<ChunkAndExecutor>> mChunks = new ConcurrentHashMap<>();
+  private final ExecutionStrategy mExecutionStrategy;
+
+  /**
+   * Constructs a DataModel that runs the operations of Chunks added without an explicit ExecutorService
+   * on a shared work-stealing pool.  Operations on different Chunks run in parallel, whilst operations on
+   * any one Chunk are serialized, across all DataModels constructed this way.
+   */
+  public DataModel() {
+    this(DEFAULT_EXECUTION_STRATEGY);
+  }
+
+  /**
+   * Constructs a DataModel that uses the given ExecutionStrategy to choose the ExecutorService for Chunks
+   * added without an explicit ExecutorService.
+   *
+   * @param executionStrategy The ExecutionStrategy for Chunks added to this DataModel.
+   */
+  public DataModel(final ExecutionStrategy executionStrategy) {
+    mExecutionStrategy = checkNotNull(executionStrategy);
+  }
 
   /**
    * Add a Chunk to the default segment of this DataModel.
@@ -56,7 +81,7 @@ public class DataModel implements Closeable {
    * @param chunk The Chunk to add
    */
   public void addChunk(String segment, final Chunk chunk) {
-    addChunkWithNullChecks(segment, chunk, DEFAULT_CHUNK_EXECUTOR);
+    addChunk(segment, chunk, null);
   }
 
   /**
@@ -64,11 +89,11 @@ public class DataModel implements Closeable {
    * operations on the given ExecutorService.
    *
    * @param chunk The Chunk to add
-   * @param executor The ExecutorService on which to run the Chunk operations. If null, a default single-threaded
-   *                 ExecutorService will be used.
+   * @param executor The ExecutorService on which to run the Chunk operations. If null, the ExecutorService
+   *                 chosen by the ExecutionStrategy of this DataModel will be used.
    */
   public void addChunk(final Chunk chunk, final ExecutorService executor) {
-    addChunkWithNullChecks(NO_SEGMENT, chunk, executor);
+    addChunk(NO_SEGMENT, chunk, executor);
   }
 
   /**
@@ -77,11 +102,61 @@ public class DataModel implements Closeable {
    *
    * @param segment A String naming the segment
    * @param chunk The Chunk to add
-   * @param executor The ExecutorService on which to run the Chunk operations. If null, a default single-threaded
-   *                 ExecutorService will be used.
+   * @param executor The ExecutorService on which to run the Chunk operations. If null, the ExecutorService
+   *                 chosen by the ExecutionStrategy of this DataModel will be used.
    */
   public void addChunk(final String segment, final Chunk chunk, final ExecutorService executor) {
-    addChunkWithNullChecks(segment, chunk, executor == null ? DEFAULT_CHUNK_EXECUTOR : executor);
+    checkNotNull(segment);
+    checkNotNull(chunk);
+    addChunkWithNullChecks(segment, chunk, executor == null ? mExecutionStrategy.getExecutor(segment, chunk) : executor);
+  }
+
+  /**
+   * Remove a Chunk from the default segment of this DataModel.
+   * <p>
+   * The Chunk is not closed.  Operations already submitted to the Chunk will still run.
+   *
+   * @param chunk The Chunk to remove
+   * @return true if the Chunk was registered at the default segment, false otherwise.
+   */
+  public boolean removeChunk(final Chunk chunk) {
+    return removeChunk(NO_SEGMENT, chunk);
+  }
+
+  /**
+   * Remove a Chunk from the given segment of this DataModel.
+   * <p>
+   * The Chunk is not closed.  Operations already submitted to the Chunk will still run.  If the Chunk was
+   * added to the segment more than once, then only one registration is removed.
+   *
+   * @param segment A String naming the segment
+   * @param chunk The Chunk to remove
+   * @return true if the Chunk was registered at the given segment, false otherwise.
+   */
+  public boolean removeChunk(final String segment, final Chunk chunk) {
+    checkNotNull(segment);
+    checkNotNull(chunk);
+    for (;;) {
+      final ImmutableList<ChunkAndExecutor> chunks = mChunks.get(segment);
+      final int index = chunks == null ? -1 : indexOf(chunks, chunk);
+      if (index < 0) {
+        return false;
+      }
+
+      final boolean removed;
+      if (chunks.size() == 1) {
+        removed = mChunks.remove(segment, chunks);
+      } else {
+        final ImmutableList<ChunkAndExecutor> updated = ImmutableList.<ChunkAndExecutor>builder()
+            .addAll(chunks.subList(0, index))
+            .addAll(chunks.subList(index + 1, chunks.size()))
+            .build();
+        removed = mChunks.replace(segment, chunks, updated);
+      }
+      if (removed) {
+        return true;
+      }
+    }
   }
 
 
@@ -92,15 +167,15 @@ public class DataModel implements Closeable {
    * events will be dispatched, in addition to events from any DeleteEventFactory already added
    * to the respective Chunk.
    * <p>
-   * This method returns a Future containing a List of results from each registered Chunks' delete operation.
+   * This method returns a ListenableFuture containing a List of results from each registered Chunks' delete operation.
    * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
    *
    * @param key The key to delete.
    * @param deleteEventFactories An optional list of DeleteEventFactory used to generate events for this operation.
    * @param <K> The type of the key on the Chunks.
-   * @return A Future containing a list of results of each Chunk delete operation.
+   * @return A ListenableFuture containing a list of results of each Chunk delete operation.
    */
-  public <K> Future<List<Integer>> delete(final K key, final DeleteEventFactory... deleteEventFactories) {
+  public <K> ListenableFuture<List<Integer>> delete(final K key, final DeleteEventFactory... deleteEventFactories) {
     return delete(NO_SEGMENT, key, deleteEventFactories);
   }
 
@@ -111,7 +186,7 @@ public class DataModel implements Closeable {
    * events will be dispatched, in addition to events from any DeleteEventFactory already added
    * to the respective Chunk.
    * <p>
-   * This method returns a Future containing a List of results from each registered Chunks' delete operation.
+   * This method returns a ListenableFuture containing a List of results from each registered Chunks' delete operation.
    * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
    *
    * @param segment A String naming the segment to apply the operation.  The delete operation will be propagated
@@ -119,22 +194,19 @@ public class DataModel implements Closeable {
    * @param key The key to delete.
    * @param deleteEventFactories An optional list of DeleteEventFactory used to generate events for this operation.
    * @param <K> The type of the key on the Chunks.
-   * @return A Future containing a list of results of each Chunk delete operation.
+   * @return A ListenableFuture containing a list of results of each Chunk delete operation.
    */
-  public <K> Future<List<Integer>> delete(final String segment, final K key, final DeleteEventFactory... deleteEventFactories) {
-    List<ChunkAndExecutor> chunks = Optional.fromNullable(mChunks.get(segment)).or(Lists.<ChunkAndExecutor>newArrayListWithCapacity(0));
-
-    List<ListenableFuture<Integer>> futures = Lists.transform(chunks, new Function<ChunkAndExecutor, ListenableFuture<Integer>>() {
-      @Override
-      public ListenableFuture<Integer> apply(final ChunkAndExecutor input) {
-        return MoreExecutors.listeningDecorator(input.getExecutor()).submit(new Callable<Integer>() {
-          @Override
-          public Integer call() throws Exception {
-            return input.getChunk().delete(key, deleteEventFactories);
-          }
-        });
-      }
-    });
+  public <K> ListenableFuture<List<Integer>> delete(final String segment, final K key, final DeleteEventFactory... deleteEventFactories) {
+    final List<ChunkAndExecutor> chunks = getChunks(segment);
+    final List<ListenableFuture<Integer>> futures = new ArrayList<>(chunks.size());
+    for (final ChunkAndExecutor chunkAndExecutor : chunks) {
+      futures.add(chunkAndExecutor.getExecutor().submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return chunkAndExecutor.getChunk().delete(key, deleteEventFactories);
+        }
+      }));
+    }
 
     return Futures.successfulAsList(futures);
   }
@@ -146,15 +218,15 @@ public class DataModel implements Closeable {
    * events will be dispatched, in addition to events from any InsertEventFactory already added
    * to the respective Chunk.
    * <p>
-   * This method returns a Future containing a List of results from each registered Chunk's insert operation.
+   * This method returns a ListenableFuture containing a List of results from each registered Chunk's insert operation.
    * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
    *
    * @param value The value to insert.
    * @param insertEventFactories An optional list of InsertEventFactory used to generate events for this operation.
    * @param <V> The type of the value on the Chunks.
-   * @return A Future containing a list of results of each Chunk insert operation.
+   * @return A ListenableFuture containing a list of results of each Chunk insert operation.
    */
-  public <V> Future<List<Object>> insert(final V value, final InsertEventFactory... insertEventFactories) {
+  public <V> ListenableFuture<List<Object>> insert(final V value, final InsertEventFactory... insertEventFactories) {
     return insert(NO_SEGMENT, value, insertEventFactories);
   }
 
@@ -165,7 +237,7 @@ public class DataModel implements Closeable {
    * events will be dispatched, in addition to events from any InsertEventFactory already added
    * to the respective Chunk.
    * <p>
-   * This method returns a Future containing a List of results from each registered Chunk's insert operation.
+   * This method returns a ListenableFuture containing a List of results from each registered Chunk's insert operation.
    * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
    *
    * @param segment A String naming the segment to apply the operation.  The insert operation will be propagated
@@ -173,22 +245,19 @@ public class DataModel implements Closeable {
    * @param value The value to insert.
    * @param insertEventFactories An optional list of InsertEventFactory used to generate events for this operation.
    * @param <V> The type of the value on the Chunks.
-   * @return A Future containing a list of results of each Chunk insert operation.
+   * @return A ListenableFuture containing a list of results of each Chunk insert operation.
    */
-  public <V> Future<List<Object>> insert(final String segment, final V value, final InsertEventFactory... insertEventFactories) {
-    List<ChunkAndExecutor> chunks = Optional.fromNullable(mChunks.get(segment)).or(Lists.<ChunkAndExecutor>newArrayListWithCapacity(0));
-
-    List<ListenableFuture<Object>> futures = Lists.transform(chunks, new Function<ChunkAndExecutor, ListenableFuture<Object>>() {
-      @Override
-      public ListenableFuture<Object> apply(final ChunkAndExecutor input) {
-        return MoreExecutors.listeningDecorator(input.getExecutor()).submit(new Callable<Object>() {
-          @Override
-          public Object call() throws Exception {
-            return input.getChunk().insert(value, insertEventFactories);
-          }
-        });
-      }
-    });
+  public <V> ListenableFuture<List<Object>> insert(final String segment, final V value, final InsertEventFactory... insertEventFactories) {
+    final List<ChunkAndExecutor> chunks = getChunks(segment);
+    final List<ListenableFuture<Object>> futures = new ArrayList<>(chunks.size());
+    for (final ChunkAndExecutor chunkAndExecutor : chunks) {
+      futures.add(chunkAndExecutor.getExecutor().submit(new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          return chunkAndExecutor.getChunk().insert(value, insertEventFactories);
+        }
+      }));
+    }
 
     return Futures.successfulAsList(futures);
   }
@@ -200,15 +269,15 @@ public class DataModel implements Closeable {
    * events will be dispatched, in addition to events from any QueryEventFactory already added
    * to the respective Chunk.
    * <p>
-   * This method returns a Future containing a List of results from each registered Chunk's query operation.
+   * This method returns a ListenableFuture containing a List of results from each registered Chunk's query operation.
    * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
    *
    * @param key The key to query.
    * @param queryEventFactories An optional list of QueryEventFactory used to generate events for this operation.
    * @param <K> The type of the key on the Chunks.
-   * @return A Future containing a list of results of each Chunk query operation.
+   * @return A ListenableFuture containing a list of results of each Chunk query operation.
    */
-  public <K> Future<List<QueryResult<Object>>> query(final K key, final QueryEventFactory... queryEventFactories) {
+  public <K> ListenableFuture<List<QueryResult<Object>>> query(final K key, final QueryEventFactory... queryEventFactories) {
     return query(NO_SEGMENT, key, queryEventFactories);
   }
 
@@ -219,7 +288,7 @@ public class DataModel implements Closeable {
    * events will be dispatched, in addition to events from any QueryEventFactory already added
    * to the respective Chunk.
    * <p>
-   * This method returns a Future containing a List of results from each registered Chunk's query operation.
+   * This method returns a ListenableFuture containing a List of results from each registered Chunk's query operation.
    * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
    *
    * @param segment A String naming the segment to apply the operation.  The query operation will be propagated
@@ -227,22 +296,76 @@ public class DataModel implements Closeable {
    * @param key The key to query.
    * @param queryEventFactories An optional list of QueryEventFactory used to generate events for this operation.
    * @param <K> The type of the key on the Chunks.
-   * @return A Future containing a list of results of each Chunk query operation.
+   * @return A ListenableFuture containing a list of results of each Chunk query operation.
    */
-  public <K> Future<List<QueryResult<Object>>> query(final String segment, final K key, final QueryEventFactory... queryEventFactories) {
-    List<ChunkAndExecutor> chunks = Optional.fromNullable(mChunks.get(segment)).or(Lists.<ChunkAndExecutor>newArrayListWithCapacity(0));
-
-    List<ListenableFuture<QueryResult<Object>>> futures = Lists.transform(chunks, new Function<ChunkAndExecutor, ListenableFuture<QueryResult<Object>>>() {
-      @Override
-      public ListenableFuture<QueryResult<Object>> apply(final ChunkAndExecutor input) {
-        return MoreExecutors.listeningDecorator(input.getExecutor()).submit(new Callable<QueryResult<Object>>() {
-          @Override
-          public QueryResult<Object> call() throws Exception {
-            return input.getChunk().query(key, queryEventFactories);
-          }
-        });
-      }
-    });
+  public <K> ListenableFuture<List<QueryResult<Object>>> query(final String segment, final K key, final QueryEventFactory... queryEventFactories) {
+    final List<ChunkAndExecutor> chunks = getChunks(segment);
+    final List<ListenableFuture<QueryResult<Object>>> futures = new ArrayList<>(chunks.size());
+    for (final ChunkAndExecutor chunkAndExecutor : chunks) {
+      futures.add(chunkAndExecutor.getExecutor().submit(new Callable<QueryResult<Object>>() {
+        @Override
+        public QueryResult<Object> call() throws Exception {
+          return chunkAndExecutor.getChunk().query(key, queryEventFactories);
+        }
+      }));
+    }
+
+    return Futures.successfulAsList(futures);
+  }
+
+  /**
+   * Query the given key at all Chunks registered at the default segment of the DataModel, returning results
+   * that fetch their values a page at a time.
+   * <p>
+   * Each Chunk fetches its first page on its own ExecutorService, and prefetches each later page on the same
+   * ExecutorService whilst the page before it is iterated.  Chunks that cannot fetch values by page return
+   * the same results as for query.
+   * <p>
+   * A page not yet fetched is fetched by the iterating thread only if that thread is running a queryPaged
+   * operation on the ExecutorService of the Chunk.  Iterating the results from within any other operation on
+   * a single-threaded ExecutorService waits forever for the prefetch.
+   *
+   * @param key The key to query.
+   * @param pageSize The number of values in each page.
+   * @param queryEventFactories An optional list of QueryEventFactory used to generate events for this operation.
+   * @param <K> The type of the key on the Chunks.
+   * @return A ListenableFuture containing a list of results of each Chunk queryPaged operation.
+   */
+  public <K> ListenableFuture<List<QueryResult<Object>>> queryPaged(final K key, final int pageSize, final QueryEventFactory... queryEventFactories) {
+    return queryPaged(NO_SEGMENT, key, pageSize, queryEventFactories);
+  }
+
+  /**
+   * Query the given key at all Chunks registered at the given segment of the DataModel, returning results
+   * that fetch their values a page at a time.
+   * <p>
+   * Each Chunk fetches its first page on its own ExecutorService, and prefetches each later page on the same
+   * ExecutorService whilst the page before it is iterated.  Chunks that cannot fetch values by page return
+   * the same results as for query.
+   * <p>
+   * A page not yet fetched is fetched by the iterating thread only if that thread is running a queryPaged
+   * operation on the ExecutorService of the Chunk.  Iterating the results from within any other operation on
+   * a single-threaded ExecutorService waits forever for the prefetch.
+   *
+   * @param segment A String naming the segment to apply the operation.  The queryPaged operation will be
+   *                propagated to all Chunks registered at the segment.
+   * @param key The key to query.
+   * @param pageSize The number of values in each page.
+   * @param queryEventFactories An optional list of QueryEventFactory used to generate events for this operation.
+   * @param <K> The type of the key on the Chunks.
+   * @return A ListenableFuture containing a list of results of each Chunk queryPaged operation.
+   */
+  public <K> ListenableFuture<List<QueryResult<Object>>> queryPaged(final String segment, final K key, final int pageSize, final QueryEventFactory... queryEventFactories) {
+    final List<ChunkAndExecutor> chunks = getChunks(segment);
+    final List<ListenableFuture<QueryResult<Object>>> futures = new ArrayList<>(chunks.size());
+    for (final ChunkAndExecutor chunkAndExecutor : chunks) {
+      futures.add(chunkAndExecutor.getPagedExecutor().submit(new Callable<QueryResult<Object>>() {
+        @Override
+        public QueryResult<Object> call() throws Exception {
+          return chunkAndExecutor.getChunk().queryPaged(key, pageSize, chunkAndExecutor.getPrefetchExecutor(), queryEventFactories);
+        }
+      }));
+    }
 
     return Futures.successfulAsList(futures);
   }
@@ -254,7 +377,7 @@ public class DataModel implements Closeable {
    * events will be dispatched, in addition to events from any QueryEventFactory already added
    * to the respective Chunk.
    * <p>
-   * This method returns a Future containing a List of results from each registered Chunk's query operation.
+   * This method returns a ListenableFuture containing a List of results from each registered Chunk's query operation.
    * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
    *
    * @param key The key to update.
@@ -262,9 +385,9 @@ public class DataModel implements Closeable {
    * @param updateEventFactories An optional list of UpdateEventFactory used to generate events for this operation.
    * @param <K> The type of the key on the Chunks.
    * @param <V> The type of the value on the Chunks.
-   * @return A Future containing a list of results of each Chunk update operation.
+   * @return A ListenableFuture containing a list of results of each Chunk update operation.
    */
-  public <K,V> Future<List<Integer>> update(final K key, final V value, final UpdateEventFactory... updateEventFactories) {
+  public <K,V> ListenableFuture<List<Integer>> update(final K key, final V value, final UpdateEventFactory... updateEventFactories) {
     return update(NO_SEGMENT, key, value, updateEventFactories);
   }
 
@@ -275,7 +398,7 @@ public class DataModel implements Closeable {
    * events will be dispatched, in addition to events from any QueryEventFactory already added
    * to the respective Chunk.
    * <p>
-   * This method returns a Future containing a List of results from each registered Chunk's query operation.
+   * This method returns a ListenableFuture containing a List of results from each registered Chunk's query operation.
    * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
    *
    * @param segment A String naming the segment to apply the operation.  The update operation will be propagated
@@ -285,60 +408,286 @@ public class DataModel implements Closeable {
    * @param updateEventFactories An optional list of UpdateEventFactory used to generate events for this operation.
    * @param <K> The type of the key on the Chunks.
    * @param <V> The type of the value on the Chunks.
-   * @return A Future containing a list of results of each Chunk update operation.
+   * @return A ListenableFuture containing a list of results of each Chunk update operation.
    */
-  public <K, V> Future<List<Integer>> update(final String segment, final K key, final V value, final UpdateEventFactory... updateEventFactories) {
-    List<ChunkAndExecutor> chunks = Optional.fromNullable(mChunks.get(segment)).or(Lists.<ChunkAndExecutor>newArrayListWithCapacity(0));
-
-    List<ListenableFuture<Integer>> futures = Lists.transform(chunks, new Function<ChunkAndExecutor, ListenableFuture<Integer>>() {
-      @Override
-      public ListenableFuture<Integer> apply(final ChunkAndExecutor input) {
-        return MoreExecutors.listeningDecorator(input.getExecutor()).submit(new Callable<Integer>() {
-          @Override
-          public Integer call() throws Exception {
-            return input.getChunk().update(key, value, updateEventFactories);
-          }
-        });
-      }
-    });
+  public <K, V> ListenableFuture<List<Integer>> update(final String segment, final K key, final V value, final UpdateEventFactory... updateEventFactories) {
+    final List<ChunkAndExecutor> chunks = getChunks(segment);
+    final List<ListenableFuture<Integer>> futures = new ArrayList<>(chunks.size());
+    for (final ChunkAndExecutor chunkAndExecutor : chunks) {
+      futures.add(chunkAndExecutor.getExecutor().submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return chunkAndExecutor.getChunk().update(key, value, updateEventFactories);
+        }
+      }));
+    }
 
     return Futures.successfulAsList(futures);
   }
 
-  private void addChunkWithNullChecks(final String segment, final Chunk chunk, final ExecutorService executor) {
-    ChunkAndExecutor ce = new ChunkAndExecutor(checkNotNull(chunk), checkNotNull(executor));
-    putIfAbsent(checkNotNull(segment), Lists.<ChunkAndExecutor>newArrayList()).add(ce);
+  /**
+   * Insert the given values to all Chunks registered at the default segment of the DataModel, as a single
+   * batch operation on each Chunk.
+   * <p>
+   * Optional event factories may be given, which are forwarded to the Chunks' insertAll method.  Events from
+   * these factories are dispatched once for the whole batch, and events from the factories added to each Chunk
+   * once for each value.
+   * <p>
+   * This method returns a ListenableFuture containing a List of results from each registered Chunk's insertAll operation.
+   * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
+   *
+   * @param values The values to insert.
+   * @param insertEventFactories An optional list of InsertEventFactory used to generate events for this operation.
+   * @param <V> The type of the values on the Chunks.
+   * @return A ListenableFuture containing a list of results of each Chunk insertAll operation.
+   */
+  public <V> ListenableFuture<List<List<Object>>> insertAll(final List<V> values, final InsertEventFactory... insertEventFactories) {
+    return insertAll(NO_SEGMENT, values, insertEventFactories);
+  }
+
+  /**
+   * Insert the given values to all Chunks registered at the given segment of the DataModel, as a single
+   * batch operation on each Chunk.
+   * <p>
+   * Optional event factories may be given, which are forwarded to the Chunks' insertAll method.  Events from
+   * these factories are dispatched once for the whole batch, and events from the factories added to each Chunk
+   * once for each value.
+   * <p>
+   * This method returns a ListenableFuture containing a List of results from each registered Chunk's insertAll operation.
+   * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
+   *
+   * @param segment A String naming the segment to apply the operation.  The insertAll operation will be propagated
+   *                to all Chunks registered at the segment.
+   * @param values The values to insert.
+   * @param insertEventFactories An optional list of InsertEventFactory used to generate events for this operation.
+   * @param <V> The type of the values on the Chunks.
+   * @return A ListenableFuture containing a list of results of each Chunk insertAll operation.
+   */
+  public <V> ListenableFuture<List<List<Object>>> insertAll(final String segment, final List<V> values, final InsertEventFactory... insertEventFactories) {
+    final List<ChunkAndExecutor> chunks = getChunks(segment);
+    final List<ListenableFuture<List<Object>>> futures = new ArrayList<>(chunks.size());
+    for (final ChunkAndExecutor chunkAndExecutor : chunks) {
+      futures.add(chunkAndExecutor.getExecutor().submit(new Callable<List<Object>>() {
+        @Override
+        public List<Object> call() throws Exception {
+          return chunkAndExecutor.getChunk().insertAll(values, insertEventFactories);
+        }
+      }));
+    }
+
+    return Futures.successfulAsList(futures);
   }
 
-  private List<ChunkAndExecutor> putIfAbsent(final String segment, final List<ChunkAndExecutor> defaultValue) {
-    final List<ChunkAndExecutor> l;
-    synchronized (mChunks) {
-      if (mChunks.containsKey(segment)) {
-        l = mChunks.get(segment);
+  /**
+   * Query the given keys at all Chunks registered at the default segment of the DataModel, as a single
+   * batch operation on each Chunk.
+   * <p>
+   * Optional event factories may be given, which are forwarded to the Chunks' queryAll method.  Events from
+   * these factories are dispatched once for the whole batch, and events from the factories added to each Chunk
+   * once for each key.
+   * <p>
+   * This method returns a ListenableFuture containing a List of results from each registered Chunk's queryAll operation.
+   * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
+   *
+   * @param keys The keys to query.
+   * @param queryEventFactories An optional list of QueryEventFactory used to generate events for this operation.
+   * @param <K> The type of the keys on the Chunks.
+   * @return A ListenableFuture containing a list of results of each Chunk queryAll operation.
+   */
+  public <K> ListenableFuture<List<QueryResult<Object>>> queryAll(final List<K> keys, final QueryEventFactory... queryEventFactories) {
+    return queryAll(NO_SEGMENT, keys, queryEventFactories);
+  }
+
+  /**
+   * Query the given keys at all Chunks registered at the given segment of the DataModel, as a single
+   * batch operation on each Chunk.
+   * <p>
+   * Optional event factories may be given, which are forwarded to the Chunks' queryAll method.  Events from
+   * these factories are dispatched once for the whole batch, and events from the factories added to each Chunk
+   * once for each key.
+   * <p>
+   * This method returns a ListenableFuture containing a List of results from each registered Chunk's queryAll operation.
+   * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
+   *
+   * @param segment A String naming the segment to apply the operation.  The queryAll operation will be propagated
+   *                to all Chunks registered at the segment.
+   * @param keys The keys to query.
+   * @param queryEventFactories An optional list of QueryEventFactory used to generate events for this operation.
+   * @param <K> The type of the keys on the Chunks.
+   * @return A ListenableFuture containing a list of results of each Chunk queryAll operation.
+   */
+  public <K> ListenableFuture<List<QueryResult<Object>>> queryAll(final String segment, final List<K> keys, final QueryEventFactory... queryEventFactories) {
+    final List<ChunkAndExecutor> chunks = getChunks(segment);
+    final List<ListenableFuture<QueryResult<Object>>> futures = new ArrayList<>(chunks.size());
+    for (final ChunkAndExecutor chunkAndExecutor : chunks) {
+      futures.add(chunkAndExecutor.getExecutor().submit(new Callable<QueryResult<Object>>() {
+        @Override
+        public QueryResult<Object> call() throws Exception {
+          return chunkAndExecutor.getChunk().queryAll(keys, queryEventFactories);
+        }
+      }));
+    }
+
+    return Futures.successfulAsList(futures);
+  }
+
+  /**
+   * Update the given keys with the given values at all Chunks registered at the default segment of the
+   * DataModel, as a single batch operation on each Chunk.
+   * <p>
+   * Optional event factories may be given, which are forwarded to the Chunks' updateAll method.  Events from
+   * these factories are dispatched once for the whole batch, and events from the factories added to each Chunk
+   * once for each key.
+   * <p>
+   * This method returns a ListenableFuture containing a List of results from each registered Chunk's updateAll operation.
+   * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
+   *
+   * @param keys The keys to update.
+   * @param values The values to update, of the same size as the keys.
+   * @param updateEventFactories An optional list of UpdateEventFactory used to generate events for this operation.
+   * @param <K> The type of the keys on the Chunks.
+   * @param <V> The type of the values on the Chunks.
+   * @return A ListenableFuture containing a list of results of each Chunk updateAll operation.
+   */
+  public <K, V> ListenableFuture<List<Integer>> updateAll(final List<K> keys, final List<V> values, final UpdateEventFactory... updateEventFactories) {
+    return updateAll(NO_SEGMENT, keys, values, updateEventFactories);
+  }
+
+  /**
+   * Update the given keys with the given values at all Chunks registered at the given segment of the
+   * DataModel, as a single batch operation on each Chunk.
+   * <p>
+   * Optional event factories may be given, which are forwarded to the Chunks' updateAll method.  Events from
+   * these factories are dispatched once for the whole batch, and events from the factories added to each Chunk
+   * once for each key.
+   * <p>
+   * This method returns a ListenableFuture containing a List of results from each registered Chunk's updateAll operation.
+   * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
+   *
+   * @param segment A String naming the segment to apply the operation.  The updateAll operation will be propagated
+   *                to all Chunks registered at the segment.
+   * @param keys The keys to update.
+   * @param values The values to update, of the same size as the keys.
+   * @param updateEventFactories An optional list of UpdateEventFactory used to generate events for this operation.
+   * @param <K> The type of the keys on the Chunks.
+   * @param <V> The type of the values on the Chunks.
+   * @return A ListenableFuture containing a list of results of each Chunk updateAll operation.
+   */
+  public <K, V> ListenableFuture<List<Integer>> updateAll(final String segment, final List<K> keys, final List<V> values, final UpdateEventFactory... updateEventFactories) {
+    checkArgument(keys.size() == values.size(), "keys and values must be the same size");
+    final List<ChunkAndExecutor> chunks = getChunks(segment);
+    final List<ListenableFuture<Integer>> futures = new ArrayList<>(chunks.size());
+    for (final ChunkAndExecutor chunkAndExecutor : chunks) {
+      futures.add(chunkAndExecutor.getExecutor().submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return chunkAndExecutor.getChunk().updateAll(keys, values, updateEventFactories);
+        }
+      }));
+    }
+
+    return Futures.successfulAsList(futures);
+  }
+
+  /**
+   * Delete the given keys from all Chunks registered at the default segment of the DataModel, as a single
+   * batch operation on each Chunk.
+   * <p>
+   * Optional event factories may be given, which are forwarded to the Chunks' deleteAll method.  Events from
+   * these factories are dispatched once for the whole batch, and events from the factories added to each Chunk
+   * once for each key.
+   * <p>
+   * This method returns a ListenableFuture containing a List of results from each registered Chunk's deleteAll operation.
+   * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
+   *
+   * @param keys The keys to delete.
+   * @param deleteEventFactories An optional list of DeleteEventFactory used to generate events for this operation.
+   * @param <K> The type of the keys on the Chunks.
+   * @return A ListenableFuture containing a list of results of each Chunk deleteAll operation.
+   */
+  public <K> ListenableFuture<List<Integer>> deleteAll(final List<K> keys, final DeleteEventFactory... deleteEventFactories) {
+    return deleteAll(NO_SEGMENT, keys, deleteEventFactories);
+  }
+
+  /**
+   * Delete the given keys from all Chunks registered at the given segment of the DataModel, as a single
+   * batch operation on each Chunk.
+   * <p>
+   * Optional event factories may be given, which are forwarded to the Chunks' deleteAll method.  Events from
+   * these factories are dispatched once for the whole batch, and events from the factories added to each Chunk
+   * once for each key.
+   * <p>
+   * This method returns a ListenableFuture containing a List of results from each registered Chunk's deleteAll operation.
+   * Rather than wait on the result of this future, client code should usually await a event from an EventFactory.
+   *
+   * @param segment A String naming the segment to apply the operation.  The deleteAll operation will be propagated
+   *                to all Chunks registered at the segment.
+   * @param keys The keys to delete.
+   * @param deleteEventFactories An optional list of DeleteEventFactory used to generate events for this operation.
+   * @param <K> The type of the keys on the Chunks.
+   * @return A ListenableFuture containing a list of results of each Chunk deleteAll operation.
+   */
+  public <K> ListenableFuture<List<Integer>> deleteAll(final String segment, final List<K> keys, final DeleteEventFactory... deleteEventFactories) {
+    final List<ChunkAndExecutor> chunks = getChunks(segment);
+    final List<ListenableFuture<Integer>> futures = new ArrayList<>(chunks.size());
+    for (final ChunkAndExecutor chunkAndExecutor : chunks) {
+      futures.add(chunkAndExecutor.getExecutor().submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return chunkAndExecutor.getChunk().deleteAll(keys, deleteEventFactories);
+        }
+      }));
+    }
+
+    return Futures.successfulAsList(futures);
+  }
+
+  private List<ChunkAndExecutor> getChunks(final String segment) {
+    final List<ChunkAndExecutor> chunks = mChunks.get(segment);
+    return chunks == null ? ImmutableList.<ChunkAndExecutor>of() : chunks;
+  }
+
+  private static int indexOf(final List<ChunkAndExecutor> chunks, final Chunk chunk) {
+    for (int i = 0; i < chunks.size(); i++) {
+      if (chunks.get(i).getChunk() == chunk) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void addChunkWithNullChecks(final String segment, final Chunk chunk, final ExecutorService executor) {
+    // Decorate once here, rather than on every operation.
+    ChunkAndExecutor ce = new ChunkAndExecutor(checkNotNull(chunk), checkNotNull(executor));
+    for (;;) {
+      final ImmutableList<ChunkAndExecutor> chunks = mChunks.get(segment);
+      if (chunks == null) {
+        if (mChunks.putIfAbsent(segment, ImmutableList.of(ce)) == null) {
+          return;
+        }
       } else {
-        mChunks.put(segment, defaultValue);
-        l = defaultValue;
+        final ImmutableList<ChunkAndExecutor> updated = ImmutableList.<ChunkAndExecutor>builder().addAll(chunks).add(ce).build();
+        if (mChunks.replace(segment, chunks, updated)) {
+          return;
+        }
       }
     }
-    return l;
   }
 
   /** Close all registered chunks */
   @Override
   public void close() throws CompositeIOException {
-    synchronized (mChunks) {
-      List<IOException> exceptions = Lists.newArrayList();
-      for (ChunkAndExecutor chunkAndExecutor : Iterables.concat(mChunks.values())) {
-        try {
-          chunkAndExecutor.getChunk().close();
-        } catch (IOException e) {
-          exceptions.add(e);
-        }
+    List<IOException> exceptions = Lists.newArrayList();
+    for (ChunkAndExecutor chunkAndExecutor : Iterables.concat(mChunks.values())) {
+      try {
+        chunkAndExecutor.getChunk().close();
+      } catch (IOException e) {
+        exceptions.add(e);
       }
+    }
 
-      if (!exceptions.isEmpty()) {
-        throw new CompositeIOException(exceptions);
-      }
+    if (!exceptions.isEmpty()) {
+      throw new CompositeIOException(exceptions);
     }
   }
 
@@ -356,20 +705,40 @@ public class DataModel implements Closeable {
 
   private static final class ChunkAndExecutor {
     private final Chunk mChunk;
-    private final ExecutorService mExecutor;
+    private final ListeningExecutorService mExecutor;
+    // Tracks only queryPaged operations and their prefetches, such that other operations pay nothing for it.
+    private final TaskTrackingExecutorService mTaskTrackingExecutor;
+    private final ListeningExecutorService mPagedExecutor;
 
     private ChunkAndExecutor(final Chunk chunk, final ExecutorService executor) {
       mChunk = chunk;
-      mExecutor = executor;
+      mExecutor = MoreExecutors.listeningDecorator(executor);
+      mTaskTrackingExecutor = new TaskTrackingExecutorService(executor);
+      mPagedExecutor = MoreExecutors.listeningDecorator(mTaskTrackingExecutor);
     }
 
     public Chunk getChunk() {
       return mChunk;
     }
 
-    public ExecutorService getExecutor() {
+    public ListeningExecutorService getExecutor() {
       return mExecutor;
     }
+
+    /**
+     * Returns the ExecutorService on which to run queryPaged operations, wrapping getPrefetchExecutor.
+     */
+    public ListeningExecutorService getPagedExecutor() {
+      return mPagedExecutor;
+    }
+
+    /**
+     * Returns the ExecutorService on which to prefetch pages, such that a PagedQueryResult can tell whether it
+     * is iterated from a queryPaged operation already running on it.
+     */
+    public TaskTrackingExecutorService getPrefetchExecutor() {
+      return mTaskTrackingExecutor;
+    }
   }
 
 }
@@ -0,0 +1,192 @@
+package ninja.ugly.prevail.datamodel;
+
+import com.google.common.collect.MapMaker;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+
+import ninja.ugly.prevail.chunk.Chunk;
+import ninja.ugly.prevail.executor.LimitedConcurrencyExecutorService;
+import ninja.ugly.prevail.executor.ThreadPerTaskExecutorService;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An ExecutionStrategy decides on which ExecutorService the operations of a Chunk are run, when that
+ * Chunk is added to a DataModel without an explicit ExecutorService.
+ */
+public interface ExecutionStrategy {
+
+  /**
+   * Returns the ExecutorService on which to run operations on the given Chunk.
+   * <p>
+   * This method is called once each time a Chunk is added to a DataModel.
+   *
+   * @param segment The segment at which the Chunk is being added.
+   * @param chunk The Chunk being added.
+   * @return The ExecutorService on which to run the Chunk operations.  Not null.
+   */
+  ExecutorService getExecutor(String segment, Chunk<?, ?> chunk);
+
+  /**
+   * An ExecutionStrategy that runs the operations of all Chunks, across all DataModels, on a single
+   * shared thread.
+   * <p>
+   * All operations are serialized.  This was the behaviour of DataModel before ExecutionStrategies
+   * were introduced.
+   */
+  public static class SingleThreadExecutionStrategy implements ExecutionStrategy {
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @Override
+    public ExecutorService getExecutor(final String segment, final Chunk<?, ?> chunk) {
+      return EXECUTOR;
+    }
+  }
+
+  /**
+   * An ExecutionStrategy that runs Chunk operations on a work-stealing pool, sized by default to the
+   * number of available processors.
+   * <p>
+   * Operations on different Chunks run in parallel, however no more than a fixed number of operations
+   * on any one Chunk run at the same time.  By default this limit is one, so that Chunks which are not
+   * thread-safe, such as VolatileChunk, still see their operations serialized.  The limit applies per
+   * Chunk instance, even if the Chunk is added at more than one segment, or to more than one DataModel,
+   * using the same WorkStealingExecutionStrategy.  Separate instances limit Chunks separately.
+   */
+  public static class WorkStealingExecutionStrategy implements ExecutionStrategy {
+    private static final ExecutorService DEFAULT_POOL = newPool(Runtime.getRuntime().availableProcessors());
+
+    private final ExecutorService mPool;
+    private final int mMaxConcurrencyPerChunk;
+    private final ConcurrentMap<Chunk<?, ?>, ExecutorService> mExecutors = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * Constructs a WorkStealingExecutionStrategy on a shared pool sized to the number of available
+     * processors, serializing operations on each Chunk.
+     */
+    public WorkStealingExecutionStrategy() {
+      this(DEFAULT_POOL, 1);
+    }
+
+    /**
+     * Constructs a WorkStealingExecutionStrategy on a new pool with the given parallelism, running
+     * at most maxConcurrencyPerChunk operations on each Chunk at the same time.
+     *
+     * @param parallelism The number of threads in the pool.
+     * @param maxConcurrencyPerChunk The maximum number of operations on a single Chunk to run at the same time.
+     */
+    public WorkStealingExecutionStrategy(final int parallelism, final int maxConcurrencyPerChunk) {
+      this(newPool(parallelism), maxConcurrencyPerChunk);
+    }
+
+    /**
+     * Constructs a WorkStealingExecutionStrategy on the given pool, running at most maxConcurrencyPerChunk
+     * operations on each Chunk at the same time.
+     *
+     * @param pool The ExecutorService shared by all Chunks.
+     * @param maxConcurrencyPerChunk The maximum number of operations on a single Chunk to run at the same time.
+     */
+    public WorkStealingExecutionStrategy(final ExecutorService pool, final int maxConcurrencyPerChunk) {
+      checkArgument(maxConcurrencyPerChunk > 0, "maxConcurrencyPerChunk must be positive");
+      mPool = checkNotNull(pool);
+      mMaxConcurrencyPerChunk = maxConcurrencyPerChunk;
+    }
+
+    @Override
+    public ExecutorService getExecutor(final String segment, final Chunk<?, ?> chunk) {
+      final ExecutorService executor = mExecutors.get(chunk);
+      if (executor != null) {
+        return executor;
+      }
+      final ExecutorService newExecutor = new LimitedConcurrencyExecutorService(mPool, mMaxConcurrencyPerChunk);
+      final ExecutorService existing = mExecutors.putIfAbsent(chunk, newExecutor);
+      return existing == null ? newExecutor : existing;
+    }
+
+    private static ExecutorService newPool(final int parallelism) {
+      // Async mode gives FIFO ordering for tasks that are never joined, as is the case for Chunk operations.
+      return new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+  }
+
+  /**
+   * An ExecutionStrategy that runs every Chunk operation on a new Thread from a ThreadFactory.
+   * <p>
+   * This is intended for Chunks that spend most of their time blocked on I/O, for example on a database
+   * or a network, when used with virtual threads.  See {@link #withVirtualThreads()}.  Thousands of such
+   * operations may then be outstanding without thousands of pooled operating system threads.
+   * <p>
+   * By default, the number of concurrent operations on a Chunk is unbounded, so Chunks must be thread-safe.
+   * A limit may be given on construction for Chunks that can only tolerate a few concurrent operations.
+   */
+  public static class ThreadPerOperationExecutionStrategy implements ExecutionStrategy {
+    private final ExecutorService mExecutor;
+    private final int mMaxConcurrencyPerChunk;
+    private final ConcurrentMap<Chunk<?, ?>, ExecutorService> mExecutors = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * Constructs a ThreadPerOperationExecutionStrategy creating Threads from the given ThreadFactory, with no
+     * limit on the number of concurrent operations on a Chunk.
+     *
+     * @param threadFactory The ThreadFactory from which to create a Thread for each operation.
+     */
+    public ThreadPerOperationExecutionStrategy(final ThreadFactory threadFactory) {
+      this(threadFactory, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a ThreadPerOperationExecutionStrategy creating Threads from the given ThreadFactory, running
+     * at most maxConcurrencyPerChunk operations on each Chunk at the same time.
+     *
+     * @param threadFactory The ThreadFactory from which to create a Thread for each operation.
+     * @param maxConcurrencyPerChunk The maximum number of operations on a single Chunk to run at the same time.
+     */
+    public ThreadPerOperationExecutionStrategy(final ThreadFactory threadFactory, final int maxConcurrencyPerChunk) {
+      checkArgument(maxConcurrencyPerChunk > 0, "maxConcurrencyPerChunk must be positive");
+      mExecutor = new ThreadPerTaskExecutorService(threadFactory);
+      mMaxConcurrencyPerChunk = maxConcurrencyPerChunk;
+    }
+
+    /**
+     * Returns a ThreadPerOperationExecutionStrategy that runs every Chunk operation on a new virtual thread.
+     *
+     * @throws UnsupportedOperationException if the running JVM does not support virtual threads.
+     */
+    public static ThreadPerOperationExecutionStrategy withVirtualThreads() {
+      return new ThreadPerOperationExecutionStrategy(virtualThreadFactory());
+    }
+
+    @Override
+    public ExecutorService getExecutor(final String segment, final Chunk<?, ?> chunk) {
+      if (mMaxConcurrencyPerChunk == Integer.MAX_VALUE) {
+        return mExecutor;
+      }
+      final ExecutorService executor = mExecutors.get(chunk);
+      if (executor != null) {
+        return executor;
+      }
+      final ExecutorService newExecutor = new LimitedConcurrencyExecutorService(mExecutor, mMaxConcurrencyPerChunk);
+      final ExecutorService existing = mExecutors.putIfAbsent(chunk, newExecutor);
+      return existing == null ? newExecutor : existing;
+    }
+
+    private static ThreadFactory virtualThreadFactory() {
+      // Looked up reflectively, since this library is also built for JVMs without virtual threads.
+      try {
+        final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        final Class<?> ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        builder = ofVirtualClass.getMethod("name", String.class, long.class).invoke(builder, "prevail-chunk-", 0L);
+        return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+      } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+        throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package ninja.ugly.prevail.event;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+import java.util.List;
+
+/**
+ * An event holding a batch of other events, in the order they were dispatched.
+ * <p>
+ * Sent by a BatchingEventDispatcher, such that subscribers can react once to many events, for example
+ * refreshing a view once after a bulk insert rather than once per inserted value.
+ */
+public class BatchEvent implements Event {
+  private final List<Object> mEvents;
+
+  public BatchEvent(final List<?> events) {
+    mEvents = ImmutableList.copyOf(events);
+  }
+
+  /**
+   * Returns all events of this batch.
+   */
+  public List<Object> getEvents() {
+    return mEvents;
+  }
+
+  /**
+   * Returns the events of this batch that are instances of the given class, including subclasses.
+   */
+  public <E> List<E> getEvents(final Class<E> eventClass) {
+    return ImmutableList.copyOf(Iterables.filter(mEvents, eventClass));
+  }
+
+  /**
+   * Returns whether any event of this batch is an instance of the given class.
+   */
+  public boolean contains(final Class<?> eventClass) {
+    for (Object event : mEvents) {
+      if (eventClass.isInstance(event)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public int size() {
+    return mEvents.size();
+  }
+}
@@ -0,0 +1,210 @@
+package ninja.ugly.prevail.event.dispatcher;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import ninja.ugly.prevail.event.BatchEvent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * An implementation of the EventDispatcher interface that accumulates events, and dispatches them to a
+ * wrapped EventDispatcher as a single BatchEvent.
+ * <p>
+ * A batch is dispatched when it reaches a maximum size, or when a time window has passed since its first
+ * event, whichever is sooner.  Subscribers of BatchEvents can then, for example, refresh a view once per
+ * batch during a bulk insert, rather than once per inserted value.
+ * <p>
+ * Only events accepted by a Predicate are batched.  Other events are dispatched immediately, after any
+ * batch already accumulated, so that subscribers see all events in the order they were dispatched.
+ * <p>
+ * A batch dispatched at the end of its time window is dispatched on the thread of a
+ * ScheduledExecutorService.  Otherwise, batches are dispatched on the thread dispatching the last event,
+ * unless another thread is already dispatching, in which case that thread dispatches them in turn.  No lock
+ * is held whilst dispatching to the wrapped EventDispatcher.
+ * <p>
+ * Once closed, a BatchingEventDispatcher refuses further events with an IllegalStateException.
+ */
+public class BatchingEventDispatcher implements EventDispatcher, Closeable {
+
+  private final EventDispatcher mEventDispatcher;
+  private final Predicate<Object> mBatched;
+  private final int mMaxBatchSize;
+  private final long mWindowNanos;
+  private final ScheduledExecutorService mScheduler;
+  private final boolean mOwnsScheduler;
+
+  private final Object mLock = new Object();
+  // Guarded by mLock.
+  private final List<Object> mPending = Lists.newArrayList();
+  private ScheduledFuture<?> mScheduledFlush;
+  private boolean mClosed = false;
+  // Batches and unbatched events ready to dispatch, in order, and whether a thread is dispatching them.
+  // Guarded by mLock.
+  private final Queue<Object> mOutgoing = new ArrayDeque<>();
+  private boolean mDispatching = false;
+
+  private final Runnable mFlush = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  /**
+   * Constructs a BatchingEventDispatcher batching all events, with a scheduler thread of its own, stopped
+   * on close.
+   *
+   * @param eventDispatcher The EventDispatcher to which to dispatch BatchEvents.
+   * @param maxBatchSize The maximum number of events in a batch.
+   * @param window The maximum time for which to hold an event before dispatching its batch.
+   * @param unit The unit of the window.
+   */
+  public BatchingEventDispatcher(final EventDispatcher eventDispatcher, final int maxBatchSize, final long window, final TimeUnit unit) {
+    this(eventDispatcher, Predicates.alwaysTrue(), maxBatchSize, window, unit,
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("prevail-batch-%d").build()), true);
+  }
+
+  /**
+   * Constructs a BatchingEventDispatcher batching only events accepted by the given Predicate.
+   *
+   * @param eventDispatcher The EventDispatcher to which to dispatch BatchEvents, and events not batched.
+   * @param batched A Predicate accepting the events to batch.
+   * @param maxBatchSize The maximum number of events in a batch.
+   * @param window The maximum time for which to hold an event before dispatching its batch.
+   * @param unit The unit of the window.
+   * @param scheduler The ScheduledExecutorService on which to dispatch batches at the end of their window.
+   */
+  public BatchingEventDispatcher(final EventDispatcher eventDispatcher, final Predicate<Object> batched, final int maxBatchSize, final long window, final TimeUnit unit, final ScheduledExecutorService scheduler) {
+    this(eventDispatcher, batched, maxBatchSize, window, unit, scheduler, false);
+  }
+
+  private BatchingEventDispatcher(final EventDispatcher eventDispatcher, final Predicate<Object> batched, final int maxBatchSize, final long window, final TimeUnit unit, final ScheduledExecutorService scheduler, final boolean ownsScheduler) {
+    checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+    checkArgument(window > 0, "window must be positive");
+    mEventDispatcher = checkNotNull(eventDispatcher);
+    mBatched = checkNotNull(batched);
+    mMaxBatchSize = maxBatchSize;
+    mWindowNanos = unit.toNanos(window);
+    mScheduler = checkNotNull(scheduler);
+    mOwnsScheduler = ownsScheduler;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalStateException if this BatchingEventDispatcher is closed.
+   */
+  @Override
+  public void dispatchEvent(final Object event) {
+    synchronized (mLock) {
+      checkState(!mClosed, "EventDispatcher is closed");
+      if (!mBatched.apply(event)) {
+        flushLocked();
+        mOutgoing.add(event);
+      } else {
+        mPending.add(event);
+        if (mPending.size() >= mMaxBatchSize) {
+          flushLocked();
+        } else if (mScheduledFlush == null) {
+          mScheduledFlush = mScheduler.schedule(mFlush, mWindowNanos, TimeUnit.NANOSECONDS);
+        }
+      }
+    }
+    dispatchOutgoing();
+  }
+
+  @Override
+  public void register(final Object subscriber) {
+    mEventDispatcher.register(subscriber);
+  }
+
+  @Override
+  public void unregister(final Object subscriber) {
+    mEventDispatcher.unregister(subscriber);
+  }
+
+  /**
+   * Dispatches the events accumulated so far as a BatchEvent, if there are any.
+   */
+  public void flush() {
+    synchronized (mLock) {
+      flushLocked();
+    }
+    dispatchOutgoing();
+  }
+
+  /**
+   * Dispatches the events accumulated so far, and stops the scheduler thread if this
+   * BatchingEventDispatcher created it.
+   */
+  @Override
+  public void close() {
+    synchronized (mLock) {
+      mClosed = true;
+    }
+    flush();
+    if (mOwnsScheduler) {
+      mScheduler.shutdown();
+    }
+  }
+
+  // Queues the pending events as a BatchEvent, to be dispatched after the lock is released.
+  private void flushLocked() {
+    if (mScheduledFlush != null) {
+      mScheduledFlush.cancel(false);
+      mScheduledFlush = null;
+    }
+    if (!mPending.isEmpty()) {
+      final BatchEvent batchEvent = new BatchEvent(mPending);
+      mPending.clear();
+      mOutgoing.add(batchEvent);
+    }
+  }
+
+  // Dispatches outgoing events, unless another thread is already doing so.  Only one thread dispatches at a
+  // time, so that batches cannot overtake one another, but without holding the lock whilst dispatching.
+  private void dispatchOutgoing() {
+    synchronized (mLock) {
+      if (mDispatching) {
+        return;
+      }
+      mDispatching = true;
+    }
+    boolean dispatched = false;
+    try {
+      while (true) {
+        final Object event;
+        synchronized (mLock) {
+          event = mOutgoing.poll();
+          if (event == null) {
+            mDispatching = false;
+            dispatched = true;
+            return;
+          }
+        }
+        mEventDispatcher.dispatchEvent(event);
+      }
+    } finally {
+      if (!dispatched) {
+        // The wrapped EventDispatcher threw.  Leave the remaining events to the next dispatch.
+        synchronized (mLock) {
+          mDispatching = false;
+        }
+      }
+    }
+  }
+}
@@ -1,7 +1,16 @@
 package ninja.ugly.prevail.event.dispatcher;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * A composite class of multiple EventDispatchers.
@@ -9,36 +18,203 @@ import java.util.Collection;
  * Chunks only dispatch to a single EventDispatcher, whilst this is likely to cover
  * most simple use cases, there may be occasions when multiple EventDispatchers are required.
  * In such cases, those EventDispatchers can be added to this composite.
+ * <p>
+ * By default, events are dispatched to each EventDispatcher in turn, on the dispatching thread.  A
+ * composite constructed with an Executor instead queues events for each EventDispatcher, and dispatches
+ * them on that Executor, such that a slow EventDispatcher delays neither the others nor the dispatching
+ * thread.  Each EventDispatcher still receives events in the order they were dispatched.  When a queue
+ * is full, its OverflowPolicy decides what happens.
+ * <p>
+ * EventDispatchers may be added whilst events are dispatched.
  */
-public class CompositeEventDispatcher implements EventDispatcher {
+public class CompositeEventDispatcher implements SubscriberAwareEventDispatcher {
+
+  /**
+   * Decides what happens to an event dispatched to a concurrent composite when the queue of a child
+   * EventDispatcher is full.
+   */
+  public enum OverflowPolicy {
+    /** The dispatching thread waits for space in the queue. */
+    BLOCK,
+    /** The oldest event in the queue is dropped to make space. */
+    DROP_OLDEST,
+    /** The event being dispatched is dropped. */
+    DROP_NEWEST
+  }
+
+  private final List<Child> mChildren = new CopyOnWriteArrayList<Child>();
+  private final Executor mExecutor;
+  private final int mQueueCapacity;
+  private final OverflowPolicy mOverflowPolicy;
+  private final AtomicLong mDroppedEvents = new AtomicLong();
+
+  /**
+   * Constructs a CompositeEventDispatcher that dispatches events to each EventDispatcher in turn, on the
+   * dispatching thread.
+   */
+  public CompositeEventDispatcher() {
+    mExecutor = null;
+    mQueueCapacity = 0;
+    mOverflowPolicy = null;
+  }
 
-  private Collection<EventDispatcher> mEventDispatchers = new ArrayList<EventDispatcher>();
+  /**
+   * Constructs a CompositeEventDispatcher that dispatches events to each EventDispatcher concurrently,
+   * on the given Executor, through a bounded queue per EventDispatcher.
+   *
+   * @param executor The Executor on which to dispatch events to child EventDispatchers.
+   * @param queueCapacity The maximum number of events queued for each child EventDispatcher.
+   * @param overflowPolicy What to do with an event when the queue of a child EventDispatcher is full.
+   */
+  public CompositeEventDispatcher(final Executor executor, final int queueCapacity, final OverflowPolicy overflowPolicy) {
+    checkArgument(queueCapacity > 0, "queueCapacity must be positive");
+    mExecutor = checkNotNull(executor);
+    mQueueCapacity = queueCapacity;
+    mOverflowPolicy = checkNotNull(overflowPolicy);
+  }
 
   /**
    * Add an EventDispatcher to this composite.
    */
   public void addEventDispatcher(EventDispatcher eventDispatcher) {
-    mEventDispatchers.add(eventDispatcher);
+    checkNotNull(eventDispatcher);
+    mChildren.add(mExecutor == null ? new Child(eventDispatcher) : new QueuedChild(eventDispatcher));
+  }
+
+  /**
+   * Returns the number of events dropped, by an OverflowPolicy, since this composite was constructed.
+   */
+  public long getDroppedEventCount() {
+    return mDroppedEvents.get();
   }
 
   @Override
   public void dispatchEvent(final Object event) {
-    for (EventDispatcher eventDispatcher : mEventDispatchers) {
-      eventDispatcher.dispatchEvent(event);
+    for (Child child : mChildren) {
+      child.dispatchEvent(event);
     }
   }
 
+  /**
+   * Registers the given subscriber on every EventDispatcher in this composite.  Registration is immediate,
+   * even for a concurrent composite, so events already queued may be received by the subscriber.
+   */
   @Override
   public void register(final Object subscriber) {
-    for (EventDispatcher eventDispatcher : mEventDispatchers) {
-      eventDispatcher.register(subscriber);
+    for (Child child : mChildren) {
+      child.mEventDispatcher.register(subscriber);
     }
   }
 
+  /**
+   * Unregisters the given subscriber from every EventDispatcher in this composite.  Unregistration is
+   * immediate, even for a concurrent composite, so events already queued are not received by the subscriber.
+   */
   @Override
   public void unregister(final Object subscriber) {
-    for (EventDispatcher eventDispatcher : mEventDispatchers) {
-      eventDispatcher.unregister(subscriber);
+    for (Child child : mChildren) {
+      child.mEventDispatcher.unregister(subscriber);
+    }
+  }
+
+  /**
+   * Returns false only if every EventDispatcher in this composite is a SubscriberAwareEventDispatcher
+   * without a subscriber for the given class.
+   */
+  @Override
+  public boolean hasSubscriberFor(final Class<?> eventClass) {
+    for (Child child : mChildren) {
+      final EventDispatcher eventDispatcher = child.mEventDispatcher;
+      if (!(eventDispatcher instanceof SubscriberAwareEventDispatcher)
+          || ((SubscriberAwareEventDispatcher) eventDispatcher).hasSubscriberFor(eventClass)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static class Child {
+    final EventDispatcher mEventDispatcher;
+
+    Child(final EventDispatcher eventDispatcher) {
+      mEventDispatcher = eventDispatcher;
+    }
+
+    void dispatchEvent(final Object event) {
+      mEventDispatcher.dispatchEvent(event);
+    }
+  }
+
+  /**
+   * A child EventDispatcher with a queue of its own, drained on the Executor by at most one task at a
+   * time, such that the child receives events in order.
+   */
+  private class QueuedChild extends Child implements Runnable {
+    private final BlockingDeque<Object> mQueue = new LinkedBlockingDeque<Object>(mQueueCapacity);
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    QueuedChild(final EventDispatcher eventDispatcher) {
+      super(eventDispatcher);
+    }
+
+    @Override
+    void dispatchEvent(final Object event) {
+      switch (mOverflowPolicy) {
+        case BLOCK:
+          try {
+            mQueue.put(event);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mDroppedEvents.incrementAndGet();
+            return;
+          }
+          break;
+        case DROP_OLDEST:
+          while (!mQueue.offerLast(event)) {
+            if (mQueue.pollFirst() != null) {
+              mDroppedEvents.incrementAndGet();
+            }
+          }
+          break;
+        default:
+          if (!mQueue.offerLast(event)) {
+            mDroppedEvents.incrementAndGet();
+            return;
+          }
+          break;
+      }
+      schedule();
+    }
+
+    private void schedule() {
+      if (!mQueue.isEmpty() && mScheduled.compareAndSet(false, true)) {
+        try {
+          mExecutor.execute(this);
+        } catch (RejectedExecutionException e) {
+          mScheduled.set(false);
+          throw e;
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        Object event;
+        while ((event = mQueue.pollFirst()) != null) {
+          try {
+            mEventDispatcher.dispatchEvent(event);
+          } catch (RuntimeException e) {
+            // Report, but carry on draining, so that one failure does not stall this child.
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+          }
+        }
+      } finally {
+        mScheduled.set(false);
+        // An event may have been queued after the last poll, but before this task released the child.
+        schedule();
+      }
     }
   }
 }
@@ -1,14 +1,48 @@
 package ninja.ugly.prevail.event.dispatcher;
 
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.eventbus.DeadEvent;
 import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+
+import java.lang.reflect.Method;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * An implementation of the EventDispatcher interface that delegates directly to
  * Guava's EventBus library.
+ * <p>
+ * An EventBusEventDispatcher constructed with its own EventBus knows all of its subscribers, and so can
+ * tell Chunks not to construct events that no subscriber would receive.  One wrapping a given EventBus
+ * cannot, since subscribers may be registered on that EventBus directly.
  */
-public class EventBusEventDispatcher implements EventDispatcher {
+public class EventBusEventDispatcher implements SubscriberAwareEventDispatcher {
 
   private final EventBus mEventBus;
+  private final boolean mKnowsAllSubscribers;
+
+  // The classes of events accepted by each registered subscriber, and the count of each class.
+  private final Map<Object, List<Class<?>>> mSubscriberEventClasses = new IdentityHashMap<>();
+  private final Multiset<Class<?>> mSubscribedEventClasses = HashMultiset.create();
+  // Answers of hasSubscriberFor, cleared on every registration and unregistration.
+  private final ConcurrentMap<Class<?>, Boolean> mHasSubscriberCache = Maps.newConcurrentMap();
+
+  /**
+   * Constructs an EventBusEventDispatcher on a new EventBus of its own.
+   * <p>
+   * Subscribers must be registered through this EventDispatcher.  In return, events that no subscriber
+   * would receive are not constructed by Chunks, where their EventFactories allow.
+   */
+  public EventBusEventDispatcher() {
+    this(new EventBus(), true);
+  }
 
   /**
    * Constructs an EventBusEventDispatcher wrapping the given EventBus.
@@ -20,7 +54,12 @@ public class EventBusEventDispatcher implements EventDispatcher {
    * @param eventBus
    */
   public EventBusEventDispatcher(final EventBus eventBus) {
+    this(eventBus, false);
+  }
+
+  private EventBusEventDispatcher(final EventBus eventBus, final boolean knowsAllSubscribers) {
     mEventBus = eventBus;
+    mKnowsAllSubscribers = knowsAllSubscribers;
   }
 
   /**
@@ -37,6 +76,16 @@ public class EventBusEventDispatcher implements EventDispatcher {
   @Override
   public void register(final Object subscriber) {
     mEventBus.register(subscriber);
+    if (mKnowsAllSubscribers) {
+      final List<Class<?>> eventClasses = findEventClasses(subscriber.getClass());
+      synchronized (mSubscribedEventClasses) {
+        if (!mSubscriberEventClasses.containsKey(subscriber)) {
+          mSubscriberEventClasses.put(subscriber, eventClasses);
+          mSubscribedEventClasses.addAll(eventClasses);
+        }
+        mHasSubscriberCache.clear();
+      }
+    }
   }
 
   /**
@@ -45,6 +94,66 @@ public class EventBusEventDispatcher implements EventDispatcher {
   @Override
   public void unregister(final Object subscriber) {
     mEventBus.unregister(subscriber);
+    if (mKnowsAllSubscribers) {
+      synchronized (mSubscribedEventClasses) {
+        final List<Class<?>> eventClasses = mSubscriberEventClasses.remove(subscriber);
+        if (eventClasses != null) {
+          for (Class<?> eventClass : eventClasses) {
+            mSubscribedEventClasses.remove(eventClass);
+          }
+        }
+        mHasSubscriberCache.clear();
+      }
+    }
   }
-}
 
+  /**
+   * Returns whether any subscriber accepts events of the given class.  Always true if this
+   * EventBusEventDispatcher wraps an EventBus given on construction, or if any subscriber accepts
+   * DeadEvents, since the EventBus posts a DeadEvent for any event that no other subscriber accepts.
+   */
+  @Override
+  public boolean hasSubscriberFor(final Class<?> eventClass) {
+    if (!mKnowsAllSubscribers) {
+      return true;
+    }
+    final Boolean cached = mHasSubscriberCache.get(eventClass);
+    if (cached != null) {
+      return cached;
+    }
+    synchronized (mSubscribedEventClasses) {
+      boolean hasSubscriber = mSubscribedEventClasses.contains(DeadEvent.class);
+      for (Class<?> subscribedClass : mSubscribedEventClasses.elementSet()) {
+        hasSubscriber |= subscribedClass.isAssignableFrom(eventClass);
+      }
+      // Cached under the lock, so that a concurrent registration cannot be missed.
+      mHasSubscriberCache.put(eventClass, hasSubscriber);
+      return hasSubscriber;
+    }
+  }
+
+  /**
+   * Finds the event classes of the @Subscribe methods of the given subscriber class, as the EventBus does.
+   */
+  private static List<Class<?>> findEventClasses(final Class<?> subscriberClass) {
+    final ImmutableList.Builder<Class<?>> eventClasses = ImmutableList.builder();
+    for (Method method : subscriberClass.getMethods()) {
+      for (Class<?> type : TypeToken.of(subscriberClass).getTypes().rawTypes()) {
+        if (isSubscriberMethod(type, method)) {
+          eventClasses.add(method.getParameterTypes()[0]);
+          break;
+        }
+      }
+    }
+    return eventClasses.build();
+  }
+
+  private static boolean isSubscriberMethod(final Class<?> type, final Method method) {
+    try {
+      final Method declared = type.getMethod(method.getName(), method.getParameterTypes());
+      return declared.isAnnotationPresent(Subscribe.class) && method.getParameterTypes().length == 1;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+}
@@ -35,7 +35,7 @@ public interface EventDispatcher {
    * An empty implementation of the EventDispatcher.  Useful to instantiate as an initial value inside
    * a Chunk, rather than null.
    */
-  public static final class EmptyEventDispatcher implements EventDispatcher {
+  public static final class EmptyEventDispatcher implements SubscriberAwareEventDispatcher {
     @Override
     public void dispatchEvent(final Object event) {
       // Do nothing.
@@ -50,5 +50,10 @@ public interface EventDispatcher {
     public void unregister(final Object subscriber) {
       // Do nothing
     }
+
+    @Override
+    public boolean hasSubscriberFor(final Class<?> eventClass) {
+      return false;
+    }
   }
 }
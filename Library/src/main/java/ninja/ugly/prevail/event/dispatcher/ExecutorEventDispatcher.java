@@ -1,14 +1,17 @@
 package ninja.ugly.prevail.event.dispatcher;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An implementation of the EventDispatcher interface that performs all operations on
  * a background executor.
  */
-public class ExecutorEventDispatcher implements EventDispatcher {
+public class ExecutorEventDispatcher implements SubscriberAwareEventDispatcher {
   private final EventDispatcher mEventDispatcher;
   private final Executor mExecutor;
+  // Registrations and unregistrations submitted, but not yet run on the Executor.
+  private final AtomicInteger mPendingRegistrations = new AtomicInteger();
 
   /**
    * Constructs an ExecutorEventDispatcher wrapping the given EventBus and performing
@@ -34,21 +37,43 @@ public class ExecutorEventDispatcher implements EventDispatcher {
 
   @Override
   public void register(final Object subscriber) {
+    mPendingRegistrations.incrementAndGet();
     mExecutor.execute(new Runnable() {
       @Override
       public void run() {
-        mEventDispatcher.register(subscriber);
+        try {
+          mEventDispatcher.register(subscriber);
+        } finally {
+          mPendingRegistrations.decrementAndGet();
+        }
       }
     });
   }
 
   @Override
   public void unregister(final Object subscriber) {
+    mPendingRegistrations.incrementAndGet();
     mExecutor.execute(new Runnable() {
       @Override
       public void run() {
-        mEventDispatcher.unregister(subscriber);
+        try {
+          mEventDispatcher.unregister(subscriber);
+        } finally {
+          mPendingRegistrations.decrementAndGet();
+        }
       }
     });
   }
+
+  /**
+   * Returns true whilst any registration or unregistration is yet to run on the Executor, since the
+   * subscribers that the wrapped EventDispatcher will have by the time an event is dispatched are not yet
+   * known.  Otherwise, asks the wrapped EventDispatcher, if it is a SubscriberAwareEventDispatcher.
+   */
+  @Override
+  public boolean hasSubscriberFor(final Class<?> eventClass) {
+    return mPendingRegistrations.get() > 0
+        || !(mEventDispatcher instanceof SubscriberAwareEventDispatcher)
+        || ((SubscriberAwareEventDispatcher) mEventDispatcher).hasSubscriberFor(eventClass);
+  }
 }
@@ -0,0 +1,368 @@
+package ninja.ugly.prevail.event.dispatcher;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * An implementation of the EventDispatcher interface that performs all operations on a single consumer
+ * thread, passing them through a preallocated ring buffer.
+ * <p>
+ * This is an alternative to ExecutorEventDispatcher for high volumes of events.  No object is allocated per
+ * operation: each operation claims a slot of the ring, and the consumer thread drains all available slots
+ * in a batch before publishing its progress.  Any number of threads may dispatch events.  Operations from
+ * one thread are delivered in the order they were made, as are registrations relative to events.
+ * <p>
+ * When the ring is full, dispatching threads wait for the consumer to free a slot.  How the consumer waits
+ * for operations when the ring is empty is decided by a WaitStrategy, trading latency against CPU usage.
+ * <p>
+ * The consumer thread runs until this EventDispatcher is closed.
+ */
+public class RingBufferEventDispatcher implements SubscriberAwareEventDispatcher, Closeable {
+  /** The default number of slots in the ring. */
+  public static final int DEFAULT_CAPACITY = 8192;
+
+  private static final int DISPATCH = 0;
+  private static final int REGISTER = 1;
+  private static final int UNREGISTER = 2;
+  // Fills a slot claimed whilst closing, such that the consumer does not wait for it.
+  private static final int SKIP = 3;
+
+  private final EventDispatcher mEventDispatcher;
+  private final WaitStrategy mWaitStrategy;
+  private final int mMask;
+  private final Object[] mObjects;
+  private final int[] mKinds;
+  // The sequence at which each slot was last published, such that the consumer can tell which are ready.
+  private final AtomicLongArray mPublished;
+  private final AtomicLong mNextClaim = new AtomicLong();
+  private final AtomicLong mConsumed = new AtomicLong(-1);
+  private final AtomicInteger mPendingRegistrations = new AtomicInteger();
+  private final Thread mConsumerThread;
+  private volatile boolean mClosed = false;
+
+  private final WaitStrategy.Guard mAvailable = new WaitStrategy.Guard() {
+    @Override
+    public boolean isSatisfied() {
+      final long next = mConsumed.get() + 1;
+      return mPublished.get(index(next)) == next || mClosed;
+    }
+  };
+
+  /**
+   * Constructs a RingBufferEventDispatcher of the default capacity, wrapping the given EventDispatcher.  The
+   * consumer thread is a daemon thread, blocking whilst there are no operations.
+   *
+   * @param eventDispatcher The EventDispatcher to wrap, called only from the consumer thread.
+   */
+  public RingBufferEventDispatcher(final EventDispatcher eventDispatcher) {
+    this(eventDispatcher, DEFAULT_CAPACITY, new WaitStrategy.BlockingWaitStrategy(),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("prevail-events-%d").build());
+  }
+
+  /**
+   * Constructs a RingBufferEventDispatcher wrapping the given EventDispatcher.
+   *
+   * @param eventDispatcher The EventDispatcher to wrap, called only from the consumer thread.
+   * @param capacity The number of slots in the ring.  Must be a power of two.
+   * @param waitStrategy The WaitStrategy by which the consumer waits for operations.
+   * @param threadFactory The ThreadFactory from which to create the consumer thread.
+   */
+  public RingBufferEventDispatcher(final EventDispatcher eventDispatcher, final int capacity, final WaitStrategy waitStrategy, final ThreadFactory threadFactory) {
+    checkArgument(capacity > 0 && Integer.bitCount(capacity) == 1, "capacity must be a power of two");
+    mEventDispatcher = checkNotNull(eventDispatcher);
+    mWaitStrategy = checkNotNull(waitStrategy);
+    mMask = capacity - 1;
+    mObjects = new Object[capacity];
+    mKinds = new int[capacity];
+    mPublished = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      mPublished.set(i, -1);
+    }
+    mConsumerThread = checkNotNull(threadFactory.newThread(new Runnable() {
+      @Override
+      public void run() {
+        consume();
+      }
+    }), "ThreadFactory did not create a Thread");
+    mConsumerThread.start();
+  }
+
+  @Override
+  public void dispatchEvent(final Object event) {
+    publish(DISPATCH, event);
+  }
+
+  @Override
+  public void register(final Object subscriber) {
+    publish(REGISTER, subscriber);
+  }
+
+  @Override
+  public void unregister(final Object subscriber) {
+    publish(UNREGISTER, subscriber);
+  }
+
+  /**
+   * Returns true whilst any registration or unregistration is yet to be consumed.  Otherwise, asks the
+   * wrapped EventDispatcher, if it is a SubscriberAwareEventDispatcher.
+   */
+  @Override
+  public boolean hasSubscriberFor(final Class<?> eventClass) {
+    return mPendingRegistrations.get() > 0
+        || !(mEventDispatcher instanceof SubscriberAwareEventDispatcher)
+        || ((SubscriberAwareEventDispatcher) mEventDispatcher).hasSubscriberFor(eventClass);
+  }
+
+  /**
+   * Stops accepting operations, and waits for the consumer thread to deliver those already accepted.  An
+   * operation made concurrently with close is either delivered, or throws an IllegalStateException.
+   */
+  @Override
+  public void close() {
+    mClosed = true;
+    mWaitStrategy.signalAll();
+    boolean interrupted = false;
+    while (mConsumerThread.isAlive() && mConsumerThread != Thread.currentThread()) {
+      try {
+        mConsumerThread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void publish(final int kind, final Object object) {
+    checkNotNull(object);
+    checkState(!mClosed, "EventDispatcher is closed");
+    if (kind != DISPATCH) {
+      mPendingRegistrations.incrementAndGet();
+    }
+    final long sequence = mNextClaim.getAndIncrement();
+    // If close has begun since the check above, the consumer may have stopped before this claim, so the
+    // operation is refused.  The slot is still filled, in case the consumer is waiting for it.
+    final boolean closed = mClosed;
+    // Wait for the consumer to free the slot, if the ring is full.
+    while (sequence - mConsumed.get() > mObjects.length) {
+      if (mClosed && !mConsumerThread.isAlive()) {
+        throw new IllegalStateException("EventDispatcher is closed");
+      }
+      LockSupport.parkNanos(1000);
+    }
+    final int index = index(sequence);
+    mObjects[index] = closed ? null : object;
+    mKinds[index] = closed ? SKIP : kind;
+    // A volatile write, such that the consumer sees the slot contents before the slot is published, and
+    // such that the consumer announcing a wait cannot be missed by signalAll, nor this slot by the consumer.
+    mPublished.set(index, sequence);
+    mWaitStrategy.signalAll();
+    if (closed) {
+      if (kind != DISPATCH) {
+        mPendingRegistrations.decrementAndGet();
+      }
+      throw new IllegalStateException("EventDispatcher is closed");
+    }
+  }
+
+  private void consume() {
+    long next = 0;
+    for (;;) {
+      long available = next - 1;
+      while (mPublished.get(index(available + 1)) == available + 1) {
+        available++;
+      }
+
+      if (available >= next) {
+        for (long sequence = next; sequence <= available; sequence++) {
+          deliver(index(sequence));
+        }
+        next = available + 1;
+        // Free the whole batch at once.
+        mConsumed.lazySet(available);
+      } else if (mClosed && mNextClaim.get() == next) {
+        return;
+      } else {
+        try {
+          mWaitStrategy.waitFor(mAvailable);
+        } catch (InterruptedException e) {
+          // Only close stops the consumer, so that accepted operations are not lost.
+        }
+      }
+    }
+  }
+
+  private void deliver(final int index) {
+    final Object object = mObjects[index];
+    final int kind = mKinds[index];
+    mObjects[index] = null;
+    try {
+      switch (kind) {
+        case REGISTER:
+          mEventDispatcher.register(object);
+          break;
+        case UNREGISTER:
+          mEventDispatcher.unregister(object);
+          break;
+        case SKIP:
+          break;
+        default:
+          mEventDispatcher.dispatchEvent(object);
+          break;
+      }
+    } catch (RuntimeException e) {
+      // Report, but carry on delivering, as an Executor would for a failed task.
+      final Thread thread = Thread.currentThread();
+      thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    } finally {
+      if (kind == REGISTER || kind == UNREGISTER) {
+        mPendingRegistrations.decrementAndGet();
+      }
+    }
+  }
+
+  private int index(final long sequence) {
+    return (int) sequence & mMask;
+  }
+
+  /**
+   * A WaitStrategy decides how the consumer thread of a RingBufferEventDispatcher waits for operations,
+   * when there are none.
+   */
+  public interface WaitStrategy {
+
+    /**
+     * Waits until the given Guard may be satisfied.  Called repeatedly by the consumer thread whilst the
+     * Guard is not satisfied, so may return early.
+     */
+    void waitFor(Guard guard) throws InterruptedException;
+
+    /**
+     * Called by dispatching threads after each operation is published, to wake a waiting consumer.
+     */
+    void signalAll();
+
+    public interface Guard {
+      boolean isSatisfied();
+    }
+
+    /**
+     * Blocks the consumer thread on a lock until an operation is published.  This uses the least CPU, but
+     * adds latency, and costs dispatching threads a lock whenever the consumer is waiting.
+     */
+    public static class BlockingWaitStrategy implements WaitStrategy {
+      private final Lock mLock = new ReentrantLock();
+      private final Condition mCondition = mLock.newCondition();
+      private volatile boolean mWaiting = false;
+
+      @Override
+      public void waitFor(final Guard guard) throws InterruptedException {
+        mLock.lock();
+        try {
+          mWaiting = true;
+          // Checked under the lock, after announcing the wait, so that a publication cannot be missed.
+          while (!guard.isSatisfied()) {
+            mCondition.await();
+          }
+        } finally {
+          mWaiting = false;
+          mLock.unlock();
+        }
+      }
+
+      @Override
+      public void signalAll() {
+        if (mWaiting) {
+          mLock.lock();
+          try {
+            mCondition.signalAll();
+          } finally {
+            mLock.unlock();
+          }
+        }
+      }
+    }
+
+    /**
+     * Spins, then yields the consumer thread until an operation is published.  This gives low latency,
+     * whilst letting other threads run, but keeps a CPU busy.
+     */
+    public static class YieldingWaitStrategy implements WaitStrategy {
+      private static final int SPINS = 100;
+
+      @Override
+      public void waitFor(final Guard guard) {
+        for (int i = 0; !guard.isSatisfied(); i++) {
+          if (i >= SPINS) {
+            Thread.yield();
+          }
+        }
+      }
+
+      @Override
+      public void signalAll() {
+        // Nothing waits.
+      }
+    }
+
+    /**
+     * Spins the consumer thread until an operation is published.  This gives the lowest latency, but
+     * occupies a CPU entirely, so should only be used where a CPU can be dedicated to the consumer thread.
+     */
+    public static class BusySpinWaitStrategy implements WaitStrategy {
+      @Override
+      public void waitFor(final Guard guard) {
+        while (!guard.isSatisfied()) {
+          // Spin.
+        }
+      }
+
+      @Override
+      public void signalAll() {
+        // Nothing waits.
+      }
+    }
+
+    /**
+     * Spins, then yields, then sleeps the consumer thread for short periods, until an operation is
+     * published.  A compromise between the CPU usage of BlockingWaitStrategy and the latency of
+     * YieldingWaitStrategy, costing dispatching threads nothing.
+     */
+    public static class SleepingWaitStrategy implements WaitStrategy {
+      private static final int SPINS = 100;
+      private static final int YIELDS = 100;
+      private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+      @Override
+      public void waitFor(final Guard guard) {
+        for (int i = 0; !guard.isSatisfied(); i++) {
+          if (i >= SPINS + YIELDS) {
+            LockSupport.parkNanos(SLEEP_NANOS);
+          } else if (i >= SPINS) {
+            Thread.yield();
+          }
+        }
+      }
+
+      @Override
+      public void signalAll() {
+        // Nothing waits.
+      }
+    }
+  }
+}
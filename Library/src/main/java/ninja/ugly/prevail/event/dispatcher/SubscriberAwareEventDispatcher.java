@@ -0,0 +1,22 @@
+package ninja.ugly.prevail.event.dispatcher;
+
+/**
+ * An EventDispatcher that can tell whether an event of a given class would be delivered to any subscriber.
+ * <p>
+ * Chunks use this to avoid constructing events that no subscriber would receive.  See
+ * {@link ninja.ugly.prevail.event.factory.TypedEventFactory}.
+ */
+public interface SubscriberAwareEventDispatcher extends EventDispatcher {
+
+  /**
+   * Returns whether an event of the given class, dispatched now, might be delivered to a subscriber.
+   * <p>
+   * This method must only return false if an event of the given class would certainly be delivered to no
+   * subscriber.  Returning true is always safe.  This method is called for every event of every Chunk
+   * operation, so should be cheap.
+   *
+   * @param eventClass The runtime class of the event.
+   * @return false if no subscriber would receive an event of the given class, true otherwise.
+   */
+  boolean hasSubscriberFor(Class<?> eventClass);
+}
@@ -0,0 +1,260 @@
+package ninja.ugly.prevail.event.dispatcher;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.DeadEvent;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An implementation of the EventDispatcher interface that delivers events directly to subscribers,
+ * without an EventBus.
+ * <p>
+ * Subscribers are registered as they would be on an EventBus, by their @Subscribe methods, and receive the
+ * same events.  The difference is in the cost of dispatch.  Subscriber methods are found once, when a
+ * subscriber is registered, and the flattened list of subscriber methods accepting each class of event is
+ * computed once, on the first dispatch of that class, rather than walking the type hierarchy of every event.
+ * Subscriber methods are synchronized on their subscriber unless annotated @AllowConcurrentEvents, as by
+ * an EventBus.
+ * <p>
+ * Where reflection is unwanted altogether, a Handler may be added for a class of event instead.
+ * <p>
+ * Unlike an EventBus, an event dispatched by a subscriber whilst it receives another event is delivered
+ * immediately, rather than after the first event has been delivered to all subscribers.  As by an EventBus,
+ * exceptions thrown by subscribers are logged, and any event with no subscribers is dispatched again
+ * wrapped in a DeadEvent.
+ */
+public class TypeIndexedEventDispatcher implements SubscriberAwareEventDispatcher {
+  private static final Logger LOGGER = Logger.getLogger(TypeIndexedEventDispatcher.class.getName());
+  private static final Invoker[] NO_INVOKERS = new Invoker[0];
+
+  // The Invokers of each registered subscriber, in order of registration.
+  private final Map<Object, List<Invoker>> mSubscriberInvokers = new IdentityHashMap<>();
+  private final List<Invoker> mInvokers = Lists.newArrayList();
+  // The flattened Invokers for each class of event, cleared on every registration and unregistration.
+  private final ConcurrentMap<Class<?>, Invoker[]> mInvokersByEventClass = Maps.newConcurrentMap();
+
+  /**
+   * A Handler receives events of a given class, without reflection.
+   */
+  public interface Handler<E> {
+    void handle(E event);
+  }
+
+  @Override
+  public void dispatchEvent(final Object event) {
+    final Invoker[] invokers = getInvokers(event.getClass());
+    if (invokers.length == 0) {
+      if (!(event instanceof DeadEvent)) {
+        dispatchEvent(new DeadEvent(this, event));
+      }
+      return;
+    }
+    for (int i = 0; i < invokers.length; i++) {
+      invokers[i].invoke(event);
+    }
+  }
+
+  /**
+   * Registers the @Subscribe methods of the given subscriber.  Registering a subscriber again has no effect.
+   */
+  @Override
+  public void register(final Object subscriber) {
+    final List<Invoker> invokers = findInvokers(subscriber);
+    synchronized (mInvokers) {
+      if (!mSubscriberInvokers.containsKey(subscriber)) {
+        add(subscriber, invokers);
+      }
+    }
+  }
+
+  @Override
+  public void unregister(final Object subscriber) {
+    synchronized (mInvokers) {
+      remove(subscriber);
+    }
+  }
+
+  /**
+   * Adds a Handler for events of the given class, including subclasses.
+   * <p>
+   * The Handler is called without reflection, and may be called concurrently if events are dispatched
+   * concurrently.  Adding a Handler again has no effect.
+   *
+   * @param eventClass The class of event to pass to the Handler.
+   * @param handler The Handler to add.
+   */
+  public <E> void addHandler(final Class<E> eventClass, final Handler<? super E> handler) {
+    checkNotNull(eventClass);
+    checkNotNull(handler);
+    synchronized (mInvokers) {
+      if (!mSubscriberInvokers.containsKey(handler)) {
+        add(handler, ImmutableList.<Invoker>of(new HandlerInvoker<E>(eventClass, handler)));
+      }
+    }
+  }
+
+  /**
+   * Removes a Handler added by {@link #addHandler(Class, Handler)}.
+   */
+  public void removeHandler(final Handler<?> handler) {
+    synchronized (mInvokers) {
+      remove(handler);
+    }
+  }
+
+  /**
+   * Returns whether any subscriber or Handler accepts events of the given class, or any accepts DeadEvents.
+   */
+  @Override
+  public boolean hasSubscriberFor(final Class<?> eventClass) {
+    return getInvokers(eventClass).length > 0 || getInvokers(DeadEvent.class).length > 0;
+  }
+
+  private Invoker[] getInvokers(final Class<?> eventClass) {
+    final Invoker[] cached = mInvokersByEventClass.get(eventClass);
+    if (cached != null) {
+      return cached;
+    }
+    synchronized (mInvokers) {
+      final List<Invoker> invokers = Lists.newArrayList();
+      for (Invoker invoker : mInvokers) {
+        if (invoker.mEventClass.isAssignableFrom(eventClass)) {
+          invokers.add(invoker);
+        }
+      }
+      final Invoker[] result = invokers.isEmpty() ? NO_INVOKERS : invokers.toArray(new Invoker[invokers.size()]);
+      // Cached under the lock, so that a concurrent registration cannot be missed.
+      mInvokersByEventClass.put(eventClass, result);
+      return result;
+    }
+  }
+
+  private void add(final Object subscriber, final List<Invoker> invokers) {
+    mSubscriberInvokers.put(subscriber, invokers);
+    mInvokers.addAll(invokers);
+    mInvokersByEventClass.clear();
+  }
+
+  private void remove(final Object subscriber) {
+    final List<Invoker> invokers = mSubscriberInvokers.remove(subscriber);
+    if (invokers != null) {
+      for (Invoker invoker : invokers) {
+        // Removed by identity, since Invokers do not override equals.
+        mInvokers.remove(invoker);
+      }
+      mInvokersByEventClass.clear();
+    }
+  }
+
+  /**
+   * Finds the @Subscribe methods of the given subscriber, as an EventBus does.
+   */
+  private static List<Invoker> findInvokers(final Object subscriber) {
+    final Class<?> subscriberClass = subscriber.getClass();
+    final ImmutableList.Builder<Invoker> invokers = ImmutableList.builder();
+    for (Method method : subscriberClass.getMethods()) {
+      for (Class<?> type : TypeToken.of(subscriberClass).getTypes().rawTypes()) {
+        final Method declared = getMethod(type, method);
+        if (declared != null && declared.isAnnotationPresent(Subscribe.class)) {
+          final Class<?>[] parameterTypes = method.getParameterTypes();
+          checkArgument(parameterTypes.length == 1,
+              "Method %s has @Subscribe annotation, but requires %s arguments.  Event subscriber methods must require a single argument.",
+              method, parameterTypes.length);
+          final boolean concurrent = declared.isAnnotationPresent(AllowConcurrentEvents.class);
+          invokers.add(new MethodInvoker(subscriber, method, concurrent));
+          break;
+        }
+      }
+    }
+    return invokers.build();
+  }
+
+  private static Method getMethod(final Class<?> type, final Method method) {
+    try {
+      return type.getMethod(method.getName(), method.getParameterTypes());
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private abstract static class Invoker {
+    final Class<?> mEventClass;
+
+    Invoker(final Class<?> eventClass) {
+      mEventClass = eventClass;
+    }
+
+    abstract void invoke(Object event);
+  }
+
+  private static class MethodInvoker extends Invoker {
+    private final Object mSubscriber;
+    private final Method mMethod;
+    private final boolean mConcurrent;
+
+    MethodInvoker(final Object subscriber, final Method method, final boolean concurrent) {
+      super(method.getParameterTypes()[0]);
+      mSubscriber = subscriber;
+      mMethod = method;
+      mConcurrent = concurrent;
+      // Skips the access check on every invocation, and allows public methods of non-public classes.
+      mMethod.setAccessible(true);
+    }
+
+    @Override
+    void invoke(final Object event) {
+      if (mConcurrent) {
+        invokeMethod(event);
+      } else {
+        synchronized (mSubscriber) {
+          invokeMethod(event);
+        }
+      }
+    }
+
+    private void invokeMethod(final Object event) {
+      try {
+        mMethod.invoke(mSubscriber, event);
+      } catch (InvocationTargetException e) {
+        LOGGER.log(Level.SEVERE, "Could not dispatch event: " + event + " to subscriber " + mSubscriber, e.getCause());
+      } catch (IllegalAccessException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+
+  private static class HandlerInvoker<E> extends Invoker {
+    private final Handler<? super E> mHandler;
+
+    HandlerInvoker(final Class<E> eventClass, final Handler<? super E> handler) {
+      super(eventClass);
+      mHandler = handler;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    void invoke(final Object event) {
+      try {
+        // Only events assignable to the event class are passed to this Invoker.
+        mHandler.handle((E) event);
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.SEVERE, "Could not dispatch event: " + event + " to handler " + mHandler, e);
+      }
+    }
+  }
+}
@@ -9,9 +9,31 @@ import ninja.ugly.prevail.event.Event;
  * A DeleteEventFactory that just returns DeleteEndEvents at the end of a delete operation.
  * @param <K>
  */
-public class DeleteEndEventFactory<K> extends DeleteEventFactory.EmptyDeleteEventFactory<K> {
+public class DeleteEndEventFactory<K> extends DeleteEventFactory.EmptyDeleteEventFactory<K> implements TypedEventFactory {
   @Override
   public <E extends Event> Optional<E> endEvent(K key, int numValuesDeleted) {
     return (Optional<E>) Optional.of(new DeleteEndEvent<K>(key, numValuesDeleted));
   }
+
+  @Override
+  public Class<?> getStartEventClass() {
+    return null;
+  }
+
+  @Override
+  public Class<?> getProgressEventClass() {
+    // A subclass may override progressEvent to generate progress events.
+    return getClass() == DeleteEndEventFactory.class ? Void.class : null;
+  }
+
+  @Override
+  public Class<?> getEndEventClass() {
+    // A subclass may override endEvent to generate a narrower class of event.
+    return getClass() == DeleteEndEventFactory.class ? DeleteEndEvent.class : null;
+  }
+
+  @Override
+  public Class<?> getExceptionEventClass() {
+    return null;
+  }
 }
@@ -9,9 +9,31 @@ import ninja.ugly.prevail.event.InsertEndEvent;
  * An InsertEventFactory that just returns InsertEndEvents at the end of an insert operation.
  * @param <K>
  */
-public class InsertEndEventFactory<K, V> extends InsertEventFactory.EmptyInsertEventFactory<K, V> {
+public class InsertEndEventFactory<K, V> extends InsertEventFactory.EmptyInsertEventFactory<K, V> implements TypedEventFactory {
   @Override
   public <E extends Event> Optional<E> endEvent(final K key, final V value) {
     return (Optional<E>) Optional.of(new InsertEndEvent<K, V>(key, value));
   }
+
+  @Override
+  public Class<?> getStartEventClass() {
+    return null;
+  }
+
+  @Override
+  public Class<?> getProgressEventClass() {
+    // A subclass may override progressEvent to generate progress events.
+    return getClass() == InsertEndEventFactory.class ? Void.class : null;
+  }
+
+  @Override
+  public Class<?> getEndEventClass() {
+    // A subclass may override endEvent to generate a narrower class of event.
+    return getClass() == InsertEndEventFactory.class ? InsertEndEvent.class : null;
+  }
+
+  @Override
+  public Class<?> getExceptionEventClass() {
+    return null;
+  }
 }
@@ -10,9 +10,31 @@ import ninja.ugly.prevail.event.QueryEndEvent;
  * A QueryEventFactory that just returns QueryEndEvents at the end of a query operation.
  * @param <K>
  */
-public class QueryEndEventFactory<K, V> extends QueryEventFactory.EmptyQueryEventFactory<K, V> {
+public class QueryEndEventFactory<K, V> extends QueryEventFactory.EmptyQueryEventFactory<K, V> implements TypedEventFactory {
   @Override
   public <E extends Event> Optional<E> endEvent(K key, QueryResult<V> values) {
     return (Optional<E>) Optional.of(new QueryEndEvent<K, V>(key, values));
   }
+
+  @Override
+  public Class<?> getStartEventClass() {
+    return null;
+  }
+
+  @Override
+  public Class<?> getProgressEventClass() {
+    // A subclass may override progressEvent to generate progress events.
+    return getClass() == QueryEndEventFactory.class ? Void.class : null;
+  }
+
+  @Override
+  public Class<?> getEndEventClass() {
+    // A subclass may override endEvent to generate a narrower class of event.
+    return getClass() == QueryEndEventFactory.class ? QueryEndEvent.class : null;
+  }
+
+  @Override
+  public Class<?> getExceptionEventClass() {
+    return null;
+  }
 }
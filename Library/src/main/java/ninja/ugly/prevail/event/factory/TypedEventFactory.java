@@ -0,0 +1,36 @@
+package ninja.ugly.prevail.event.factory;
+
+/**
+ * An optional interface for EventFactories that declare the classes of the events they generate.
+ * <p>
+ * If the EventDispatcher on a Chunk is a SubscriberAwareEventDispatcher, then the Chunk will not ask a
+ * TypedEventFactory for an event that no subscriber would receive.  Thus the cost of constructing the event
+ * is saved entirely.
+ * <p>
+ * Each method returns the runtime class of the events generated for the respective stage of an operation,
+ * Void.class if no events are ever generated for that stage, or null if that class is not known in advance.
+ * An event is never requested from the EventFactory for a stage with the Void class, and is always requested
+ * for a stage with a null class.  A subclass that changes the events generated for a stage must also change the
+ * class returned for that stage.
+ */
+public interface TypedEventFactory {
+  /**
+   * @return the class of start events generated by this EventFactory, or null if not known.
+   */
+  Class<?> getStartEventClass();
+
+  /**
+   * @return the class of progress events generated by this EventFactory, Void.class if none, or null if not known.
+   */
+  Class<?> getProgressEventClass();
+
+  /**
+   * @return the class of end events generated by this EventFactory, or null if not known.
+   */
+  Class<?> getEndEventClass();
+
+  /**
+   * @return the class of exception events generated by this EventFactory, or null if not known.
+   */
+  Class<?> getExceptionEventClass();
+}
@@ -9,9 +9,31 @@ import ninja.ugly.prevail.event.UpdateEndEvent;
  * A UpdateEventFactory that just returns UpdateEndEvents at the end of an update operation.
  * @param <K>
  */
-public class UpdateEndEventFactory<K, V> extends UpdateEventFactory.EmptyUpdateEventFactory<K, V> {
+public class UpdateEndEventFactory<K, V> extends UpdateEventFactory.EmptyUpdateEventFactory<K, V> implements TypedEventFactory {
   @Override
   public <E extends Event> Optional<E> endEvent(K key, V value, int numValuesUpdated) {
     return (Optional<E>) Optional.of(new UpdateEndEvent<K, V>(key, value, numValuesUpdated));
   }
+
+  @Override
+  public Class<?> getStartEventClass() {
+    return null;
+  }
+
+  @Override
+  public Class<?> getProgressEventClass() {
+    // A subclass may override progressEvent to generate progress events.
+    return getClass() == UpdateEndEventFactory.class ? Void.class : null;
+  }
+
+  @Override
+  public Class<?> getEndEventClass() {
+    // A subclass may override endEvent to generate a narrower class of event.
+    return getClass() == UpdateEndEventFactory.class ? UpdateEndEvent.class : null;
+  }
+
+  @Override
+  public Class<?> getExceptionEventClass() {
+    return null;
+  }
 }
@@ -0,0 +1,152 @@
+package ninja.ugly.prevail.executor;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An ExecutorService that runs its tasks on a shared Executor, whilst never running more than a
+ * fixed number of those tasks at the same time.
+ * <p>
+ * This is useful for giving a Chunk its own view of a pool shared by many Chunks.  A Chunk that is not
+ * thread-safe can be given a maximum concurrency of one, such that its operations are serialized, yet
+ * still run in parallel with the operations of other Chunks on the same pool.
+ * <p>
+ * Shutting down this ExecutorService does not shut down the underlying Executor.
+ */
+public class LimitedConcurrencyExecutorService extends AbstractExecutorService {
+
+  private final Executor mExecutor;
+  private final int mMaxConcurrency;
+
+  private final Queue<Runnable> mQueue = new ConcurrentLinkedQueue<Runnable>();
+  private final AtomicInteger mActiveWorkers = new AtomicInteger();
+  private final Object mTerminationLock = new Object();
+  private volatile boolean mShutdown = false;
+
+  private final Runnable mWorker = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        Runnable task;
+        while ((task = mQueue.poll()) != null) {
+          task.run();
+        }
+      } finally {
+        mActiveWorkers.decrementAndGet();
+        signalIfTerminated();
+        // A task may have been queued after the last poll, but before this worker released its slot.
+        schedule();
+      }
+    }
+  };
+
+  /**
+   * Constructs a LimitedConcurrencyExecutorService running at most maxConcurrency tasks at a time
+   * on the given Executor.
+   *
+   * @param executor The Executor on which to run tasks.
+   * @param maxConcurrency The maximum number of tasks to run at the same time.  Must be positive.
+   */
+  public LimitedConcurrencyExecutorService(final Executor executor, final int maxConcurrency) {
+    checkArgument(maxConcurrency > 0, "maxConcurrency must be positive");
+    mExecutor = checkNotNull(executor);
+    mMaxConcurrency = maxConcurrency;
+  }
+
+  /**
+   * Returns the maximum number of tasks run at the same time by this ExecutorService.
+   */
+  public int getMaxConcurrency() {
+    return mMaxConcurrency;
+  }
+
+  @Override
+  public void execute(final Runnable command) {
+    checkNotNull(command);
+    if (mShutdown) {
+      throw new RejectedExecutionException("ExecutorService has been shut down");
+    }
+    mQueue.offer(command);
+    schedule();
+  }
+
+  private void schedule() {
+    while (!mQueue.isEmpty()) {
+      final int active = mActiveWorkers.get();
+      if (active >= mMaxConcurrency) {
+        return;
+      }
+      if (mActiveWorkers.compareAndSet(active, active + 1)) {
+        try {
+          mExecutor.execute(mWorker);
+        } catch (RejectedExecutionException e) {
+          mActiveWorkers.decrementAndGet();
+          throw e;
+        }
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    mShutdown = true;
+    signalIfTerminated();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    mShutdown = true;
+    final List<Runnable> pending = Lists.newArrayList();
+    Runnable task;
+    while ((task = mQueue.poll()) != null) {
+      pending.add(task);
+    }
+    signalIfTerminated();
+    return pending;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return mShutdown;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return mShutdown && mActiveWorkers.get() == 0 && mQueue.isEmpty();
+  }
+
+  @Override
+  public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (mTerminationLock) {
+      while (!isTerminated()) {
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(mTerminationLock, remaining);
+      }
+      return true;
+    }
+  }
+
+  private void signalIfTerminated() {
+    if (isTerminated()) {
+      synchronized (mTerminationLock) {
+        mTerminationLock.notifyAll();
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package ninja.ugly.prevail.executor;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An ExecutorService that runs its tasks on another ExecutorService, and can tell whether the current
+ * thread is running one of those tasks.
+ * <p>
+ * A task that waits for another task on the same ExecutorService may wait forever, if the ExecutorService
+ * runs only one task at a time.  Such a task can instead check isRunningTask, and do the work itself.
+ * <p>
+ * Shutting down this ExecutorService shuts down the wrapped ExecutorService.
+ */
+public class TaskTrackingExecutorService extends AbstractExecutorService {
+
+  private final ExecutorService mExecutorService;
+  private final ThreadLocal<Boolean> mRunningTask = new ThreadLocal<Boolean>();
+
+  /**
+   * Constructs a TaskTrackingExecutorService running its tasks on the given ExecutorService.
+   *
+   * @param executorService The ExecutorService on which to run tasks.
+   */
+  public TaskTrackingExecutorService(final ExecutorService executorService) {
+    mExecutorService = checkNotNull(executorService);
+  }
+
+  /**
+   * Returns true if the current thread is running a task of this ExecutorService.
+   */
+  public boolean isRunningTask() {
+    return mRunningTask.get() != null;
+  }
+
+  @Override
+  public void execute(final Runnable command) {
+    checkNotNull(command);
+    mExecutorService.execute(new Runnable() {
+      @Override
+      public void run() {
+        // A task may be run inline by another task of this ExecutorService, so the previous state is restored.
+        final Boolean previous = mRunningTask.get();
+        mRunningTask.set(Boolean.TRUE);
+        try {
+          command.run();
+        } finally {
+          if (previous == null) {
+            mRunningTask.remove();
+          }
+        }
+      }
+    });
+  }
+
+  @Override
+  public void shutdown() {
+    mExecutorService.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    return mExecutorService.shutdownNow();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return mExecutorService.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return mExecutorService.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+    return mExecutorService.awaitTermination(timeout, unit);
+  }
+}
@@ -0,0 +1,115 @@
+package ninja.ugly.prevail.executor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An ExecutorService that starts a new Thread, from a ThreadFactory, for every task.
+ * <p>
+ * No threads are pooled.  This is intended for use with a ThreadFactory producing cheap threads, such as
+ * the virtual threads of more recent JVMs, where a task that blocks on I/O need not hold an operating
+ * system thread.
+ */
+public class ThreadPerTaskExecutorService extends AbstractExecutorService {
+
+  private final ThreadFactory mThreadFactory;
+  private final Set<Thread> mThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+  private final Object mTerminationLock = new Object();
+  private volatile boolean mShutdown = false;
+
+  /**
+   * Constructs a ThreadPerTaskExecutorService that runs each task on a new Thread from the given ThreadFactory.
+   *
+   * @param threadFactory The ThreadFactory from which to create a Thread for each task.
+   */
+  public ThreadPerTaskExecutorService(final ThreadFactory threadFactory) {
+    mThreadFactory = checkNotNull(threadFactory);
+  }
+
+  @Override
+  public void execute(final Runnable command) {
+    checkNotNull(command);
+    if (mShutdown) {
+      throw new RejectedExecutionException("ExecutorService has been shut down");
+    }
+
+    final Thread thread = mThreadFactory.newThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          command.run();
+        } finally {
+          mThreads.remove(Thread.currentThread());
+          signalIfTerminated();
+        }
+      }
+    });
+    if (thread == null) {
+      throw new RejectedExecutionException("ThreadFactory did not create a Thread");
+    }
+
+    mThreads.add(thread);
+    thread.start();
+  }
+
+  @Override
+  public void shutdown() {
+    mShutdown = true;
+    signalIfTerminated();
+  }
+
+  /**
+   * Shuts down this ExecutorService and interrupts all running tasks.  As no tasks are ever queued,
+   * the returned list is always empty.
+   */
+  @Override
+  public List<Runnable> shutdownNow() {
+    mShutdown = true;
+    for (Thread thread : mThreads) {
+      thread.interrupt();
+    }
+    signalIfTerminated();
+    return Collections.emptyList();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return mShutdown;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return mShutdown && mThreads.isEmpty();
+  }
+
+  @Override
+  public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (mTerminationLock) {
+      while (!isTerminated()) {
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(mTerminationLock, remaining);
+      }
+      return true;
+    }
+  }
+
+  private void signalIfTerminated() {
+    if (isTerminated()) {
+      synchronized (mTerminationLock) {
+        mTerminationLock.notifyAll();
+      }
+    }
+  }
+}
@@ -0,0 +1,304 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Strings;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import ninja.ugly.prevail.exception.InsertException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.is;
+
+public class BTreeChunkTest {
+
+  // Small pages and a small cache, so that even small tests split nodes and evict pages.
+  private static final int PAGE_SIZE = 256;
+  private static final int CACHE_PAGES = 8;
+
+  private final VolatileChunk.KeyFactory<String, String> mKeyFactory = DurableChunkFixture.keyFactory();
+
+  @Rule
+  public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+  private File mFile;
+  private BTreeChunk<String, String> mChunk;
+
+  @Before
+  public void setUp() throws IOException {
+    mFile = new File(mTemporaryFolder.getRoot(), "btree.db");
+    mChunk = open();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    mChunk.close();
+  }
+
+  @Test
+  public void testInsertQueryUpdateDelete() throws Exception {
+    assertThat(mChunk.insert("a=1"), is("a"));
+    assertThat(mChunk.query("a"), contains("a=1"));
+    assertThat(mChunk.update("a", "a=2"), is(1));
+    assertThat(mChunk.query("a"), contains("a=2"));
+    assertThat(mChunk.update("b", "b=1"), is(0));
+    assertThat(mChunk.query("b"), is(emptyIterable()));
+    assertThat(mChunk.delete("a"), is(1));
+    assertThat(mChunk.delete("a"), is(0));
+    assertThat(mChunk.size(), is(0L));
+  }
+
+  @Test
+  public void testMatchesSortedMapUnderRandomOperations() throws Exception {
+    final TreeMap<String, String> expected = new TreeMap<>();
+    final Random random = new Random(42);
+    for (int i = 0; i < 5000; i++) {
+      final String key = String.format("%05d", random.nextInt(2000));
+      final int operation = random.nextInt(4);
+      if (operation < 2) {
+        mChunk.insert(key + "=" + i);
+        expected.put(key, key + "=" + i);
+      } else if (operation == 2) {
+        assertThat(mChunk.update(key, key + "=u" + i), is(expected.containsKey(key) ? 1 : 0));
+        if (expected.containsKey(key)) {
+          expected.put(key, key + "=u" + i);
+        }
+      } else {
+        assertThat(mChunk.delete(key), is(expected.remove(key) == null ? 0 : 1));
+      }
+    }
+    assertContents(expected);
+    assertThat(mChunk.getPinnedPageCount(), is(0));
+
+    mChunk.close();
+    mChunk = open();
+    assertContents(expected);
+  }
+
+  @Test
+  public void testRanges() throws Exception {
+    for (int i = 0; i < 500; i++) {
+      mChunk.insert(String.format("%03d=%d", i, i));
+    }
+
+    assertThat(keys(mChunk.queryRange(KeyRange.closed("100", "103"))), is(Arrays.asList("100", "101", "102", "103")));
+    assertThat(keys(mChunk.queryRange(KeyRange.closedOpen("100", "103"))), is(Arrays.asList("100", "101", "102")));
+    assertThat(keys(mChunk.queryRange(KeyRange.greaterThan("496"))), is(Arrays.asList("497", "498", "499")));
+    assertThat(keys(mChunk.queryRange(KeyRange.atMost("002"))), is(Arrays.asList("000", "001", "002")));
+    assertThat(keys(mChunk.queryRange(KeyRange.lessThan("300").descending().limit(3))), is(Arrays.asList("299", "298", "297")));
+    assertThat(keys(mChunk.queryRange(KeyRange.closed("2", "21").descending())), is(Arrays.asList("209", "208", "207", "206", "205", "204", "203", "202", "201", "200")));
+    assertThat(keys(mChunk.queryRange(KeyRange.<String>all())).size(), is(500));
+    assertThat(keys(mChunk.queryRange(KeyRange.closed("600", "700"))).isEmpty(), is(true));
+    assertThat(keys(mChunk.queryRange(KeyRange.closed("103", "100"))).isEmpty(), is(true));
+    assertThat(keys(mChunk.queryRange(KeyRange.closed("103", "100").descending())).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testDeleteRange() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      mChunk.insert(String.format("%03d=%d", i, i));
+    }
+    assertThat(mChunk.deleteRange(KeyRange.closedOpen("010", "090")), is(80));
+    assertThat(mChunk.deleteRange(KeyRange.<String>all().descending().limit(5)), is(5));
+    assertThat(keys(mChunk.queryRange(KeyRange.atLeast("005"))), is(Arrays.asList("005", "006", "007", "008", "009", "090", "091", "092", "093", "094")));
+  }
+
+  @Test
+  public void testRangeResultPinsOnlyCurrentLeafUntilClosed() throws Exception {
+    for (int i = 0; i < 500; i++) {
+      mChunk.insert(String.format("%03d=%d", i, i));
+    }
+    final QueryResult<String> result = mChunk.queryRange(KeyRange.<String>all());
+    final Iterator<String> iterator = result.iterator();
+    for (int i = 0; i < 250; i++) {
+      iterator.next();
+    }
+    assertThat(mChunk.getPinnedPageCount(), is(1));
+    result.close();
+    assertThat(mChunk.getPinnedPageCount(), is(0));
+  }
+
+  @Test
+  public void testRangeResultForgetsFinishedIterations() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      mChunk.insert(String.format("%03d=%d", i, i));
+    }
+    final QueryResult<String> result = mChunk.queryRange(KeyRange.<String>all());
+    for (int i = 0; i < 100; i++) {
+      assertThat(Iterators.size(result.iterator()), is(10));
+    }
+    final Iterator<String> unfinished = result.iterator();
+    unfinished.next();
+    assertThat(mChunk.getOpenCursorCount(), is(1));
+    result.close();
+    assertThat(mChunk.getOpenCursorCount(), is(0));
+  }
+
+  @Test
+  public void testRangeResultContinuesAfterConcurrentChanges() throws Exception {
+    for (int i = 0; i < 100; i += 2) {
+      mChunk.insert(String.format("%03d=%d", i, i));
+    }
+    final QueryResult<String> result = mChunk.queryRange(KeyRange.<String>all());
+    final Iterator<String> iterator = result.iterator();
+    assertThat(iterator.next(), is("000=0"));
+    assertThat(iterator.next(), is("002=2"));
+    // Inserted behind and ahead of the iterator, splitting the leaf it is on.
+    for (int i = 1; i < 100; i += 2) {
+      mChunk.insert(String.format("%03d=%d", i, i));
+    }
+    mChunk.delete("004");
+    final List<String> rest = Lists.newArrayList(iterator);
+    result.close();
+
+    assertThat(rest.size(), is(100 - 3 - 1));
+    assertThat(rest.get(0), is("003=3"));
+    assertThat(rest.get(1), is("005=5"));
+    assertThat(Ordering.natural().isStrictlyOrdered(rest), is(true));
+  }
+
+  @Test
+  public void testStructuredQueryIsFilteredLazily() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      mChunk.insert(String.format("%03d=%d", i, i));
+    }
+    final Query<String> query = Query.where(Query.Criterion.matching(new Predicate<String>() {
+      @Override
+      public boolean apply(final String value) {
+        return value.endsWith("7");
+      }
+    })).offset(2).limit(2);
+    final QueryResult<String> result = mChunk.queryWhere(query);
+    assertThat(Lists.newArrayList(result), is(Arrays.asList("027=27", "037=37")));
+    result.close();
+  }
+
+  @Test
+  public void testOpenFileIsRefused() throws Exception {
+    mChunk.insert("a=1");
+    try {
+      open();
+      throw new AssertionError("Expected IOException");
+    } catch (IOException e) {
+      // Expected, since the file is locked by the first Chunk.
+    }
+    mChunk.close();
+    mChunk = open();
+    assertThat(mChunk.query("a"), contains("a=1"));
+  }
+
+  @Test
+  public void testCrashRollsBackToLastSync() throws Exception {
+    final TreeMap<String, String> expected = new TreeMap<>();
+    for (int i = 0; i < 500; i++) {
+      final String key = String.format("%05d", i);
+      mChunk.insert(key + "=" + i);
+      expected.put(key, key + "=" + i);
+    }
+    mChunk.sync();
+
+    // Enough changes to split nodes and evict pages of the synced tree before the crash.
+    for (int i = 0; i < 500; i += 2) {
+      final String key = String.format("%05d", i);
+      mChunk.update(key, key + "=x");
+    }
+    mChunk.deleteRange(KeyRange.closed("00100", "00200"));
+    for (int i = 500; i < 700; i++) {
+      mChunk.insert(String.format("%05d", i) + "=" + i);
+    }
+    mChunk.closeWithoutSync();
+
+    mChunk = open();
+    assertContents(expected);
+
+    mChunk.insert("00700=700");
+    expected.put("00700", "00700=700");
+    mChunk.close();
+    mChunk = open();
+    assertContents(expected);
+  }
+
+  @Test
+  public void testCrashBeforeFirstSyncRollsBackToEmpty() throws Exception {
+    for (int i = 0; i < 200; i++) {
+      mChunk.insert(String.format("%05d", i) + "=" + i);
+    }
+    mChunk.closeWithoutSync();
+
+    mChunk = open();
+    assertContents(new TreeMap<String, String>());
+  }
+
+  @Test
+  public void testCrashAfterSyncKeepsSyncedChanges() throws Exception {
+    mChunk.insert("a=1");
+    mChunk.sync();
+    mChunk.update("a", "a=2");
+    mChunk.sync();
+    mChunk.update("a", "a=3");
+    mChunk.closeWithoutSync();
+
+    mChunk = open();
+    assertThat(mChunk.query("a"), contains("a=2"));
+  }
+
+  @Test
+  public void testUncleanFileWithoutJournalIsRefused() throws Exception {
+    mChunk.insert("a=1");
+    mChunk.closeWithoutSync();
+    new File(mFile.getPath() + "-journal").delete();
+    try {
+      mChunk = open();
+      throw new AssertionError("Expected IOException");
+    } catch (IOException e) {
+      // Expected, since there is nothing from which to roll back.
+    }
+  }
+
+  @Test(expected = InsertException.class)
+  public void testInsertLargerThanQuarterPageThrows() throws Exception {
+    mChunk.insert("a=" + Strings.repeat("x", PAGE_SIZE / 4));
+  }
+
+  private void assertContents(final Map<String, String> expected) throws Exception {
+    assertThat(mChunk.size(), is((long) expected.size()));
+    final QueryResult<String> result = mChunk.queryRange(KeyRange.<String>all());
+    assertThat(Lists.newArrayList(result), is((List<String>) new ArrayList<>(expected.values())));
+    result.close();
+    for (Map.Entry<String, String> entry : expected.entrySet()) {
+      assertThat(mChunk.query(entry.getKey()), contains(entry.getValue()));
+    }
+  }
+
+  private static List<String> keys(final QueryResult<String> result) throws IOException {
+    final List<String> keys = new ArrayList<>();
+    for (String value : result) {
+      keys.add(value.substring(0, value.indexOf('=')));
+    }
+    result.close();
+    return keys;
+  }
+
+  private BTreeChunk<String, String> open() throws IOException {
+    return new BTreeChunk<>(mFile, mKeyFactory, Ordering.natural(), new Codec.StringCodec(), new Codec.StringCodec(), PAGE_SIZE, CACHE_PAGES);
+  }
+}
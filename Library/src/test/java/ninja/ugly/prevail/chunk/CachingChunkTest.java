@@ -0,0 +1,198 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ninja.ugly.prevail.exception.UpdateException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingChunkTest {
+
+  private final VolatileChunk<String, String> mDelegate = spy(new VolatileChunk<String, String>(new VolatileChunk.KeyFactory.AutoIncrementingStringKeyFactory<String>()));
+  private final CachingChunk<String, String> mChunk = new CachingChunk<>(mDelegate, 10, Predicates.alwaysTrue());
+
+  @Test
+  public void testRepeatedQueryIsServedFromCache() throws Exception {
+    final String key = mChunk.insert("value");
+    assertThat(mChunk.query(key), contains("value"));
+    assertThat(mChunk.query(key), contains("value"));
+    verify(mDelegate, times(1)).query(key);
+    assertThat(mChunk.getStats().hitCount(), is(1L));
+    assertThat(mChunk.getStats().missCount(), is(1L));
+  }
+
+  @Test
+  public void testQueryNotIteratedToEndIsNotCached() throws Exception {
+    final String key = mChunk.insert("value");
+    mChunk.query(key).close();
+    mChunk.query(key);
+    verify(mDelegate, times(2)).query(key);
+  }
+
+  @Test
+  public void testCloseOfMissClosesDelegateResult() throws Exception {
+    final QueryResult<String> delegateResult = mock(QueryResult.class);
+    final Chunk<String, String> delegate = mock(Chunk.class);
+    when(delegate.query("key")).thenReturn(delegateResult);
+    final CachingChunk<String, String> chunk = new CachingChunk<>(delegate, 10, Predicates.alwaysTrue());
+    chunk.query("key").close();
+    verify(delegateResult).close();
+  }
+
+  @Test
+  public void testUpdateInvalidatesCachedKey() throws Exception {
+    final String key = mChunk.insert("value");
+    Iterables.size(mChunk.query(key));
+    mChunk.update(key, "updated");
+    assertThat(mChunk.query(key), contains("updated"));
+  }
+
+  @Test
+  public void testDeleteInvalidatesCachedKey() throws Exception {
+    final String key = mChunk.insert("value");
+    Iterables.size(mChunk.query(key));
+    mChunk.delete(key);
+    assertThat(Iterables.isEmpty(mChunk.query(key)), is(true));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedKeysAreEvicted() throws Exception {
+    final CachingChunk<String, String> chunk = new CachingChunk<>(mDelegate, 1, Predicates.alwaysTrue());
+    final String key1 = chunk.insert("value1");
+    final String key2 = chunk.insert("value2");
+    Iterables.size(chunk.query(key1));
+    Iterables.size(chunk.query(key2));
+    assertThat(chunk.getStats().evictionCount(), is(1L));
+  }
+
+  @Test
+  public void testKeysNotMatchingPredicateAreNotCached() throws Exception {
+    final CachingChunk<String, String> chunk = new CachingChunk<>(mDelegate, 10, Predicates.<String>alwaysFalse(), null);
+    final String key = chunk.insert("value");
+    Iterables.size(chunk.query(key));
+    Iterables.size(chunk.query(key));
+    verify(mDelegate, times(2)).query(key);
+  }
+
+  @Test
+  public void testWriteBehindCoalescesUpdatesUntilFlush() throws Exception {
+    final List<Runnable> tasks = Lists.newArrayList();
+    final Executor executor = new Executor() {
+      @Override
+      public void execute(final Runnable command) {
+        tasks.add(command);
+      }
+    };
+    final CachingChunk<String, String> chunk = new CachingChunk<>(mDelegate, 10, Predicates.alwaysTrue(), executor);
+    final String key = chunk.insert("value");
+    chunk.update(key, "updated1");
+    chunk.update(key, "updated2");
+    assertThat(chunk.query(key), contains("updated2"));
+    verify(mDelegate, never()).update(key, "updated1");
+
+    assertThat(tasks.size(), is(1));
+    tasks.get(0).run();
+    verify(mDelegate, never()).update(key, "updated1");
+    verify(mDelegate, times(1)).update(key, "updated2");
+    assertThat(mDelegate.query(key), contains("updated2"));
+  }
+
+  @Test
+  public void testWriteBehindUpdateOfMissingKeyDoesNotInsert() throws Exception {
+    final Executor executor = mock(Executor.class);
+    final CachingChunk<String, String> chunk = new CachingChunk<>(mDelegate, 10, Predicates.alwaysTrue(), executor);
+    assertThat(chunk.update("missing", "value"), is(0));
+    assertThat(Iterables.isEmpty(chunk.query("missing")), is(true));
+    verify(executor, never()).execute(any(Runnable.class));
+  }
+
+  @Test
+  public void testWriteBehindUpdateOfDeletedKeyDoesNotInsert() throws Exception {
+    final CachingChunk<String, String> chunk = new CachingChunk<>(mDelegate, 10, Predicates.alwaysTrue(), mock(Executor.class));
+    final String key = chunk.insert("value");
+    chunk.update(key, "updated");
+    chunk.delete(key);
+    assertThat(chunk.update(key, "updated again"), is(0));
+    assertThat(Iterables.isEmpty(chunk.query(key)), is(true));
+  }
+
+  @Test
+  public void testCloseFlushesPendingUpdates() throws Exception {
+    final Executor neverRuns = mock(Executor.class);
+    final CachingChunk<String, String> chunk = new CachingChunk<>(mDelegate, 10, Predicates.alwaysTrue(), neverRuns);
+    final String key = chunk.insert("value");
+    chunk.update(key, "updated");
+    chunk.close();
+    verify(mDelegate).update(key, "updated");
+    verify(mDelegate).close();
+  }
+
+  @Test
+  public void testWriteBehindOnSameThreadExecutorUpdatesDelegateImmediately() throws Exception {
+    final CachingChunk<String, String> chunk = new CachingChunk<>(mDelegate, 10, Predicates.alwaysTrue(), MoreExecutors.sameThreadExecutor());
+    final String key = chunk.insert("value");
+    chunk.update(key, "updated");
+    verify(mDelegate).update(key, "updated");
+  }
+
+  @Test
+  public void testQueryDuringFlushReturnsPendingUpdate() throws Exception {
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch proceed = new CountDownLatch(1);
+    final VolatileChunk<String, String> delegate = new VolatileChunk<String, String>(new VolatileChunk.KeyFactory.AutoIncrementingStringKeyFactory<String>()) {
+      @Override
+      protected int doUpdate(final String key, final String value, final OnProgressUpdateListener listener) throws UpdateException {
+        writing.countDown();
+        try {
+          proceed.await();
+        } catch (InterruptedException e) {
+          throw new UpdateException("Interrupted", e);
+        }
+        return super.doUpdate(key, value, listener);
+      }
+    };
+    final CachingChunk<String, String> chunk = new CachingChunk<>(delegate, 10, Predicates.alwaysTrue(), mock(Executor.class));
+    final String key = chunk.insert("value");
+    chunk.update(key, "updated");
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    final Future<?> flush = executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        chunk.flush();
+        return null;
+      }
+    });
+    writing.await();
+    // The update is being written, so is not yet in the wrapped Chunk.
+    assertThat(chunk.query(key), contains("updated"));
+    proceed.countDown();
+    flush.get();
+    executor.shutdown();
+
+    assertThat(chunk.query(key), contains("updated"));
+    assertThat(chunk.query(key), contains("updated"));
+  }
+}
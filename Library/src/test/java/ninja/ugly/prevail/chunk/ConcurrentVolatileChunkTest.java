@@ -0,0 +1,112 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.is;
+
+public class ConcurrentVolatileChunkTest {
+
+  private static final int NUM_THREADS = 8;
+  private static final int OPERATIONS_PER_THREAD = 2000;
+
+  private final ConcurrentVolatileChunk<Integer, String> mChunk =
+      new ConcurrentVolatileChunk<>(new VolatileChunk.KeyFactory.AutoIncrementingIntegerKeyFactory<String>());
+
+  @Test
+  public void testDeleteOfMissingKeyReturnsZero() throws Exception {
+    assertThat(mChunk.delete(1), is(0));
+  }
+
+  @Test
+  public void testQueryReturnsInsertedValue() throws Exception {
+    final Integer key = mChunk.insert("value");
+    assertThat(mChunk.query(key), contains("value"));
+  }
+
+  @Test
+  public void testUpdateOfMissingKeyDoesNotInsert() throws Exception {
+    assertThat(mChunk.update(1, "value"), is(0));
+    assertThat(mChunk.query(1), is(emptyIterable()));
+  }
+
+  @Test
+  public void testConcurrentInsertsProduceUniqueKeys() throws Exception {
+    final Set<Integer> keys = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    runConcurrently(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+          keys.add(mChunk.insert("value"));
+        }
+        return null;
+      }
+    });
+    assertThat(keys.size(), is(NUM_THREADS * OPERATIONS_PER_THREAD));
+    assertThat(mChunk.getValues().size(), is(NUM_THREADS * OPERATIONS_PER_THREAD));
+  }
+
+  @Test
+  public void testConcurrentDeletesDeleteEachKeyOnce() throws Exception {
+    final int numKeys = OPERATIONS_PER_THREAD;
+    for (int i = 0; i < numKeys; i++) {
+      mChunk.insert("value");
+    }
+    final List<Future<Integer>> futures = runConcurrently(new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        int numDeleted = 0;
+        for (int key = 0; key < numKeys; key++) {
+          numDeleted += mChunk.delete(key);
+          mChunk.update(key, "updated");
+        }
+        return numDeleted;
+      }
+    });
+
+    int totalDeleted = 0;
+    for (Future<Integer> future : futures) {
+      totalDeleted += future.get();
+    }
+    assertThat(totalDeleted, is(numKeys));
+    assertThat(Iterables.isEmpty(mChunk.getValues()), is(true));
+  }
+
+  private static <T> List<Future<T>> runConcurrently(final Callable<T> callable) throws InterruptedException {
+    final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Future<T>> futures = Lists.newArrayList();
+    try {
+      for (int i = 0; i < NUM_THREADS; i++) {
+        futures.add(executor.submit(new Callable<T>() {
+          @Override
+          public T call() throws Exception {
+            start.await();
+            return callable.call();
+          }
+        }));
+      }
+      start.countDown();
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS), is(true));
+    return futures;
+  }
+}
@@ -1,14 +1,20 @@
 package ninja.ugly.prevail.chunk;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
 import com.google.common.eventbus.EventBus;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import ninja.ugly.prevail.Key;
 import ninja.ugly.prevail.KeyValueChunk;
@@ -27,6 +33,9 @@ import ninja.ugly.prevail.exception.QueryException;
 import ninja.ugly.prevail.exception.UpdateException;
 
 import static ninja.ugly.prevail.chunk.DefaultChunk.OnProgressUpdateListener;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.core.Is.is;
 import static org.mockito.Matchers.anyDouble;
 import static org.mockito.Matchers.argThat;
@@ -349,6 +358,98 @@ public class DefaultChunkTest {
     verify(chunkEventFactory, times(1)).exceptionEvent(argThat(is(mKey)), argThat(is(deleteException)));
   }
 
+  @Test
+  public void testDeleteAllRequestsEndEventFromInjectedEventFactoryForEachKey() throws DeleteException {
+    final DeleteEventFactory<Key> eventFactory = mockDeleteEventFactory(Optional.<Event>absent(), Optional.<Event>absent(), Optional.<Event>absent(), Optional.<Event>absent());
+    mChunk.addEventFactory(eventFactory);
+    mChunk.deleteAll(Arrays.asList(mKey, mKey));
+    verify(eventFactory, times(2)).startEvent(mKey);
+    verify(eventFactory, times(2)).endEvent(mKey, 1);
+  }
+
+  @Test
+  public void testDeleteAllCallsDeleterForEachKey() throws DeleteException {
+    final int numDeleted = mChunk.deleteAll(Arrays.asList(mKey, mKey));
+    verify(mDeleter, times(2)).delete(argThat(is(mKey)), any(OnProgressUpdateListener.class));
+    assertThat(numDeleted, is(2));
+  }
+
+  @Test
+  public void testInsertAllCallsInserterForEachValue() throws InsertException {
+    final List<Key> keys = mChunk.insertAll(Arrays.asList(mValue, mValue));
+    verify(mInserter, times(2)).insert(argThat(is(mValue)), any(OnProgressUpdateListener.class));
+    assertThat(keys, contains(mKey, mKey));
+  }
+
+  @Test
+  public void testInsertAllFiresSingleStartAndEndEventToEventBus() throws InsertException {
+    final List<Value> values = Arrays.asList(mValue, mValue);
+    final InsertEventFactory<List<Key>, List<Value>> eventFactory = mock(InsertEventFactory.class);
+    when(eventFactory.startEvent(values)).thenReturn(Optional.of(mEvent));
+    when(eventFactory.progressEvent(argThat(is(values)), anyDouble())).thenReturn(Optional.<Event>absent());
+    when(eventFactory.endEvent(Arrays.asList(mKey, mKey), values)).thenReturn(Optional.of(mEvent));
+    final EventBus eventBus = mock(EventBus.class);
+    mChunk.setEventDispatcher(new EventBusEventDispatcher(eventBus));
+    mChunk.insertAll(values, eventFactory);
+    verify(eventBus, times(2)).post(argThat(is(mEvent)));
+  }
+
+  @Test
+  public void testInsertAllRequestsEventsFromInjectedEventFactoryForEachValue() throws InsertException {
+    final InsertEventFactory<Key, Value> eventFactory = mockInsertEventFactory(Optional.of(mEvent), Optional.of(mEvent), Optional.of(mEvent), Optional.of(mEvent));
+    final EventBus eventBus = mock(EventBus.class);
+    mChunk.setEventDispatcher(new EventBusEventDispatcher(eventBus));
+    mChunk.addEventFactory(eventFactory);
+    mChunk.insertAll(Arrays.asList(mValue, mValue));
+    verify(eventFactory, times(2)).startEvent(mValue);
+    verify(eventFactory, times(2)).endEvent(mKey, mValue);
+    verify(eventFactory, times(0)).progressEvent(any(Value.class), anyDouble());
+    verify(eventBus, times(4)).post(argThat(is(mEvent)));
+  }
+
+  @Test
+  public void testInsertAllReportsProgressOfEachValueToArgumentEventFactory() throws InsertException {
+    final List<Value> values = Arrays.asList(mValue, mValue);
+    final InsertEventFactory<List<Key>, List<Value>> eventFactory = mock(InsertEventFactory.class);
+    when(eventFactory.startEvent(values)).thenReturn(Optional.<Event>absent());
+    when(eventFactory.progressEvent(argThat(is(values)), anyDouble())).thenReturn(Optional.<Event>absent());
+    when(eventFactory.endEvent(Arrays.asList(mKey, mKey), values)).thenReturn(Optional.<Event>absent());
+    mChunk.insertAll(values, eventFactory);
+    // Each insert reports progress of 100, and then completes, as a fraction of the batch.
+    verify(eventFactory).progressEvent(values, 50.0);
+    verify(eventFactory).progressEvent(values, 0.5);
+    verify(eventFactory).progressEvent(values, 50.5);
+    verify(eventFactory).progressEvent(values, 1.0);
+  }
+
+  @Test
+  public void testInsertAllThrowingExceptionRequestsExceptionEventFromInjectedEventFactory() throws InsertException {
+    final InsertException insertException = mockInsertException();
+    final InsertEventFactory<Key, Value> eventFactory = mockInsertEventFactory(Optional.<Event>absent(), Optional.<Event>absent(), Optional.<Event>absent(), Optional.<Event>absent());
+    mChunk.addEventFactory(eventFactory);
+    try {
+      mChunk.insertAll(Arrays.asList(mValue));
+    } catch (InsertException e) {
+      // Expected
+    }
+    verify(eventFactory, times(1)).exceptionEvent(mValue, insertException);
+  }
+
+  @Test
+  public void testInsertAllThrowingExceptionRequestsExceptionEventFromArgumentEventFactory() throws InsertException {
+    final InsertException insertException = mockInsertException();
+    final List<Value> values = Arrays.asList(mValue);
+    final InsertEventFactory<List<Key>, List<Value>> eventFactory = mock(InsertEventFactory.class);
+    when(eventFactory.startEvent(values)).thenReturn(Optional.<Event>absent());
+    when(eventFactory.exceptionEvent(values, insertException)).thenReturn(Optional.<Event>absent());
+    try {
+      mChunk.insertAll(values, eventFactory);
+    } catch (InsertException e) {
+      // Expected
+    }
+    verify(eventFactory, times(1)).exceptionEvent(values, insertException);
+  }
+
   @Test
   public void testInsertCallsExecuteOnEventBusRegisteredWithExecutor() throws InsertException {
     final InsertEventFactory<Key, Value> eventFactory = mockInsertEventFactory(Optional.of(mEvent), Optional.<Event>absent(), Optional.of(mEvent), Optional.<Event>absent());
@@ -367,6 +468,15 @@ public class DefaultChunkTest {
     verify(mInserter, times(1)).insert(argThat(is(mValue)), any(OnProgressUpdateListener.class));
   }
 
+  @Test
+  public void testInsertWithoutEventFactoriesReusesProgressListener() throws InsertException {
+    final ArgumentCaptor<OnProgressUpdateListener> listeners = ArgumentCaptor.forClass(OnProgressUpdateListener.class);
+    mChunk.insert(mValue);
+    mChunk.insert(mValue);
+    verify(mInserter, times(2)).insert(argThat(is(mValue)), listeners.capture());
+    assertThat(listeners.getAllValues().get(0), is(sameInstance(listeners.getAllValues().get(1))));
+  }
+
   @Test
   public void testInsertFiresEndEventFromCustomEventFactoryToEventBus() throws InsertException {
     final InsertEventFactory<Key, Value> eventFactory = mockInsertEventFactory(Optional.<Event>absent(), Optional.<Event>absent(), Optional.of(mEvent), Optional.<Event>absent());
@@ -537,6 +647,23 @@ public class DefaultChunkTest {
     verify(chunkEventFactory, times(1)).exceptionEvent(argThat(is(mValue)), argThat(is(insertException)));
   }
 
+  @Test
+  public void testQueryAllRequestsEndEventWithValuesOfEachKeyFromInjectedEventFactory() throws QueryException {
+    final QueryEventFactory<Key, Value> eventFactory = mockQueryEventFactory(Optional.<Event>absent(), Optional.<Event>absent(), Optional.<Event>absent(), Optional.<Event>absent());
+    mChunk.addEventFactory(eventFactory);
+    final QueryResult<Value> result = mChunk.queryAll(Arrays.asList(mKey, mKey));
+    verify(eventFactory, times(2)).startEvent(mKey);
+    verify(eventFactory, times(2)).endEvent(mKey, mQueryResult);
+    assertThat(result, contains(mValue, mValue));
+  }
+
+  @Test
+  public void testQueryAllReturnsValuesForAllKeys() throws QueryException {
+    final QueryResult<Value> result = mChunk.queryAll(Arrays.asList(mKey, mKey));
+    verify(mQueryer, times(2)).query(argThat(is(mKey)), any(OnProgressUpdateListener.class));
+    assertThat(result, contains(mValue, mValue));
+  }
+
   @Test
   public void testQueryCallsExecuteOnEventBusRegisteredWithExecutor() throws QueryException {
     final QueryEventFactory<Key, Value> eventFactory = mockQueryEventFactory(Optional.of(mEvent), Optional.<Event>absent(), Optional.of(mEvent), Optional.<Event>absent());
@@ -744,6 +871,27 @@ public class DefaultChunkTest {
     verify(chunkEventFactory, times(1)).exceptionEvent(argThat(is(mKey)), argThat(is(queryException)));
   }
 
+  @Test
+  public void testUpdateAllRequestsEndEventFromInjectedEventFactoryForEachKey() throws UpdateException {
+    final UpdateEventFactory<Key, Value> eventFactory = mockUpdateEventFactory(Optional.<Event>absent(), Optional.<Event>absent(), Optional.<Event>absent(), Optional.<Event>absent());
+    mChunk.addEventFactory(eventFactory);
+    mChunk.updateAll(Arrays.asList(mKey, mKey), Arrays.asList(mValue, mValue));
+    verify(eventFactory, times(2)).startEvent(mKey, mValue);
+    verify(eventFactory, times(2)).endEvent(mKey, mValue, 1);
+  }
+
+  @Test
+  public void testUpdateAllCallsUpdaterForEachKey() throws UpdateException {
+    final int numUpdated = mChunk.updateAll(Arrays.asList(mKey, mKey), Arrays.asList(mValue, mValue));
+    verify(mUpdater, times(2)).update(argThat(is(mKey)), argThat(is(mValue)), any(OnProgressUpdateListener.class));
+    assertThat(numUpdated, is(2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUpdateAllWithDifferentNumberOfKeysAndValuesThrows() throws UpdateException {
+    mChunk.updateAll(Arrays.asList(mKey, mKey), Arrays.asList(mValue));
+  }
+
   @Test
   public void testUpdateCallsExecuteOnEventBusRegisteredWithExecutor() throws UpdateException {
     final UpdateEventFactory<Key, Value> eventFactory = mockUpdateEventFactory(Optional.of(mEvent), Optional.<Event>absent(), Optional.of(mEvent), Optional.<Event>absent());
@@ -913,4 +1061,122 @@ public class DefaultChunkTest {
     verify(chunkEventFactory, times(1)).exceptionEvent(argThat(is(mKey)), argThat(is(mValue)), argThat(is(updateException)));
   }
 
+  private static class ProgressEvent implements Event {
+    private final double mProgress;
+
+    ProgressEvent(final double progress) {
+      mProgress = progress;
+    }
+  }
+
+  private static class FakeTicker extends Ticker {
+    private long mNanos = 0;
+
+    @Override
+    public long read() {
+      return mNanos;
+    }
+  }
+
+  private List<Object> queryWithProgressUpdates(final int updates, final FakeTicker ticker, final boolean fail) throws QueryException {
+    final List<Object> events = Lists.newArrayList();
+    mChunk.setEventDispatcher(new EventDispatcher() {
+      @Override
+      public void dispatchEvent(final Object event) {
+        events.add(event);
+      }
+
+      @Override
+      public void register(final Object subscriber) {
+      }
+
+      @Override
+      public void unregister(final Object subscriber) {
+      }
+    });
+    when(mQueryer.query(argThat(is(mKey)), any(OnProgressUpdateListener.class))).then(
+        new Answer<QueryResult<Value>>() {
+          @Override
+          public QueryResult<Value> answer(final InvocationOnMock invocation) throws Throwable {
+            for (int i = 1; i <= updates; i++) {
+              ticker.mNanos += TimeUnit.MILLISECONDS.toNanos(1);
+              ((OnProgressUpdateListener) invocation.getArguments()[1]).onProgressUpdate(i);
+            }
+            if (fail) {
+              throw new QueryException("Stub Exception", new Exception());
+            }
+            return mQueryResult;
+          }
+        });
+    try {
+      mChunk.query(mKey, new QueryEventFactory.EmptyQueryEventFactory<Key, Value>() {
+        @Override
+        public <E extends Event> Optional<E> progressEvent(final Key key, final double progress) {
+          return (Optional<E>) Optional.of(new ProgressEvent(progress));
+        }
+
+        @Override
+        public <E extends Event> Optional<E> endEvent(final Key key, final QueryResult<Value> values) {
+          return (Optional<E>) Optional.of(mEvent);
+        }
+
+        @Override
+        public <E extends Event> Optional<E> exceptionEvent(final Key key, final QueryException exception) {
+          return (Optional<E>) Optional.of(mEvent);
+        }
+      });
+    } catch (QueryException e) {
+      // Expected, if failing.
+    }
+    return events;
+  }
+
+  @Test
+  public void testEveryProgressUpdateSentByDefault() throws QueryException {
+    final List<Object> events = queryWithProgressUpdates(1000, new FakeTicker(), false);
+    assertThat(events.size(), is(1001));
+  }
+
+  @Test
+  public void testProgressUpdatesCoalescedWithinInterval() throws QueryException {
+    final FakeTicker ticker = new FakeTicker();
+    ((DefaultChunk) mChunk).setTicker(ticker);
+    ((DefaultChunk) mChunk).setProgressEventInterval(10, TimeUnit.MILLISECONDS);
+
+    final List<Object> events = queryWithProgressUpdates(1000, ticker, false);
+
+    // One progress event per 10ms of 1000ms, then the latest coalesced progress, then the end event.
+    assertThat(events.size(), is(102));
+    assertThat(((ProgressEvent) events.get(0)).mProgress, is(1.0));
+    assertThat(((ProgressEvent) events.get(99)).mProgress, is(991.0));
+    assertThat(((ProgressEvent) events.get(100)).mProgress, is(1000.0));
+    assertThat(events.get(101), is(sameInstance((Object) mEvent)));
+  }
+
+  @Test
+  public void testLastProgressUpdateNotSentTwice() throws QueryException {
+    final FakeTicker ticker = new FakeTicker();
+    ((DefaultChunk) mChunk).setTicker(ticker);
+    ((DefaultChunk) mChunk).setProgressEventInterval(10, TimeUnit.MILLISECONDS);
+
+    final List<Object> events = queryWithProgressUpdates(991, ticker, false);
+
+    assertThat(events.size(), is(101));
+    assertThat(((ProgressEvent) events.get(99)).mProgress, is(991.0));
+    assertThat(events.get(100), is(sameInstance((Object) mEvent)));
+  }
+
+  @Test
+  public void testLatestCoalescedProgressUpdateSentBeforeExceptionEvent() throws QueryException {
+    final FakeTicker ticker = new FakeTicker();
+    ((DefaultChunk) mChunk).setTicker(ticker);
+    ((DefaultChunk) mChunk).setProgressEventInterval(1, TimeUnit.SECONDS);
+
+    final List<Object> events = queryWithProgressUpdates(500, ticker, true);
+
+    assertThat(events.size(), is(3));
+    assertThat(((ProgressEvent) events.get(0)).mProgress, is(1.0));
+    assertThat(((ProgressEvent) events.get(1)).mProgress, is(500.0));
+    assertThat(events.get(2), is(sameInstance((Object) mEvent)));
+  }
 }
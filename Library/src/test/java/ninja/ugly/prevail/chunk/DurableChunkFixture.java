@@ -0,0 +1,25 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.base.Function;
+
+/**
+ * The fixture shared by tests of the Chunks that persist their values to files, and are reopened from them.
+ */
+final class DurableChunkFixture {
+
+  private DurableChunkFixture() {
+  }
+
+  /**
+   * Returns a KeyFactory deriving each key from the part of its value before '=', such that keys are
+   * unique across restarts.
+   */
+  static VolatileChunk.KeyFactory<String, String> keyFactory() {
+    return new VolatileChunk.KeyFactory.DefaultKeyFactory<>(new Function<String, String>() {
+      @Override
+      public String apply(final String value) {
+        return value.substring(0, value.indexOf('='));
+      }
+    });
+  }
+}
@@ -0,0 +1,281 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import ninja.ugly.prevail.exception.InsertException;
+import ninja.ugly.prevail.exception.UpdateException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+public class DurableVolatileChunkTest {
+
+  private static final int SNAPSHOT_THRESHOLD = 100;
+
+  private final VolatileChunk.KeyFactory<String, String> mKeyFactory = DurableChunkFixture.keyFactory();
+
+  @Rule
+  public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+  private File mDirectory;
+  private DurableVolatileChunk<String, String> mChunk;
+
+  @Before
+  public void setUp() throws IOException {
+    mDirectory = mTemporaryFolder.getRoot();
+    mChunk = open(DurableVolatileChunk.SyncPolicy.EVERY_WRITE);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    mChunk.close();
+  }
+
+  @Test
+  public void testReopenRecoversInsertsUpdatesAndDeletes() throws Exception {
+    mChunk.insert("a=1");
+    mChunk.insert("b=2");
+    mChunk.insert("c=3");
+    mChunk.update("b", "b=4");
+    mChunk.delete("c");
+    mChunk.close();
+
+    mChunk = open(DurableVolatileChunk.SyncPolicy.EVERY_WRITE);
+    assertThat(mChunk.size(), is(2));
+    assertThat(mChunk.query("a"), contains("a=1"));
+    assertThat(mChunk.query("b"), contains("b=4"));
+    assertThat(mChunk.query("c"), is(emptyIterable()));
+  }
+
+  @Test
+  public void testUpdateAndDeleteOfMissingKeyAreNotLogged() throws Exception {
+    assertThat(mChunk.update("a", "a=1"), is(0));
+    assertThat(mChunk.delete("a"), is(0));
+    mChunk.close();
+
+    mChunk = open(DurableVolatileChunk.SyncPolicy.EVERY_WRITE);
+    assertThat(mChunk.size(), is(0));
+    assertThat(files(".log").length, is(2));
+    assertThat(files(".log")[0].length(), is(0L));
+  }
+
+  @Test
+  public void testSnapshotSupersedesLog() throws Exception {
+    for (int i = 0; i < SNAPSHOT_THRESHOLD; i++) {
+      mChunk.insert(i + "=" + i);
+    }
+    mChunk.delete("0");
+    mChunk.update("1", "1=x");
+
+    // The snapshot was taken on reaching the threshold, and earlier logs deleted.
+    assertThat(files(".snap").length, is(1));
+    assertThat(files(".log").length, is(1));
+    mChunk.close();
+
+    mChunk = open(DurableVolatileChunk.SyncPolicy.EVERY_WRITE);
+    assertThat(mChunk.size(), is(SNAPSHOT_THRESHOLD - 1));
+    assertThat(mChunk.query("0"), is(emptyIterable()));
+    assertThat(mChunk.query("1"), contains("1=x"));
+    assertThat(mChunk.query("99"), contains("99=99"));
+  }
+
+  @Test
+  public void testExplicitSnapshot() throws Exception {
+    mChunk.insert("a=1");
+    mChunk.snapshot();
+    mChunk.insert("b=2");
+    mChunk.snapshot();
+    assertThat(files(".snap").length, is(1));
+    mChunk.close();
+
+    mChunk = open(DurableVolatileChunk.SyncPolicy.EVERY_WRITE);
+    assertThat(mChunk.size(), is(2));
+  }
+
+  @Test
+  public void testReopenDiscardsTornRecord() throws Exception {
+    mChunk.insert("a=1");
+    mChunk.insert("b=2");
+    mChunk.close();
+
+    // Corrupt the last byte of the second record, as if the write had not completed.
+    final File log = files(".log")[0];
+    final int recordSize = 8 + 5 + 1 + 3;
+    try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+      file.seek(2 * recordSize - 1);
+      file.write('X');
+    }
+
+    mChunk = open(DurableVolatileChunk.SyncPolicy.EVERY_WRITE);
+    assertThat(mChunk.query("a"), contains("a=1"));
+    assertThat(mChunk.query("b"), is(emptyIterable()));
+    assertThat(log.length(), is((long) recordSize));
+    mChunk.insert("c=3");
+    mChunk.close();
+
+    mChunk = open(DurableVolatileChunk.SyncPolicy.EVERY_WRITE);
+    assertThat(mChunk.query("a"), contains("a=1"));
+    assertThat(mChunk.query("c"), contains("c=3"));
+  }
+
+  @Test
+  public void testIncompleteSnapshotIsIgnored() throws Exception {
+    mChunk.insert("a=1");
+    mChunk.close();
+    Files.write(new byte[] {1, 2, 3}, new File(mDirectory, "snapshot-00000009.snap.tmp"));
+
+    mChunk = open(DurableVolatileChunk.SyncPolicy.EVERY_WRITE);
+    assertThat(mChunk.query("a"), contains("a=1"));
+    assertThat(files(".tmp").length, is(0));
+  }
+
+  @Test
+  public void testConcurrentWritersAreAllDurable() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    final List<Future<String>> futures = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      final int n = i;
+      futures.add(executor.submit(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          return mChunk.insert(n + "=" + n);
+        }
+      }));
+    }
+    for (Future<String> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    mChunk.close();
+
+    mChunk = open(DurableVolatileChunk.SyncPolicy.EVERY_WRITE);
+    assertThat(mChunk.size(), is(200));
+  }
+
+  @Test
+  public void testNeverSyncRecoversAfterClose() throws Exception {
+    mChunk.close();
+    mChunk = open(DurableVolatileChunk.SyncPolicy.NEVER);
+    mChunk.insert("a=1");
+    mChunk.close();
+
+    mChunk = open(DurableVolatileChunk.SyncPolicy.every(10, TimeUnit.MILLISECONDS));
+    assertThat(mChunk.query("a"), contains("a=1"));
+    mChunk.insert("b=2");
+    mChunk.sync();
+    mChunk.close();
+
+    mChunk = open(DurableVolatileChunk.SyncPolicy.NEVER);
+    assertThat(mChunk.size(), is(2));
+  }
+
+  @Test
+  public void testFailedWriteIsNotApplied() throws Exception {
+    mChunk.insert("a=1");
+    final RandomAccessFile logFile = mChunk.replaceLogFile(closedLogFile());
+    try {
+      mChunk.update("a", "a=2");
+      fail("Write to closed log file succeeded");
+    } catch (UpdateException expected) {
+      // The record of a=2 was not forced.
+    }
+    try {
+      mChunk.insert("b=3");
+      fail("Write after failed write succeeded");
+    } catch (InsertException expected) {
+      // The log is missing a=2.
+    }
+    assertThat(mChunk.query("a"), contains("a=1"));
+    assertThat(mChunk.query("b"), is(emptyIterable()));
+
+    mChunk.replaceLogFile(logFile);
+    try {
+      mChunk.close();
+    } catch (IOException expected) {
+      // Closed all the same.
+    }
+    mChunk = open(DurableVolatileChunk.SyncPolicy.EVERY_WRITE);
+    assertThat(mChunk.query("a"), contains("a=1"));
+  }
+
+  @Test
+  public void testSyncAfterFailedWriteThrows() throws Exception {
+    mChunk.close();
+    mChunk = open(DurableVolatileChunk.SyncPolicy.NEVER);
+    mChunk.insert("a=1");
+
+    // Swap in a closed log file, such that the next write fails as it would on a failing storage device.
+    final RandomAccessFile logFile = mChunk.replaceLogFile(closedLogFile());
+    try {
+      mChunk.sync();
+      fail("Write to closed log file succeeded");
+    } catch (IOException expected) {
+      // The record of a=1 was taken by the failed write.
+    }
+
+    // The log file works again, but a=1 is still not in it, so must not be reported durable.
+    mChunk.replaceLogFile(logFile);
+    try {
+      mChunk.sync();
+      fail("Sync after failed write succeeded");
+    } catch (IOException expected) {
+      // The log is missing a=1.
+    }
+
+    try {
+      mChunk.close();
+    } catch (IOException expected) {
+      // Closed all the same.
+    }
+    mChunk = open(DurableVolatileChunk.SyncPolicy.EVERY_WRITE);
+    assertThat(mChunk.query("a"), is(emptyIterable()));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testInsertAfterCloseThrows() throws Exception {
+    mChunk.close();
+    mChunk.insert("a=1");
+  }
+
+  private File[] files(final String suffix) {
+    return mDirectory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(final File directory, final String name) {
+        return name.endsWith(suffix);
+      }
+    });
+  }
+
+  private RandomAccessFile closedLogFile() throws IOException {
+    final RandomAccessFile closedLogFile = new RandomAccessFile(new File(mDirectory, "closed"), "rw");
+    closedLogFile.close();
+    return closedLogFile;
+  }
+
+  private DurableVolatileChunk<String, String> open(final DurableVolatileChunk.SyncPolicy syncPolicy) throws IOException {
+    return new DurableVolatileChunk<>(mDirectory, mKeyFactory, new Codec.StringCodec(), new Codec.StringCodec(),
+        syncPolicy, SNAPSHOT_THRESHOLD, MoreExecutors.sameThreadExecutor());
+  }
+}
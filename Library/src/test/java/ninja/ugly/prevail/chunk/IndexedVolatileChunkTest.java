@@ -0,0 +1,158 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import ninja.ugly.prevail.exception.QueryException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class IndexedVolatileChunkTest {
+
+  private static final Function<String, Character> FIRST_LETTER = new Function<String, Character>() {
+    @Override
+    public Character apply(final String value) {
+      return value.charAt(0);
+    }
+  };
+
+  private static final Function<String, Integer> LENGTH = new Function<String, Integer>() {
+    @Override
+    public Integer apply(final String value) {
+      return value.length();
+    }
+  };
+
+  private IndexedVolatileChunk<Integer, String> mChunk;
+
+  @Before
+  public void setUp() throws Exception {
+    mChunk = new IndexedVolatileChunk<Integer, String>(new VolatileChunk.KeyFactory.AutoIncrementingIntegerKeyFactory<String>());
+    mChunk.addIndex("first", FIRST_LETTER);
+    mChunk.addIndex("length", LENGTH);
+  }
+
+  private static Set<String> set(final QueryResult<String> result) throws Exception {
+    final Set<String> values = Sets.newHashSet(result);
+    result.close();
+    return values;
+  }
+
+  @Test
+  public void testQueryIndex() throws Exception {
+    mChunk.insert("apple");
+    mChunk.insert("avocado");
+    mChunk.insert("banana");
+
+    assertThat(set(mChunk.queryIndex("first", 'a')), is((Set<String>) Sets.newHashSet("apple", "avocado")));
+    assertThat(set(mChunk.queryIndex("length", 6)), is(Collections.singleton("banana")));
+    assertThat(set(mChunk.queryIndex("first", 'c')).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testQueryUsesIndexByAttributeName() throws Exception {
+    mChunk.insert("apple");
+    mChunk.insert("avocado");
+    mChunk.insert("banana");
+    final Query.Attribute<String, Character> first = Query.Attribute.of("first", FIRST_LETTER);
+    final Query.Attribute<String, Integer> length = Query.Attribute.of("size", LENGTH);
+
+    final Query<String> query = Query.where(Query.Criterion.equalTo(first, 'a')).and(Query.Criterion.equalTo(length, 7));
+    assertThat(set(mChunk.queryWhere(query)), is(Collections.singleton("avocado")));
+  }
+
+  @Test
+  public void testIndexAddedAfterInsert() throws Exception {
+    mChunk.insert("apple");
+    mChunk.insert("fig");
+    mChunk.addIndex("last", new Function<String, Character>() {
+      @Override
+      public Character apply(final String value) {
+        return value.charAt(value.length() - 1);
+      }
+    });
+
+    assertThat(set(mChunk.queryIndex("last", 'g')), is(Collections.singleton("fig")));
+  }
+
+  @Test
+  public void testUpdateReindexes() throws Exception {
+    final Integer key = mChunk.insert("apple");
+    mChunk.update(key, "cherry");
+
+    assertThat(set(mChunk.queryIndex("first", 'a')).isEmpty(), is(true));
+    assertThat(set(mChunk.queryIndex("first", 'c')), is(Collections.singleton("cherry")));
+    assertThat(set(mChunk.queryIndex("length", 6)), is(Collections.singleton("cherry")));
+  }
+
+  @Test
+  public void testUpdateOfValueChangedInPlaceReindexes() throws Exception {
+    final IndexedVolatileChunk<Integer, StringBuilder> chunk = new IndexedVolatileChunk<Integer, StringBuilder>(
+        new VolatileChunk.KeyFactory.AutoIncrementingIntegerKeyFactory<StringBuilder>());
+    chunk.addIndex("first", new Function<StringBuilder, Character>() {
+      @Override
+      public Character apply(final StringBuilder value) {
+        return value.charAt(0);
+      }
+    });
+    final StringBuilder value = new StringBuilder("apple");
+    final Integer key = chunk.insert(value);
+    value.setCharAt(0, 'b');
+    chunk.update(key, value);
+
+    assertThat(Lists.newArrayList(chunk.queryIndex("first", 'a')).isEmpty(), is(true));
+    assertThat(Lists.newArrayList(chunk.queryIndex("first", 'b')), is(Collections.singletonList(value)));
+  }
+
+  @Test
+  public void testUpdateOfMissingKeyIsNotIndexed() throws Exception {
+    mChunk.update(42, "cherry");
+
+    assertThat(set(mChunk.queryIndex("first", 'c')).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testDeleteUnindexes() throws Exception {
+    final Integer key = mChunk.insert("apple");
+    mChunk.insert("avocado");
+    mChunk.delete(key);
+
+    assertThat(set(mChunk.queryIndex("first", 'a')), is(Collections.singleton("avocado")));
+    assertThat(set(mChunk.queryIndex("length", 5)).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testQueryByKeyStillWorks() throws Exception {
+    final Integer key = mChunk.insert("apple");
+    final List<String> values = Lists.newArrayList(mChunk.query(key));
+    assertThat(values, is(Arrays.asList("apple")));
+  }
+
+  @Test
+  public void testCloseClearsIndexes() throws Exception {
+    mChunk.insert("apple");
+    mChunk.close();
+
+    assertThat(set(mChunk.queryIndex("first", 'a')).isEmpty(), is(true));
+  }
+
+  @Test(expected = QueryException.class)
+  public void testQueryUnknownIndex() throws Exception {
+    mChunk.queryIndex("colour", "red");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAddDuplicateIndex() throws Exception {
+    mChunk.addIndex("first", FIRST_LETTER);
+  }
+}
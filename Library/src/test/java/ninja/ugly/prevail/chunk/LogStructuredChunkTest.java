@@ -0,0 +1,188 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import ninja.ugly.prevail.exception.InsertException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+public class LogStructuredChunkTest {
+
+  private static final int SEGMENT_SIZE = 256;
+
+  private final VolatileChunk.KeyFactory<String, String> mKeyFactory = DurableChunkFixture.keyFactory();
+
+  @Rule
+  public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+  private File mDirectory;
+  private LogStructuredChunk<String, String> mChunk;
+
+  @Before
+  public void setUp() throws IOException {
+    mDirectory = mTemporaryFolder.getRoot();
+    mChunk = open();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    mChunk.close();
+  }
+
+  @Test
+  public void testQueryReturnsInsertedValue() throws Exception {
+    final String key = mChunk.insert("a=1");
+    assertThat(key, is("a"));
+    assertThat(mChunk.query(key), contains("a=1"));
+  }
+
+  @Test
+  public void testInsertOfPresentKeyThrowsAndKeepsValue() throws Exception {
+    mChunk.insert("a=1");
+    try {
+      mChunk.insert("a=2");
+      fail();
+    } catch (InsertException e) {
+      // Expected.
+    }
+    assertThat(mChunk.query("a"), contains("a=1"));
+  }
+
+  @Test
+  public void testInsertAfterReopenDoesNotOverwriteRecoveredValue() throws Exception {
+    mChunk.close();
+    mChunk = new LogStructuredChunk<>(mDirectory, new VolatileChunk.KeyFactory.AutoIncrementingStringKeyFactory<String>(),
+        new Codec.StringCodec(), new Codec.StringCodec());
+    final String key = mChunk.insert("value");
+    mChunk.close();
+    mChunk = new LogStructuredChunk<>(mDirectory, new VolatileChunk.KeyFactory.AutoIncrementingStringKeyFactory<String>(),
+        new Codec.StringCodec(), new Codec.StringCodec());
+    try {
+      mChunk.insert("other");
+      fail();
+    } catch (InsertException e) {
+      // Expected.
+    }
+    assertThat(mChunk.query(key), contains("value"));
+  }
+
+  @Test
+  public void testQueryReturnsUpdatedValue() throws Exception {
+    mChunk.insert("a=1");
+    assertThat(mChunk.update("a", "a=2"), is(1));
+    assertThat(mChunk.query("a"), contains("a=2"));
+  }
+
+  @Test
+  public void testUpdateOfMissingKeyDoesNotInsert() throws Exception {
+    assertThat(mChunk.update("a", "a=1"), is(0));
+    assertThat(mChunk.query("a"), is(emptyIterable()));
+  }
+
+  @Test
+  public void testDeleteRemovesValue() throws Exception {
+    mChunk.insert("a=1");
+    assertThat(mChunk.delete("a"), is(1));
+    assertThat(mChunk.delete("a"), is(0));
+    assertThat(mChunk.query("a"), is(emptyIterable()));
+  }
+
+  @Test
+  public void testReopenRecoversInsertsUpdatesAndDeletes() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      mChunk.insert(i + "=" + i);
+    }
+    mChunk.update("1", "1=updated");
+    mChunk.delete("2");
+    mChunk.close();
+
+    mChunk = open();
+    assertThat(mChunk.size(), is(99));
+    assertThat(mChunk.query("1"), contains("1=updated"));
+    assertThat(mChunk.query("2"), is(emptyIterable()));
+    assertThat(mChunk.query("99"), contains("99=99"));
+  }
+
+  @Test
+  public void testReopenDiscardsTornRecord() throws Exception {
+    mChunk.insert("a=1");
+    mChunk.insert("b=2");
+    mChunk.close();
+
+    // Corrupt the last byte of the second record, as if the write had not completed.
+    final File segment = mDirectory.listFiles()[0];
+    final int recordSize = 8 + 8 + 1 + 3;
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      file.seek(2 * recordSize - 1);
+      file.write('X');
+    }
+
+    mChunk = open();
+    assertThat(mChunk.query("a"), contains("a=1"));
+    assertThat(mChunk.query("b"), is(emptyIterable()));
+    mChunk.insert("c=3");
+    mChunk.close();
+
+    mChunk = open();
+    assertThat(mChunk.query("c"), contains("c=3"));
+  }
+
+  @Test
+  public void testCompactionDeletesSupersededSegments() throws Exception {
+    mChunk.insert("a=0");
+    for (int i = 0; i < 1000; i++) {
+      mChunk.update("a", "a=" + i);
+    }
+    assertThat(mChunk.getSegmentCount() <= 2, is(true));
+    assertThat(mChunk.query("a"), contains("a=999"));
+    mChunk.close();
+
+    mChunk = open();
+    assertThat(mChunk.query("a"), contains("a=999"));
+  }
+
+  @Test
+  public void testCompactionKeepsDeletesDurable() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      mChunk.insert(i + "=" + i);
+    }
+    for (int i = 0; i < 20; i += 2) {
+      mChunk.delete(Integer.toString(i));
+    }
+    mChunk.insert("x=0");
+    for (int i = 0; i < 1000; i++) {
+      mChunk.update("x", "x=" + i);
+    }
+    mChunk.close();
+
+    mChunk = open();
+    assertThat(mChunk.size(), is(11));
+    assertThat(mChunk.query("0"), is(emptyIterable()));
+    assertThat(mChunk.query("1"), contains("1=1"));
+  }
+
+  @Test(expected = InsertException.class)
+  public void testInsertLargerThanSegmentThrows() throws Exception {
+    mChunk.insert("a=" + Strings.repeat("x", SEGMENT_SIZE));
+  }
+
+  private LogStructuredChunk<String, String> open() throws IOException {
+    return new LogStructuredChunk<>(mDirectory, mKeyFactory, new Codec.StringCodec(), new Codec.StringCodec(),
+        SEGMENT_SIZE, LogStructuredChunk.DEFAULT_COMPACTION_THRESHOLD, MoreExecutors.sameThreadExecutor());
+  }
+}
@@ -0,0 +1,129 @@
+package ninja.ugly.prevail.chunk;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import ninja.ugly.prevail.exception.DeleteException;
+import ninja.ugly.prevail.exception.InsertException;
+import ninja.ugly.prevail.exception.QueryException;
+import ninja.ugly.prevail.exception.UpdateException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class LongVolatileChunkTest {
+
+  private final LongVolatileChunk<String> mChunk = new LongVolatileChunk<>();
+
+  @Test
+  public void testInsertReturnsAutoIncrementingKeys() throws Exception {
+    assertThat(mChunk.insert("a"), is(0L));
+    assertThat(mChunk.insert("b"), is(1L));
+  }
+
+  @Test
+  public void testQueryReturnsInsertedValue() throws Exception {
+    final Long key = mChunk.insert("value");
+    assertThat(mChunk.query(key), contains("value"));
+  }
+
+  @Test
+  public void testUpdateOfMissingKeyDoesNotInsert() throws Exception {
+    assertThat(mChunk.update(1L, "value"), is(0));
+    assertThat(mChunk.query(1L), is(emptyIterable()));
+  }
+
+  @Test
+  public void testDeleteRemovesValue() throws Exception {
+    final Long key = mChunk.insert("value");
+    assertThat(mChunk.delete(key), is(1));
+    assertThat(mChunk.delete(key), is(0));
+    assertThat(mChunk.query(key), is(emptyIterable()));
+  }
+
+  @Test
+  public void testPrimitiveAccessorsShareValuesWithOperations() throws Exception {
+    final long key = mChunk.insert("a");
+    assertThat(mChunk.get(key), is("a"));
+    assertThat(mChunk.put(key, "b"), is("a"));
+    assertThat(mChunk.put(7L, "c"), is(nullValue()));
+    assertThat(mChunk.query(7L), contains("c"));
+    assertThat(mChunk.remove(key), is("b"));
+    assertThat(mChunk.get(key), is(nullValue()));
+    assertThat(mChunk.size(), is(1));
+  }
+
+  @Test(expected = QueryException.class)
+  @SuppressWarnings("unchecked")
+  public void testQueryOfUntypedKeyThrowsQueryException() throws Exception {
+    ((Chunk) mChunk).query("a");
+  }
+
+  @Test(expected = QueryException.class)
+  @SuppressWarnings("unchecked")
+  public void testQueryAllOfUntypedKeyThrowsQueryException() throws Exception {
+    mChunk.insert("a");
+    ((Chunk) mChunk).queryAll(Arrays.asList(0L, null));
+  }
+
+  @Test(expected = UpdateException.class)
+  @SuppressWarnings("unchecked")
+  public void testUpdateOfUntypedKeyThrowsUpdateException() throws Exception {
+    ((Chunk) mChunk).update(0, "a");
+  }
+
+  @Test(expected = DeleteException.class)
+  @SuppressWarnings("unchecked")
+  public void testDeleteOfUntypedKeyThrowsDeleteException() throws Exception {
+    ((Chunk) mChunk).delete(null);
+  }
+
+  @Test(expected = InsertException.class)
+  public void testInsertOfNullValueThrowsInsertException() throws Exception {
+    mChunk.insert(null);
+  }
+
+  @Test
+  public void testGetValuesReturnsAllValues() throws Exception {
+    mChunk.insert("a");
+    mChunk.insert("b");
+    assertThat(mChunk.getValues(), containsInAnyOrder("a", "b"));
+  }
+
+  @Test
+  public void testLongHashMapAgreesWithHashMapUnderRandomOperations() {
+    final LongHashMap<Long> map = new LongHashMap<>();
+    final Map<Long, Long> expected = new HashMap<>();
+    final Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      // A small key space, with negative keys, forces collisions, growth and removal from long probe sequences.
+      final long key = random.nextInt(2000) - 1000;
+      final long value = random.nextLong();
+      switch (random.nextInt(4)) {
+        case 0:
+        case 1:
+          assertThat(map.put(key, value), is(expected.put(key, value)));
+          break;
+        case 2:
+          assertThat(map.remove(key), is(expected.remove(key)));
+          break;
+        default:
+          assertThat(map.replace(key, value), is(expected.containsKey(key) ? expected.put(key, value) : null));
+          break;
+      }
+      assertThat(map.size(), is(expected.size()));
+    }
+    for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+      assertThat(map.get(entry.getKey()), is(entry.getValue()));
+    }
+    assertThat(map.values(), containsInAnyOrder(expected.values().toArray()));
+  }
+}
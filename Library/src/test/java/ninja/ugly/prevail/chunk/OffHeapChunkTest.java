@@ -0,0 +1,105 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Iterables;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.is;
+
+public class OffHeapChunkTest {
+
+  private static final int ARENA_SIZE = 64;
+
+  private final OffHeapChunk<String, String> mChunk = new OffHeapChunk<>(
+      new VolatileChunk.KeyFactory.AutoIncrementingStringKeyFactory<String>(), new Codec.StringCodec(), ARENA_SIZE);
+
+  @Test
+  public void testQueryReturnsInsertedValue() throws Exception {
+    final String key = mChunk.insert("value");
+    assertThat(mChunk.query(key), contains("value"));
+  }
+
+  @Test
+  public void testQueryReturnsUpdatedValue() throws Exception {
+    final String key = mChunk.insert("value");
+    assertThat(mChunk.update(key, "updated"), is(1));
+    assertThat(mChunk.query(key), contains("updated"));
+  }
+
+  @Test
+  public void testUpdateOfMissingKeyDoesNotInsert() throws Exception {
+    assertThat(mChunk.update("missing", "value"), is(0));
+    assertThat(mChunk.query("missing"), is(emptyIterable()));
+  }
+
+  @Test
+  public void testDeleteRemovesValue() throws Exception {
+    final String key = mChunk.insert("value");
+    assertThat(mChunk.delete(key), is(1));
+    assertThat(mChunk.delete(key), is(0));
+    assertThat(mChunk.query(key), is(emptyIterable()));
+  }
+
+  @Test
+  public void testValueLargerThanArenaIsStored() throws Exception {
+    final String value = Strings.repeat("x", ARENA_SIZE * 3);
+    final String key = mChunk.insert(value);
+    assertThat(mChunk.query(key), contains(value));
+  }
+
+  @Test
+  public void testArenasAreRecycledWhenValuesAreRepeatedlyUpdated() throws Exception {
+    final String key = mChunk.insert("value");
+    for (int i = 0; i < 1000; i++) {
+      mChunk.update(key, "value" + i);
+    }
+    assertThat(mChunk.query(key), contains("value999"));
+    assertThat(mChunk.getAllocatedBytes() <= 2 * ARENA_SIZE, is(true));
+  }
+
+  @Test
+  public void testManyValuesSpanManyArenas() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      mChunk.insert("value" + i);
+    }
+    assertThat(mChunk.size(), is(1000));
+    for (int i = 0; i < 1000; i += 97) {
+      assertThat(mChunk.query(Integer.toString(i)), contains("value" + i));
+    }
+  }
+
+  @Test
+  public void testResultIsUnaffectedByLaterChanges() throws Exception {
+    final String key = mChunk.insert("value");
+    final QueryResult<String> result = mChunk.query(key);
+    mChunk.delete(key);
+    // Fill the recycled arena with other values.
+    for (int i = 0; i < 10; i++) {
+      mChunk.insert("other" + i);
+    }
+    assertThat(Iterables.getOnlyElement(result), is("value"));
+  }
+
+  @Test
+  public void testArenasAreCompactedWhenMostValuesAreDeleted() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      mChunk.insert("value" + i);
+    }
+    final long allocatedBytes = mChunk.getAllocatedBytes();
+    // Every arena keeps a live value, so none is recycled, and only compaction can release them.
+    for (int i = 0; i < 1000; i++) {
+      if (i % 10 != 0) {
+        mChunk.delete(Integer.toString(i));
+      }
+    }
+    assertThat(mChunk.getAllocatedBytes() < allocatedBytes / 4, is(true));
+    assertThat(mChunk.size(), is(100));
+    for (int i = 0; i < 1000; i += 10) {
+      assertThat(mChunk.query(Integer.toString(i)), contains("value" + i));
+    }
+  }
+}
@@ -0,0 +1,201 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ninja.ugly.prevail.exception.InsertException;
+import ninja.ugly.prevail.exception.QueryException;
+import ninja.ugly.prevail.executor.TaskTrackingExecutorService;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+public class PagedQueryResultTest {
+
+  private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+  private final List<Integer> mValues = Lists.newArrayList();
+
+  private final AtomicInteger mPagesFetched = new AtomicInteger();
+  private final PagedQueryResult.PageSource<Integer> mPageSource = new PagedQueryResult.PageSource<Integer>() {
+    @Override
+    public List<Integer> getPage(final int offset, final int limit) throws QueryException {
+      mPagesFetched.incrementAndGet();
+      return Lists.newArrayList(mValues.subList(Math.min(offset, mValues.size()), Math.min(offset + limit, mValues.size())));
+    }
+  };
+
+  private final VolatileChunk<Integer, Integer> mPagedChunk = new VolatileChunk<Integer, Integer>(new VolatileChunk.KeyFactory.AutoIncrementingIntegerKeyFactory<Integer>()) {
+    @Override
+    protected List<Integer> doQueryPage(final Integer key, final int offset, final int limit) throws QueryException {
+      return mPageSource.getPage(offset, limit);
+    }
+  };
+
+  private void addValues(final int n) {
+    for (int i = 0; i < n; i++) {
+      mValues.add(i);
+    }
+  }
+
+  private PagedQueryResult<Integer> newResult(final int pageSize, final Executor executor) throws QueryException {
+    return new PagedQueryResult<Integer>(mPageSource.getPage(0, pageSize), pageSize, mPageSource, executor);
+  }
+
+  @After
+  public void tearDown() {
+    mExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testIteratesAllPagesInOrder() throws QueryException {
+    addValues(1050);
+
+    final List<Integer> values = Lists.newArrayList(newResult(100, mExecutor));
+
+    assertThat(values, is(mValues));
+    assertThat(mPagesFetched.get(), is(11));
+  }
+
+  @Test
+  public void testExactMultipleOfPageSizeEndsWithEmptyPage() throws QueryException {
+    addValues(200);
+
+    final List<Integer> values = Lists.newArrayList(newResult(100, MoreExecutors.sameThreadExecutor()));
+
+    assertThat(values, is(mValues));
+    assertThat(mPagesFetched.get(), is(3));
+  }
+
+  @Test
+  public void testSmallResultFetchesOnePage() throws QueryException {
+    addValues(10);
+
+    final List<Integer> values = Lists.newArrayList(newResult(100, mExecutor));
+
+    assertThat(values, is(mValues));
+    assertThat(mPagesFetched.get(), is(1));
+  }
+
+  @Test
+  public void testPagesNotFetchedOnIteratingThread() throws QueryException {
+    addValues(1050);
+    final Thread iteratingThread = Thread.currentThread();
+    final AtomicInteger fetchedOnIteratingThread = new AtomicInteger();
+    final PagedQueryResult.PageSource<Integer> pageSource = new PagedQueryResult.PageSource<Integer>() {
+      @Override
+      public List<Integer> getPage(final int offset, final int limit) throws QueryException {
+        if (Thread.currentThread() == iteratingThread) {
+          fetchedOnIteratingThread.incrementAndGet();
+        }
+        return mPageSource.getPage(offset, limit);
+      }
+    };
+
+    final PagedQueryResult<Integer> result = new PagedQueryResult<Integer>(mPageSource.getPage(0, 100), 100, pageSource, mExecutor);
+
+    assertThat(Lists.newArrayList(result), is(mValues));
+    assertThat(fetchedOnIteratingThread.get(), is(0));
+  }
+
+  @Test
+  public void testPageFetchedOnIteratingThreadIfRunningOnExecutor() throws Exception {
+    addValues(250);
+    final TaskTrackingExecutorService executor = new TaskTrackingExecutorService(mExecutor);
+
+    final Future<List<Integer>> values = executor.submit(new Callable<List<Integer>>() {
+      @Override
+      public List<Integer> call() throws QueryException {
+        // The prefetch is queued behind this task, on the same single thread.
+        return Lists.newArrayList(newResult(100, executor));
+      }
+    });
+
+    assertThat(values.get(1, TimeUnit.SECONDS), is(mValues));
+  }
+
+  @Test(expected = UncheckedExecutionException.class)
+  public void testRejectedPrefetchThrowsFromIterator() throws QueryException {
+    addValues(250);
+    final Executor rejectingExecutor = new Executor() {
+      @Override
+      public void execute(final Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    };
+
+    Lists.newArrayList(newResult(100, rejectingExecutor));
+  }
+
+  @Test
+  public void testCloseStopsIteration() throws QueryException {
+    addValues(1000);
+    final PagedQueryResult<Integer> result = newResult(100, MoreExecutors.sameThreadExecutor());
+    final Iterator<Integer> iterator = result.iterator();
+    for (int i = 0; i < 100; i++) {
+      iterator.next();
+    }
+
+    result.close();
+
+    assertThat(result.isClosed(), is(true));
+    assertThat(iterator.hasNext(), is(false));
+    assertThat(mPagesFetched.get(), is(2));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testIteratedOnlyOnce() throws QueryException {
+    final PagedQueryResult<Integer> result = newResult(100, mExecutor);
+    result.iterator();
+    result.iterator();
+  }
+
+  @Test(expected = UncheckedExecutionException.class)
+  public void testFailedPageThrowsFromIterator() throws QueryException {
+    final List<Integer> firstPage = Lists.newArrayList(1, 2);
+    final PagedQueryResult<Integer> result = new PagedQueryResult<Integer>(firstPage, 2, new PagedQueryResult.PageSource<Integer>() {
+      @Override
+      public List<Integer> getPage(final int offset, final int limit) throws QueryException {
+        throw new QueryException("Stub Exception", new Exception());
+      }
+    }, mExecutor);
+
+    Lists.newArrayList(result);
+  }
+
+  @Test
+  public void testDefaultChunkQueryPaged() throws QueryException {
+    addValues(500);
+
+    final QueryResult<Integer> result = mPagedChunk.queryPaged(0, 64, mExecutor);
+
+    assertThat(result, instanceOf(PagedQueryResult.class));
+    assertThat(Lists.newArrayList(result), is(mValues));
+  }
+
+  @Test
+  public void testDefaultChunkQueryPagedFallsBackToQuery() throws InsertException, QueryException {
+    final VolatileChunk<Integer, Integer> chunk = new VolatileChunk<Integer, Integer>(new VolatileChunk.KeyFactory.AutoIncrementingIntegerKeyFactory<Integer>());
+    final Integer key = chunk.insert(42);
+
+    final QueryResult<Integer> result = chunk.queryPaged(key, 64, mExecutor);
+
+    assertThat(result, instanceOf(QueryResult.SingletonQueryResult.class));
+    assertThat(result.iterator().next(), is(42));
+  }
+}
@@ -0,0 +1,262 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Range;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import ninja.ugly.prevail.exception.DeleteException;
+import ninja.ugly.prevail.exception.InsertException;
+import ninja.ugly.prevail.exception.QueryException;
+import ninja.ugly.prevail.exception.UpdateException;
+
+import static ninja.ugly.prevail.chunk.Query.Criterion.equalTo;
+import static ninja.ugly.prevail.chunk.Query.Criterion.in;
+import static ninja.ugly.prevail.chunk.Query.Criterion.inRange;
+import static ninja.ugly.prevail.chunk.Query.Criterion.matching;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class QueryTest {
+
+  private static final Query.Attribute<String, Integer> LENGTH = Query.Attribute.of("length", new Function<String, Integer>() {
+    @Override
+    public Integer apply(final String value) {
+      return value.length();
+    }
+  });
+
+  private static final Query.Attribute<String, Character> FIRST = Query.Attribute.of("first", new Function<String, Character>() {
+    @Override
+    public Character apply(final String value) {
+      return value.charAt(0);
+    }
+  });
+
+  private static final Predicate<String> CONTAINS_E = new Predicate<String>() {
+    @Override
+    public boolean apply(final String value) {
+      return value.contains("e");
+    }
+  };
+
+  private static final List<String> VALUES = Arrays.asList("apple", "banana", "cherry", "date", "elderberry", "fig");
+
+  private static List<String> list(final QueryResult<String> result) throws Exception {
+    final List<String> values = Lists.newArrayList(result);
+    result.close();
+    return values;
+  }
+
+  @Test
+  public void testCriteria() {
+    assertThat(equalTo(LENGTH, 4).matches("date"), is(true));
+    assertThat(equalTo(LENGTH, 4).matches("fig"), is(false));
+    assertThat(in(FIRST, 'a', 'b').matches("banana"), is(true));
+    assertThat(in(FIRST, 'a', 'b').matches("cherry"), is(false));
+    assertThat(inRange(LENGTH, Range.closedOpen(4, 6)).matches("apple"), is(true));
+    assertThat(inRange(LENGTH, Range.closedOpen(4, 6)).matches("banana"), is(false));
+    assertThat(matching(CONTAINS_E).matches("cherry"), is(true));
+    assertThat(matching(CONTAINS_E).matches("fig"), is(false));
+  }
+
+  @Test
+  public void testQueryMatchesAllCriteria() {
+    final Query<String> query = Query.where(inRange(LENGTH, Range.atLeast(5))).and(matching(CONTAINS_E));
+    assertThat(query.matches("apple"), is(true));
+    assertThat(query.matches("banana"), is(false));
+    assertThat(query.matches("date"), is(false));
+    assertThat(Query.<String>all().matches("fig"), is(true));
+  }
+
+  @Test
+  public void testQueriesAreImmutable() {
+    final Query<String> query = Query.where(equalTo(LENGTH, 4));
+    query.and(matching(CONTAINS_E)).offset(1).limit(2).select(FIRST);
+
+    assertThat(query.getCriteria().size(), is(1));
+    assertThat(query.isPaged(), is(false));
+    assertThat(query.getProjection().isEmpty(), is(true));
+  }
+
+  @Test
+  public void testEquality() {
+    assertThat(Query.where(equalTo(LENGTH, 4)).limit(2), is(Query.where(equalTo(LENGTH, 4)).limit(2)));
+    assertThat(Query.where(equalTo(LENGTH, 4)).equals(Query.where(equalTo(LENGTH, 5))), is(false));
+  }
+
+  @Test
+  public void testVolatileChunkEvaluatesQuery() throws Exception {
+    final VolatileChunk<Integer, String> chunk = new VolatileChunk<Integer, String>(Maps.<Integer, String>newLinkedHashMap(), new VolatileChunk.KeyFactory.AutoIncrementingIntegerKeyFactory<String>());
+    for (String value : VALUES) {
+      chunk.insert(value);
+    }
+
+    assertThat(list(chunk.queryWhere(Query.where(matching(CONTAINS_E)).offset(1).limit(2))), is(Arrays.asList("cherry", "date")));
+    assertThat(list(chunk.queryWhere(Query.where(in(FIRST, 'a', 'f')))), is(Arrays.asList("apple", "fig")));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testQueryAllAnswersQueryKeys() throws Exception {
+    final VolatileChunk<Integer, String> volatileChunk = new VolatileChunk<Integer, String>(Maps.<Integer, String>newLinkedHashMap(), new VolatileChunk.KeyFactory.AutoIncrementingIntegerKeyFactory<String>());
+    final ConcurrentVolatileChunk<Integer, String> concurrentChunk = new ConcurrentVolatileChunk<Integer, String>(new VolatileChunk.KeyFactory.AutoIncrementingIntegerKeyFactory<String>());
+    for (VolatileChunk<Integer, String> chunk : Arrays.asList(volatileChunk, concurrentChunk)) {
+      final Integer key = chunk.insert("fig");
+      for (String value : VALUES) {
+        chunk.insert(value);
+      }
+
+      // A DataModel passes keys untyped, so a Query can be given to queryAll amongst other keys.
+      final List<Integer> keys = (List<Integer>) (List<?>) Arrays.<Object>asList(key, Query.where(equalTo(LENGTH, 4)));
+      assertThat(list(chunk.queryAll(keys)), is(Arrays.asList("fig", "date")));
+    }
+  }
+
+  @Test(expected = QueryException.class)
+  @SuppressWarnings("unchecked")
+  public void testQueryAllOfQueryKeyOnChunkNotSupportingQueries() throws Exception {
+    final LongVolatileChunk<String> chunk = new LongVolatileChunk<String>();
+    final Long key = chunk.insert("fig");
+
+    chunk.queryAll((List<Long>) (List<?>) Arrays.<Object>asList(key, Query.<String>all()));
+  }
+
+  @Test
+  public void testNothingPushedDown() throws Exception {
+    final ListChunk chunk = new ListChunk(VALUES, false, false);
+    final Query<String> query = Query.where(inRange(LENGTH, Range.atLeast(5))).and(matching(CONTAINS_E)).offset(1).limit(5);
+
+    assertThat(list(chunk.queryWhere(query)), is(Arrays.asList("cherry", "elderberry")));
+    assertThat(chunk.mPushedQuery, is(Query.<String>all()));
+  }
+
+  @Test
+  public void testSomeCriteriaPushedDown() throws Exception {
+    final ListChunk chunk = new ListChunk(VALUES, true, true);
+    final Query<String> query = Query.where(equalTo(LENGTH, 6)).and(matching(CONTAINS_E)).limit(1);
+
+    assertThat(list(chunk.queryWhere(query)), is(Collections.singletonList("cherry")));
+    // Paging is not pushed down, since it applies after the residual predicate.
+    assertThat(chunk.mPushedQuery, is(Query.where(equalTo(LENGTH, 6))));
+  }
+
+  @Test
+  public void testAllCriteriaAndPagingPushedDown() throws Exception {
+    final ListChunk chunk = new ListChunk(VALUES, true, true);
+    final Query<String> query = Query.where(inRange(LENGTH, Range.closed(4, 6))).offset(1).limit(2);
+
+    assertThat(list(chunk.queryWhere(query)), is(Arrays.asList("banana", "cherry")));
+    assertThat(chunk.mPushedQuery, is(query));
+  }
+
+  @Test
+  public void testPagingWithoutPushDown() throws Exception {
+    final ListChunk chunk = new ListChunk(VALUES, true, false);
+    final Query<String> query = Query.where(inRange(LENGTH, Range.closed(4, 6))).offset(1).limit(2);
+
+    assertThat(list(chunk.queryWhere(query)), is(Arrays.asList("banana", "cherry")));
+    assertThat(chunk.mPushedQuery, is(Query.where(inRange(LENGTH, Range.closed(4, 6)))));
+  }
+
+  @Test
+  public void testFilteredResultClosesUnderlyingResult() throws Exception {
+    final ListChunk chunk = new ListChunk(VALUES, false, false);
+    final QueryResult<String> result = chunk.queryWhere(Query.where(matching(CONTAINS_E)));
+    result.close();
+
+    assertThat(chunk.mResult.isClosed(), is(true));
+  }
+
+  @Test(expected = QueryException.class)
+  public void testChunkNotSupportingQueries() throws Exception {
+    new ListChunk(null, false, false).queryWhere(Query.<String>all());
+  }
+
+  /**
+   * A Chunk over a List of values, in order, that pushes down Criteria on LENGTH if asked to, and records the
+   * Query that is pushed down.  Without a List, the Chunk does not support structured queries.
+   */
+  private static class ListChunk extends DefaultChunk<String, String> {
+    private final List<String> mValues;
+    private final boolean mPushDownLength;
+    private final boolean mPushDownPaging;
+    private Query<String> mPushedQuery;
+    private CloseableResult mResult;
+
+    ListChunk(final List<String> values, final boolean pushDownLength, final boolean pushDownPaging) {
+      mValues = values;
+      mPushDownLength = pushDownLength;
+      mPushDownPaging = pushDownPaging;
+    }
+
+    @Override
+    protected boolean canPushDown(final Query.Criterion<String> criterion) {
+      return mPushDownLength && (criterion instanceof Query.EqualTo || criterion instanceof Query.InRange);
+    }
+
+    @Override
+    protected boolean canPushDownPaging() {
+      return mPushDownPaging;
+    }
+
+    @Override
+    protected QueryResult<String> doQueryWhere(final Query<String> query, final OnProgressUpdateListener listener) throws QueryException {
+      if (mValues == null) {
+        return super.doQueryWhere(query, listener);
+      }
+      mPushedQuery = query;
+      mResult = new CloseableResult(VolatileChunk.select(mValues, query));
+      return mResult;
+    }
+
+    @Override
+    protected String doInsert(final String value, final OnProgressUpdateListener listener) throws InsertException {
+      throw new InsertException("Read only");
+    }
+
+    @Override
+    protected QueryResult doQuery(final String key, final OnProgressUpdateListener listener) throws QueryException {
+      return new QueryResult.EmptyQueryResult<String>();
+    }
+
+    @Override
+    protected int doUpdate(final String key, final String value, final OnProgressUpdateListener listener) throws UpdateException {
+      throw new UpdateException("Read only");
+    }
+
+    @Override
+    protected int doDelete(final String key, final OnProgressUpdateListener listener) throws DeleteException {
+      throw new DeleteException("Read only");
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static class CloseableResult extends QueryResult.IterableQueryResult<String> {
+    private boolean mClosed = false;
+
+    CloseableResult(final List<String> values) {
+      super(values);
+    }
+
+    @Override
+    public void close() {
+      mClosed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+      return mClosed;
+    }
+  }
+}
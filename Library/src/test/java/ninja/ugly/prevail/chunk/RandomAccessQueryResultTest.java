@@ -0,0 +1,59 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class RandomAccessQueryResultTest {
+
+  @Test
+  public void testSingletonQueryResult() {
+    final RandomAccessQueryResult<String> result = new QueryResult.SingletonQueryResult<String>("value");
+    assertThat(result.size(), is(1));
+    assertThat(result.get(0), is("value"));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testSingletonQueryResultOutOfRange() {
+    new QueryResult.SingletonQueryResult<String>("value").get(1);
+  }
+
+  @Test
+  public void testListQueryResultIndexedFromStartOfRange() {
+    final List<String> values = Lists.newArrayList("a", "b", "c", "d");
+    final RandomAccessQueryResult<String> result = new SplittableQueryResult.ListQueryResult<String>(values, 1, 3);
+    assertThat(result.size(), is(2));
+    assertThat(result.get(0), is("b"));
+    assertThat(result.get(1), is("c"));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testListQueryResultOutOfRange() {
+    final List<String> values = Lists.newArrayList("a", "b", "c", "d");
+    new SplittableQueryResult.ListQueryResult<String>(values, 1, 3).get(2);
+  }
+
+  @Test
+  public void testListQueryResultSizeAfterSplit() {
+    final SplittableQueryResult.ListQueryResult<String> result = new SplittableQueryResult.ListQueryResult<String>(Lists.newArrayList("a", "b", "c", "d"));
+    final RandomAccessQueryResult<String> prefix = (RandomAccessQueryResult<String>) result.trySplit();
+    assertThat(prefix.size(), is(2));
+    assertThat(result.size(), is(2));
+    assertThat(result.get(0), is("c"));
+  }
+
+  @Test
+  public void testVolatileChunkQueryAllIsRandomAccess() throws Exception {
+    final VolatileChunk<Integer, String> chunk = new VolatileChunk<Integer, String>(new VolatileChunk.KeyFactory.AutoIncrementingIntegerKeyFactory<String>());
+    final List<Integer> keys = chunk.insertAll(Lists.newArrayList("a", "b", "c"));
+
+    final RandomAccessQueryResult<String> result = (RandomAccessQueryResult<String>) chunk.queryAll(keys);
+    assertThat(result.size(), is(3));
+    assertThat(result.get(2), is("c"));
+  }
+}
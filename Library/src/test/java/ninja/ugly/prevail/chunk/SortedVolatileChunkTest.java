@@ -0,0 +1,115 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ninja.ugly.prevail.datamodel.DataModel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class SortedVolatileChunkTest {
+
+  private final SortedVolatileChunk<String, String> mChunk = new SortedVolatileChunk<String, String>(
+      new VolatileChunk.KeyFactory.DefaultKeyFactory<String, String>(new Function<String, String>() {
+        @Override
+        public String apply(final String value) {
+          return value;
+        }
+      }));
+
+  private void insert(final String... values) throws Exception {
+    for (String value : values) {
+      mChunk.insert(value);
+    }
+  }
+
+  private static List<String> list(final QueryResult<String> result) throws Exception {
+    final List<String> values = Lists.newArrayList(result);
+    result.close();
+    return values;
+  }
+
+  @Test
+  public void testExactQuery() throws Exception {
+    insert("b", "a");
+    assertThat(list(mChunk.query("a")), is(Collections.singletonList("a")));
+    assertThat(list(mChunk.query("c")).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testClosedRange() throws Exception {
+    insert("e", "a", "c", "b", "d");
+    assertThat(list(mChunk.queryRange(KeyRange.closed("b", "d"))), is(Arrays.asList("b", "c", "d")));
+    assertThat(list(mChunk.queryRange(KeyRange.closedOpen("b", "d"))), is(Arrays.asList("b", "c")));
+  }
+
+  @Test
+  public void testUnboundedRanges() throws Exception {
+    insert("a", "b", "c");
+    assertThat(list(mChunk.queryRange(KeyRange.<String>all())), is(Arrays.asList("a", "b", "c")));
+    assertThat(list(mChunk.queryRange(KeyRange.atLeast("b"))), is(Arrays.asList("b", "c")));
+    assertThat(list(mChunk.queryRange(KeyRange.greaterThan("b"))), is(Arrays.asList("c")));
+    assertThat(list(mChunk.queryRange(KeyRange.atMost("b"))), is(Arrays.asList("a", "b")));
+    assertThat(list(mChunk.queryRange(KeyRange.lessThan("b"))), is(Arrays.asList("a")));
+  }
+
+  @Test
+  public void testPrefix() throws Exception {
+    insert("app", "apple", "apply", "apt", "ap", "b");
+    assertThat(list(mChunk.queryRange(KeyRange.prefix("app"))), is(Arrays.asList("app", "apple", "apply")));
+    assertThat(list(mChunk.queryRange(KeyRange.prefix(""))).size(), is(6));
+  }
+
+  @Test
+  public void testPrefixEndingInMaxCharacter() throws Exception {
+    final String max = String.valueOf(Character.MAX_VALUE);
+    insert("a" + max, "a" + max + "z", "b");
+    assertThat(list(mChunk.queryRange(KeyRange.prefix("a" + max))), is(Arrays.asList("a" + max, "a" + max + "z")));
+  }
+
+  @Test
+  public void testLimitAndDescending() throws Exception {
+    insert("a", "b", "c", "d", "e");
+    assertThat(list(mChunk.queryRange(KeyRange.<String>all().limit(2))), is(Arrays.asList("a", "b")));
+    assertThat(list(mChunk.queryRange(KeyRange.<String>all().descending().limit(2))), is(Arrays.asList("e", "d")));
+    assertThat(list(mChunk.queryRange(KeyRange.closed("b", "d").descending())), is(Arrays.asList("d", "c", "b")));
+  }
+
+  @Test
+  public void testInvertedRangeIsEmpty() throws Exception {
+    insert("a", "b", "c", "d");
+    assertThat(list(mChunk.queryRange(KeyRange.closed("c", "b"))).isEmpty(), is(true));
+    assertThat(list(mChunk.queryRange(KeyRange.closedOpen("c", "b").descending())).isEmpty(), is(true));
+    assertThat(mChunk.deleteRange(KeyRange.closed("c", "b")), is(0));
+    assertThat(list(mChunk.queryRange(KeyRange.<String>all())), is(Arrays.asList("a", "b", "c", "d")));
+  }
+
+  @Test
+  public void testDeleteRange() throws Exception {
+    insert("a", "b", "c", "d", "e");
+    assertThat(mChunk.deleteRange(KeyRange.closed("b", "d")), is(3));
+    assertThat(list(mChunk.queryRange(KeyRange.<String>all())), is(Arrays.asList("a", "e")));
+    assertThat(mChunk.deleteRange(KeyRange.<String>all().limit(1)), is(1));
+    assertThat(list(mChunk.queryRange(KeyRange.<String>all())), is(Arrays.asList("e")));
+  }
+
+  @Test
+  public void testRangeQueryThroughDataModel() throws Exception {
+    insert("a", "b", "c");
+    final DataModel dataModel = new DataModel();
+    dataModel.addChunk(mChunk, MoreExecutors.sameThreadExecutor());
+
+    final List<QueryResult<Object>> results = dataModel.query(KeyRange.atLeast("b")).get(1, TimeUnit.SECONDS);
+
+    assertThat(Lists.newArrayList(results.get(0)), is((List<Object>) Lists.<Object>newArrayList("b", "c")));
+  }
+}
@@ -0,0 +1,154 @@
+package ninja.ugly.prevail.chunk;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+public class SplittableQueryResultTest {
+
+  private static List<Integer> range(final int n) {
+    final List<Integer> values = Lists.newArrayListWithCapacity(n);
+    for (int i = 0; i < n; i++) {
+      values.add(i);
+    }
+    return values;
+  }
+
+  /**
+   * Splits the given QueryResult down to single values, and returns all values in order.
+   */
+  private static List<Integer> splitFully(final SplittableQueryResult<Integer> result) {
+    final List<Integer> values = Lists.newArrayList();
+    final Deque<SplittableQueryResult<Integer>> parts = new ArrayDeque<SplittableQueryResult<Integer>>();
+    parts.push(result);
+    while (!parts.isEmpty()) {
+      final SplittableQueryResult<Integer> part = parts.pop();
+      final SplittableQueryResult<Integer> prefix = part.trySplit();
+      if (prefix == null) {
+        for (Integer value : part) {
+          values.add(value);
+        }
+      } else {
+        // The remainder is pushed first, so that the prefix is processed first.
+        parts.push(part);
+        parts.push(prefix);
+      }
+    }
+    return values;
+  }
+
+  @Test
+  public void testListQueryResultSplitsIntoHalves() {
+    final SplittableQueryResult.ListQueryResult<Integer> result = new SplittableQueryResult.ListQueryResult<Integer>(range(10));
+
+    final SplittableQueryResult<Integer> prefix = result.trySplit();
+
+    assertThat(prefix.estimateSize(), is(5L));
+    assertThat(result.estimateSize(), is(5L));
+    assertThat(Lists.newArrayList(prefix), is(range(5)));
+    assertThat(Lists.newArrayList(result), is(range(10).subList(5, 10)));
+  }
+
+  @Test
+  public void testListQueryResultOfOneValueDoesNotSplit() {
+    assertThat(new SplittableQueryResult.ListQueryResult<Integer>(range(1)).trySplit(), is(nullValue()));
+    assertThat(new SplittableQueryResult.ListQueryResult<Integer>(range(0)).trySplit(), is(nullValue()));
+  }
+
+  @Test
+  public void testListQueryResultSplitsFullyInOrder() {
+    assertThat(splitFully(new SplittableQueryResult.ListQueryResult<Integer>(range(1000))), is(range(1000)));
+  }
+
+  @Test
+  public void testIterableQueryResultSplitsFullyInOrder() {
+    final QueryResult.IterableQueryResult<Integer> result = new QueryResult.IterableQueryResult<Integer>(range(5000));
+    assertThat(result.estimateSize(), is(5000L));
+    assertThat(splitFully(result), is(range(5000)));
+  }
+
+  @Test
+  public void testIterableQueryResultIteratesRemainderEachTimeOnceSplit() {
+    final QueryResult.IterableQueryResult<Integer> result = new QueryResult.IterableQueryResult<Integer>(range(3000));
+    final SplittableQueryResult<Integer> prefix = result.trySplit();
+    assertThat(Lists.newArrayList(prefix), is(range(1024)));
+    assertThat(Lists.newArrayList(result), is(range(3000).subList(1024, 3000)));
+    assertThat(Lists.newArrayList(result), is(range(3000).subList(1024, 3000)));
+  }
+
+  @Test
+  public void testIterableQueryResultOfUnknownSize() {
+    final Iterable<Integer> values = new Iterable<Integer>() {
+      @Override
+      public Iterator<Integer> iterator() {
+        return range(3000).iterator();
+      }
+    };
+    final QueryResult.IterableQueryResult<Integer> result = new QueryResult.IterableQueryResult<Integer>(values);
+    assertThat(result.estimateSize(), is(Long.MAX_VALUE));
+    assertThat(splitFully(result), is(range(3000)));
+  }
+
+  @Test
+  public void testEmptyQueryResultIsNotSplittable() {
+    // Subclasses override iterator(), so an EmptyQueryResult cannot know its own size.
+    assertThat(new QueryResult.EmptyQueryResult<Integer>(), is(not(instanceOf(SplittableQueryResult.class))));
+  }
+
+  @Test
+  public void testSingletonQueryResultDoesNotSplit() {
+    assertThat(new QueryResult.SingletonQueryResult<Integer>(1).trySplit(), is(nullValue()));
+    assertThat(new QueryResult.SingletonQueryResult<Integer>(1).estimateSize(), is(1L));
+  }
+
+  private static class SumTask extends RecursiveTask<Long> {
+    private final SplittableQueryResult<Integer> mResult;
+
+    SumTask(final SplittableQueryResult<Integer> result) {
+      mResult = result;
+    }
+
+    @Override
+    protected Long compute() {
+      if (mResult.estimateSize() > 100) {
+        final SplittableQueryResult<Integer> prefix = mResult.trySplit();
+        if (prefix != null) {
+          final SumTask prefixTask = new SumTask(prefix);
+          prefixTask.fork();
+          return compute() + prefixTask.join();
+        }
+      }
+      long sum = 0;
+      for (Integer value : mResult) {
+        sum += value;
+      }
+      return sum;
+    }
+  }
+
+  @Test
+  public void testParallelSumOfVolatileChunkQueryAll() throws Exception {
+    final VolatileChunk<Integer, Integer> chunk = new VolatileChunk<Integer, Integer>(new VolatileChunk.KeyFactory.AutoIncrementingIntegerKeyFactory<Integer>());
+    final List<Integer> values = range(100000);
+    final List<Integer> keys = chunk.insertAll(values);
+
+    final QueryResult<Integer> result = chunk.queryAll(keys);
+    final long sum = new ForkJoinPool().invoke(new SumTask((SplittableQueryResult<Integer>) result));
+    result.close();
+
+    assertThat(sum, is(100000L * 99999L / 2));
+  }
+}
@@ -1,18 +1,25 @@
 package ninja.ugly.prevail.datamodel;
 
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.hamcrest.Matchers;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ninja.ugly.prevail.Key;
 import ninja.ugly.prevail.KeyValueChunk;
@@ -36,10 +43,13 @@ import static org.hamcrest.Matchers.everyItem;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -52,11 +62,51 @@ public class DataModelTest {
   private final Key mKey = mock(Key.class);
   private final Value mValue = mock(Value.class);
 
+  @Test
+  public void testAddChunkWithoutExecutorUsesExecutorFromExecutionStrategy() throws QueryException, TimeoutException, InterruptedException, ExecutionException {
+    final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+    when(executionStrategy.getExecutor("segment", mChunk)).thenReturn(Executors.newSingleThreadExecutor());
+    final DataModel dataModel = new DataModel(executionStrategy);
+    dataModel.addChunk("segment", mChunk);
+    dataModel.query("segment", mKey).get(1, TimeUnit.SECONDS);
+    verify(executionStrategy).getExecutor("segment", mChunk);
+  }
+
+  @Test
+  public void testAddChunkFromManyThreadsRegistersAllChunks() throws InterruptedException, TimeoutException, ExecutionException {
+    final int numThreads = 8;
+    final int chunksPerThread = 50;
+    final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    final CountDownLatch done = new CountDownLatch(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < chunksPerThread; j++) {
+            mDataModel.addChunk("segment", new Chunk.EmptyChunk<Key, Value>(), MoreExecutors.sameThreadExecutor());
+          }
+          done.countDown();
+        }
+      });
+    }
+    assertThat(done.await(1, TimeUnit.SECONDS), is(true));
+    executor.shutdown();
+    assertThat(mDataModel.delete("segment", mKey).get(1, TimeUnit.SECONDS), hasSize(numThreads * chunksPerThread));
+  }
+
   @Test(expected = NullPointerException.class)
   public void testCannotAddNullChunk() {
     mDataModel.addChunk("segment", null);
   }
 
+  @Test
+  public void testDeleteAllDelegatesToAddedChunk() throws DeleteException, TimeoutException, InterruptedException, ExecutionException {
+    final List<Key> keys = Arrays.asList(mKey, mKey);
+    mDataModel.addChunk(mChunk);
+    mDataModel.deleteAll(keys).get(1, TimeUnit.SECONDS);
+    verify(mChunk).deleteAll(keys);
+  }
+
   @Test
   public void testDeleteBySegmentDelegatesToAddedChunkWithSegment() throws DeleteException, TimeoutException, InterruptedException, ExecutionException {
     mDataModel.addChunk("segment", mChunk);
@@ -151,6 +201,24 @@ public class DataModelTest {
     assertThat(results, everyItem(is(1)));
   }
 
+  @Test
+  public void testInsertAllBySegmentDelegatesToAddedChunkWithSegment() throws InsertException, TimeoutException, InterruptedException, ExecutionException {
+    final List<Value> values = Arrays.asList(mValue, mValue);
+    mDataModel.addChunk("segment", mChunk);
+    mDataModel.insertAll("segment", values).get(1, TimeUnit.SECONDS);
+    verify(mChunk).insertAll(values);
+  }
+
+  @Test
+  public void testInsertAllOnSingleChunkReturnsKeysInFuture() throws InsertException, TimeoutException, InterruptedException, ExecutionException {
+    final KeyValueChunk.Inserter<Key, Value> inserter = mock(KeyValueChunk.Inserter.class);
+    when(inserter.insert(argThat(is(mValue)), argThat(is(any(DefaultChunk.OnProgressUpdateListener.class))))).thenReturn(mKey);
+    mDataModel.addChunk(new KeyValueChunk(inserter, null, null, null));
+    final List<List<Object>> results = mDataModel.insertAll(Arrays.asList(mValue, mValue)).get(1, TimeUnit.SECONDS);
+    assertThat(results, hasSize(1));
+    assertThat(results.get(0), Matchers.<Object>contains(mKey, mKey));
+  }
+
   @Test
   public void testInsertBySegmentDelegatesToAddedChunkWithSegment() throws InsertException, TimeoutException, InterruptedException, ExecutionException {
     mDataModel.addChunk("segment", mChunk);
@@ -245,6 +313,84 @@ public class DataModelTest {
     assertThat(keys, hasItem(mKey));
   }
 
+  @Test
+  public void testOperationsOnDifferentChunksRunInParallel() throws TimeoutException, InterruptedException, ExecutionException {
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+    final DataModel dataModel = new DataModel(new ExecutionStrategy.WorkStealingExecutionStrategy(2, 1));
+    dataModel.addChunk(new BarrierChunk(barrier));
+    dataModel.addChunk(new BarrierChunk(barrier));
+    final List<QueryResult<Object>> results = dataModel.query(mKey).get(1, TimeUnit.SECONDS);
+    assertThat(results, hasSize(2));
+    for (QueryResult<Object> result : results) {
+      assertThat(result, is(notNullValue()));
+    }
+  }
+
+  @Test
+  public void testOperationsOnSameChunkAreSerialized() throws TimeoutException, InterruptedException, ExecutionException {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final Chunk<Key, Value> chunk = new Chunk.EmptyChunk<Key, Value>() {
+      @Override
+      public QueryResult query(final Key key, final QueryEventFactory... eventFactories) throws QueryException {
+        final int n = running.incrementAndGet();
+        maxRunning.set(Math.max(maxRunning.get(), n));
+        Thread.yield();
+        running.decrementAndGet();
+        return super.query(key, eventFactories);
+      }
+    };
+    final DataModel dataModel = new DataModel(new ExecutionStrategy.WorkStealingExecutionStrategy(4, 1));
+    dataModel.addChunk(chunk);
+    for (int i = 0; i < 100; i++) {
+      dataModel.query(mKey);
+    }
+    dataModel.query(mKey).get(1, TimeUnit.SECONDS);
+    assertThat(maxRunning.get(), is(lessThanOrEqualTo(1)));
+  }
+
+  @Test
+  public void testOperationsOnSameChunkInDefaultDataModelsAreSerialized() throws TimeoutException, InterruptedException, ExecutionException {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final Chunk<Key, Value> chunk = new Chunk.EmptyChunk<Key, Value>() {
+      @Override
+      public QueryResult query(final Key key, final QueryEventFactory... eventFactories) throws QueryException {
+        final int n = running.incrementAndGet();
+        maxRunning.set(Math.max(maxRunning.get(), n));
+        Thread.yield();
+        running.decrementAndGet();
+        return super.query(key, eventFactories);
+      }
+    };
+    final DataModel dataModel1 = new DataModel();
+    final DataModel dataModel2 = new DataModel();
+    dataModel1.addChunk(chunk);
+    dataModel2.addChunk(chunk);
+    for (int i = 0; i < 100; i++) {
+      dataModel1.query(mKey);
+      dataModel2.query(mKey);
+    }
+    dataModel1.query(mKey).get(1, TimeUnit.SECONDS);
+    dataModel2.query(mKey).get(1, TimeUnit.SECONDS);
+    assertThat(maxRunning.get(), is(lessThanOrEqualTo(1)));
+  }
+
+  @Test
+  public void testQueryAllDelegatesToAddedChunk() throws QueryException, InterruptedException, TimeoutException, ExecutionException {
+    final List<Key> keys = Arrays.asList(mKey, mKey);
+    mDataModel.addChunk(mChunk);
+    mDataModel.queryAll(keys).get(1, TimeUnit.SECONDS);
+    verify(mChunk).queryAll(keys);
+  }
+
+  @Test
+  public void testQueryPagedDelegatesToAddedChunk() throws QueryException, InterruptedException, TimeoutException, ExecutionException {
+    mDataModel.addChunk(mChunk);
+    mDataModel.queryPaged(mKey, 100).get(1, TimeUnit.SECONDS);
+    verify(mChunk).queryPaged(argThat(is(mKey)), Mockito.eq(100), Mockito.any(Executor.class), Mockito.<QueryEventFactory>anyVararg());
+  }
+
   @Test
   public void testQueryBySegmentDelegatesToAddedChunkWithSegment() throws QueryException, InterruptedException, TimeoutException, ExecutionException {
     mDataModel.addChunk("segment", mChunk);
@@ -334,6 +480,19 @@ public class DataModelTest {
     mDataModel.query(mKey).get(1, TimeUnit.SECONDS);
   }
 
+  @Test
+  public void testQueryFutureNotifiesListenerOnCompletion() throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(1);
+    mDataModel.addChunk(mChunk);
+    mDataModel.query(mKey).addListener(new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    }, MoreExecutors.sameThreadExecutor());
+    assertThat(latch.await(1, TimeUnit.SECONDS), is(true));
+  }
+
   @Test
   public void testQueryOnMultipleChunksReturnsResultsInFuture() throws TimeoutException, InterruptedException, ExecutionException, QueryException {
     final KeyValueChunk.Queryer<Key, Value> queryer = mock(KeyValueChunk.Queryer.class);
@@ -356,6 +515,56 @@ public class DataModelTest {
     assertThat(results.get(0).iterator().next(), Matchers.<Object>is(mValue));
   }
 
+  @Test
+  public void testRemoveChunkNotAddedReturnsFalse() {
+    assertThat(mDataModel.removeChunk("segment", mChunk), is(false));
+  }
+
+  @Test
+  public void testRemoveChunkReturnsTrue() {
+    mDataModel.addChunk("segment", mChunk);
+    assertThat(mDataModel.removeChunk("segment", mChunk), is(true));
+  }
+
+  @Test
+  public void testRemovedChunkIsNotQueried() throws QueryException, InterruptedException, TimeoutException, ExecutionException {
+    final Chunk chunk = mock(Chunk.class);
+    mDataModel.addChunk(mChunk);
+    mDataModel.addChunk(chunk);
+    mDataModel.removeChunk(mChunk);
+    final List<QueryResult<Object>> results = mDataModel.query(mKey).get(1, TimeUnit.SECONDS);
+    assertThat(results, hasSize(1));
+    verify(mChunk, never()).query(argThat(is(mKey)), Mockito.<QueryEventFactory>anyVararg());
+    verify(chunk).query(argThat(is(mKey)), Mockito.<QueryEventFactory>anyVararg());
+  }
+
+  @Test
+  public void testThreadPerOperationExecutionStrategyRunsEachOperationOnNewThread() throws TimeoutException, InterruptedException, ExecutionException {
+    final AtomicInteger threadCount = new AtomicInteger();
+    final ThreadFactory threadFactory = new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable r) {
+        threadCount.incrementAndGet();
+        return new Thread(r);
+      }
+    };
+    final DataModel dataModel = new DataModel(new ExecutionStrategy.ThreadPerOperationExecutionStrategy(threadFactory));
+    dataModel.addChunk(new Chunk.EmptyChunk<Key, Value>());
+    dataModel.addChunk(new Chunk.EmptyChunk<Key, Value>());
+    dataModel.query(mKey).get(1, TimeUnit.SECONDS);
+    dataModel.query(mKey).get(1, TimeUnit.SECONDS);
+    assertThat(threadCount.get(), is(4));
+  }
+
+  @Test
+  public void testUpdateAllDelegatesToAddedChunk() throws UpdateException, TimeoutException, InterruptedException, ExecutionException {
+    final List<Key> keys = Arrays.asList(mKey);
+    final List<Value> values = Arrays.asList(mValue);
+    mDataModel.addChunk(mChunk);
+    mDataModel.updateAll(keys, values).get(1, TimeUnit.SECONDS);
+    verify(mChunk).updateAll(keys, values);
+  }
+
   @Test
   public void testUpdateBySegmentDelegatesToAddedChunkWithSegment() throws UpdateException, TimeoutException, InterruptedException, ExecutionException {
     mDataModel.addChunk("segment", mChunk);
@@ -450,6 +659,24 @@ public class DataModelTest {
     assertThat(results, everyItem(is(1)));
   }
 
+  private static class BarrierChunk extends Chunk.EmptyChunk<Key, Value> {
+    private final CyclicBarrier mBarrier;
+
+    private BarrierChunk(final CyclicBarrier barrier) {
+      mBarrier = barrier;
+    }
+
+    @Override
+    public QueryResult<Value> query(final Key key, final QueryEventFactory<Key, Value>... eventFactories) throws QueryException {
+      try {
+        mBarrier.await(1, TimeUnit.SECONDS);
+      } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+        throw new QueryException("Chunks were not queried in parallel", e);
+      }
+      return new QueryResult.EmptyQueryResult<Value>();
+    }
+  }
+
   private ExecutorService getExecutorAndThread(final Thread[] chunkThreadFromFactory) {
     return Executors.newSingleThreadExecutor(new ThreadFactory() {
       @Override
@@ -0,0 +1,197 @@
+package ninja.ugly.prevail.event.dispatcher;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import ninja.ugly.prevail.event.BatchEvent;
+import ninja.ugly.prevail.event.DeleteEndEvent;
+import ninja.ugly.prevail.event.InsertEndEvent;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class BatchingEventDispatcherTest {
+
+  private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+  private final List<Object> mDispatched = Collections.synchronizedList(Lists.<Object>newArrayList());
+  private final CountDownLatch mBatchDispatched = new CountDownLatch(1);
+
+  private final EventDispatcher mRecorder = new EventDispatcher() {
+    @Override
+    public void dispatchEvent(final Object event) {
+      mDispatched.add(event);
+      if (event instanceof BatchEvent) {
+        mBatchDispatched.countDown();
+      }
+    }
+
+    @Override
+    public void register(final Object subscriber) {
+    }
+
+    @Override
+    public void unregister(final Object subscriber) {
+    }
+  };
+
+  private final Predicate<Object> mInsertEndEvents = new Predicate<Object>() {
+    @Override
+    public boolean apply(final Object event) {
+      return event instanceof InsertEndEvent;
+    }
+  };
+
+  @After
+  public void tearDown() {
+    mScheduler.shutdownNow();
+  }
+
+  @Test
+  public void testBatchDispatchedAtMaxSize() {
+    final BatchingEventDispatcher eventDispatcher = new BatchingEventDispatcher(mRecorder, mInsertEndEvents, 3, 1, TimeUnit.HOURS, mScheduler);
+    final InsertEndEvent<String, String> event = new InsertEndEvent<String, String>("key", "value");
+
+    eventDispatcher.dispatchEvent(event);
+    eventDispatcher.dispatchEvent(event);
+    assertThat(mDispatched.size(), is(0));
+
+    eventDispatcher.dispatchEvent(event);
+    assertThat(mDispatched.size(), is(1));
+    assertThat(((BatchEvent) mDispatched.get(0)).size(), is(3));
+  }
+
+  @Test
+  public void testBatchDispatchedAtEndOfWindow() throws InterruptedException {
+    final BatchingEventDispatcher eventDispatcher = new BatchingEventDispatcher(mRecorder, mInsertEndEvents, 100, 10, TimeUnit.MILLISECONDS, mScheduler);
+    eventDispatcher.dispatchEvent(new InsertEndEvent<String, String>("key", "value"));
+
+    assertThat(mBatchDispatched.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(((BatchEvent) mDispatched.get(0)).size(), is(1));
+  }
+
+  @Test
+  public void testEventNotBatchedDispatchedAfterPendingBatch() {
+    final BatchingEventDispatcher eventDispatcher = new BatchingEventDispatcher(mRecorder, mInsertEndEvents, 100, 1, TimeUnit.HOURS, mScheduler);
+    final DeleteEndEvent<String> deleteEvent = new DeleteEndEvent<String>("key", 1);
+
+    eventDispatcher.dispatchEvent(new InsertEndEvent<String, String>("key", "value"));
+    eventDispatcher.dispatchEvent(deleteEvent);
+
+    assertThat(mDispatched.size(), is(2));
+    assertThat(((BatchEvent) mDispatched.get(0)).size(), is(1));
+    assertThat(mDispatched.get(1), is(sameInstance((Object) deleteEvent)));
+  }
+
+  @Test
+  public void testCloseFlushesPendingEvents() {
+    final BatchingEventDispatcher eventDispatcher = new BatchingEventDispatcher(mRecorder, 100, 1, TimeUnit.HOURS);
+    eventDispatcher.dispatchEvent("first");
+    eventDispatcher.dispatchEvent("second");
+    eventDispatcher.close();
+
+    assertThat(mDispatched.size(), is(1));
+    final List<Object> events = ((BatchEvent) mDispatched.get(0)).getEvents();
+    assertThat(events.size(), is(2));
+    assertThat(events.get(0), is((Object) "first"));
+    assertThat(events.get(1), is((Object) "second"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testDispatchAfterCloseThrows() {
+    final BatchingEventDispatcher eventDispatcher = new BatchingEventDispatcher(mRecorder, 100, 1, TimeUnit.HOURS);
+    eventDispatcher.close();
+    eventDispatcher.dispatchEvent("event");
+  }
+
+  @Test
+  public void testBatchIsDispatchedWithoutHoldingLock() throws Exception {
+    final BatchingEventDispatcher[] eventDispatcher = new BatchingEventDispatcher[1];
+    final Thread[] other = new Thread[1];
+    final EventDispatcher dispatchingOnOtherThread = new EventDispatcher() {
+      @Override
+      public void dispatchEvent(final Object event) {
+        mDispatched.add(event);
+        if (event instanceof BatchEvent) {
+          // Blocks forever if the batch is dispatched whilst holding the lock.
+          other[0] = new Thread(new Runnable() {
+            @Override
+            public void run() {
+              eventDispatcher[0].dispatchEvent("unbatched");
+            }
+          });
+          other[0].start();
+          try {
+            other[0].join(TimeUnit.SECONDS.toMillis(10));
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+
+      @Override
+      public void register(final Object subscriber) {
+      }
+
+      @Override
+      public void unregister(final Object subscriber) {
+      }
+    };
+    eventDispatcher[0] = new BatchingEventDispatcher(dispatchingOnOtherThread, Predicates.equalTo((Object) "batched"), 1, 1, TimeUnit.HOURS, mScheduler);
+    eventDispatcher[0].dispatchEvent("batched");
+
+    assertThat(other[0].isAlive(), is(false));
+    // Dispatched in turn by the thread already dispatching.
+    assertThat(mDispatched.size(), is(2));
+    assertThat(mDispatched.get(1), is((Object) "unbatched"));
+  }
+
+  @Test
+  public void testBatchEventTypedAccessors() {
+    final InsertEndEvent<String, String> insertEvent = new InsertEndEvent<String, String>("key", "value");
+    final DeleteEndEvent<String> deleteEvent = new DeleteEndEvent<String>("key", 1);
+    final BatchEvent batchEvent = new BatchEvent(Lists.newArrayList(insertEvent, deleteEvent, insertEvent));
+
+    final List<InsertEndEvent> insertEvents = batchEvent.getEvents(InsertEndEvent.class);
+    assertThat(insertEvents.size(), is(2));
+    assertThat(batchEvent.getEvents(DeleteEndEvent.class).size(), is(1));
+    assertThat(batchEvent.contains(DeleteEndEvent.class), is(true));
+    assertThat(batchEvent.contains(String.class), is(false));
+  }
+
+  public static class BatchSubscriber {
+    private int mBatches = 0;
+
+    @Subscribe
+    public void onBatch(final BatchEvent event) {
+      mBatches++;
+    }
+  }
+
+  @Test
+  public void testSubscriberReceivesOneEventPerBatch() {
+    final EventBusEventDispatcher eventBusEventDispatcher = new EventBusEventDispatcher();
+    final BatchingEventDispatcher eventDispatcher = new BatchingEventDispatcher(eventBusEventDispatcher, 100, 1, TimeUnit.HOURS);
+    final BatchSubscriber subscriber = new BatchSubscriber();
+    eventDispatcher.register(subscriber);
+
+    for (int i = 0; i < 1000; i++) {
+      eventDispatcher.dispatchEvent(new InsertEndEvent<Integer, Integer>(i, i));
+    }
+    eventDispatcher.close();
+
+    assertThat(subscriber.mBatches, is(10));
+  }
+}
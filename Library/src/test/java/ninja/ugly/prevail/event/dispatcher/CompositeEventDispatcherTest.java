@@ -0,0 +1,174 @@
+package ninja.ugly.prevail.event.dispatcher;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class CompositeEventDispatcherTest {
+
+  private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+  private static class RecordingEventDispatcher implements EventDispatcher {
+    final List<Object> mEvents = Collections.synchronizedList(Lists.newArrayList());
+
+    @Override
+    public void dispatchEvent(final Object event) {
+      mEvents.add(event);
+    }
+
+    @Override
+    public void register(final Object subscriber) {
+    }
+
+    @Override
+    public void unregister(final Object subscriber) {
+    }
+  }
+
+  /**
+   * A RecordingEventDispatcher that blocks on its first event, until released.
+   */
+  private static class BlockingEventDispatcher extends RecordingEventDispatcher {
+    final CountDownLatch mBlocked = new CountDownLatch(1);
+    final CountDownLatch mRelease = new CountDownLatch(1);
+
+    @Override
+    public void dispatchEvent(final Object event) {
+      mBlocked.countDown();
+      try {
+        mRelease.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      super.dispatchEvent(event);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    mExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testSequentialCompositeDispatchesToAllChildren() {
+    final CompositeEventDispatcher eventDispatcher = new CompositeEventDispatcher();
+    final EventDispatcher first = mock(EventDispatcher.class);
+    final EventDispatcher second = mock(EventDispatcher.class);
+    eventDispatcher.addEventDispatcher(first);
+    eventDispatcher.addEventDispatcher(second);
+
+    final Object subscriber = new Object();
+    eventDispatcher.register(subscriber);
+    eventDispatcher.dispatchEvent("event");
+
+    verify(first).register(subscriber);
+    verify(second).register(subscriber);
+    verify(first).dispatchEvent("event");
+    verify(second).dispatchEvent("event");
+  }
+
+  @Test
+  public void testSlowChildDoesNotDelayOthers() throws InterruptedException {
+    final CompositeEventDispatcher eventDispatcher = new CompositeEventDispatcher(mExecutor, 16, CompositeEventDispatcher.OverflowPolicy.BLOCK);
+    final BlockingEventDispatcher slow = new BlockingEventDispatcher();
+    final RecordingEventDispatcher fast = new RecordingEventDispatcher();
+    eventDispatcher.addEventDispatcher(slow);
+    eventDispatcher.addEventDispatcher(fast);
+
+    for (int i = 0; i < 10; i++) {
+      eventDispatcher.dispatchEvent(i);
+    }
+    assertThat(slow.mBlocked.await(5, TimeUnit.SECONDS), is(true));
+    awaitSize(fast, 10);
+    assertThat(slow.mEvents.size(), is(0));
+
+    slow.mRelease.countDown();
+    awaitSize(slow, 10);
+    for (int i = 0; i < 10; i++) {
+      assertThat(slow.mEvents.get(i), is((Object) i));
+      assertThat(fast.mEvents.get(i), is((Object) i));
+    }
+  }
+
+  @Test
+  public void testDropNewestKeepsOldestEvents() throws InterruptedException {
+    final CompositeEventDispatcher eventDispatcher = new CompositeEventDispatcher(mExecutor, 2, CompositeEventDispatcher.OverflowPolicy.DROP_NEWEST);
+    final BlockingEventDispatcher slow = new BlockingEventDispatcher();
+    eventDispatcher.addEventDispatcher(slow);
+
+    eventDispatcher.dispatchEvent(0);
+    assertThat(slow.mBlocked.await(5, TimeUnit.SECONDS), is(true));
+    for (int i = 1; i <= 4; i++) {
+      eventDispatcher.dispatchEvent(i);
+    }
+    slow.mRelease.countDown();
+
+    awaitSize(slow, 3);
+    assertThat(slow.mEvents, is((List<Object>) Lists.<Object>newArrayList(0, 1, 2)));
+    assertThat(eventDispatcher.getDroppedEventCount(), is(2L));
+  }
+
+  @Test
+  public void testDropOldestKeepsNewestEvents() throws InterruptedException {
+    final CompositeEventDispatcher eventDispatcher = new CompositeEventDispatcher(mExecutor, 2, CompositeEventDispatcher.OverflowPolicy.DROP_OLDEST);
+    final BlockingEventDispatcher slow = new BlockingEventDispatcher();
+    eventDispatcher.addEventDispatcher(slow);
+
+    eventDispatcher.dispatchEvent(0);
+    assertThat(slow.mBlocked.await(5, TimeUnit.SECONDS), is(true));
+    for (int i = 1; i <= 4; i++) {
+      eventDispatcher.dispatchEvent(i);
+    }
+    slow.mRelease.countDown();
+
+    awaitSize(slow, 3);
+    assertThat(slow.mEvents, is((List<Object>) Lists.<Object>newArrayList(0, 3, 4)));
+    assertThat(eventDispatcher.getDroppedEventCount(), is(2L));
+  }
+
+  @Test
+  public void testChildAddedWhilstDispatching() throws InterruptedException {
+    final CompositeEventDispatcher eventDispatcher = new CompositeEventDispatcher(MoreExecutors.sameThreadExecutor(), 16, CompositeEventDispatcher.OverflowPolicy.BLOCK);
+    final RecordingEventDispatcher first = new RecordingEventDispatcher();
+    eventDispatcher.addEventDispatcher(first);
+
+    final Thread dispatcher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 10000; i++) {
+          eventDispatcher.dispatchEvent(i);
+        }
+      }
+    });
+    dispatcher.start();
+    final RecordingEventDispatcher second = new RecordingEventDispatcher();
+    eventDispatcher.addEventDispatcher(second);
+    dispatcher.join();
+
+    assertThat(first.mEvents.size(), is(10000));
+  }
+
+  private static void awaitSize(final RecordingEventDispatcher eventDispatcher, final int size) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (eventDispatcher.mEvents.size() < size && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    // Allow any excess events to arrive, so that they would fail the assertions.
+    Thread.sleep(10);
+    assertThat(eventDispatcher.mEvents.size(), is(size));
+  }
+}
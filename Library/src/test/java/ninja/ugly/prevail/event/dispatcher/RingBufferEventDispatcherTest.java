@@ -0,0 +1,265 @@
+package ninja.ugly.prevail.event.dispatcher;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+
+public class RingBufferEventDispatcherTest {
+
+  private static final ThreadFactory THREAD_FACTORY = new ThreadFactoryBuilder().setDaemon(true).build();
+
+  private final RecordingEventDispatcher mRecorder = new RecordingEventDispatcher();
+  private RingBufferEventDispatcher mEventDispatcher;
+
+  private static class RecordingEventDispatcher implements EventDispatcher {
+    private final List<Object> mEvents = Collections.synchronizedList(Lists.newArrayList());
+
+    @Override
+    public void dispatchEvent(final Object event) {
+      mEvents.add(event);
+    }
+
+    @Override
+    public void register(final Object subscriber) {
+    }
+
+    @Override
+    public void unregister(final Object subscriber) {
+    }
+  }
+
+  @After
+  public void tearDown() {
+    if (mEventDispatcher != null) {
+      mEventDispatcher.close();
+    }
+  }
+
+  @Test
+  public void testEventsDeliveredInOrder() {
+    mEventDispatcher = new RingBufferEventDispatcher(mRecorder, 16, new RingBufferEventDispatcher.WaitStrategy.BlockingWaitStrategy(), THREAD_FACTORY);
+    for (int i = 0; i < 1000; i++) {
+      mEventDispatcher.dispatchEvent(i);
+    }
+    mEventDispatcher.close();
+
+    assertThat(mRecorder.mEvents.size(), is(1000));
+    for (int i = 0; i < 1000; i++) {
+      assertThat(mRecorder.mEvents.get(i), is((Object) i));
+    }
+  }
+
+  @Test
+  public void testEachEventDeliveredWithoutFurtherEvents() throws InterruptedException {
+    mEventDispatcher = new RingBufferEventDispatcher(mRecorder, 16, new RingBufferEventDispatcher.WaitStrategy.BlockingWaitStrategy(), THREAD_FACTORY);
+    for (int i = 0; i < 2000; i++) {
+      mEventDispatcher.dispatchEvent(i);
+      // A lost wakeup would leave the consumer blocked, with the event undelivered, until the next event.
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+      while (mRecorder.mEvents.size() <= i) {
+        assertThat("event " + i + " delivered", System.nanoTime() < deadline, is(true));
+        Thread.sleep(0, 1000);
+      }
+    }
+  }
+
+  @Test
+  public void testRegistrationsOrderedWithEvents() {
+    final EventDispatcher delegate = mock(EventDispatcher.class);
+    final Object subscriber = new Object();
+    mEventDispatcher = new RingBufferEventDispatcher(delegate);
+
+    mEventDispatcher.register(subscriber);
+    mEventDispatcher.dispatchEvent("event");
+    mEventDispatcher.unregister(subscriber);
+    mEventDispatcher.close();
+
+    final InOrder inOrder = inOrder(delegate);
+    inOrder.verify(delegate).register(subscriber);
+    inOrder.verify(delegate).dispatchEvent("event");
+    inOrder.verify(delegate).unregister(subscriber);
+  }
+
+  @Test
+  public void testPerProducerOrderingWithManyProducers() throws InterruptedException {
+    testPerProducerOrdering(new RingBufferEventDispatcher.WaitStrategy.BlockingWaitStrategy());
+  }
+
+  @Test
+  public void testPerProducerOrderingWithSleepingWaitStrategy() throws InterruptedException {
+    testPerProducerOrdering(new RingBufferEventDispatcher.WaitStrategy.SleepingWaitStrategy());
+  }
+
+  @Test
+  public void testPerProducerOrderingWithYieldingWaitStrategy() throws InterruptedException {
+    testPerProducerOrdering(new RingBufferEventDispatcher.WaitStrategy.YieldingWaitStrategy());
+  }
+
+  private void testPerProducerOrdering(final RingBufferEventDispatcher.WaitStrategy waitStrategy) throws InterruptedException {
+    final int producers = 4;
+    final int eventsPerProducer = 20000;
+    mEventDispatcher = new RingBufferEventDispatcher(mRecorder, 64, waitStrategy, THREAD_FACTORY);
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Thread> threads = Lists.newArrayList();
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      final Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < eventsPerProducer; i++) {
+            mEventDispatcher.dispatchEvent(new int[] {producer, i});
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    mEventDispatcher.close();
+
+    assertThat(mRecorder.mEvents.size(), is(producers * eventsPerProducer));
+    final int[] next = new int[producers];
+    for (Object event : mRecorder.mEvents) {
+      final int[] pair = (int[]) event;
+      assertThat(pair[1], is(next[pair[0]]));
+      next[pair[0]]++;
+    }
+  }
+
+  @Test
+  public void testFailingDelegateDoesNotStopDelivery() {
+    final List<Object> delivered = Collections.synchronizedList(Lists.newArrayList());
+    final ThreadFactory quietThreadFactory = new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+          @Override
+          public void uncaughtException(final Thread t, final Throwable e) {
+            // Expected.
+          }
+        })
+        .build();
+    mEventDispatcher = new RingBufferEventDispatcher(new RecordingEventDispatcher() {
+      @Override
+      public void dispatchEvent(final Object event) {
+        if ("fail".equals(event)) {
+          throw new RuntimeException();
+        }
+        delivered.add(event);
+      }
+    }, 16, new RingBufferEventDispatcher.WaitStrategy.BlockingWaitStrategy(), quietThreadFactory);
+
+    mEventDispatcher.dispatchEvent("fail");
+    mEventDispatcher.dispatchEvent("event");
+    mEventDispatcher.close();
+
+    assertThat(delivered.size(), is(1));
+    assertThat(delivered.get(0), is((Object) "event"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testDispatchAfterCloseThrows() {
+    mEventDispatcher = new RingBufferEventDispatcher(mRecorder);
+    mEventDispatcher.close();
+    mEventDispatcher.dispatchEvent("event");
+  }
+
+  @Test
+  public void testDispatchConcurrentWithCloseIsDeliveredOrThrows() throws InterruptedException {
+    for (int round = 0; round < 50; round++) {
+      final RecordingEventDispatcher recorder = new RecordingEventDispatcher();
+      final RingBufferEventDispatcher eventDispatcher = new RingBufferEventDispatcher(recorder, 16, new RingBufferEventDispatcher.WaitStrategy.BlockingWaitStrategy(), THREAD_FACTORY);
+      final AtomicInteger accepted = new AtomicInteger();
+      final List<Thread> threads = Lists.newArrayList();
+      for (int p = 0; p < 4; p++) {
+        final Thread thread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              for (;;) {
+                eventDispatcher.dispatchEvent("event");
+                accepted.incrementAndGet();
+              }
+            } catch (IllegalStateException e) {
+              // Closed.
+            }
+          }
+        });
+        thread.start();
+        threads.add(thread);
+      }
+      Thread.sleep(1);
+      eventDispatcher.close();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+
+      assertThat(recorder.mEvents.size(), is(accepted.get()));
+    }
+  }
+
+  @Test
+  public void testHasSubscriberWhilstRegistrationPending() {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    mEventDispatcher = new RingBufferEventDispatcher(new SubscriberAwareEventDispatcher() {
+      @Override
+      public void dispatchEvent(final Object event) {
+        blocked.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      @Override
+      public void register(final Object subscriber) {
+      }
+
+      @Override
+      public void unregister(final Object subscriber) {
+      }
+
+      @Override
+      public boolean hasSubscriberFor(final Class<?> eventClass) {
+        return false;
+      }
+    });
+
+    assertThat(mEventDispatcher.hasSubscriberFor(String.class), is(false));
+    mEventDispatcher.dispatchEvent("block");
+    try {
+      blocked.await();
+      mEventDispatcher.register(new Object());
+      assertThat(mEventDispatcher.hasSubscriberFor(String.class), is(true));
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    } finally {
+      release.countDown();
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package ninja.ugly.prevail.event.dispatcher;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.DeadEvent;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import ninja.ugly.prevail.chunk.VolatileChunk;
+import ninja.ugly.prevail.event.DatabaseInsertEndEvent;
+import ninja.ugly.prevail.event.DatabaseInsertEvent;
+import ninja.ugly.prevail.event.Event;
+import ninja.ugly.prevail.event.InsertEndEvent;
+import ninja.ugly.prevail.event.InsertEvent;
+import ninja.ugly.prevail.event.QueryEndEvent;
+import ninja.ugly.prevail.event.factory.InsertEndEventFactory;
+import ninja.ugly.prevail.exception.InsertException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class SubscriberAwareEventDispatcherTest {
+
+  private final EventBusEventDispatcher mEventDispatcher = new EventBusEventDispatcher();
+
+  public static class InsertEventSubscriber {
+    private final List<InsertEvent> mEvents = Lists.newArrayList();
+
+    @Subscribe
+    public void onInsertEvent(final InsertEvent event) {
+      mEvents.add(event);
+    }
+  }
+
+  public static class DatabaseInsertEventSubscriber {
+    private final List<DatabaseInsertEvent> mEvents = Lists.newArrayList();
+
+    @Subscribe
+    public void onDatabaseInsertEvent(final DatabaseInsertEvent event) {
+      mEvents.add(event);
+    }
+  }
+
+  public static class DeadEventSubscriber {
+    @Subscribe
+    public void onDeadEvent(final DeadEvent event) {
+      // Do nothing.
+    }
+  }
+
+  @Test
+  public void testEventBusEventDispatcherWithoutSubscribersHasNoSubscriber() {
+    assertThat(mEventDispatcher.hasSubscriberFor(InsertEndEvent.class), is(false));
+  }
+
+  @Test
+  public void testEventBusEventDispatcherHasSubscriberForSubclassOfSubscribedEvent() {
+    mEventDispatcher.register(new InsertEventSubscriber());
+    assertThat(mEventDispatcher.hasSubscriberFor(InsertEndEvent.class), is(true));
+    assertThat(mEventDispatcher.hasSubscriberFor(QueryEndEvent.class), is(false));
+  }
+
+  @Test
+  public void testEventBusEventDispatcherHasNoSubscriberAfterUnregister() {
+    final InsertEventSubscriber subscriber = new InsertEventSubscriber();
+    mEventDispatcher.register(subscriber);
+    assertThat(mEventDispatcher.hasSubscriberFor(InsertEndEvent.class), is(true));
+    mEventDispatcher.unregister(subscriber);
+    assertThat(mEventDispatcher.hasSubscriberFor(InsertEndEvent.class), is(false));
+  }
+
+  @Test
+  public void testEventBusEventDispatcherWithDeadEventSubscriberHasSubscriberForAll() {
+    mEventDispatcher.register(new DeadEventSubscriber());
+    assertThat(mEventDispatcher.hasSubscriberFor(QueryEndEvent.class), is(true));
+  }
+
+  @Test
+  public void testEventBusEventDispatcherWrappingEventBusAlwaysHasSubscriber() {
+    assertThat(new EventBusEventDispatcher(new EventBus()).hasSubscriberFor(InsertEndEvent.class), is(true));
+  }
+
+  @Test
+  public void testExecutorEventDispatcherHasSubscriberWhilstRegistrationPending() {
+    final Executor executor = mock(Executor.class);
+    final ExecutorEventDispatcher eventDispatcher = new ExecutorEventDispatcher(mEventDispatcher, executor);
+    assertThat(eventDispatcher.hasSubscriberFor(InsertEndEvent.class), is(false));
+    eventDispatcher.register(new InsertEventSubscriber());
+    assertThat(eventDispatcher.hasSubscriberFor(QueryEndEvent.class), is(true));
+  }
+
+  @Test
+  public void testCompositeEventDispatcherWithUnawareChildHasSubscriber() {
+    final CompositeEventDispatcher eventDispatcher = new CompositeEventDispatcher();
+    eventDispatcher.addEventDispatcher(mEventDispatcher);
+    assertThat(eventDispatcher.hasSubscriberFor(InsertEndEvent.class), is(false));
+    eventDispatcher.addEventDispatcher(mock(EventDispatcher.class));
+    assertThat(eventDispatcher.hasSubscriberFor(InsertEndEvent.class), is(true));
+  }
+
+  @Test
+  public void testChunkDoesNotConstructEventWithoutSubscriber() throws Exception {
+    final VolatileChunk<String, String> chunk = new VolatileChunk<>(new VolatileChunk.KeyFactory.AutoIncrementingStringKeyFactory<String>());
+    final CountingInsertEndEventFactory eventFactory = new CountingInsertEndEventFactory();
+    chunk.setEventDispatcher(mEventDispatcher);
+    chunk.insert("value", eventFactory);
+    assertThat(eventFactory.mEndEvents, is(0));
+  }
+
+  @Test
+  public void testInsertEndEventFactoryDeclaresEndEventClass() {
+    assertThat(new InsertEndEventFactory<String, String>().getEndEventClass(), is((Object) InsertEndEvent.class));
+  }
+
+  @Test
+  public void testInsertEndEventFactoryDeclaresNoProgressEvents() {
+    assertThat(new InsertEndEventFactory<String, String>().getProgressEventClass(), is((Object) Void.class));
+  }
+
+  @Test
+  public void testChunkDispatchesProgressEventOfSubclassedEventFactory() throws Exception {
+    final VolatileChunk<String, String> chunk = new VolatileChunk<String, String>(new VolatileChunk.KeyFactory.AutoIncrementingStringKeyFactory<String>()) {
+      @Override
+      protected String doInsert(final String value, final OnProgressUpdateListener onProgressUpdateListener) throws InsertException {
+        onProgressUpdateListener.onProgressUpdate(0.5);
+        return super.doInsert(value, onProgressUpdateListener);
+      }
+    };
+    final EventDispatcher eventDispatcher = mock(EventDispatcher.class);
+    chunk.setEventDispatcher(eventDispatcher);
+    final Event progressEvent = mock(Event.class);
+    chunk.insert("value", new InsertEndEventFactory<String, String>() {
+      @Override
+      public <E extends Event> Optional<E> progressEvent(final String value, final double progress) {
+        return (Optional<E>) Optional.of(progressEvent);
+      }
+    });
+    verify(eventDispatcher).dispatchEvent(progressEvent);
+  }
+
+  @Test
+  public void testChunkDispatchesNarrowerEventOfSubclassedEventFactoryToSubscriber() throws Exception {
+    final VolatileChunk<String, String> chunk = new VolatileChunk<>(new VolatileChunk.KeyFactory.AutoIncrementingStringKeyFactory<String>());
+    final DatabaseInsertEventSubscriber subscriber = new DatabaseInsertEventSubscriber();
+    mEventDispatcher.register(subscriber);
+    chunk.setEventDispatcher(mEventDispatcher);
+    chunk.insert("value", new InsertEndEventFactory<String, String>() {
+      @Override
+      public <E extends Event> Optional<E> endEvent(final String key, final String value) {
+        return (Optional<E>) Optional.of(new DatabaseInsertEndEvent<>(key, value));
+      }
+    });
+    assertThat(subscriber.mEvents, hasSize(1));
+  }
+
+  @Test
+  public void testChunkDispatchesEventToSubscriber() throws Exception {
+    final VolatileChunk<String, String> chunk = new VolatileChunk<>(new VolatileChunk.KeyFactory.AutoIncrementingStringKeyFactory<String>());
+    final InsertEventSubscriber subscriber = new InsertEventSubscriber();
+    mEventDispatcher.register(subscriber);
+    chunk.setEventDispatcher(mEventDispatcher);
+    chunk.insert("value", new InsertEndEventFactory<String, String>());
+    assertThat(subscriber.mEvents, hasSize(1));
+  }
+
+  /**
+   * An InsertEndEventFactory that counts the end events it constructs.  It generates the same events as its
+   * superclass, and so declares the same end event class.
+   */
+  private static class CountingInsertEndEventFactory extends InsertEndEventFactory<String, String> {
+    private int mEndEvents = 0;
+
+    @Override
+    public <E extends Event> Optional<E> endEvent(final String key, final String value) {
+      mEndEvents++;
+      return super.endEvent(key, value);
+    }
+
+    @Override
+    public Class<?> getEndEventClass() {
+      return InsertEndEvent.class;
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package ninja.ugly.prevail.event.dispatcher;
+
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.DeadEvent;
+import com.google.common.eventbus.Subscribe;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import ninja.ugly.prevail.chunk.QueryResult;
+import ninja.ugly.prevail.event.EndEvent;
+import ninja.ugly.prevail.event.Event;
+import ninja.ugly.prevail.event.InsertEndEvent;
+import ninja.ugly.prevail.event.QueryEndEvent;
+import ninja.ugly.prevail.event.QueryEvent;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class TypeIndexedEventDispatcherTest {
+
+  private final TypeIndexedEventDispatcher mEventDispatcher = new TypeIndexedEventDispatcher();
+  private final QueryEndEvent<String, String> mEvent = new QueryEndEvent<String, String>("key", new QueryResult.EmptyQueryResult<String>());
+
+  public static class RecordingSubscriber {
+    final List<Object> mEvents = Lists.newArrayList();
+
+    @Subscribe
+    public void onEvent(final Event event) {
+      mEvents.add(event);
+    }
+
+    @Subscribe
+    public void onQueryEvent(final QueryEvent event) {
+      mEvents.add(event);
+    }
+
+    @Subscribe
+    public void onEndEvent(final EndEvent event) {
+      mEvents.add(event);
+    }
+
+    @Subscribe
+    public void onInsertEndEvent(final InsertEndEvent event) {
+      mEvents.add(event);
+    }
+
+    public void onNotSubscribed(final QueryEndEvent event) {
+      mEvents.add(event);
+    }
+  }
+
+  public static class DeadEventSubscriber {
+    final List<Object> mEvents = Lists.newArrayList();
+
+    @Subscribe
+    public void onDeadEvent(final DeadEvent event) {
+      mEvents.add(event.getEvent());
+    }
+  }
+
+  public static class ThrowingSubscriber {
+    @Subscribe
+    public void onEvent(final Event event) {
+      throw new RuntimeException("Expected");
+    }
+  }
+
+  public static class InvalidSubscriber {
+    @Subscribe
+    public void onEvents(final Event first, final Event second) {
+    }
+  }
+
+  @Test
+  public void testEventDeliveredToEverySupertypeSubscriberMethod() {
+    final RecordingSubscriber subscriber = new RecordingSubscriber();
+    mEventDispatcher.register(subscriber);
+
+    mEventDispatcher.dispatchEvent(mEvent);
+
+    assertThat(subscriber.mEvents.size(), is(3));
+    for (Object event : subscriber.mEvents) {
+      assertThat(event, sameInstance((Object) mEvent));
+    }
+  }
+
+  @Test
+  public void testRegisterTwiceDeliversOnce() {
+    final RecordingSubscriber subscriber = new RecordingSubscriber();
+    mEventDispatcher.register(subscriber);
+    mEventDispatcher.register(subscriber);
+
+    mEventDispatcher.dispatchEvent(mEvent);
+
+    assertThat(subscriber.mEvents.size(), is(3));
+  }
+
+  @Test
+  public void testUnregisteredSubscriberReceivesNothing() {
+    final RecordingSubscriber subscriber = new RecordingSubscriber();
+    mEventDispatcher.register(subscriber);
+    mEventDispatcher.dispatchEvent(mEvent);
+    mEventDispatcher.unregister(subscriber);
+
+    mEventDispatcher.dispatchEvent(mEvent);
+
+    assertThat(subscriber.mEvents.size(), is(3));
+  }
+
+  @Test
+  public void testEventWithoutSubscribersDispatchedAsDeadEvent() {
+    final DeadEventSubscriber subscriber = new DeadEventSubscriber();
+    mEventDispatcher.register(subscriber);
+
+    mEventDispatcher.dispatchEvent(mEvent);
+
+    assertThat(subscriber.mEvents.size(), is(1));
+    assertThat(subscriber.mEvents.get(0), sameInstance((Object) mEvent));
+  }
+
+  @Test
+  public void testHandlerReceivesEventsOfSubclasses() {
+    final List<QueryEvent> events = Lists.newArrayList();
+    final TypeIndexedEventDispatcher.Handler<QueryEvent> handler = new TypeIndexedEventDispatcher.Handler<QueryEvent>() {
+      @Override
+      public void handle(final QueryEvent event) {
+        events.add(event);
+      }
+    };
+    mEventDispatcher.addHandler(QueryEvent.class, handler);
+
+    mEventDispatcher.dispatchEvent(mEvent);
+    mEventDispatcher.dispatchEvent("not a query event");
+    mEventDispatcher.removeHandler(handler);
+    mEventDispatcher.dispatchEvent(mEvent);
+
+    assertThat(events.size(), is(1));
+    assertThat(events.get(0), sameInstance((QueryEvent) mEvent));
+  }
+
+  @Test
+  public void testThrowingSubscriberDoesNotStopDelivery() {
+    final RecordingSubscriber subscriber = new RecordingSubscriber();
+    mEventDispatcher.register(new ThrowingSubscriber());
+    mEventDispatcher.register(subscriber);
+
+    mEventDispatcher.dispatchEvent(mEvent);
+
+    assertThat(subscriber.mEvents.size(), is(3));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSubscriberMethodWithTwoArgumentsRejected() {
+    mEventDispatcher.register(new InvalidSubscriber());
+  }
+
+  @Test
+  public void testHasSubscriberFor() {
+    assertThat(mEventDispatcher.hasSubscriberFor(QueryEndEvent.class), is(false));
+
+    final RecordingSubscriber subscriber = new RecordingSubscriber();
+    mEventDispatcher.register(subscriber);
+    assertThat(mEventDispatcher.hasSubscriberFor(QueryEndEvent.class), is(true));
+    assertThat(mEventDispatcher.hasSubscriberFor(String.class), is(false));
+
+    mEventDispatcher.unregister(subscriber);
+    assertThat(mEventDispatcher.hasSubscriberFor(QueryEndEvent.class), is(false));
+
+    mEventDispatcher.register(new DeadEventSubscriber());
+    assertThat(mEventDispatcher.hasSubscriberFor(String.class), is(true));
+  }
+}
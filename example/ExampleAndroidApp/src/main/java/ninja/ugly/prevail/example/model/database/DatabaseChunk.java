@@ -1,18 +1,27 @@
 package ninja.ugly.prevail.example.model.database;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import com.google.common.base.Function;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Range;
 import ninja.ugly.prevail.chunk.DefaultChunk;
+import ninja.ugly.prevail.chunk.Query;
 import ninja.ugly.prevail.chunk.QueryResult;
+import ninja.ugly.prevail.chunk.RandomAccessQueryResult;
 import ninja.ugly.prevail.example.model.domain.TodoItem;
 import ninja.ugly.prevail.exception.DeleteException;
 import ninja.ugly.prevail.exception.InsertException;
 import ninja.ugly.prevail.exception.QueryException;
 import ninja.ugly.prevail.exception.UpdateException;
-import nl.qbusict.cupboard.QueryResultIterable;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 import static ninja.ugly.prevail.chunk.QueryResult.EmptyQueryResult;
 import static nl.qbusict.cupboard.CupboardFactory.cupboard;
@@ -25,9 +34,36 @@ import static nl.qbusict.cupboard.CupboardFactory.cupboard;
  *   <li>"[long id]" to address a particular TodoItem, and</li>
  *   <li>"*" to address all TodoItems.</li>
  * </ol>
+ * <p>
+ * A Query may also be given as the key.  Criteria on the ID and NAME Attributes, and the offset and limit,
+ * are pushed down to the database as a WHERE and LIMIT clause.  Any other Criteria are applied by DefaultChunk.
  */
 public class DatabaseChunk extends DefaultChunk<String, TodoItem> {
 
+  public static final Query.Attribute<TodoItem, Long> ID = Query.Attribute.of("_id", new Function<TodoItem, Long>() {
+    @Override
+    public Long apply(final TodoItem item) {
+      return item.getId();
+    }
+  });
+
+  public static final Query.Attribute<TodoItem, String> NAME = Query.Attribute.of("mName", new Function<TodoItem, String>() {
+    @Override
+    public String apply(final TodoItem item) {
+      return item.getName();
+    }
+  });
+
+  public static final Query.Attribute<TodoItem, Boolean> COMPLETE = Query.Attribute.of("mComplete", new Function<TodoItem, Boolean>() {
+    @Override
+    public Boolean apply(final TodoItem item) {
+      return item.isComplete();
+    }
+  });
+
+  // The Attributes whose names are columns that compare as their values do.  Booleans are stored as integers.
+  private static final Set<Query.Attribute<TodoItem, ?>> COLUMNS = ImmutableSet.<Query.Attribute<TodoItem, ?>>of(ID, NAME);
+
   final SQLiteDatabase mDatabase;
 
   @Override
@@ -35,6 +71,24 @@ public class DatabaseChunk extends DefaultChunk<String, TodoItem> {
     return Long.toString(cupboard().withDatabase(mDatabase).put(value));
   }
 
+  /**
+   * Insert all TodoItems in a single transaction, rather than a transaction per item.
+   */
+  @Override
+  protected List<String> doInsertAll(final List<TodoItem> values, OnProgressUpdateListener onProgressUpdateListener) throws InsertException {
+    final List<String> keys = new ArrayList<String>(values.size());
+    mDatabase.beginTransaction();
+    try {
+      for (TodoItem value : values) {
+        keys.add(Long.toString(cupboard().withDatabase(mDatabase).put(value)));
+      }
+      mDatabase.setTransactionSuccessful();
+    } finally {
+      mDatabase.endTransaction();
+    }
+    return keys;
+  }
+
   @Override
   protected QueryResult doQuery(final String queryString, OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
     QueryResult<TodoItem> result;
@@ -48,8 +102,8 @@ public class DatabaseChunk extends DefaultChunk<String, TodoItem> {
       }
     } catch (NumberFormatException e) {
       if ("*".equals(queryString)) {
-        final QueryResultIterable<TodoItem> items = cupboard().withDatabase(mDatabase).query(TodoItem.class).query();
-        result = new CupboardQueryResult<TodoItem>(items);
+        final Cursor cursor = cupboard().withDatabase(mDatabase).query(TodoItem.class).getCursor();
+        result = new CupboardQueryResult<TodoItem>(cursor, TodoItem.class);
       } else {
         result = new EmptyQueryResult<TodoItem>();
       }
@@ -57,6 +111,94 @@ public class DatabaseChunk extends DefaultChunk<String, TodoItem> {
     return result;
   }
 
+  /**
+   * Query a page of all TodoItems, in order of id.  Only "*" is paged, since other keys address one TodoItem.
+   */
+  @Override
+  protected List<TodoItem> doQueryPage(final String queryString, final int offset, final int limit) throws QueryException {
+    if (!"*".equals(queryString)) {
+      return null;
+    }
+    final Cursor cursor = mDatabase.query(cupboard().getTable(TodoItem.class), null, null, null, null, null, "_id", offset + "," + limit);
+    try {
+      return cupboard().withCursor(cursor).list(TodoItem.class);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  @Override
+  protected boolean canPushDown(final Query.Criterion<TodoItem> criterion) {
+    if (criterion instanceof Query.EqualTo) {
+      return COLUMNS.contains(((Query.EqualTo<TodoItem, ?>) criterion).getAttribute());
+    } else if (criterion instanceof Query.In) {
+      return COLUMNS.contains(((Query.In<TodoItem, ?>) criterion).getAttribute());
+    } else if (criterion instanceof Query.InRange) {
+      return COLUMNS.contains(((Query.InRange<TodoItem, ?>) criterion).getAttribute());
+    }
+    return false;
+  }
+
+  @Override
+  protected boolean canPushDownPaging() {
+    return true;
+  }
+
+  /**
+   * Query the TodoItems meeting the given Query, in order of id, with a single database query.
+   */
+  @Override
+  protected QueryResult<TodoItem> doQueryWhere(final Query<TodoItem> query, OnProgressUpdateListener onProgressUpdateListener) throws QueryException {
+    final StringBuilder selection = new StringBuilder();
+    final List<String> selectionArgs = new ArrayList<String>();
+    for (Query.Criterion<TodoItem> criterion : query.getCriteria()) {
+      if (selection.length() > 0) {
+        selection.append(" AND ");
+      }
+      appendSelection(selection, selectionArgs, criterion);
+    }
+    final String limit = query.isPaged() ? query.getOffset() + "," + query.getLimit() : null;
+    final Cursor cursor = mDatabase.query(cupboard().getTable(TodoItem.class), null,
+        selection.length() == 0 ? null : selection.toString(), selectionArgs.toArray(new String[selectionArgs.size()]),
+        null, null, "_id", limit);
+    return new CupboardQueryResult<TodoItem>(cursor, TodoItem.class);
+  }
+
+  private static void appendSelection(final StringBuilder selection, final List<String> selectionArgs, final Query.Criterion<TodoItem> criterion) {
+    if (criterion instanceof Query.EqualTo) {
+      final Query.EqualTo<TodoItem, ?> equalTo = (Query.EqualTo<TodoItem, ?>) criterion;
+      if (equalTo.getValue() == null) {
+        selection.append(equalTo.getAttribute().getName()).append(" IS NULL");
+      } else {
+        selection.append(equalTo.getAttribute().getName()).append(" = ?");
+        selectionArgs.add(equalTo.getValue().toString());
+      }
+    } else if (criterion instanceof Query.In) {
+      final Query.In<TodoItem, ?> in = (Query.In<TodoItem, ?>) criterion;
+      selection.append(in.getAttribute().getName()).append(" IN (");
+      String separator = "";
+      for (Object value : in.getValues()) {
+        selection.append(separator).append('?');
+        selectionArgs.add(value.toString());
+        separator = ", ";
+      }
+      selection.append(')');
+    } else {
+      final Query.InRange<TodoItem, ?> inRange = (Query.InRange<TodoItem, ?>) criterion;
+      final Range<?> range = inRange.getRange();
+      final String column = inRange.getAttribute().getName();
+      selection.append(column).append(" IS NOT NULL");
+      if (range.hasLowerBound()) {
+        selection.append(" AND ").append(column).append(range.lowerBoundType() == BoundType.CLOSED ? " >= ?" : " > ?");
+        selectionArgs.add(range.lowerEndpoint().toString());
+      }
+      if (range.hasUpperBound()) {
+        selection.append(" AND ").append(column).append(range.upperBoundType() == BoundType.CLOSED ? " <= ?" : " < ?");
+        selectionArgs.add(range.upperEndpoint().toString());
+      }
+    }
+  }
+
   @Override
   protected int doUpdate(final String key, final TodoItem value, OnProgressUpdateListener onProgressUpdateListener) throws UpdateException {
     try {
@@ -94,29 +236,44 @@ public class DatabaseChunk extends DefaultChunk<String, TodoItem> {
     mDatabase.close();
   }
 
-  private static class CupboardQueryResult<T> implements QueryResult<T> {
-    private QueryResultIterable<T> mItems;
-    private boolean mClosed = false;
+  /**
+   * A QueryResult over a Cursor of entities, sized by the count of the Cursor.
+   */
+  private static class CupboardQueryResult<T> implements RandomAccessQueryResult<T> {
+    private final Cursor mCursor;
+    private final Class<T> mEntityClass;
 
-    private CupboardQueryResult(final QueryResultIterable<T> items) {
-      mItems = items;
+    private CupboardQueryResult(final Cursor cursor, final Class<T> entityClass) {
+      mCursor = cursor;
+      mEntityClass = entityClass;
     }
 
     @Override
     public void close() throws IOException {
-      mItems.close();
-      mClosed = true;
+      mCursor.close();
     }
 
     @Override
     public boolean isClosed() {
-      return mClosed;
+      return mCursor.isClosed();
     }
 
     @Override
-    public Iterator<T> iterator() {
-      return mItems.iterator();
+    public int size() {
+      return mCursor.getCount();
+    }
+
+    @Override
+    public T get(final int index) {
+      if (!mCursor.moveToPosition(index)) {
+        throw new IndexOutOfBoundsException("index " + index + " out of range for size " + mCursor.getCount());
+      }
+      return cupboard().withCursor(mCursor).get(mEntityClass);
     }
 
+    @Override
+    public Iterator<T> iterator() {
+      return cupboard().withCursor(mCursor).iterate(mEntityClass).iterator();
+    }
   }
 }
@@ -8,11 +8,10 @@ import ninja.ugly.prevail.example.model.domain.TodoItem;
 import ninja.ugly.prevail.example.ui.adapter.TodoListAdapter;
 
 import java.util.ArrayList;
-import java.util.List;
 
 public abstract class TodoListController extends DataModelSubscriberController implements View.OnClickListener, CompoundButton.OnCheckedChangeListener {
 
-  private final List<TodoItem> mItems = new ArrayList<TodoItem>();
+  private final ArrayList<TodoItem> mItems = new ArrayList<TodoItem>();
   private final ListView mListView;
 
   public TodoListController(final ListView listView) {
@@ -22,7 +21,7 @@ public abstract class TodoListController extends DataModelSubscriberController i
     mListView.setTranscriptMode(ListView.TRANSCRIPT_MODE_ALWAYS_SCROLL);
   }
 
-  List<TodoItem> getItems() {
+  ArrayList<TodoItem> getItems() {
     return mItems;
   }
 
@@ -9,12 +9,14 @@ import android.widget.ListView;
 import com.google.common.collect.Iterables;
 import com.google.common.eventbus.Subscribe;
 import ninja.ugly.prevail.chunk.QueryResult;
+import ninja.ugly.prevail.chunk.RandomAccessQueryResult;
+import ninja.ugly.prevail.chunk.SizedQueryResult;
 import ninja.ugly.prevail.datamodel.DataModel;
 import ninja.ugly.prevail.event.DataChangeEvent;
 import ninja.ugly.prevail.example.model.domain.TodoItem;
 import ninja.ugly.prevail.loader.ChunkLoader;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 
 import static ninja.ugly.prevail.example.ui.controller.DataModelController.DataModelServiceConnectionListener.*;
 
@@ -48,8 +50,22 @@ public class TodoListWithLoaderController extends TodoListController implements
 
   @Override
   public void onLoadFinished(final Loader<QueryResult<TodoItem>> loader, final QueryResult<TodoItem> data) {
-    getItems().clear();
-    getItems().addAll(Arrays.asList(Iterables.toArray(data, TodoItem.class)));
+    final ArrayList<TodoItem> items = getItems();
+    items.clear();
+    if (data instanceof RandomAccessQueryResult) {
+      // Read straight into a presized list, rather than copying the values to count them.
+      final RandomAccessQueryResult<TodoItem> result = (RandomAccessQueryResult<TodoItem>) data;
+      final int size = result.size();
+      items.ensureCapacity(size);
+      for (int i = 0; i < size; i++) {
+        items.add(result.get(i));
+      }
+    } else {
+      if (data instanceof SizedQueryResult) {
+        items.ensureCapacity(((SizedQueryResult<TodoItem>) data).size());
+      }
+      Iterables.addAll(items, data);
+    }
     ((ArrayAdapter<TodoItem>) getListView().getAdapter()).notifyDataSetChanged();
   }
 